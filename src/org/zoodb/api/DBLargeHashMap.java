@@ -0,0 +1,365 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.api;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.jdo.listener.DeleteCallback;
+
+import org.zoodb.api.impl.ZooPC;
+import org.zoodb.internal.util.DBLogger;
+
+/**
+ * A persistent map for large numbers of entries.
+ * <p>
+ * Unlike {@link DBHashMap}, which is stored as a single object, the entries of this map
+ * are stored in a B+-tree of persistent nodes ordered by the hash of the keys.
+ * {@code get()}, {@code put()} and {@code remove()} only load the nodes on the path
+ * to the entry, and only modified nodes are written during commit.
+ * <p>
+ * The hash of a key must be the same in every JVM. Therefore keys must either be
+ * persistent objects, which are hashed by their OID, enums, which are hashed by their name,
+ * or String, the wrappers of primitive types, BigInteger, BigDecimal or Date. Other key 
+ * types are rejected.
+ * <p>
+ * When the map is deleted, all its nodes are deleted as well. Keys and values are not
+ * deleted.
+ * <p>
+ * Warning: The iterators and the views returned by {@code entrySet()}, {@code keySet()} and
+ * {@code values()} are read-only. The map must not be modified during iteration.
+ * {@code equals()} and {@code hashCode()} are based on the identity of the map.
+ * <p>
+ * The schemata of this class and of its nodes are created when they are first needed, even if
+ * automatic schema creation is disabled.
+ *
+ * @author Tilmann Zaeschke
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+public class DBLargeHashMap<K, V> extends ZooPC implements Map<K, V>, DeleteCallback {
+
+	public static final int DEFAULT_NODE_SIZE = 64;
+
+	/** Key types other than persistent objects and enums, their hashCode() is specified. */
+	private static final Set<Class<?>> STABLE_HASH_TYPES = new HashSet<Class<?>>(Arrays.asList(
+			String.class, Boolean.class, Byte.class, Character.class, Short.class,
+			Integer.class, Long.class, Float.class, Double.class, BigInteger.class,
+			BigDecimal.class, Date.class));
+
+	private int nodeSize;
+	private int size;
+	private DBLargeHashMapNode root;
+
+	public DBLargeHashMap() {
+		this(DEFAULT_NODE_SIZE);
+	}
+
+	/**
+	 * @param nodeSize The maximum number of entries or children per node
+	 */
+	public DBLargeHashMap(int nodeSize) {
+		if (nodeSize < 4) {
+			throw new IllegalArgumentException("nodeSize must be at least 4: " + nodeSize);
+		}
+		this.nodeSize = nodeSize;
+		this.root = new DBLargeHashMapNode(nodeSize, true);
+	}
+
+	private static long hash(Object key) {
+		if (key == null) {
+			return 0;
+		}
+		if (key instanceof ZooPC) {
+			return ((ZooPC) key).jdoZooGetOid();
+		}
+		if (key instanceof Enum) {
+			return ((Enum<?>) key).name().hashCode();
+		}
+		if (!STABLE_HASH_TYPES.contains(key.getClass())) {
+			throw DBLogger.newUser("Unsupported key type, the hashCode() may differ " +
+					"between JVMs: " + key.getClass().getName());
+		}
+		return key.hashCode();
+	}
+
+	/**
+	 * @return {@code false} if the key can not be in the map.
+	 */
+	private static boolean isValidKey(Object key) {
+		return !(key instanceof ZooPC) || ((ZooPC) key).jdoZooIsPersistent();
+	}
+
+	/**
+	 * Delete all nodes of this map when the map is deleted.
+	 */
+	@Override
+	public void jdoPreDelete() {
+		//The map itself is already deleted and can not be activated anymore
+		if (root != null) {
+			root.deleteAll();
+		}
+	}
+
+	@Override
+	public void clear() {
+		zooActivateWrite();
+		root.deleteAll();
+		root = new DBLargeHashMapNode(nodeSize, true);
+		size = 0;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		zooActivateRead();
+		return isValidKey(key) && root.get(hash(key), key) != DBLargeHashMapNode.NOT_FOUND;
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		for (V v: values()) {
+			if (v == value || (v != null && v.equals(value))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V get(Object key) {
+		zooActivateRead();
+		if (!isValidKey(key)) {
+			return null;
+		}
+		Object v = root.get(hash(key), key);
+		return v == DBLargeHashMapNode.NOT_FOUND ? null : (V) v;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V put(K key, V value) {
+		zooActivateRead();
+		if (!isValidKey(key)) {
+			if (!jdoZooIsPersistent()) {
+				throw DBLogger.newUser("Persistent keys must be made persistent before they " +
+						"can be added to a transient map.");
+			}
+			jdoZooGetContext().getSession().makePersistent((ZooPC) key);
+		}
+		long h = hash(key);
+		Object prev = root.replace(h, key, value);
+		if (prev != DBLargeHashMapNode.NOT_FOUND) {
+			return (V) prev;
+		}
+		zooActivateWrite();
+		long[] splitHash = new long[1];
+		DBLargeHashMapNode sibling = root.insert(h, key, value, splitHash);
+		if (sibling != null) {
+			DBLargeHashMapNode newRoot = new DBLargeHashMapNode(nodeSize, false);
+			newRoot.initRoot(root, splitHash[0], sibling);
+			root = newRoot;
+		}
+		size++;
+		return null;
+	}
+
+	@Override
+	public void putAll(Map<? extends K, ? extends V> m) {
+		for (Map.Entry<? extends K, ? extends V> e: m.entrySet()) {
+			put(e.getKey(), e.getValue());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V remove(Object key) {
+		zooActivateRead();
+		if (!isValidKey(key)) {
+			return null;
+		}
+		Object prev = root.remove(hash(key), key);
+		if (prev == DBLargeHashMapNode.NOT_FOUND) {
+			return null;
+		}
+		zooActivateWrite();
+		size--;
+		//shrink the tree
+		while (!root.isLeaf() && root.size() <= 1) {
+			DBLargeHashMapNode oldRoot = root;
+			root = root.size() == 1 ? (DBLargeHashMapNode) root.getValue(0) :
+				new DBLargeHashMapNode(nodeSize, true);
+			oldRoot.delete();
+		}
+		return (V) prev;
+	}
+
+	@Override
+	public int size() {
+		zooActivateRead();
+		return size;
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new AbstractSet<Map.Entry<K, V>>() {
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator() {
+				return new EntryIterator();
+			}
+			@Override
+			public int size() {
+				return DBLargeHashMap.this.size();
+			}
+		};
+	}
+
+	@Override
+	public Set<K> keySet() {
+		return new AbstractSet<K>() {
+			@Override
+			public Iterator<K> iterator() {
+				final EntryIterator it = new EntryIterator();
+				return new Iterator<K>() {
+					@Override
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+					@Override
+					public K next() {
+						return it.next().getKey();
+					}
+				};
+			}
+			@Override
+			public int size() {
+				return DBLargeHashMap.this.size();
+			}
+			@Override
+			public boolean contains(Object o) {
+				return containsKey(o);
+			}
+		};
+	}
+
+	@Override
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				final EntryIterator it = new EntryIterator();
+				return new Iterator<V>() {
+					@Override
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+					@Override
+					public V next() {
+						return it.next().getValue();
+					}
+				};
+			}
+			@Override
+			public int size() {
+				return DBLargeHashMap.this.size();
+			}
+		};
+	}
+
+	/**
+	 * Iterates over the leaves of the tree. Nodes are loaded when the iterator reaches them.
+	 */
+	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+
+		private final ArrayList<DBLargeHashMapNode> nodes = new ArrayList<>();
+		private final ArrayList<Integer> positions = new ArrayList<>();
+		private DBLargeHashMapNode leaf;
+		private int pos;
+
+		EntryIterator() {
+			zooActivateRead();
+			descend(root);
+		}
+
+		private void descend(DBLargeHashMapNode node) {
+			while (!node.isLeaf()) {
+				nodes.add(node);
+				positions.add(0);
+				node = (DBLargeHashMapNode) node.getValue(0);
+			}
+			leaf = node;
+			pos = 0;
+		}
+
+		private boolean findNext() {
+			while (pos >= leaf.size()) {
+				int depth = nodes.size() - 1;
+				while (depth >= 0 && positions.get(depth) + 1 >= nodes.get(depth).size()) {
+					nodes.remove(depth);
+					positions.remove(depth);
+					depth--;
+				}
+				if (depth < 0) {
+					return false;
+				}
+				int p = positions.get(depth) + 1;
+				positions.set(depth, p);
+				descend((DBLargeHashMapNode) nodes.get(depth).getValue(p));
+			}
+			return true;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return findNext();
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public Map.Entry<K, V> next() {
+			if (!findNext()) {
+				throw new NoSuchElementException();
+			}
+			Map.Entry<K, V> e = new AbstractMap.SimpleImmutableEntry<K, V>(
+					(K) leaf.getKey(pos), (V) leaf.getValue(pos));
+			pos++;
+			return e;
+		}
+	}
+}
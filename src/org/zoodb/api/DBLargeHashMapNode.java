@@ -0,0 +1,362 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.api;
+
+import java.util.Arrays;
+
+import org.zoodb.api.impl.ZooPC;
+
+/**
+ * A node of a {@link DBLargeHashMap}. Every node is a separate persistent object, so it is
+ * only loaded when it is accessed and only written if it has been modified.
+ * <p>
+ * Leaf nodes contain the entries, sorted by the hash of their keys. Inner nodes contain
+ * up to {@code capacity} child nodes and {@code capacity-1} separator hashes. The
+ * entries in child {@code i} have hashes in {@code [hashes[i-1], hashes[i]]}. Several keys
+ * can have the same hash, so entries with the same hash can be spread over adjacent
+ * children.
+ * <p>
+ * This class is only public so that the schema can be created internally. Please do not use.
+ *
+ * @author Tilmann Zaeschke
+ */
+public final class DBLargeHashMapNode extends ZooPC {
+
+	/** Returned by get(), put() and remove() if the key was not found. */
+	static final Object NOT_FOUND = new Object();
+
+	private boolean isLeaf;
+	private int size;
+	/** Leaf: hashes of the keys. Inner node: separators. */
+	private long[] hashes;
+	/** Leaf: keys. Inner node: not used. */
+	private Object[] keys;
+	/** Leaf: values. Inner node: child nodes. */
+	private Object[] values;
+
+	@SuppressWarnings("unused")
+	private DBLargeHashMapNode() {
+		//for ZooDB
+	}
+
+	DBLargeHashMapNode(int capacity, boolean isLeaf) {
+		this.isLeaf = isLeaf;
+		this.hashes = new long[capacity];
+		this.keys = isLeaf ? new Object[capacity] : null;
+		this.values = new Object[capacity];
+	}
+
+	int size() {
+		zooActivateRead();
+		return size;
+	}
+
+	boolean isLeaf() {
+		zooActivateRead();
+		return isLeaf;
+	}
+
+	/**
+	 * @param i Position
+	 * @return The child node (inner node) or value (leaf) at the given position.
+	 */
+	Object getValue(int i) {
+		zooActivateRead();
+		return values[i];
+	}
+
+	Object getKey(int i) {
+		zooActivateRead();
+		return keys[i];
+	}
+
+	private DBLargeHashMapNode child(int i) {
+		return (DBLargeHashMapNode) values[i];
+	}
+
+	/**
+	 * @return The first position with a hash {@code >= h}.
+	 */
+	private int lowerBound(long h, int n) {
+		int lo = 0;
+		int hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (hashes[mid] < h) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * @return The first child that can contain entries with the given hash.
+	 */
+	private int firstChild(long h) {
+		return lowerBound(h, size - 1);
+	}
+
+	private int findInLeaf(long h, Object key) {
+		for (int i = lowerBound(h, size); i < size && hashes[i] == h; i++) {
+			Object k = keys[i];
+			if (k == key || (k != null && k.equals(key))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The value or {@link #NOT_FOUND}.
+	 */
+	Object get(long h, Object key) {
+		zooActivateRead();
+		if (isLeaf) {
+			int i = findInLeaf(h, key);
+			return i >= 0 ? values[i] : NOT_FOUND;
+		}
+		for (int i = firstChild(h); i < size; i++) {
+			Object v = child(i).get(h, key);
+			if (v != NOT_FOUND) {
+				return v;
+			}
+			if (i == size - 1 || hashes[i] != h) {
+				break;
+			}
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Replace the value of an existing entry.
+	 * @return The previous value or {@link #NOT_FOUND} if the map contains no such key.
+	 */
+	Object replace(long h, Object key, Object value) {
+		zooActivateRead();
+		if (isLeaf) {
+			int i = findInLeaf(h, key);
+			if (i < 0) {
+				return NOT_FOUND;
+			}
+			Object prev = values[i];
+			if (prev != value) {
+				zooActivateWrite();
+				values[i] = value;
+			}
+			return prev;
+		}
+		for (int i = firstChild(h); i < size; i++) {
+			Object v = child(i).replace(h, key, value);
+			if (v != NOT_FOUND) {
+				return v;
+			}
+			if (i == size - 1 || hashes[i] != h) {
+				break;
+			}
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Insert a new entry. The key must not yet be in the map.
+	 * @param splitHash Output: the separator between this node and the returned node
+	 * @return {@code null} or a new right sibling if this node had to be split
+	 */
+	DBLargeHashMapNode insert(long h, Object key, Object value, long[] splitHash) {
+		zooActivateRead();
+		if (isLeaf) {
+			return insertInLeaf(h, key, value, splitHash);
+		}
+		int pos = firstChild(h);
+		DBLargeHashMapNode sibling = child(pos).insert(h, key, value, splitHash);
+		if (sibling == null) {
+			return null;
+		}
+		return insertChild(pos + 1, splitHash[0], sibling, splitHash);
+	}
+
+	private DBLargeHashMapNode insertInLeaf(long h, Object key, Object value,
+			long[] splitHash) {
+		zooActivateWrite();
+		int cap = hashes.length;
+		//append behind entries with the same hash
+		int pos = lowerBound(h + 1, size);
+		if (h == Long.MAX_VALUE) {
+			pos = size;
+		}
+		if (size < cap) {
+			insertEntry(pos, h, key, value);
+			return null;
+		}
+
+		DBLargeHashMapNode right = new DBLargeHashMapNode(cap, true);
+		int mid = size >> 1;
+		right.size = size - mid;
+		System.arraycopy(hashes, mid, right.hashes, 0, right.size);
+		System.arraycopy(keys, mid, right.keys, 0, right.size);
+		System.arraycopy(values, mid, right.values, 0, right.size);
+		Arrays.fill(keys, mid, size, null);
+		Arrays.fill(values, mid, size, null);
+		size = mid;
+		if (pos <= mid) {
+			insertEntry(pos, h, key, value);
+		} else {
+			right.insertEntry(pos - mid, h, key, value);
+		}
+		splitHash[0] = right.hashes[0];
+		return right;
+	}
+
+	private void insertEntry(int pos, long h, Object key, Object value) {
+		System.arraycopy(hashes, pos, hashes, pos + 1, size - pos);
+		System.arraycopy(keys, pos, keys, pos + 1, size - pos);
+		System.arraycopy(values, pos, values, pos + 1, size - pos);
+		hashes[pos] = h;
+		keys[pos] = key;
+		values[pos] = value;
+		size++;
+	}
+
+	/**
+	 * Insert a child with its lower separator.
+	 */
+	private DBLargeHashMapNode insertChild(int pos, long sep, DBLargeHashMapNode child,
+			long[] splitHash) {
+		zooActivateWrite();
+		int cap = values.length;
+		if (size < cap) {
+			System.arraycopy(hashes, pos - 1, hashes, pos, size - pos);
+			System.arraycopy(values, pos, values, pos + 1, size - pos);
+			hashes[pos - 1] = sep;
+			values[pos] = child;
+			size++;
+			return null;
+		}
+
+		//split, using temporary arrays that contain the new child
+		long[] h2 = new long[cap];
+		Object[] c2 = new Object[cap + 1];
+		System.arraycopy(hashes, 0, h2, 0, pos - 1);
+		System.arraycopy(values, 0, c2, 0, pos);
+		h2[pos - 1] = sep;
+		c2[pos] = child;
+		System.arraycopy(hashes, pos - 1, h2, pos, size - pos);
+		System.arraycopy(values, pos, c2, pos + 1, size - pos);
+		int n = size + 1;
+
+		int nLeft = n >> 1;
+		DBLargeHashMapNode right = new DBLargeHashMapNode(cap, false);
+		right.size = n - nLeft;
+		System.arraycopy(h2, nLeft, right.hashes, 0, right.size - 1);
+		System.arraycopy(c2, nLeft, right.values, 0, right.size);
+		System.arraycopy(h2, 0, hashes, 0, nLeft - 1);
+		System.arraycopy(c2, 0, values, 0, nLeft);
+		Arrays.fill(values, nLeft, cap, null);
+		size = nLeft;
+		splitHash[0] = h2[nLeft - 1];
+		return right;
+	}
+
+	/**
+	 * Initialise a new inner root node with two children.
+	 */
+	void initRoot(DBLargeHashMapNode left, long sep, DBLargeHashMapNode right) {
+		zooActivateWrite();
+		hashes[0] = sep;
+		values[0] = left;
+		values[1] = right;
+		size = 2;
+	}
+
+	/**
+	 * Remove an entry. Children that become empty are removed and deleted.
+	 * @return The previous value or {@link #NOT_FOUND} if the map contains no such key.
+	 */
+	Object remove(long h, Object key) {
+		zooActivateRead();
+		if (isLeaf) {
+			int i = findInLeaf(h, key);
+			if (i < 0) {
+				return NOT_FOUND;
+			}
+			zooActivateWrite();
+			Object prev = values[i];
+			System.arraycopy(hashes, i + 1, hashes, i, size - i - 1);
+			System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+			System.arraycopy(values, i + 1, values, i, size - i - 1);
+			size--;
+			keys[size] = null;
+			values[size] = null;
+			return prev;
+		}
+		for (int i = firstChild(h); i < size; i++) {
+			DBLargeHashMapNode c = child(i);
+			Object v = c.remove(h, key);
+			if (v != NOT_FOUND) {
+				if (c.size() == 0) {
+					removeChild(i);
+					c.delete();
+				}
+				return v;
+			}
+			if (i == size - 1 || hashes[i] != h) {
+				break;
+			}
+		}
+		return NOT_FOUND;
+	}
+
+	private void removeChild(int pos) {
+		zooActivateWrite();
+		//remove the lower separator, or the upper one for the first child
+		int sepPos = pos > 0 ? pos - 1 : 0;
+		if (size > 1) {
+			System.arraycopy(hashes, sepPos + 1, hashes, sepPos, size - 2 - sepPos);
+		}
+		System.arraycopy(values, pos + 1, values, pos, size - pos - 1);
+		size--;
+		values[size] = null;
+	}
+
+	/**
+	 * Delete this node, but not its children.
+	 */
+	void delete() {
+		if (jdoZooIsPersistent()) {
+			jdoZooGetContext().getSession().deletePersistent(this);
+		}
+	}
+
+	/**
+	 * Delete this node and all child nodes.
+	 */
+	void deleteAll() {
+		zooActivateRead();
+		if (!isLeaf) {
+			for (int i = 0; i < size; i++) {
+				child(i).deleteAll();
+			}
+		}
+		delete();
+	}
+}
@@ -1,27 +1,411 @@
 /*
  * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
- * 
+ *
  * This file is part of ZooDB.
- * 
+ *
  * ZooDB is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as published by
  * the Free Software Foundation, either version 3 of the License, or
  * (at your option) any later version.
- * 
+ *
  * ZooDB is distributed in the hope that it will be useful,
  * but WITHOUT ANY WARRANTY; without even the implied warranty of
  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
  * GNU General Public License for more details.
- * 
+ *
  * You should have received a copy of the GNU General Public License
  * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
- * 
- * See the README and COPYING files for further information. 
+ *
+ * See the README and COPYING files for further information.
  */
 package org.zoodb.api;
 
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
 
-public class DBLargeVector<E> extends DBArrayList<E> implements List<E>, DBCollection {
+import javax.jdo.listener.DeleteCallback;
 
+import org.zoodb.api.impl.ZooPC;
+
+/**
+ * A persistent list for large numbers of elements.
+ * <p>
+ * Unlike {@link DBArrayList}, which is stored as a single object, the elements of this list
+ * are stored in fixed size chunks that are separate persistent objects. {@code get(i)} and
+ * {@code set(i)} only load a single chunk and only modified chunks are written during
+ * commit. {@code add()} at the end of the list does not modify earlier chunks. Iterators
+ * load one chunk after the other, every chunk is loaded only once.
+ * <p>
+ * Inserting or removing elements anywhere else than at the end of the list requires
+ * moving all subsequent elements.
+ * <p>
+ * {@code equals()} and {@code hashCode()} are based on the identity of the list.
+ * <p>
+ * The chunks are deleted together with the list.
+ * <p>
+ * The schemata of this class and of its chunks are created when they are first needed,
+ * even if automatic schema creation is disabled.
+ * <p>
+ * API change: This class used to be a sub-class of {@link DBArrayList}. It is still a
+ * {@link DBCollection} and a {@link List}, but it can no longer be assigned to
+ * {@code DBArrayList}; code that did so should use {@code List} or {@code DBCollection}
+ * instead. Lists that were stored in the old format are converted when they are loaded,
+ * the converted list is written during the next commit.
+ *
+ * @author Tilmann Zaeschke
+ *
+ * @param <E> The element type
+ */
+public class DBLargeVector<E> extends ZooPC implements List<E>, DBCollection, DeleteCallback {
+
+	public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+	private int chunkSize;
+	private int size;
+	private int nChunks;
+	private Object[] chunks;
+
+	private transient View view;
+
+	public DBLargeVector() {
+		this(DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param chunkSize The number of elements per chunk
+	 */
+	public DBLargeVector(int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+		}
+		this.chunkSize = chunkSize;
+		this.chunks = new Object[4];
+	}
+
+	private View view() {
+		if (view == null) {
+			view = new View();
+		}
+		return view;
+	}
+
+	private DBLargeVectorChunk chunk(int c) {
+		return (DBLargeVectorChunk) chunks[c];
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+	private Object getInternal(int index) {
+		zooActivateRead();
+		checkIndex(index);
+		return chunk(index / chunkSize).get(index % chunkSize);
+	}
+
+	private Object setInternal(int index, Object e) {
+		zooActivateRead();
+		checkIndex(index);
+		return chunk(index / chunkSize).set(index % chunkSize, e);
+	}
+
+	private void append(Object e) {
+		zooActivateWrite();
+		if (size == nChunks * chunkSize) {
+			if (nChunks == chunks.length) {
+				chunks = Arrays.copyOf(chunks, nChunks * 2);
+			}
+			chunks[nChunks++] = new DBLargeVectorChunk(chunkSize);
+		}
+		chunk(size / chunkSize).set(size % chunkSize, e);
+		size++;
+	}
+
+	private Object removeLast() {
+		zooActivateWrite();
+		size--;
+		Object prev = chunk(size / chunkSize).set(size % chunkSize, null);
+		if (size == (nChunks - 1) * chunkSize) {
+			nChunks--;
+			chunk(nChunks).delete();
+			chunks[nChunks] = null;
+		}
+		return prev;
+	}
+
+	private void clearInternal() {
+		zooActivateWrite();
+		for (int i = 0; i < nChunks; i++) {
+			chunk(i).delete();
+		}
+		chunks = new Object[4];
+		nChunks = 0;
+		size = 0;
+	}
+
+	/**
+	 * Delete all chunks of this list when the list is deleted.
+	 */
+	@Override
+	public void jdoPreDelete() {
+		//The list itself is already deleted and can not be activated anymore
+		for (int i = 0; i < nChunks; i++) {
+			chunk(i).delete();
+		}
+	}
+
+	/**
+	 * Internal method. Initializes a list that was stored in the old format, when it was a
+	 * sub-class of {@link DBArrayList}.
+	 * @param elements The elements of the list
+	 */
+	public void jdoZooInitLegacy(List<?> elements) {
+		chunkSize = DEFAULT_CHUNK_SIZE;
+		chunks = new Object[4];
+		nChunks = 0;
+		size = 0;
+		for (Object e: elements) {
+			append(e);
+		}
+	}
+
+	/**
+	 * The List implementation. It provides the modification counter for the iterators.
+	 */
+	private class View extends AbstractList<E> {
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public E get(int index) {
+			return (E) getInternal(index);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public E set(int index, E element) {
+			return (E) setInternal(index, element);
+		}
+
+		@Override
+		public int size() {
+			zooActivateRead();
+			return size;
+		}
+
+		@Override
+		public void add(int index, E element) {
+			zooActivateRead();
+			if (index < 0 || index > size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			}
+			modCount++;
+			if (index == size) {
+				append(element);
+				return;
+			}
+			append(getInternal(size - 1));
+			for (int i = size - 2; i > index; i--) {
+				setInternal(i, getInternal(i - 1));
+			}
+			setInternal(index, element);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public E remove(int index) {
+			Object prev = getInternal(index);
+			modCount++;
+			for (int i = index; i < size - 1; i++) {
+				setInternal(i, getInternal(i + 1));
+			}
+			removeLast();
+			return (E) prev;
+		}
+
+		@Override
+		public void clear() {
+			modCount++;
+			clearInternal();
+		}
+
+		@Override
+		public Iterator<E> iterator() {
+			return new ChunkIterator();
+		}
+
+		/**
+		 * Reads the elements chunk by chunk.
+		 */
+		private class ChunkIterator implements Iterator<E> {
+
+			private int next = 0;
+			private int last = -1;
+			private Object[] buffer;
+			private int bufferStart = -1;
+			private int expectedModCount = modCount;
+
+			private void checkModCount() {
+				if (modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next < size();
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public E next() {
+				checkModCount();
+				if (next >= size()) {
+					throw new NoSuchElementException();
+				}
+				if (buffer == null || next >= bufferStart + chunkSize || next < bufferStart) {
+					int c = next / chunkSize;
+					buffer = chunk(c).getAll();
+					bufferStart = c * chunkSize;
+				}
+				last = next;
+				return (E) buffer[next++ - bufferStart];
+			}
+
+			@Override
+			public void remove() {
+				if (last < 0) {
+					throw new IllegalStateException();
+				}
+				checkModCount();
+				View.this.remove(last);
+				next = last;
+				last = -1;
+				buffer = null;
+				expectedModCount = modCount;
+			}
+		}
+	}
+
+	@Override
+	public boolean add(E e) {
+		return view().add(e);
+	}
+
+	@Override
+	public void add(int index, E element) {
+		view().add(index, element);
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends E> c) {
+		return view().addAll(c);
+	}
+
+	@Override
+	public boolean addAll(int index, Collection<? extends E> c) {
+		return view().addAll(index, c);
+	}
+
+	@Override
+	public void clear() {
+		view().clear();
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return view().contains(o);
+	}
+
+	@Override
+	public boolean containsAll(Collection<?> c) {
+		return view().containsAll(c);
+	}
+
+	@Override
+	public E get(int index) {
+		return view().get(index);
+	}
+
+	@Override
+	public int indexOf(Object o) {
+		return view().indexOf(o);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return view().isEmpty();
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return view().iterator();
+	}
+
+	@Override
+	public int lastIndexOf(Object o) {
+		return view().lastIndexOf(o);
+	}
+
+	@Override
+	public ListIterator<E> listIterator() {
+		return view().listIterator();
+	}
+
+	@Override
+	public ListIterator<E> listIterator(int index) {
+		return view().listIterator(index);
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		return view().remove(o);
+	}
+
+	@Override
+	public E remove(int index) {
+		return view().remove(index);
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		return view().removeAll(c);
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> c) {
+		return view().retainAll(c);
+	}
+
+	@Override
+	public E set(int index, E element) {
+		return view().set(index, element);
+	}
+
+	@Override
+	public int size() {
+		return view().size();
+	}
+
+	@Override
+	public List<E> subList(int fromIndex, int toIndex) {
+		return view().subList(fromIndex, toIndex);
+	}
+
+	@Override
+	public Object[] toArray() {
+		return view().toArray();
+	}
+
+	@Override
+	public <T> T[] toArray(T[] a) {
+		return view().toArray(a);
+	}
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.api;
+
+import org.zoodb.api.impl.ZooPC;
+
+/**
+ * A chunk of a {@link DBLargeVector}. Every chunk is a separate persistent object, so it is
+ * only loaded when it is accessed and only written if it has been modified.
+ * <p>
+ * This class is only public so that the schema can be created internally. Please do not use.
+ *
+ * @author Tilmann Zaeschke
+ */
+public final class DBLargeVectorChunk extends ZooPC {
+
+	private Object[] elements;
+
+	@SuppressWarnings("unused")
+	private DBLargeVectorChunk() {
+		//for ZooDB
+	}
+
+	DBLargeVectorChunk(int capacity) {
+		this.elements = new Object[capacity];
+	}
+
+	Object get(int i) {
+		zooActivateRead();
+		return elements[i];
+	}
+
+	Object set(int i, Object e) {
+		zooActivateRead();
+		Object prev = elements[i];
+		if (prev != e) {
+			zooActivateWrite();
+			elements[i] = e;
+		}
+		return prev;
+	}
+
+	/**
+	 * @return A copy of the elements, this is used for iteration.
+	 */
+	Object[] getAll() {
+		zooActivateRead();
+		return elements.clone();
+	}
+
+	/**
+	 * Delete this chunk.
+	 */
+	void delete() {
+		if (jdoZooIsPersistent()) {
+			jdoZooGetContext().getSession().deletePersistent(this);
+		}
+	}
+}
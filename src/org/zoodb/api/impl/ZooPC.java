@@ -22,6 +22,7 @@ package org.zoodb.api.impl;
 
 import javax.jdo.ObjectState;
 import javax.jdo.listener.ClearCallback;
+import javax.jdo.listener.DeleteCallback;
 
 import org.zoodb.api.ZooInstanceEvent;
 import org.zoodb.internal.GenericObject;
@@ -217,7 +218,8 @@ public abstract class ZooPC {
 			//independent of whether it was previously hollow or not. 
 			//If it is hollow, we have to refresh() it, otherwise not.
 			//So we do the refresh here, where we still know whether it was hollow.
-			if (context.getIndexer().isIndexed()) {
+			//The same applies to jdoPreDelete(), which may need the fields of the object.
+			if (context.getIndexer().isIndexed() || this instanceof DeleteCallback) {
 				//refresh + createBackup
 				context.getNode().refreshObject(this);
 			}
@@ -320,7 +322,10 @@ public abstract class ZooPC {
 			if (!(this instanceof GenericObject)) {
 				throw new UnsupportedOperationException("" + state);
 			}
-			setPersDirty();
+			//Objects that evolve over several versions are registered only once
+			if (!jdoZooIsDirty()) {
+				setPersDirty();
+			}
 			break;
 		}
 		default:
@@ -372,6 +377,7 @@ public abstract class ZooPC {
 							"(-> use begin()).");
 				}
 				jdoZooGetNode().refreshObject(this);
+				session.getPrefetcher().prefetch(this);
 			} finally {
 				context.getSession().unlock();
 			}
@@ -140,6 +140,13 @@ public class DataDeSerializer {
         this.cache = cache;
    }
 
+    /**
+     * @return The reader of this de-serializer.
+     */
+    public ObjectReader getReader() {
+        return in;
+    }
+
 
 	/**
      * This method returns an object that is read from the input 
@@ -166,11 +173,14 @@ public class DataDeSerializer {
         }
 
         ZooClassDef clsDef = cache.getSchema(clsOid);
+        if (clsDef.getNextVersion() == null && clsDef.isLegacyLargeVector()) {
+        	clsDef.getProvidedContext().getSession().getSchemaManager().migrateLegacyLargeVector(
+        			clsDef.jdoZooGetNode());
+        }
         ObjectReader or = in;
-        boolean isEvolved = false;
+        GenericObject go = null;
         if (clsDef.getNextVersion() != null) {
-            isEvolved = true;
-            GenericObject go = GenericObject.newInstance(clsDef, oid, false, cache);
+            go = GenericObject.newTemporaryInstance(clsDef, oid);
             readGOPrivate(go, clsDef);
             clsDef = go.ensureLatestVersion();
             in = go.toStream();
@@ -185,7 +195,11 @@ public class DataDeSerializer {
 
         readObjPrivate(pObj, clsDef);
         in = or;
-        if (isEvolved) {
+        if (go != null) {
+            if (pObj instanceof DBLargeVector && go.getDbCollection() != null) {
+            	//old format, the elements were stored like those of a DBArrayList
+            	((DBLargeVector<?>)pObj).jdoZooInitLegacy((List<?>) go.getDbCollection());
+            }
             //force object to be stored again
             //TODO is this necessary?
             pObj.jdoZooMarkDirty();
@@ -214,7 +228,47 @@ public class DataDeSerializer {
     	go.jdoZooMarkClean();
     	return go;
     }
-    
+
+
+    /**
+     * Read the value of a String field without creating the object. Only the variable size
+     * fields that precede the String are de-serialized.
+     * @param page page id
+     * @param offs offset in page
+     * @param field The String field
+     * @return The value of the field
+     */
+    public String readStringField(int page, int offs, ZooFieldDef field) {
+        long clsOid = in.startReading(page, offs);
+        //skip oid
+        in.readLong();
+        ZooClassDef clsDef = cache.getSchema(clsOid);
+
+        //skip fixed size part
+        int fixedSize = 0;
+        for (ZooFieldDef fd: clsDef.getAllFields()) {
+        	fixedSize += fd.getLength();
+        }
+        in.skipRead(fixedSize);
+
+        allowGenericObjects = true;
+        try {
+        	for (ZooFieldDef fd: clsDef.getAllFields()) {
+        		if (!fd.isFixedSize() || fd.isString()) {
+        			Object o = deserializeObjectSCO();
+        			if (fd.getFieldSchemaId() == field.getFieldSchemaId()) {
+        				return (String) o;
+        			}
+        		}
+        	}
+        } finally {
+        	allowGenericObjects = false;
+        	postProcessCollections();
+        }
+        throw DBLogger.newFatalInternal("Field not found: " + field.getName() + " in " +
+        		clsDef.getClassName());
+    }
+
     
     private GenericObject readGOPrivate(GenericObject pObj, ZooClassDef clsDef) {
     	// read first object (FCO)
@@ -376,8 +430,8 @@ public class DataDeSerializer {
         try {
             //Read fields
         	for (ZooFieldDef fd: clsDef.getAllFields()) {
-                Field f = fd.getJavaField();
-                f1 = f;
+                FieldAccessor f = fd.getAccessor();
+                f1 = fd.getJavaField();
                 PRIMITIVE prim = fd.getPrimitiveType();
                 if (prim != null) {
                 	deserializePrimitive(obj, f, prim);
@@ -389,8 +443,6 @@ public class DataDeSerializer {
             return obj;
         } catch (IllegalArgumentException e) {
             throw new RuntimeException(e);
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
         } catch (SecurityException e) {
             throw new RuntimeException(e);
         } catch (ArrayIndexOutOfBoundsException e) {
@@ -418,8 +470,8 @@ public class DataDeSerializer {
             //Read fields
         	for (ZooFieldDef fd: clsDef.getAllFields()) {
                 if (!fd.isFixedSize() || fd.isString()) {
-                	Field f = fd.getJavaField();
-                	f1 = f;
+                	FieldAccessor f = fd.getAccessor();
+                	f1 = fd.getJavaField();
                    	deObj = deserializeObjectSCO();
                     f.set(obj, deObj);
                 }
@@ -427,7 +479,7 @@ public class DataDeSerializer {
             return obj;
         } catch (IllegalArgumentException e) {
             throw new RuntimeException("Field: " + f1.getType() + " " + f1.getName(), e);
-        } catch (IllegalAccessException | SecurityException e) {
+        } catch (SecurityException e) {
             throw new RuntimeException(e);
         } catch (BinaryDataCorruptedException e) {
             throw new BinaryDataCorruptedException("Corrupted Object: " +
@@ -480,9 +532,6 @@ public class DataDeSerializer {
             if (obj instanceof DBHashMap) {
                 deserializeDBHashMap((DBHashMap<Object, Object>) obj);
                 ((ZooPC)obj).jdoZooMarkClean();
-            } else if (obj instanceof DBLargeVector) {
-                deserializeDBList((DBLargeVector<Object>) obj);
-                ((ZooPC)obj).jdoZooMarkClean();
             } else if (obj instanceof DBArrayList) {
                 deserializeDBList((DBArrayList<Object>) obj);
                 ((ZooPC)obj).jdoZooMarkClean();
@@ -501,11 +550,8 @@ public class DataDeSerializer {
     		HashMap<Object, Object> m = new HashMap<Object, Object>();
     		obj.setDbCollection(m);
     		deserializeDBHashMap(m);
-    	} else if (def.getClassName().equals(DBLargeVector.class.getName())) {
-    		ArrayList<Object> l = new ArrayList<Object>();
-    		obj.setDbCollection(l);
-    		deserializeDBList(l);
-    	} else if (def.getClassName().equals(DBArrayList.class.getName())) {
+    	} else if (def.getClassName().equals(DBArrayList.class.getName()) || 
+    			def.isLegacyLargeVector()) {
     		ArrayList<Object> l = new ArrayList<Object>();
     		obj.setDbCollection(l);
     		deserializeDBList(l);
@@ -528,6 +574,22 @@ public class DataDeSerializer {
         }
     }        
              
+    private final void deserializePrimitive(Object parent, FieldAccessor field, 
+    		PRIMITIVE prim) {
+        switch (prim) {
+        case BOOLEAN: field.setBoolean(parent, in.readBoolean()); break;
+        case BYTE: field.setByte(parent, in.readByte()); break;
+        case CHAR: field.setChar(parent, in.readChar()); break;
+        case DOUBLE: field.setDouble(parent, in.readDouble()); break;
+        case FLOAT: field.setFloat(parent, in.readFloat()); break;
+        case INT: field.setInt(parent, in.readInt()); break;
+        case LONG: field.setLong(parent, in.readLong()); break;
+        case SHORT: field.setShort(parent, in.readShort()); break;
+        default:
+            throw new UnsupportedOperationException(prim.toString());
+        }
+    }        
+             
     private final Object deserializePrimitive(PRIMITIVE prim) 
     throws IllegalArgumentException, IllegalAccessException {
     	switch (prim) {
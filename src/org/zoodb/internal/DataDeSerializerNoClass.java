@@ -150,6 +150,18 @@ public class DataDeSerializerNoClass {
     	return in.readBoolean();
 	}
 
+	/**
+	 * @param clsDef Class definition
+	 * @param field A String, Date or reference field
+	 * @return Whether the field is 'null'.
+	 */
+	public boolean isAttrNull(ZooClassDef clsDef, ZooFieldDef field) {
+    	int skip = readHeader(clsDef);
+    	skip += field.getOffset();
+    	in.skipRead(skip);
+    	return in.readByte() == SerializerTools.REF_NULL_ID;
+	}
+
 	/**
      * @param clsDef Class definition
      * @param field field
@@ -237,4 +249,8 @@ public class DataDeSerializerNoClass {
 	public long getLastOid() {
 		return oid;
 	}
+
+	public long getLastClassOid() {
+		return clsOid;
+	}
 }
@@ -22,6 +22,7 @@ package org.zoodb.internal;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.zoodb.api.impl.ZooPC;
 import org.zoodb.internal.SerializerTools.PRIMITIVE;
@@ -32,12 +33,15 @@ import org.zoodb.internal.util.Pair;
 /**
  * This class provides a method to backup indexed fields for later removal from the according
  * field index. 
+ * The backup contains the keys of all indexed fields, followed by the keys of all composite
+ * indices, see {@link ZooClassDef#getAllCompositeIndices()}.
  *
  * @author Tilmann Zaeschke
  */
 public final class DataIndexUpdater {
 
 	private ZooFieldDef[] indFields;
+	private ZooCompositeIndexDef[] compIndices;
 	
 	public DataIndexUpdater(ZooClassDef def) {
 		refreshWithSchema(def);
@@ -57,6 +61,8 @@ public final class DataIndexUpdater {
 			}
 		}
 		indFields = pfl.toArray(new ZooFieldDef[pfl.size()]);
+		List<ZooCompositeIndexDef> cil = def.getAllCompositeIndices();
+		compIndices = cil.toArray(new ZooCompositeIndexDef[cil.size()]);
 	}
 	
 	
@@ -65,12 +71,11 @@ public final class DataIndexUpdater {
     		GenericObject go = (GenericObject) co;
     		return getBackup(go, go.getRawFields());
     	}
-    	if (indFields.length == 0) {
+    	if (!isIndexed()) {
     		return null;
     	}
         try {
-        	Pair<long[], Object[]> ret = new Pair<long[], Object[]>(
-        			new long[indFields.length], new Object[indFields.length]);
+        	Pair<long[], Object[]> ret = newBackup();
             //set primitive fields
             for (int i = 0; i < indFields.length; i++) {
             	ZooFieldDef fd = indFields[i];
@@ -89,6 +94,9 @@ public final class DataIndexUpdater {
                 	ret.getB()[i] = str;
                 }
             }
+            for (int i = 0; i < compIndices.length; i++) {
+            	ret.getA()[indFields.length + i] = compIndices[i].getKey(co);
+            }
             return ret;
         } catch (IllegalAccessException e) {
             throw new RuntimeException(e);
@@ -98,11 +106,10 @@ public final class DataIndexUpdater {
     }
     
     public final Pair<long[], Object[]> getBackup(GenericObject co, Object[] raw) {
-    	if (indFields.length == 0) {
+    	if (!isIndexed()) {
     		return null;
     	}
-    	Pair<long[], Object[]> ret = new Pair<long[], Object[]>(
-    			new long[indFields.length], new Object[indFields.length]);
+    	Pair<long[], Object[]> ret = newBackup();
     	//set primitive fields
     	for (int i = 0; i < indFields.length; i++) {
     		ZooFieldDef fd = indFields[i];
@@ -119,11 +126,19 @@ public final class DataIndexUpdater {
     			ret.getB()[i] = co.getField(fd);
     		}
     	}
+    	for (int i = 0; i < compIndices.length; i++) {
+    		ret.getA()[indFields.length + i] = compIndices[i].getKey(co);
+    	}
     	return ret;
     }
+    
+    private Pair<long[], Object[]> newBackup() {
+    	int n = indFields.length + compIndices.length;
+    	return new Pair<long[], Object[]>(new long[n], new Object[n]);
+    }
 
 	public boolean isIndexed() {
-		return indFields.length != 0;
+		return indFields.length != 0 || compIndices.length != 0;
 	}
     
 }
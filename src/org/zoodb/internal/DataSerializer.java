@@ -197,7 +197,7 @@ public final class DataSerializer {
         // Write fields
         try {
         	for (ZooFieldDef fd: clsDef.getAllFields()) {
-        		Field f = fd.getJavaField();
+        		FieldAccessor f = fd.getAccessor();
         		if (f == null) {
         			throw DBLogger.newUser(LOGGER, "Schema mismatch for {}", fd);
         		}
@@ -209,7 +209,7 @@ public final class DataSerializer {
                 	scos.add(f.get(o));
                 }
         	}
-        } catch (IllegalAccessException e) {
+        } catch (IllegalArgumentException e) {
             throw new RuntimeException(getErrorMessage(o), e);
         } catch (UnsupportedOperationException e) {
             throw new UnsupportedOperationException(
@@ -256,7 +256,8 @@ public final class DataSerializer {
     	// Perform additional serialization for Persistent Containers
     	if (def.getClassName().equals(DBHashMap.class.getName())) {
     		serializeDBHashMap((HashMap<?, ?>) o.getDbCollection());
-    	} else if (def.getClassName().equals(DBArrayList.class.getName())) {
+    	} else if (def.getClassName().equals(DBArrayList.class.getName()) || 
+    			def.isLegacyLargeVector()) {
     		serializeDBList((ArrayList<?>) o.getDbCollection());
     	}
     }
@@ -294,6 +295,20 @@ public final class DataSerializer {
         }
     }
 
+    private final void serializePrimitive(Object parent, FieldAccessor field, PRIMITIVE type) {
+        // no need to store the type, primitives can't be subclassed.
+        switch (type) {
+        case BOOLEAN: out.writeBoolean(field.getBoolean(parent)); break;
+        case BYTE: out.writeByte(field.getByte(parent)); break;
+        case CHAR: out.writeChar(field.getChar(parent)); break;
+        case DOUBLE: out.writeDouble(field.getDouble(parent)); break;
+        case FLOAT: out.writeFloat(field.getFloat(parent)); break;
+        case INT: out.writeInt(field.getInt(parent)); break;
+        case LONG: out.writeLong(field.getLong(parent)); break;
+        case SHORT: out.writeShort(field.getShort(parent)); break;
+        }
+    }
+
     
     private final void serializePrimitive(Object v, PRIMITIVE type) 
     		throws IllegalArgumentException, IllegalAccessException {
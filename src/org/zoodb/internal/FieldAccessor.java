@@ -0,0 +1,498 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.internal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import org.zoodb.internal.SerializerTools.PRIMITIVE;
+import org.zoodb.internal.util.DBLogger;
+import org.zoodb.tools.ZooConfig;
+
+/**
+ * Reads and writes the value of a field without the overhead of reflection.
+ *
+ * Reflection calls like {@link Field#getInt(Object)} are dispatched to a different
+ * accessor implementation for every field type, which makes them megamorphic on the
+ * serialization paths and prevents inlining. This class accesses fields via method handles
+ * that are specific to the field type. If that is not possible (for example for final
+ * fields) or if it has been disabled via {@link ZooConfig#setFastFieldAccess(boolean)},
+ * the accessor falls back to reflection.
+ *
+ * @author Tilmann Zaeschke
+ */
+public abstract class FieldAccessor {
+
+	protected final Field field;
+	private final PRIMITIVE primitive;
+
+	private FieldAccessor(Field field) {
+		this.field = field;
+		this.primitive = SerializerTools.PRIMITIVE_TYPES.get(field.getType());
+	}
+
+	/**
+	 * Create an accessor for the given field.
+	 * @param field The field, must not be static.
+	 * @return A new accessor.
+	 */
+	public static FieldAccessor create(Field field) {
+		field.setAccessible(true);
+		if (ZooConfig.isFastFieldAccess() && !Modifier.isStatic(field.getModifiers())) {
+			try {
+				return new MethodHandleAccessor(field);
+			} catch (IllegalAccessException e) {
+				//For example final fields
+				DBLogger.LOGGER.info("Fast field access not available for {}, using " +
+						"reflection: {}", field, e.getMessage());
+			}
+		}
+		return new ReflectionAccessor(field);
+	}
+
+	/**
+	 * @return The field.
+	 */
+	public Field getField() {
+		return field;
+	}
+
+	/**
+	 * @return The primitive type of the field or {@code null} if the field is not primitive.
+	 */
+	public PRIMITIVE getPrimitiveType() {
+		return primitive;
+	}
+
+	public abstract Object get(Object o);
+	public abstract boolean getBoolean(Object o);
+	public abstract byte getByte(Object o);
+	public abstract char getChar(Object o);
+	public abstract double getDouble(Object o);
+	public abstract float getFloat(Object o);
+	public abstract int getInt(Object o);
+	public abstract long getLong(Object o);
+	public abstract short getShort(Object o);
+
+	public abstract void set(Object o, Object v);
+	public abstract void setBoolean(Object o, boolean v);
+	public abstract void setByte(Object o, byte v);
+	public abstract void setChar(Object o, char v);
+	public abstract void setDouble(Object o, double v);
+	public abstract void setFloat(Object o, float v);
+	public abstract void setInt(Object o, int v);
+	public abstract void setLong(Object o, long v);
+	public abstract void setShort(Object o, short v);
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + ": " + field;
+	}
+
+
+	/**
+	 * Access via method handles. The handles are adapted to take {@code Object} arguments,
+	 * so they can be invoked with {@code invokeExact()}. Invoking a handle with an object or
+	 * value of the wrong type fails with a ClassCastException or WrongMethodTypeException, 
+	 * these are reported as IllegalArgumentException, like reflection does.
+	 */
+	private static final class MethodHandleAccessor extends FieldAccessor {
+
+		//(Object)Object, primitives are boxed
+		private final MethodHandle getter;
+		//(Object)Object, primitives are unboxed
+		private final MethodHandle setter;
+		//(Object)T and (Object,T)void where T is the field type 
+		private final MethodHandle getterExact;
+		private final MethodHandle setterExact;
+
+		private MethodHandleAccessor(Field field) throws IllegalAccessException {
+			super(field);
+			Class<?> type = field.getType();
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			MethodHandle get = lookup.unreflectGetter(field);
+			MethodHandle set = lookup.unreflectSetter(field);
+			this.getter = get.asType(MethodType.methodType(Object.class, Object.class));
+			this.setter = set.asType(
+					MethodType.methodType(void.class, Object.class, Object.class));
+			this.getterExact = get.asType(MethodType.methodType(type, Object.class));
+			this.setterExact = set.asType(
+					MethodType.methodType(void.class, Object.class, type));
+		}
+
+		private RuntimeException fail(Object o, Throwable t) {
+			if (t instanceof ClassCastException || t instanceof WrongMethodTypeException) {
+				return new IllegalArgumentException("Can not access field " + field + " on " +
+						(o == null ? null : o.getClass()), t);
+			}
+			if (t instanceof RuntimeException) {
+				return (RuntimeException) t;
+			}
+			if (t instanceof Error) {
+				throw (Error) t;
+			}
+			return new RuntimeException("Can not access field " + field, t);
+		}
+
+		@Override
+		public Object get(Object o) {
+			try {
+				return (Object) getter.invokeExact(o);
+			} catch (Throwable t) {
+				throw fail(o, t);
+			}
+		}
+
+		@Override
+		public boolean getBoolean(Object o) {
+			try {
+				return (boolean) getterExact.invokeExact(o);
+			} catch (Throwable t) {
+				throw fail(o, t);
+			}
+		}
+
+		@Override
+		public byte getByte(Object o) {
+			try {
+				return (byte) getterExact.invokeExact(o);
+			} catch (Throwable t) {
+				throw fail(o, t);
+			}
+		}
+
+		@Override
+		public char getChar(Object o) {
+			try {
+				return (char) getterExact.invokeExact(o);
+			} catch (Throwable t) {
+				throw fail(o, t);
+			}
+		}
+
+		@Override
+		public double getDouble(Object o) {
+			try {
+				return (double) getterExact.invokeExact(o);
+			} catch (Throwable t) {
+				throw fail(o, t);
+			}
+		}
+
+		@Override
+		public float getFloat(Object o) {
+			try {
+				return (float) getterExact.invokeExact(o);
+			} catch (Throwable t) {
+				throw fail(o, t);
+			}
+		}
+
+		@Override
+		public int getInt(Object o) {
+			try {
+				return (int) getterExact.invokeExact(o);
+			} catch (Throwable t) {
+				throw fail(o, t);
+			}
+		}
+
+		@Override
+		public long getLong(Object o) {
+			try {
+				return (long) getterExact.invokeExact(o);
+			} catch (Throwable t) {
+				throw fail(o, t);
+			}
+		}
+
+		@Override
+		public short getShort(Object o) {
+			try {
+				return (short) getterExact.invokeExact(o);
+			} catch (Throwable t) {
+				throw fail(o, t);
+			}
+		}
+
+		@Override
+		public void set(Object o, Object v) {
+			try {
+				setter.invokeExact(o, v);
+			} catch (Throwable t) {
+				throw fail(o, t);
+			}
+		}
+
+		@Override
+		public void setBoolean(Object o, boolean v) {
+			try {
+				setterExact.invokeExact(o, v);
+			} catch (Throwable t) {
+				throw fail(o, t);
+			}
+		}
+
+		@Override
+		public void setByte(Object o, byte v) {
+			try {
+				setterExact.invokeExact(o, v);
+			} catch (Throwable t) {
+				throw fail(o, t);
+			}
+		}
+
+		@Override
+		public void setChar(Object o, char v) {
+			try {
+				setterExact.invokeExact(o, v);
+			} catch (Throwable t) {
+				throw fail(o, t);
+			}
+		}
+
+		@Override
+		public void setDouble(Object o, double v) {
+			try {
+				setterExact.invokeExact(o, v);
+			} catch (Throwable t) {
+				throw fail(o, t);
+			}
+		}
+
+		@Override
+		public void setFloat(Object o, float v) {
+			try {
+				setterExact.invokeExact(o, v);
+			} catch (Throwable t) {
+				throw fail(o, t);
+			}
+		}
+
+		@Override
+		public void setInt(Object o, int v) {
+			try {
+				setterExact.invokeExact(o, v);
+			} catch (Throwable t) {
+				throw fail(o, t);
+			}
+		}
+
+		@Override
+		public void setLong(Object o, long v) {
+			try {
+				setterExact.invokeExact(o, v);
+			} catch (Throwable t) {
+				throw fail(o, t);
+			}
+		}
+
+		@Override
+		public void setShort(Object o, short v) {
+			try {
+				setterExact.invokeExact(o, v);
+			} catch (Throwable t) {
+				throw fail(o, t);
+			}
+		}
+	}
+
+
+	/**
+	 * Fallback to reflection.
+	 */
+	private static final class ReflectionAccessor extends FieldAccessor {
+
+		private ReflectionAccessor(Field field) {
+			super(field);
+		}
+
+		private RuntimeException fail(IllegalAccessException e) {
+			return new RuntimeException("Can not access field " + field, e);
+		}
+
+		@Override
+		public Object get(Object o) {
+			try {
+				return field.get(o);
+			} catch (IllegalAccessException e) {
+				throw fail(e);
+			}
+		}
+
+		@Override
+		public boolean getBoolean(Object o) {
+			try {
+				return field.getBoolean(o);
+			} catch (IllegalAccessException e) {
+				throw fail(e);
+			}
+		}
+
+		@Override
+		public byte getByte(Object o) {
+			try {
+				return field.getByte(o);
+			} catch (IllegalAccessException e) {
+				throw fail(e);
+			}
+		}
+
+		@Override
+		public char getChar(Object o) {
+			try {
+				return field.getChar(o);
+			} catch (IllegalAccessException e) {
+				throw fail(e);
+			}
+		}
+
+		@Override
+		public double getDouble(Object o) {
+			try {
+				return field.getDouble(o);
+			} catch (IllegalAccessException e) {
+				throw fail(e);
+			}
+		}
+
+		@Override
+		public float getFloat(Object o) {
+			try {
+				return field.getFloat(o);
+			} catch (IllegalAccessException e) {
+				throw fail(e);
+			}
+		}
+
+		@Override
+		public int getInt(Object o) {
+			try {
+				return field.getInt(o);
+			} catch (IllegalAccessException e) {
+				throw fail(e);
+			}
+		}
+
+		@Override
+		public long getLong(Object o) {
+			try {
+				return field.getLong(o);
+			} catch (IllegalAccessException e) {
+				throw fail(e);
+			}
+		}
+
+		@Override
+		public short getShort(Object o) {
+			try {
+				return field.getShort(o);
+			} catch (IllegalAccessException e) {
+				throw fail(e);
+			}
+		}
+
+		@Override
+		public void set(Object o, Object v) {
+			try {
+				field.set(o, v);
+			} catch (IllegalAccessException e) {
+				throw fail(e);
+			}
+		}
+
+		@Override
+		public void setBoolean(Object o, boolean v) {
+			try {
+				field.setBoolean(o, v);
+			} catch (IllegalAccessException e) {
+				throw fail(e);
+			}
+		}
+
+		@Override
+		public void setByte(Object o, byte v) {
+			try {
+				field.setByte(o, v);
+			} catch (IllegalAccessException e) {
+				throw fail(e);
+			}
+		}
+
+		@Override
+		public void setChar(Object o, char v) {
+			try {
+				field.setChar(o, v);
+			} catch (IllegalAccessException e) {
+				throw fail(e);
+			}
+		}
+
+		@Override
+		public void setDouble(Object o, double v) {
+			try {
+				field.setDouble(o, v);
+			} catch (IllegalAccessException e) {
+				throw fail(e);
+			}
+		}
+
+		@Override
+		public void setFloat(Object o, float v) {
+			try {
+				field.setFloat(o, v);
+			} catch (IllegalAccessException e) {
+				throw fail(e);
+			}
+		}
+
+		@Override
+		public void setInt(Object o, int v) {
+			try {
+				field.setInt(o, v);
+			} catch (IllegalAccessException e) {
+				throw fail(e);
+			}
+		}
+
+		@Override
+		public void setLong(Object o, long v) {
+			try {
+				field.setLong(o, v);
+			} catch (IllegalAccessException e) {
+				throw fail(e);
+			}
+		}
+
+		@Override
+		public void setShort(Object o, short v) {
+			try {
+				field.setShort(o, v);
+			} catch (IllegalAccessException e) {
+				throw fail(e);
+			}
+		}
+	}
+}
@@ -107,6 +107,9 @@ public class GenericObject extends ZooPC {
 	
 	private ZooHandleImpl handle = null;
 	
+	//temporary objects are not in the cache
+	private final boolean isTemporary;
+	
 	private GenericObject(ObjectState state, ZooClassDef def, long oid, boolean isNew, 
 			AbstractCache cache) {
 		jdoZooInit(state, def.getProvidedContext(), oid);
@@ -114,7 +117,10 @@ public class GenericObject extends ZooPC {
 		this.defOriginal = def;
 		fixedValues = new Object[def.getAllFields().length];
 		variableValues = new Object[def.getAllFields().length];
-		cache.addGeneric(this);
+		isTemporary = cache == null;
+		if (!isTemporary) {
+			cache.addGeneric(this);
+		}
 		if (isNew) {
 			jdoZooSetTimestamp(def.getProvidedContext().getSession().getTransactionId());
 		}
@@ -127,6 +133,18 @@ public class GenericObject extends ZooPC {
 		return go;
 	}
 	
+	/**
+	 * Creates a temporary instance that is not added to the cache. This is used for evolving
+	 * objects before they are de-serialized into their Java class.
+	 * @param def Class definition
+	 * @param oid The OID
+	 * @return A temporary hollow instance.
+	 */
+	static GenericObject newTemporaryInstance(ZooClassDef def, long oid) {
+		return new GenericObject(ObjectState.HOLLOW_PERSISTENT_NONTRANSACTIONAL, def, oid, false,
+				null);
+	}
+	
 	/**
 	 * Creates new instances.
 	 * @param def
@@ -301,10 +319,10 @@ public class GenericObject extends ZooPC {
 		fixedValues = fV.toArray(fixedValues);
 		variableValues = vV.toArray(variableValues);
 		defCurrent = defCurrent.getNextVersion();
-		//We call this just to set the context/ZooClassDef. The state can be ignored since
-		//it is only a temporary object and not in the cache
-		jdoZooInit(ObjectState.PERSISTENT_DIRTY, defCurrent.getProvidedContext(), 
-				jdoZooGetOid());
+		//We call this just to set the context/ZooClassDef. Temporary objects must not be
+		//registered as dirty.
+		jdoZooInit(isTemporary ? ObjectState.PERSISTENT_CLEAN : ObjectState.PERSISTENT_DIRTY, 
+				defCurrent.getProvidedContext(), jdoZooGetOid());
 		return defCurrent;
 	}
 
@@ -26,7 +26,12 @@ import java.util.Iterator;
 import org.zoodb.api.impl.ZooPC;
 import org.zoodb.internal.server.OptimisticTransactionResult;
 import org.zoodb.internal.server.TxObjInfo;
+import org.zoodb.internal.server.index.LongLongIndex.LLEntry;
+import org.zoodb.internal.server.index.LongLongIndex.LongLongIterator;
+import org.zoodb.internal.server.index.StringRange;
 import org.zoodb.internal.util.CloseableIterator;
+import org.zoodb.internal.util.PrimLongSet;
+import org.zoodb.internal.util.PrimLongSetZ;
 import org.zoodb.tools.DBStatistics.STATS;
 
 public abstract class Node {
@@ -48,16 +53,27 @@ public abstract class Node {
 	public abstract void commit();
 
 	public abstract CloseableIterator<ZooPC> loadAllInstances(ZooClassProxy def, 
-            boolean loadFromCache);
+            boolean loadFromCache, ObjectFilter filter);
 
 	public abstract ZooPC loadInstanceById(long oid);
 
+	/**
+	 * Load several objects at once. Hollow objects in the cache are refreshed.
+	 * @param oids The OIDs of the objects to load
+	 * @return The objects in the order of the OIDs, {@code null} for OIDs that were not found
+	 */
+	public abstract ZooPC[] loadInstancesById(long[] oids);
+
 	public abstract void closeConnection();
 
 	public abstract void defineIndex(ZooClassDef def, ZooFieldDef f, boolean isUnique);
 
 	public abstract boolean removeIndex(ZooClassDef def, ZooFieldDef f);
 
+	public abstract void defineCompositeIndex(ZooClassDef def, ZooCompositeIndexDef index);
+
+	public abstract boolean removeCompositeIndex(ZooClassDef def, ZooCompositeIndexDef index);
+
 	public void connect() {
 		// TODO Auto-generated method stub
 		throw new UnsupportedOperationException();
@@ -65,7 +81,28 @@ public abstract class Node {
 	}
 
 	public abstract Iterator<ZooPC> readObjectFromIndex(ZooFieldDef field, 
-			long minValue, long maxValue, boolean loadFromCache);
+			long minValue, long maxValue, boolean ascending, boolean loadFromCache,
+			PrimLongSet include, PrimLongSet exclude);
+
+	public abstract PrimLongSetZ readOidsFromIndex(ZooFieldDef field, 
+			long minValue, long maxValue, PrimLongSet filter);
+
+	public abstract Iterator<ZooPC> readObjectFromIndex(ZooFieldDef field, 
+			StringRange range, long minValue, long maxValue, boolean loadFromCache,
+			PrimLongSet include, PrimLongSet exclude);
+
+	public abstract PrimLongSetZ readOidsFromIndex(ZooFieldDef field, 
+			StringRange range, long minValue, long maxValue, PrimLongSet filter);
+
+	public abstract Iterator<ZooPC> readObjectFromIndex(ZooCompositeIndexDef index, 
+			long minValue, long maxValue, boolean ascending, boolean loadFromCache,
+			PrimLongSet include, PrimLongSet exclude);
+
+	public abstract PrimLongSetZ readOidsFromIndex(ZooCompositeIndexDef index, 
+			long minValue, long maxValue, PrimLongSet filter);
+
+	public abstract LongLongIterator<LLEntry> readIndexEntries(ZooFieldDef field, 
+			boolean ascending);
 
 	public abstract long getStats(STATS stats);
 
@@ -100,6 +137,16 @@ public abstract class Node {
 
 	public abstract long countInstances(ZooClassProxy clsDef, boolean subClasses);
 
+	public abstract long countOutdatedInstances(ZooClassProxy clsDef);
+
+	public abstract long[] readOutdatedOids(ZooClassProxy clsDef, int maxResults);
+
+	public abstract long[] readAllOids(ZooClassProxy clsDef, ZooFieldDef orderBy);
+
+	public abstract void truncateOnCommit();
+
+	public abstract void appendOnCommit();
+
 	public abstract GenericObject readGenericObject(ZooClassDef def, long oid);
 	
 	public abstract boolean checkIfObjectExists(long oid);
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.internal;
+
+/**
+ * A filter that is evaluated on the serialized form of an object, before the object is
+ * loaded. This allows skipping objects that cannot match a query without
+ * deserializing them into the cache.
+ *
+ * @author Tilmann Zaeschke
+ */
+public interface ObjectFilter {
+
+	/**
+	 * @param dds Deserializer for the serialized object
+	 * @param pos The position of the object
+	 * @param clsDef The schema of the object, this is always the latest schema version
+	 * @return {@code false} if the object can not match the filter, {@code true} if it matches
+	 * or if the object needs to be loaded to decide whether it matches.
+	 */
+	boolean accept(DataDeSerializerNoClass dds, long pos, ZooClassDef clsDef);
+
+}
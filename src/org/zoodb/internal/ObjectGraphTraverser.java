@@ -42,6 +42,7 @@ import javax.jdo.Query;
 import org.zoodb.api.DBArrayList;
 import org.zoodb.api.DBCollection;
 import org.zoodb.api.DBHashMap;
+import org.zoodb.api.DBLargeHashMap;
 import org.zoodb.api.DBLargeVector;
 import org.zoodb.api.impl.ZooPC;
 import org.zoodb.internal.client.session.ClientSessionCache;
@@ -243,7 +244,10 @@ public class ObjectGraphTraverser {
     	//     This avoid SEEN_CLASSES lookup
     	//  -> What about persistent collections (also if 3rd party?)?
     	//- Remove static modifier for SEEN_CLASSES -> make OGT final field in Session
-        if (object instanceof DBCollection) {
+        if (object instanceof DBLargeHashMap || object instanceof DBLargeVector) {
+            //Only follow the fields, iterating would load all nodes
+            doObject(object);
+        } else if (object instanceof DBCollection) {
             doPersistentContainer(object);
         } else if (object instanceof Object[]) {
             doArray((Object[]) object);
@@ -344,9 +348,6 @@ public class ObjectGraphTraverser {
 	private final void doPersistentContainer(Object container) {
         if (container instanceof DBArrayList) {
             doCollection((DBArrayList)container);
-        } else if (container instanceof DBLargeVector) {
-//            doEnumeration(((DBLargeVector)container).elements(), container);
-            doCollection(((DBLargeVector)container));
         } else if (container instanceof DBHashMap) {
             DBHashMap t = (DBHashMap)container;
             doCollection(t.keySet());
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import org.zoodb.api.DBCollection;
+import org.zoodb.api.DBLargeVector;
+import org.zoodb.api.impl.ZooPC;
+import org.zoodb.internal.util.PrimLongSetZ;
+
+/**
+ * Loads the objects that are referenced by freshly loaded objects. The referenced objects
+ * are collected level by level, up to the maximum fetch depth, and every level is loaded
+ * in one batch that reads each data page only once (see
+ * {@link Node#loadInstancesById(long[])}).
+ *
+ * Which fields are followed is decided by a {@link FieldSelector}, typically a JDO fetch
+ * plan. Without selector, no references are loaded.
+ *
+ * The contents of {@link DBCollection}s count as fields of the collection, i.e. they are
+ * one level further away than the collection itself. They are only followed if the collection
+ * was reached via a selected field, not if the collection itself is a root object.
+ * {@link DBLargeVector}s are the exception, their elements are not prefetched because that
+ * would load all chunks.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class ReferencePrefetcher {
+
+	/** Maximum fetch depth for following references without limit. */
+	public static final int DEPTH_UNLIMITED = -1;
+
+	/**
+	 * Decides which fields of a class are followed when prefetching.
+	 */
+	public interface FieldSelector {
+		/**
+		 * This is called whenever an object is loaded, implementations should cache the
+		 * result.
+		 * @param def The class of a loaded object
+		 * @return The fields whose referenced objects should be loaded, or {@code null}
+		 * if no fields should be followed.
+		 */
+		ZooFieldDef[] selectFields(ZooClassDef def);
+	}
+
+	private static final ZooFieldDef[] NO_FIELDS = new ZooFieldDef[0];
+
+	private final Session session;
+	private FieldSelector selector = null;
+	private int maxDepth = 1;
+
+	public ReferencePrefetcher(Session session) {
+		this.session = session;
+	}
+
+	public void setFieldSelector(FieldSelector selector) {
+		this.selector = selector;
+	}
+
+	public FieldSelector getFieldSelector() {
+		return selector;
+	}
+
+	/**
+	 * @param maxDepth The maximum number of references between a root object and a
+	 * prefetched object, or {@link #DEPTH_UNLIMITED}.
+	 */
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Load objects that are referenced by the given object.
+	 * @param root A loaded object
+	 */
+	public void prefetch(ZooPC root) {
+		if (selector == null || getFields(root).length == 0) {
+			return;
+		}
+		ArrayList<ZooPC> roots = new ArrayList<ZooPC>(1);
+		roots.add(root);
+		prefetch(roots);
+	}
+
+	/**
+	 * Load objects that are referenced by the given objects.
+	 * @param roots Loaded objects, may contain {@code null}
+	 */
+	public void prefetch(Collection<?> roots) {
+		if (selector == null || roots.isEmpty()) {
+			return;
+		}
+
+		PrimLongSetZ visited = new PrimLongSetZ();
+		ArrayList<ZooPC> level = new ArrayList<ZooPC>(roots.size());
+		for (Object o: roots) {
+			if (o instanceof ZooPC && isLoadable((ZooPC) o)) {
+				ZooPC pc = (ZooPC) o;
+				if (visited.add(pc.jdoZooGetOid()) && !pc.jdoZooIsStateHollow()) {
+					level.add(pc);
+				}
+			}
+		}
+
+		for (int depth = 0; !level.isEmpty() && (maxDepth < 0 || depth < maxDepth); depth++) {
+			ArrayList<ZooPC> next = new ArrayList<ZooPC>();
+			for (ZooPC pc: level) {
+				for (ZooFieldDef f: getFields(pc)) {
+					addValue(f.getAccessor().get(pc), visited, next);
+				}
+				if (depth > 0 && pc instanceof DBCollection && !(pc instanceof DBLargeVector)) {
+					addElements(pc, visited, next);
+				}
+			}
+			load(next);
+			level = next;
+		}
+	}
+
+	private ZooFieldDef[] getFields(ZooPC pc) {
+		ZooClassDef def = pc.jdoZooGetClassDef();
+		if (pc instanceof GenericObject || def.getJavaClass() == null) {
+			return NO_FIELDS;
+		}
+		ZooFieldDef[] fields = selector.selectFields(def);
+		return fields == null ? NO_FIELDS : fields;
+	}
+
+	/**
+	 * Collect persistent objects in a field value. SCOs (collections, maps, arrays) are
+	 * traversed.
+	 */
+	private void addValue(Object v, PrimLongSetZ visited, ArrayList<ZooPC> next) {
+		if (v == null) {
+			return;
+		}
+		if (v instanceof ZooPC) {
+			ZooPC pc = (ZooPC) v;
+			if (isLoadable(pc) && visited.add(pc.jdoZooGetOid())) {
+				next.add(pc);
+			}
+			return;
+		}
+		addElements(v, visited, next);
+	}
+
+	private void addElements(Object v, PrimLongSetZ visited, ArrayList<ZooPC> next) {
+		if (v instanceof Collection) {
+			for (Object o: (Collection<?>) v) {
+				addValue(o, visited, next);
+			}
+		} else if (v instanceof Map) {
+			for (Map.Entry<?, ?> e: ((Map<?, ?>) v).entrySet()) {
+				addValue(e.getKey(), visited, next);
+				addValue(e.getValue(), visited, next);
+			}
+		} else if (v instanceof Object[]) {
+			for (Object o: (Object[]) v) {
+				addValue(o, visited, next);
+			}
+		}
+	}
+
+	private boolean isLoadable(ZooPC pc) {
+		return pc.jdoZooIsPersistent() && !pc.jdoZooIsDeleted() && !pc.jdoZooIsNew()
+				&& pc.jdoZooGetContext().getSession() == session;
+	}
+
+	/**
+	 * Load all hollow objects in one batch. Objects that cannot be found are ignored, they
+	 * will fail when they are accessed.
+	 */
+	private void load(ArrayList<ZooPC> objects) {
+		long[] oids = new long[objects.size()];
+		int n = 0;
+		for (ZooPC pc: objects) {
+			if (pc.jdoZooIsStateHollow()) {
+				oids[n++] = pc.jdoZooGetOid();
+			}
+		}
+		if (n == 0) {
+			return;
+		}
+		session.getPrimaryNode().loadInstancesById(Arrays.copyOf(oids, n));
+		//remove objects that could not be loaded
+		for (int i = objects.size() - 1; i >= 0; i--) {
+			if (objects.get(i).jdoZooIsStateHollow()) {
+				objects.remove(i);
+			}
+		}
+	}
+}
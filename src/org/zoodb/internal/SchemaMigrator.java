@@ -0,0 +1,177 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.internal;
+
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zoodb.schema.ZooClass;
+
+/**
+ * Background migration of objects that are stored with an outdated schema version.
+ *
+ * Such objects are otherwise evolved every time they are loaded. The migrator loads them as
+ * generic objects, evolves them to the latest schema version and writes them back.
+ * This is done in small transactions in a separate session, with a pause between
+ * transactions. Transactions that fail because of concurrent updates are simply
+ * rolled back, the affected objects are tried again in a later transaction.
+ *
+ * Once the pos-index of an outdated schema version is empty, it is dropped when the
+ * schema index is written.
+ *
+ * A new session is used for each transaction, this avoids growing the cache of generic
+ * objects and ensures that the latest schema is used.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class SchemaMigrator implements Runnable {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(SchemaMigrator.class);
+
+	private final String dbPath;
+	private final int batchSize;
+	private final long pauseMillis;
+	private final Thread thread;
+	private volatile boolean isStopped = false;
+	private final AtomicLong nMigrated = new AtomicLong();
+	//Classes without outdated instances. We store the OID of the latest version, such that
+	//classes are processed again when they evolve.
+	private final HashSet<Long> completedClasses = new HashSet<Long>();
+
+	/**
+	 *
+	 * @param dbPath The database
+	 * @param batchSize Number of objects that are migrated per transaction
+	 * @param pauseMillis Pause between transactions in milliseconds
+	 */
+	SchemaMigrator(String dbPath, int batchSize, long pauseMillis) {
+		if (batchSize <= 0 || pauseMillis < 0) {
+			throw new IllegalArgumentException("batchSize=" + batchSize +
+					" pauseMillis=" + pauseMillis);
+		}
+		this.dbPath = dbPath;
+		this.batchSize = batchSize;
+		this.pauseMillis = pauseMillis;
+		this.thread = new Thread(this, "ZooDB-SchemaMigrator");
+		this.thread.setDaemon(true);
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	/**
+	 * Stop the migration. This returns immediately, the current transaction is completed
+	 * in the background.
+	 */
+	void stop() {
+		isStopped = true;
+		synchronized (this) {
+			notifyAll();
+		}
+	}
+
+	boolean isRunning() {
+		return thread.isAlive();
+	}
+
+	/**
+	 * @return The number of objects that have been migrated.
+	 */
+	long getMigratedCount() {
+		return nMigrated.get();
+	}
+
+	@Override
+	public void run() {
+		LOGGER.info("Schema migration started: {}", dbPath);
+		try {
+			while (!isStopped) {
+				if (migrateBatch() == 0) {
+					break;
+				}
+				synchronized (this) {
+					if (!isStopped && pauseMillis > 0) {
+						wait(pauseMillis);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			//stop
+		} catch (RuntimeException e) {
+			//For example if the database is closed or if a schema change requires a reset
+			LOGGER.warn("Schema migration aborted: {}", e.getMessage());
+		}
+		LOGGER.info("Schema migration finished: {} objects migrated", nMigrated.get());
+	}
+
+	/**
+	 * Migrate one batch of objects.
+	 * @return The number of objects that were found with an outdated schema version, or '0'
+	 * if migration is complete.
+	 */
+	private int migrateBatch() {
+		Session s = new Session(dbPath, new SessionConfig());
+		try {
+			s.begin();
+			int n = 0;
+			HashSet<Long> visited = new HashSet<Long>();
+			for (ZooClass c: s.getSchemaManager().getAllSchemata()) {
+				ZooClassProxy px = (ZooClassProxy) c;
+				long defOid = px.getSchemaDef().getOid();
+				if (!visited.add(px.getSchemaId()) || completedClasses.contains(defOid)) {
+					continue;
+				}
+				long[] oids = s.getPrimaryNode().readOutdatedOids(px, batchSize - n);
+				if (oids.length == 0) {
+					completedClasses.add(defOid);
+					continue;
+				}
+				for (long oid: oids) {
+					ZooHandleImpl h = s.getHandle(oid);
+					if (h != null) {
+						//This evolves the object to the latest schema version
+						h.getGenericObject().jdoZooMarkDirty();
+					}
+				}
+				n += oids.length;
+				if (n >= batchSize) {
+					break;
+				}
+			}
+			if (n == 0) {
+				s.rollback();
+				return 0;
+			}
+			if (s.tryCommit(false)) {
+				nMigrated.addAndGet(n);
+			} else {
+				//Concurrent updates, try again later
+				LOGGER.info("Schema migration: commit failed, retrying");
+			}
+			return n;
+		} finally {
+			s.rollbackAndClose();
+		}
+	}
+}
@@ -23,6 +23,7 @@ package org.zoodb.internal;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumMap;
 import java.util.HashSet;
@@ -47,6 +48,7 @@ import org.zoodb.internal.util.ClientLock;
 import org.zoodb.internal.util.DBLogger;
 import org.zoodb.internal.util.IteratorRegistry;
 import org.zoodb.internal.util.MergingIterator;
+import org.zoodb.internal.util.PrimLongSetZ;
 import org.zoodb.internal.util.TransientField;
 import org.zoodb.internal.util.Util;
 import org.zoodb.schema.ZooSchema;
@@ -81,11 +83,15 @@ public class Session implements IteratorRegistry {
 	private final SessionConfig config;
 	private final ClientLock lock = new ClientLock();
 	private final EnumMap<DBStatistics.STATS, Long> stats = new EnumMap<>(DBStatistics.STATS.class);
+	private final ReferencePrefetcher prefetcher = new ReferencePrefetcher(this);
 	
 	private long transactionId = -1;
 	
 	private final WeakHashMap<Closeable, Object> resources = new WeakHashMap<>(); 
 	
+	//Background schema migration, or 'null' if none was started 
+	private SchemaMigrator migrator = null;
+	
 	public Session(String dbPath, SessionConfig config) {
 		this(null, dbPath, config);
 	}
@@ -288,29 +294,46 @@ public class Session implements IteratorRegistry {
 		//create new schemata
 		Collection<ZooClassDef> schemata = cache.getSchemata();
 		
-		//First delete
-		for (ZooPC co: cache.getDeletedObjects()) {
-		    if (!co.jdoZooIsDirty()) {
-		    	throw new IllegalStateException("State=");
-		    }
-			if (co.jdoZooIsDeleted()) {
-				if (co.jdoZooIsNew()) {
-					//ignore
-					continue;
+		//First delete. Callbacks may delete further objects, for example the nodes of a 
+		//DBLargeHashMap, so we repeat until no new deleted objects are found.
+		ArrayList<ZooPC> deleted = new ArrayList<ZooPC>();
+		PrimLongSetZ visited = new PrimLongSetZ();
+		while (true) {
+			ArrayList<ZooPC> next = new ArrayList<ZooPC>();
+			for (ZooPC co: cache.getDeletedObjects()) {
+				if (visited.add(co.jdoZooGetOid())) {
+					next.add(co);
 				}
-	            if (co.jdoZooGetClassDef().jdoZooIsDeleted()) {
-	                //Ignore instances of deleted classes, there is a dropInstances for them
-	                continue;
-	            }
-				if (co instanceof DeleteCallback) {
-					((DeleteCallback)co).jdoPreDelete();
+			}
+			if (next.isEmpty()) {
+				break;
+			}
+			for (ZooPC co: next) {
+			    if (!co.jdoZooIsDirty()) {
+			    	throw new IllegalStateException("State=");
+			    }
+				if (co.jdoZooIsDeleted()) {
+					if (co.jdoZooIsNew()) {
+						//ignore
+						continue;
+					}
+		            if (co.jdoZooGetClassDef().jdoZooIsDeleted()) {
+		                //Ignore instances of deleted classes, there is a dropInstances for them
+		                continue;
+		            }
+					if (co instanceof DeleteCallback) {
+						((DeleteCallback)co).jdoPreDelete();
+					}
+					co.jdoZooGetContext().notifyEvent(co, ZooInstanceEvent.PRE_DELETE);
+					deleted.add(co);
+				} else {
+			    	throw new IllegalStateException("State=");
 				}
-				co.jdoZooGetContext().notifyEvent(co, ZooInstanceEvent.PRE_DELETE);
-	            co.jdoZooGetContext().getDataDeleteSink().delete(co);
-			} else {
-		    	throw new IllegalStateException("State=");
 			}
 		}
+		for (ZooPC co: deleted) {
+            co.jdoZooGetContext().getDataDeleteSink().delete(co);
+		}
 		//generic objects
 		if (!cache.getDirtyGenericObjects().isEmpty()) {
     		for (GenericObject go: cache.getDirtyGenericObjects()) {
@@ -445,15 +468,17 @@ public class Session implements IteratorRegistry {
 	 * @param cls Class
 	 * @param subClasses whether to load subclasses
 	 * @param loadFromCache whether to load from cache or only from DB
+	 * @param filter Filter that is evaluated on the stored objects before they are loaded,
+	 * may be {@code null}. Objects from the cache are not filtered. 
 	 * @return An extent over a class
 	 */
 	public MergingIterator<ZooPC> loadAllInstances(Class<?> cls, 
-			boolean subClasses, boolean loadFromCache) {
+			boolean subClasses, boolean loadFromCache, ObjectFilter filter) {
 		checkActiveRead();
 		MergingIterator<ZooPC> iter = 
 				new MergingIterator<ZooPC>(this, config.getFailOnClosedQueries());
         ZooClassDef def = cache.getSchema(cls, primary);
-		loadAllInstances(def.getVersionProxy(), subClasses, iter, loadFromCache);
+		loadAllInstances(def.getVersionProxy(), subClasses, iter, loadFromCache, filter);
 		if (loadFromCache) {
 			//also add 'new' instances
 			iter.add(cache.iterator(def, subClasses, ObjectState.PERSISTENT_NEW));
@@ -468,14 +493,14 @@ public class Session implements IteratorRegistry {
 	 * @param iter
 	 */
 	private void loadAllInstances(ZooClassProxy def, boolean subClasses, 
-			MergingIterator<ZooPC> iter, boolean loadFromCache) {
+			MergingIterator<ZooPC> iter, boolean loadFromCache, ObjectFilter filter) {
 		for (Node n: nodes) {
-			iter.add(n.loadAllInstances(def, loadFromCache));
+			iter.add(n.loadAllInstances(def, loadFromCache, filter));
 		}
 		
 		if (subClasses) {
 			for (ZooClassProxy sub: def.getSubProxies()) {
-				loadAllInstances(sub, true, iter, loadFromCache);
+				loadAllInstances(sub, true, iter, loadFromCache, filter);
 			}
 		}
 	}
@@ -671,6 +696,7 @@ public class Session implements IteratorRegistry {
 			if (co != null) {
 				if (co.jdoZooIsStateHollow() && !co.jdoZooIsDeleted()) {
 					co.jdoZooGetNode().refreshObject(co);
+					prefetcher.prefetch(co);
 				}
 				return co;
 			}
@@ -683,21 +709,96 @@ public class Session implements IteratorRegistry {
 				}
 			}
 
+			if (co != null) {
+				prefetcher.prefetch(co);
+			}
 			return co;
 		} finally {
 			unlock();
 		}
 	}
 	
+	/**
+	 * Get several objects at once. Objects that are not in the cache or that are hollow are 
+	 * loaded in a single batch, which reads every data page only once.
+	 * @param arg0 The OIDs
+	 * @return The objects in the order of the OIDs, {@code null} for OIDs that were not found
+	 */
 	public Object[] getObjectsById(Collection<? extends Object> arg0) {
-		checkActiveRead();
-		Object[] res = new Object[arg0.size()];
-		int i = 0;
-		for ( Object obj: arg0 ) {
-			res[i] = getObjectById(obj);
-			i++;
+		try {
+			lock();
+			checkActiveRead();
+			Object[] res = new Object[arg0.size()];
+			long[] oids = new long[res.length];
+			int[] resPos = new int[res.length];
+			int n = 0;
+			int i = 0;
+			for ( Object obj: arg0 ) {
+				long oid = (Long) obj;
+				ZooPC co = cache.findCoByOID(oid);
+				if (co != null && (!co.jdoZooIsStateHollow() || co.jdoZooIsDeleted())) {
+					res[i] = co;
+				} else {
+					oids[n] = oid;
+					resPos[n] = i;
+					n++;
+				}
+				i++;
+			}
+			ZooPC[] loaded = loadInstancesById(Arrays.copyOf(oids, n));
+			for (int j = 0; j < n; j++) {
+				res[resPos[j]] = loaded[j];
+			}
+			prefetcher.prefetch(Arrays.asList(loaded));
+			return res;
+		} finally {
+			unlock();
 		}
-		return res;
+	}
+
+	/**
+	 * Load all hollow objects in the collection. This is equivalent to activating them one by 
+	 * one, but reads every data page only once. Referenced objects are loaded as specified 
+	 * by the {@link #getPrefetcher() prefetcher}.
+	 * @param arg0 The objects to load
+	 */
+	public void retrieveAll(Collection<?> arg0) {
+		try {
+			lock();
+			checkActiveRead();
+			long[] oids = new long[arg0.size()];
+			int n = 0;
+			for ( Object obj: arg0 ) {
+				ZooPC co = checkObjectForRefresh(obj);
+				if (co.jdoZooIsPersistent() && co.jdoZooIsStateHollow() && 
+						!co.jdoZooIsDeleted()) {
+					oids[n++] = co.jdoZooGetOid();
+				}
+			}
+			loadInstancesById(Arrays.copyOf(oids, n));
+			prefetcher.prefetch(arg0);
+		} finally {
+			unlock();
+		}
+	}
+
+	private ZooPC[] loadInstancesById(long[] oids) {
+		if (oids.length == 0) {
+			return new ZooPC[0];
+		}
+		ZooPC[] loaded = getPrimaryNode().loadInstancesById(oids);
+		for (int i = 0; i < oids.length; i++) {
+			if (loaded[i] == null) {
+				ZooPC co = cache.findCoByOID(oids[i]);
+				if (co != null) {
+					//Removes the object from the cache and fails
+					co.jdoZooGetNode().refreshObject(co);
+					throw DBLogger.newObjectNotFoundException(
+							"OID not found: " + Util.oidToString(oids[i]));
+				}
+			}
+		}
+		return loaded;
 	}
 
 	/**
@@ -748,12 +849,46 @@ public class Session implements IteratorRegistry {
 	}
 
 
+	/**
+	 * Commit the current transaction. This is meant for internal sessions that can simply 
+	 * retry or skip their updates when a commit fails because of concurrent updates. 
+	 * @param retainValues retain values flag
+	 * @return {@code true} if the commit succeeded, {@code false} if it failed because of 
+	 * concurrent updates. In the latter case the transaction has been rolled back.
+	 */
+	public boolean tryCommit(boolean retainValues) {
+		try {
+			commit(retainValues);
+			return true;
+		} catch (RuntimeException e) {
+			if (!DBLogger.isOptimisticVerificationException(e)) {
+				throw e;
+			}
+			LOGGER.info("commit() failed because of concurrent updates: {}", e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Roll back the current transaction, if any, and close the session, unless it is
+	 * already closed. 
+	 */
+	public void rollbackAndClose() {
+		if (!isClosed()) {
+			if (isActive()) {
+				rollback();
+			}
+			close();
+		}
+	}
+
 	public void close() {
 		if (!isOpen) {
 			throw DBLogger.newUser("This session is closed.");
 		}
 		try {
 			lock();
+			stopSchemaMigration();
 			for (Node n: nodes) {
 				n.closeConnection();
 			}
@@ -989,6 +1124,14 @@ public class Session implements IteratorRegistry {
 		return lock;
 	}
 
+	/**
+	 * @return The prefetcher that loads referenced objects whenever objects are loaded in this
+	 * session.
+	 */
+	public ReferencePrefetcher getPrefetcher() {
+		return prefetcher;
+	}
+
 	public boolean getMultithreaded() {
 		return lock.isLockingEnabled();
 	}
@@ -998,6 +1141,10 @@ public class Session implements IteratorRegistry {
 	}
 
 	public long getStats(STATS stat) {
+		if (stat == STATS.SCHEMA_MIGRATION_OBJ_CNT) {
+			SchemaMigrator m = migrator;
+			return m == null ? 0 : m.getMigratedCount();
+		}
 		Long s = stats.get(stat);
 		if (s == null) {
 			return 0;
@@ -1005,6 +1152,33 @@ public class Session implements IteratorRegistry {
 		return (long) s;
 	}
 
+	/**
+	 * Start migrating all objects that are stored with an outdated schema version in a
+	 * background thread.
+	 * @param batchSize Number of objects that are migrated per transaction
+	 * @param pauseMillis Pause between transactions in milliseconds
+	 * @see SchemaMigrator
+	 */
+	public void startSchemaMigration(int batchSize, long pauseMillis) {
+		checkOpen();
+		if (isSchemaMigrationRunning()) {
+			throw DBLogger.newUser("Schema migration is already running.");
+		}
+		SchemaMigrator m = new SchemaMigrator(primary.getDbPath(), batchSize, pauseMillis);
+		m.start();
+		migrator = m;
+	}
+
+	public void stopSchemaMigration() {
+		if (migrator != null) {
+			migrator.stop();
+		}
+	}
+
+	public boolean isSchemaMigrationRunning() {
+		return migrator != null && migrator.isRunning();
+	}
+
 	public void statsInc(STATS stat) {
 		Long cnt = stats.get(stat);
 		if (cnt == null) {
@@ -32,6 +32,7 @@ public class SessionConfig {
 	private boolean failOnClosedQueries = false;
 	private boolean isDetachAllOnCommit = false;
 	private boolean isNonTransactionalRead = false;
+	private boolean isSnapshotRead = false;
 	private CACHE_MODE cacheMode = CACHE_MODE.SOFT;
 
 
@@ -100,6 +101,20 @@ public class SessionConfig {
 		return isNonTransactionalRead;
 	}
 
+	public boolean getSnapshotRead() {
+		return isSnapshotRead;
+	}
+
+	/**
+	 * In snapshot mode, transactions read the database as it was committed when the transaction
+	 * started. Snapshot transactions do not hold a database lock, i.e. they do not block
+	 * committing sessions, and are not affected by them.
+	 * @param flag Whether transactions should read from snapshots
+	 */
+	public void setSnapshotRead(boolean flag) {
+		this.isSnapshotRead = flag;
+	}
+
 	public void setNonTransactionalRead(boolean flag) {
 		this.isNonTransactionalRead = flag;
 		if (flag) {
@@ -29,6 +29,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.zoodb.api.DBArrayList;
+import org.zoodb.api.DBLargeVector;
 import org.zoodb.api.impl.ZooPC;
 import org.zoodb.internal.ZooFieldDef.JdoType;
 import org.zoodb.internal.client.PCContext;
@@ -75,6 +77,11 @@ public class ZooClassDef extends ZooPC {
 	//List of operations that transform a previous version into the current version. 
 	private ArrayList<PersistentSchemaOperation> evolutionOperations = null;
 	
+	//Composite indices declared in this class. Like field indices, they are stored in the
+	//SchemaIndex, not with the schema.
+	private transient ArrayList<ZooCompositeIndexDef> compositeIndices = 
+			new ArrayList<ZooCompositeIndexDef>();
+	
 	private ZooClassDef() {
 		//DO not use, for de-serializer only!
 		oidSuper = 0;
@@ -222,6 +229,14 @@ public class ZooClassDef extends ZooPC {
 		}
 		newDef.associateFields();
 		
+		//indices
+		for (ZooCompositeIndexDef ci: compositeIndices) {
+			ZooCompositeIndexDef ciNew = ci.forVersion(newDef);
+			if (ciNew != null) {
+				newDef.compositeIndices.add(ciNew);
+			}
+		}
+		
 		return newDef;
 	}
 
@@ -515,6 +530,16 @@ public class ZooClassDef extends ZooPC {
 		return superDef;
 	}
 
+	/**
+	 * DBLargeVector used to be a sub-class of DBArrayList without fields. Its elements
+	 * were stored as a single blob, like those of a DBArrayList.
+	 * @return True if this is the schema of a DBLargeVector in the old format.
+	 */
+	public boolean isLegacyLargeVector() {
+		return DBLargeVector.class.getName().equals(className) && localFields.isEmpty() &&
+				superDef != null && superDef.className.equals(DBArrayList.class.getName());
+	}
+
 	public void associateVersions(Map<Long, ZooClassDef> schemata) {
 		if (prevVersionOid != 0) {
 			prevVersion = schemata.get(prevVersionOid);
@@ -636,6 +661,12 @@ public class ZooClassDef extends ZooPC {
 			}
 			i++;
 		}
+		//composite indices are removed together with their fields
+		for (int j = compositeIndices.size() - 1; j >= 0; j--) {
+			if (compositeIndices.get(j).hasField(fieldDef)) {
+				compositeIndices.remove(j);
+			}
+		}
 		// for op, use position in allFields
 		i = 0;
 		for (ZooFieldDef fd: allFields) {
@@ -649,6 +680,51 @@ public class ZooClassDef extends ZooPC {
 		throw new IllegalStateException("Field not found: " + fieldDef);
 	}
 
+	/**
+	 * @return The composite indices that are declared in this class.
+	 */
+	public List<ZooCompositeIndexDef> getLocalCompositeIndices() {
+		return compositeIndices;
+	}
+	
+	/**
+	 * @return The composite indices of this class, including those declared in super-classes.
+	 */
+	public List<ZooCompositeIndexDef> getAllCompositeIndices() {
+		if (superDef == null || superDef.getAllCompositeIndices().isEmpty()) {
+			return compositeIndices;
+		}
+		ArrayList<ZooCompositeIndexDef> ret = new ArrayList<ZooCompositeIndexDef>();
+		ret.addAll(superDef.getAllCompositeIndices());
+		ret.addAll(compositeIndices);
+		return ret;
+	}
+	
+	/**
+	 * @param fields The indexed fields, in order of significance
+	 * @return The composite index over the given fields, or {@code null} if there is no
+	 * such index.
+	 */
+	public ZooCompositeIndexDef getCompositeIndex(ZooFieldDef[] fields) {
+		for (ZooCompositeIndexDef ci: getAllCompositeIndices()) {
+			ZooFieldDef[] fields2 = ci.getFields();
+			if (fields2.length != fields.length) {
+				continue;
+			}
+			boolean match = true;
+			for (int i = 0; i < fields.length; i++) {
+				if (fields2[i].getFieldSchemaId() != fields[i].getFieldSchemaId()) {
+					match = false;
+					break;
+				}
+			}
+			if (match) {
+				return ci;
+			}
+		}
+		return null;
+	}
+	
 	public ZooClassDef getNextVersion() {
 		return nextVersion;
 	}
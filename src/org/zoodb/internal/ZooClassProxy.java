@@ -168,6 +168,38 @@ public class ZooClassProxy implements ZooClass {
 		return locateFieldOrFail(fieldName).isIndexUnique();
 	}
 	
+	@Override
+	public void createCompositeIndex(String ... fieldNames) {
+		DBTracer.logCall(this, (Object[]) fieldNames);
+		checkInvalidWrite();
+		schemaManager.defineCompositeIndex(def, locateFieldsOrFail(fieldNames));
+	}
+	
+	@Override
+	public boolean removeCompositeIndex(String ... fieldNames) {
+		DBTracer.logCall(this, (Object[]) fieldNames);
+		checkInvalidWrite();
+		return schemaManager.removeCompositeIndex(def, locateFieldsOrFail(fieldNames));
+	}
+	
+	@Override
+	public boolean hasCompositeIndex(String ... fieldNames) {
+		DBTracer.logCall(this, (Object[]) fieldNames);
+		checkInvalidRead();
+		return schemaManager.isCompositeIndexDefined(def, locateFieldsOrFail(fieldNames));
+	}
+	
+	private ZooFieldDef[] locateFieldsOrFail(String[] fieldNames) {
+		ZooFieldDef[] ret = new ZooFieldDef[fieldNames.length];
+		for (int i = 0; i < fieldNames.length; i++) {
+			ret[i] = def.getField(fieldNames[i]);
+			if (ret[i] == null) {
+				throw new IllegalArgumentException("Field not found: " + fieldNames[i]);
+			}
+		}
+		return ret;
+	}
+	
 	private ZooField locateFieldOrFail(String fieldName) {
 		ZooField f = getField(fieldName);
 		if (f == null) {
@@ -381,7 +413,7 @@ public class ZooClassProxy implements ZooClass {
 	public Iterator<?> getInstanceIterator() {
 		DBTracer.logCall(this);
 		checkInvalidRead();
-		return def.jdoZooGetNode().loadAllInstances(this, true);
+		return def.jdoZooGetNode().loadAllInstances(this, true, null);
 	}
 
 	@Override
@@ -440,6 +472,19 @@ public class ZooClassProxy implements ZooClass {
 		return def.jdoZooGetNode().countInstances(this, subClasses);
 	}
 
+	/**
+	 * @return The number of instances of this class (without sub-classes) that are stored 
+	 * with an outdated schema version.
+	 */
+	public long outdatedInstanceCount() {
+		DBTracer.logCall(this);
+		checkInvalidRead();
+		if (def.jdoZooIsNew() && def.getSchemaVersion() == 0) {
+			return 0;
+		}
+		return def.jdoZooGetNode().countOutdatedInstances(this);
+	}
+
 	@Override
 	public ZooHandle newInstance() {
 		DBTracer.logCall(this);
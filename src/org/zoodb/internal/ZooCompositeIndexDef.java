@@ -0,0 +1,189 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.internal;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+import org.zoodb.api.impl.ZooPC;
+import org.zoodb.internal.server.index.BitTools;
+import org.zoodb.internal.server.index.CompositeKeyEncoder;
+import org.zoodb.internal.server.index.SchemaIndex.FTYPE;
+import org.zoodb.internal.util.DBLogger;
+
+/**
+ * Definition of an index over an ordered list of fields. Like field indices, a composite
+ * index is defined in a class and covers also the instances of sub-classes.
+ *
+ * The index keys are created with {@link CompositeKeyEncoder}.
+ *
+ * @author Tilmann Zaeschke
+ */
+public final class ZooCompositeIndexDef {
+
+	private final ZooClassDef declaringType;
+	private final ZooFieldDef[] fields;
+	private final long[] fieldIds;
+	private final CompositeKeyEncoder encoder;
+
+	public ZooCompositeIndexDef(ZooClassDef declaringType, ZooFieldDef[] fields) {
+		this.declaringType = declaringType;
+		this.fields = fields;
+		this.fieldIds = new long[fields.length];
+		FTYPE[] types = new FTYPE[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			fieldIds[i] = fields[i].getFieldSchemaId();
+			types[i] = FTYPE.fromType(fields[i]);
+		}
+		this.encoder = new CompositeKeyEncoder(types);
+	}
+
+	/**
+	 * @param newDef A new version of the declaring class
+	 * @return The same index for the new version, or {@code null} if not all fields exist
+	 * in the new version.
+	 */
+	ZooCompositeIndexDef forVersion(ZooClassDef newDef) {
+		ZooFieldDef[] newFields = locateFields(newDef, fieldIds);
+		return newFields == null ? null : new ZooCompositeIndexDef(newDef, newFields);
+	}
+
+	/**
+	 * @param def The class definition
+	 * @param fieldIds The schema IDs of the fields
+	 * @return The fields of the class with the given IDs or {@code null} if any of the
+	 * fields does not exist.
+	 */
+	public static ZooFieldDef[] locateFields(ZooClassDef def, long[] fieldIds) {
+		ZooFieldDef[] ret = new ZooFieldDef[fieldIds.length];
+		for (int i = 0; i < fieldIds.length; i++) {
+			for (ZooFieldDef f: def.getAllFields()) {
+				if (f.getFieldSchemaId() == fieldIds[i]) {
+					ret[i] = f;
+					break;
+				}
+			}
+			if (ret[i] == null) {
+				return null;
+			}
+		}
+		return ret;
+	}
+
+	public ZooClassDef getDeclaringType() {
+		return declaringType;
+	}
+
+	public ZooFieldDef[] getFields() {
+		return fields;
+	}
+
+	/**
+	 * @return The schema IDs of the fields, see {@link ZooFieldDef#getFieldSchemaId()}.
+	 */
+	public long[] getFieldIds() {
+		return fieldIds;
+	}
+
+	public CompositeKeyEncoder getEncoder() {
+		return encoder;
+	}
+
+	public boolean hasFields(long[] fieldIds) {
+		return Arrays.equals(this.fieldIds, fieldIds);
+	}
+
+	public boolean hasField(ZooFieldDef field) {
+		for (long id: fieldIds) {
+			if (id == field.getFieldSchemaId()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param pc A persistent object
+	 * @return The index key of the object.
+	 */
+	public long getKey(ZooPC pc) {
+		if (pc.getClass() == GenericObject.class) {
+			return getKey((GenericObject) pc);
+		}
+		long code = 0;
+		try {
+			for (int i = 0; i < fields.length; i++) {
+				ZooFieldDef fd = fields[i];
+				Field f = fd.getJavaField();
+				long key;
+				if (fd.isPrimitiveType()) {
+					key = SerializerTools.primitiveFieldToLong(pc, f, fd.getPrimitiveType());
+				} else if (fd.isPersistentType()) {
+					key = BitTools.toSortableLong((ZooPC) f.get(pc));
+				} else {
+					//must be String
+					key = BitTools.toSortableLong((String) f.get(pc));
+				}
+				code |= encoder.encodeField(i, key);
+			}
+		} catch (IllegalAccessException e) {
+			throw DBLogger.newFatal("Error accessing fields of " + declaringType.getClassName(), e);
+		}
+		return encoder.toKey(code);
+	}
+
+	private long getKey(GenericObject go) {
+		Object[] raw = go.getRawFields();
+		long code = 0;
+		for (int i = 0; i < fields.length; i++) {
+			ZooFieldDef fd = fields[i];
+			Object o = raw[fd.getFieldPos()];
+			long key;
+			if (fd.isPrimitiveType()) {
+				key = SerializerTools.primitiveToLong(o, fd.getPrimitiveType());
+			} else {
+				//OID of references, Strings are already hashed
+				key = o == null ? BitTools.NULL : (Long) o;
+			}
+			code |= encoder.encodeField(i, key);
+		}
+		return encoder.toKey(code);
+	}
+
+	/**
+	 * @return The names of the fields, separated by commas.
+	 */
+	public String getName() {
+		StringBuilder sb = new StringBuilder();
+		for (ZooFieldDef f: fields) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(f.getName());
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return "Composite index: " + declaringType.getClassName() + "(" + getName() + ")";
+	}
+}
@@ -66,6 +66,7 @@ public class ZooFieldDef {
 	private transient ZooClassDef typeDef;
 	private transient Class<?> javaTypeDef;
 	private transient Field javaField;
+	private transient FieldAccessor accessor;
 
 	private final ZooClassDef declaringType;
 
@@ -346,6 +347,16 @@ public class ZooFieldDef {
 		return javaField;
 	}
 
+	/**
+	 * @return An accessor for the Java field, or {@code null} if there is no Java field.
+	 */
+	public FieldAccessor getAccessor() {
+		if (accessor == null && javaField != null) {
+			accessor = FieldAccessor.create(javaField);
+		}
+		return accessor;
+	}
+
 	public long getTypeOID() {
 		return typeOid;
 	}
@@ -369,6 +380,7 @@ public class ZooFieldDef {
 		this.javaField = javaField;
 		this.javaTypeDef = javaField.getType();
 		this.javaField.setAccessible(true);
+		this.accessor = null;
 	}
 	
 	private void checkField(Field javaField) {
@@ -391,6 +403,7 @@ public class ZooFieldDef {
 	public void unsetJavaField() {
 		this.javaField = null;
 		this.javaTypeDef = null;
+		this.accessor = null;
 	}
 	
 	public JdoType getJdoType() {
@@ -187,6 +187,46 @@ public final class ZooSchemaImpl implements ZooSchema {
 		checkValidityRead();
         return sm.getAllSchemata();
     }
+
+	/**
+	 * @see ZooSchema#startMigration(int, long)
+	 */
+	@Override
+	public void startMigration(int batchSize, long pauseMillis) {
+		DBTracer.logCall(this, batchSize, pauseMillis);
+		if (s.isClosed()) {
+			throw new IllegalStateException("The session is closed.");
+		}
+		s.startSchemaMigration(batchSize, pauseMillis);
+	}
+
+	/**
+	 * @see ZooSchema#stopMigration()
+	 */
+	@Override
+	public void stopMigration() {
+		DBTracer.logCall(this);
+		s.stopSchemaMigration();
+	}
+
+	/**
+	 * @see ZooSchema#isMigrationRunning()
+	 */
+	@Override
+	public boolean isMigrationRunning() {
+		DBTracer.logCall(this);
+		return s.isSchemaMigrationRunning();
+	}
+
+	/**
+	 * @see ZooSchema#getOutdatedInstanceCount(ZooClass)
+	 */
+	@Override
+	public long getOutdatedInstanceCount(ZooClass cls) {
+		DBTracer.logCall(this, cls);
+		checkValidityRead();
+		return ((ZooClassProxy) cls).outdatedInstanceCount();
+	}
     
     private void checkValidity(boolean write) {
     	if (s.isClosed()) {
@@ -25,13 +25,16 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.zoodb.api.DBLargeVector;
 import org.zoodb.api.impl.ZooPC;
 import org.zoodb.internal.GenericObject;
 import org.zoodb.internal.Node;
 import org.zoodb.internal.ZooClassDef;
 import org.zoodb.internal.ZooClassProxy;
+import org.zoodb.internal.ZooCompositeIndexDef;
 import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.client.session.ClientSessionCache;
+import org.zoodb.internal.server.index.CompositeKeyEncoder;
 import org.zoodb.internal.server.index.SchemaIndex;
 import org.zoodb.internal.util.DBLogger;
 import org.zoodb.schema.ZooClass;
@@ -240,6 +243,47 @@ public class SchemaManager {
 		return true;
 	}
 
+	public void defineCompositeIndex(ZooClassDef def, ZooFieldDef[] fields) {
+		for (ZooFieldDef f: fields) {
+			if (!SchemaIndex.FTYPE.isIndexable(f)) {
+				throw DBLogger.newUser("Field type is not indexable: " + f.getName() + 
+						" (" + f.getTypeName() + ")");
+			}
+		}
+		if (fields.length < CompositeKeyEncoder.MIN_FIELDS || 
+				fields.length > CompositeKeyEncoder.MAX_FIELDS) {
+			throw DBLogger.newUser("Composite indices require between " + 
+					CompositeKeyEncoder.MIN_FIELDS + " and " + CompositeKeyEncoder.MAX_FIELDS + 
+					" fields: " + fields.length);
+		}
+		for (int i = 0; i < fields.length; i++) {
+			for (int j = 0; j < i; j++) {
+				if (fields[i] == fields[j]) {
+					throw DBLogger.newUser("Field is used twice: " + fields[i].getName());
+				}
+			}
+		}
+		if (def.getCompositeIndex(fields) != null) {
+			throw DBLogger.newUser("Fields are already indexed: " + 
+					new ZooCompositeIndexDef(def, fields).getName());
+		}
+		ops.add(new SchemaOperation.CompositeIndexCreate(new ZooCompositeIndexDef(def, fields)));
+	}
+
+	public boolean removeCompositeIndex(ZooClassDef def, ZooFieldDef[] fields) {
+		ZooCompositeIndexDef index = def.getCompositeIndex(fields);
+		if (index == null || !def.getLocalCompositeIndices().contains(index)) {
+			//not indexed or declared in a super-class
+			return false;
+		}
+		ops.add(new SchemaOperation.CompositeIndexRemove(index));
+		return true;
+	}
+
+	public boolean isCompositeIndexDefined(ZooClassDef def, ZooFieldDef[] fields) {
+		return def.getCompositeIndex(fields) != null;
+	}
+
 	public boolean isIndexDefined(ZooFieldDef f) {
 		return f.isIndexed();
 	}
@@ -392,6 +436,25 @@ public class SchemaManager {
 		return field;
 	}
 
+	/**
+	 * Adds the fields of DBLargeVector to its schema if the schema is still in the old
+	 * format, see {@link ZooClassDef#isLegacyLargeVector()}. Instances in the old format
+	 * are converted when they are loaded.
+	 * @param node The node
+	 */
+	public void migrateLegacyLargeVector(Node node) {
+		ZooClassDef def = cache.getSchema(DBLargeVector.class.getName());
+		if (def == null || def.jdoZooIsDeleted() || !def.isLegacyLargeVector()) {
+			return;
+		}
+		def = addField(def, "chunkSize", Integer.TYPE).getDeclaringType();
+		def = addField(def, "size", Integer.TYPE).getDeclaringType();
+		def = addField(def, "nChunks", Integer.TYPE).getDeclaringType();
+		addField(def, "chunks", Object[].class);
+		//associate with the Java class
+		cache.getSchema(DBLargeVector.class, node);
+	}
+
 	public ZooClassDef removeField(ZooFieldDef field) {
 		ZooClassDef def = field.getDeclaringType().getModifiableVersion(cache, ops);
 		//new version -- new field
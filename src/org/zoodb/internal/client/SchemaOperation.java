@@ -20,9 +20,12 @@
  */
 package org.zoodb.internal.client;
 
+import java.util.Iterator;
+
 import org.zoodb.internal.Node;
 import org.zoodb.internal.ZooClassDef;
 import org.zoodb.internal.ZooClassProxy;
+import org.zoodb.internal.ZooCompositeIndexDef;
 import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.client.session.ClientSessionCache;
 
@@ -132,6 +135,92 @@ public abstract class SchemaOperation {
 		}
 	}
 
+	/**
+	 * Operation to create a composite index.
+	 */
+	public static class CompositeIndexCreate extends SchemaOperation {
+		private final ZooCompositeIndexDef index;
+
+		public CompositeIndexCreate(ZooCompositeIndexDef index) {
+			super(index.getDeclaringType().jdoZooGetNode());
+			this.index = index;
+			initial();
+		}
+		
+		@Override
+		void initial() {
+			ZooClassDef def = index.getDeclaringType(); 
+			def.getLocalCompositeIndices().add(index);
+			refreshIndexer(def);
+		}
+		
+		@Override
+		void commit() {
+			node.defineCompositeIndex(index.getDeclaringType(), index);
+		}
+		
+		@Override
+		void rollback() {
+			ZooClassDef def = index.getDeclaringType(); 
+			removeCompositeIndex(def, index);
+			refreshIndexer(def);
+		}
+	}
+	
+	/**
+	 * Operation to remove a composite index.
+	 */
+	public static class CompositeIndexRemove extends SchemaOperation {
+		private final ZooCompositeIndexDef index;
+
+		public CompositeIndexRemove(ZooCompositeIndexDef index) {
+			super(index.getDeclaringType().jdoZooGetNode());
+			this.index = index;
+			initial();
+		}
+		
+		@Override
+		void initial() {
+			ZooClassDef def = index.getDeclaringType(); 
+			def.getLocalCompositeIndices().remove(index);
+			refreshIndexer(def);
+		}
+		
+		@Override
+		void commit() {
+			node.removeCompositeIndex(index.getDeclaringType(), index);
+		}
+		
+		@Override
+		void rollback() {
+			ZooClassDef def = index.getDeclaringType(); 
+			//The schema may already have been reloaded during rollback
+			removeCompositeIndex(def, index);
+			def.getLocalCompositeIndices().add(index);
+			refreshIndexer(def);
+		}
+	}
+	
+	private static void removeCompositeIndex(ZooClassDef def, ZooCompositeIndexDef index) {
+		Iterator<ZooCompositeIndexDef> it = def.getLocalCompositeIndices().iterator();
+		while (it.hasNext()) {
+			if (it.next().hasFields(index.getFieldIds())) {
+				it.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Composite indices are inherited, so the indexers of sub-classes need to be 
+	 * refreshed as well.
+	 */
+	private static void refreshIndexer(ZooClassDef def) {
+		def.getProvidedContext().getIndexer().refreshWithSchema(def);
+		for (ZooClassProxy sub: def.getVersionProxy().getSubProxies()) {
+			refreshIndexer(sub.getSchemaDef());
+		}
+	}
+
 	public static class DropInstances extends SchemaOperation {
 		private final ZooClassProxy def;
 
@@ -22,17 +22,20 @@ package org.zoodb.internal.model1p;
 
 import java.lang.reflect.Field;
 import java.util.Arrays;
+import java.util.List;
 
 import org.zoodb.api.impl.ZooPC;
 import org.zoodb.internal.DataDeleteSink;
 import org.zoodb.internal.GenericObject;
 import org.zoodb.internal.SerializerTools;
 import org.zoodb.internal.ZooClassDef;
+import org.zoodb.internal.ZooCompositeIndexDef;
 import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.server.index.BitTools;
 import org.zoodb.internal.server.index.LongLongIndex;
 import org.zoodb.internal.server.index.PagedOidIndex;
 import org.zoodb.internal.server.index.PagedPosIndex;
+import org.zoodb.internal.server.index.PagedStringIndex;
 import org.zoodb.internal.server.index.SchemaIndex.SchemaIndexEntry;
 import org.zoodb.internal.util.DBLogger;
 import org.zoodb.internal.util.Util;
@@ -137,14 +140,44 @@ public class DataDeleteSink1P implements DataDeleteSink {
     }
 
     private void flushBuffer() {
+        removeFromCompositeIndices(buffer, bufferCnt);
         updateFieldIndices();
         bufferCnt = 0;
         if (bufferGOCnt > 0) {
+        	removeFromCompositeIndices(bufferGO, bufferGOCnt);
 	        updateFieldIndicesGO();
 	        bufferGOCnt = 0;
         }
     }
 
+    private void removeFromCompositeIndices(ZooPC[] buffer, int bufferCnt) {
+    	List<ZooCompositeIndexDef> compIndices = cls.getAllCompositeIndices();
+    	if (compIndices.isEmpty() || bufferCnt == 0) {
+    		return;
+    	}
+    	//In the backup, the composite keys follow the keys of the indexed fields
+    	int iInd = 0;
+    	for (ZooFieldDef field: cls.getAllFields()) {
+    		if (field.isIndexed()) {
+    			iInd++;
+    		}
+    	}
+    	for (ZooCompositeIndexDef ci: compIndices) {
+    		SchemaIndexEntry schemaTop = node.getSchemaIE(ci.getDeclaringType());
+    		LongLongIndex ind = schemaTop.getCompositeIndex(ci.getFieldIds());
+    		for (int i = 0; i < bufferCnt; i++) {
+    			ZooPC co = buffer[i];
+    			//This can be null for objects that have not been modified.
+    			if (co.jdoZooGetBackup() != null && iInd < co.jdoZooGetBackup().getA().length) {
+    				ind.removeLong(co.jdoZooGetBackup().getA()[iInd], co.jdoZooGetOid());
+    			} else {
+    				ind.removeLong(ci.getKey(co), co.jdoZooGetOid());
+    			}
+    		}
+    		iInd++;
+    	}
+    }
+
 
     private void updateFieldIndices() {
         final ZooPC[] buffer = this.buffer;
@@ -161,9 +194,23 @@ public class DataDeleteSink1P implements DataDeleteSink {
             //For now we define that an index is shared by all classes and sub-classes that have
             //a matching field. So there is only one index which is defined in the top-most class
             SchemaIndexEntry schemaTop = node.getSchemaIE(field.getDeclaringType()); 
-            LongLongIndex fieldInd = (LongLongIndex) schemaTop.getIndex(field);
+            LongLongIndex fieldInd = schemaTop.getIndex(field);
+            PagedStringIndex strInd = schemaTop.getStringIndex(field);
             try {
                 Field jField = field.getJavaField();
+                if (strInd != null) {
+                	for (int i = 0; i < bufferCnt; i++) {
+                		ZooPC co = buffer[i];
+                		String str;
+                		if (co.jdoZooGetBackup() != null) {
+                			str = (String) co.jdoZooGetBackup().getB()[iInd];
+                		} else {
+                			str = (String) jField.get(co);
+                		}
+                		strInd.remove(str, co.jdoZooGetOid());
+                	}
+                	continue;
+                }
                 for (int i = 0; i < bufferCnt; i++) {
                     ZooPC co = buffer[i];
                     //This can be null for objects that have not been modified.
@@ -220,7 +267,24 @@ public class DataDeleteSink1P implements DataDeleteSink {
             //For now we define that an index is shared by all classes and sub-classes that have
             //a matching field. So there is only one index which is defined in the top-most class
             SchemaIndexEntry schemaTop = node.getSchemaIE(field.getDeclaringType()); 
-            LongLongIndex fieldInd = (LongLongIndex) schemaTop.getIndex(field);
+            LongLongIndex fieldInd = schemaTop.getIndex(field);
+            PagedStringIndex strInd = schemaTop.getStringIndex(field);
+            if (strInd != null) {
+            	for (int i = 0; i < bufferCnt; i++) {
+            		GenericObject co = buffer[i];
+            		String str;
+            		if (co.jdoZooGetBackup() != null) {
+            			str = (String) co.jdoZooGetBackup().getB()[iInd];
+            		} else if (co.jdoZooIsStateHollow()) {
+            			//read the stored value
+            			str = node.getDiskAccess().readStringField(co.getOid(), field);
+            		} else {
+            			str = (String) co.getField(field);
+            		}
+            		strInd.remove(str, co.getOid());
+            	}
+            	continue;
+            }
             try {
                 for (int i = 0; i < bufferCnt; i++) {
                     GenericObject co = buffer[i];
@@ -234,13 +298,12 @@ public class DataDeleteSink1P implements DataDeleteSink {
                 	long l;
                     if (field.isString()) {
                         if (co.jdoZooIsStateHollow()) {
-                        	//We need to activate it to get the values!
-                        	//But only for String, the primitives should be fine.
-                        	throw new UnsupportedOperationException();
-                        	//TODO do we really need this?
-                        	//co.getContext().getNode().refreshObject(co);
+                        	//read the stored value, the primitives should be fine.
+                        	l = BitTools.toSortableLong(
+                        			node.getDiskAccess().readStringField(co.getOid(), field));
+                        } else {
+                        	l = (Long)co.getFieldRaw(field.getFieldPos());
                         }
-                    	l = (Long)co.getFieldRaw(field.getFieldPos());
                     } else if (field.isPersistentType()) {
                     	throw new UnsupportedOperationException();
                     	//TODO the following needs a test!
@@ -24,6 +24,7 @@ import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 
 import org.zoodb.api.impl.ZooPC;
@@ -32,12 +33,17 @@ import org.zoodb.internal.DataSink;
 import org.zoodb.internal.GenericObject;
 import org.zoodb.internal.SerializerTools;
 import org.zoodb.internal.ZooClassDef;
+import org.zoodb.internal.ZooCompositeIndexDef;
 import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.client.AbstractCache;
 import org.zoodb.internal.server.ObjectWriter;
 import org.zoodb.internal.server.index.BitTools;
 import org.zoodb.internal.server.index.LongLongIndex;
+import org.zoodb.internal.server.index.LongLongIndex.LLEntry;
+import org.zoodb.internal.server.index.LongLongIndex.LongLongIterator;
+import org.zoodb.internal.server.index.PagedStringIndex;
 import org.zoodb.internal.server.index.SchemaIndex.SchemaIndexEntry;
+import org.zoodb.internal.server.index.StringRange;
 import org.zoodb.internal.util.DBLogger;
 import org.zoodb.internal.util.Util;
 
@@ -163,9 +169,11 @@ public class DataSink1P implements DataSink {
 
     private void flushBuffer() {
         updateFieldIndices();
+        updateCompositeIndices(buffer, bufferCnt);
         bufferCnt = 0;
         if (bufferGOCnt > 0) {
 	        updateFieldIndicesGO();
+	        updateCompositeIndices(bufferGO, bufferGOCnt);
 	        bufferGOCnt = 0;
         }
 
@@ -178,18 +186,27 @@ public class DataSink1P implements DataSink {
                     continue;
                 }
                 SchemaIndexEntry schemaTop = node.getSchemaIE(field.getDeclaringType()); 
-                LongLongIndex fieldInd = (LongLongIndex) schemaTop.getIndex(field);
+                LongLongIndex fieldInd = schemaTop.getIndex(field);
+                PagedStringIndex strInd = schemaTop.getStringIndex(field);
         		for (Pair p: a) {
         			//This should now work, all objects have been removed
         			//Refreshing is also not an issue, we already have the index-value
-        			if (field.isString()) {
+        			if (strInd != null) {
+        				String str = getString(p.pc, field);
+        				//as below, 'null' is not checked
+        				if (str != null) {
+        					checkUniqueString(strInd, field, p.pc, str);
+        				}
+        				strInd.insert(str, p.pc.jdoZooGetOid());
+        			} else if (field.isString()) {
         				//TODO this does not work for GOs... Actually, it might, because 
         				//GOs extend ZooPC...  for ZooPC see Test_091 -> Issue 55
         				String str = getString(p.pc, field);
         				//ignore 'null' ?!?!? Why? No reason, just a definition we make here...
         				if (str != null) {
 	        				Iterator<ZooPC> it = 
-	        						node.readObjectFromIndex(field, p.value, p.value, true);
+	        						node.readObjectFromIndex(field, p.value, p.value, true, true, 
+	        							null, null);
 	        				while (it.hasNext()) {
 	        					ZooPC o2 = it.next();
 	        					String s2 = getString(o2, field);
@@ -216,6 +233,40 @@ public class DataSink1P implements DataSink {
         }
     }
 
+    private void checkUniqueString(PagedStringIndex ind, ZooFieldDef field, ZooPC pc, 
+    		String str) {
+    	long oid = pc.jdoZooGetOid();
+    	if (ind.isExact(str)) {
+    		LongLongIterator<LLEntry> it = ind.iterator(StringRange.equal(str));
+    		while (it.hasNext()) {
+    			long oid2 = it.next().getValue();
+    			if (oid2 != oid) {
+    				it.close();
+    				throw newUniqueClash(field, str, oid, oid2);
+    			}
+    		}
+    		it.close();
+    		return;
+    	}
+    	//Long Strings are truncated in the index, so we have to compare the objects
+    	long key = BitTools.toSortableLong(str);
+    	Iterator<ZooPC> it = node.readObjectFromIndex(field, StringRange.equal(str), key, key, 
+    			true, null, null);
+    	while (it.hasNext()) {
+    		ZooPC o2 = it.next();
+    		if (o2.jdoZooGetOid() != oid && str.equals(getString(o2, field))) {
+    			throw newUniqueClash(field, str, oid, o2.jdoZooGetOid());
+    		}
+    	}
+    }
+
+    private static RuntimeException newUniqueClash(ZooFieldDef field, String str, long oid, 
+    		long oid2) {
+    	return DBLogger.newUser("Unique index clash by value of field " 
+    			+ field.getName() + "=" + str +  " of new object "
+    			+ Util.oidToString(oid) + " with " + Util.oidToString(oid2));
+    }
+    
     private String getString(ZooPC pc, ZooFieldDef field) {
 		if (pc instanceof GenericObject) {
 			GenericObject go = (GenericObject) pc;
@@ -249,9 +300,17 @@ public class DataSink1P implements DataSink {
             //For now we define that an index is shared by all classes and sub-classes that have
             //a matching field. So there is only one index which is defined in the top-most class
             SchemaIndexEntry schemaTop = node.getSchemaIE(field.getDeclaringType()); 
-            LongLongIndex fieldInd = (LongLongIndex) schemaTop.getIndex(field);
+            LongLongIndex fieldInd = schemaTop.getIndex(field);
+            PagedStringIndex strInd = schemaTop.getStringIndex(field);
             try {
                 Field jField = field.getJavaField();
+                if (strInd != null) {
+                    for (int i = 0; i < bufferCnt; i++) {
+                    	ZooPC co = buffer[i];
+                    	updateStringIndex(strInd, field, iField, iInd, co, (String)jField.get(co));
+                    }
+                    continue;
+                }
                 for (int i = 0; i < bufferCnt; i++) {
                     ZooPC co = buffer[i];
                     final long l;
@@ -305,6 +364,61 @@ public class DataSink1P implements DataSink {
         }
     }
 
+    private void updateCompositeIndices(ZooPC[] buffer, int bufferCnt) {
+    	List<ZooCompositeIndexDef> compIndices = cls.getAllCompositeIndices();
+    	if (compIndices.isEmpty() || bufferCnt == 0) {
+    		return;
+    	}
+    	//In the backup, the composite keys follow the keys of the indexed fields
+    	int iInd = 0;
+    	for (ZooFieldDef field: cls.getAllFields()) {
+    		if (field.isIndexed()) {
+    			iInd++;
+    		}
+    	}
+    	for (ZooCompositeIndexDef ci: compIndices) {
+    		//As for field indices, the index is defined in the declaring class
+    		SchemaIndexEntry schemaTop = node.getSchemaIE(ci.getDeclaringType());
+    		LongLongIndex ind = schemaTop.getCompositeIndex(ci.getFieldIds());
+    		for (int i = 0; i < bufferCnt; i++) {
+    			ZooPC co = buffer[i];
+    			long l = ci.getKey(co);
+    			if (!co.jdoZooIsNew()) {
+    				long[] backup = co.jdoZooGetBackup().getA();
+    				//The backup may have been created before the index was defined
+    				if (iInd < backup.length) {
+    					long lOld = backup[iInd];
+    					if (lOld == l) {
+    						//no update here...
+    						continue;
+    					}
+    					ind.removeLong(lOld, co.jdoZooGetOid());
+    				}
+    			}
+    			ind.insertLong(l, co.jdoZooGetOid());
+    		}
+    		iInd++;
+    	}
+    }
+
+    private void updateStringIndex(PagedStringIndex ind, ZooFieldDef field, int iField, 
+    		int iInd, ZooPC co, String str) {
+    	if (!co.jdoZooIsNew()) {
+    		String strOld = (String) co.jdoZooGetBackup().getB()[iInd];
+    		if (Objects.equals(str, strOld)) {
+    			//no update here...
+    			return;
+    		}
+    		ind.remove(strOld, co.jdoZooGetOid());
+    	}
+    	if (field.isIndexUnique()) {
+    		//always buffer string updates, because verifying collisions is costly
+    		bufferIndexUpdate(iField, co, BitTools.toSortableLong(str));
+    	} else {
+    		ind.insert(str, co.jdoZooGetOid());
+    	}
+    }
+
     private void bufferIndexUpdate(int iField, ZooPC pc, long l) {
    		if (fieldUpdateBuffer[iField] == null) {
 			fieldUpdateBuffer[iField] = new ArrayList<Pair>();
@@ -332,7 +446,15 @@ public class DataSink1P implements DataSink {
             //For now we define that an index is shared by all classes and sub-classes that have
             //a matching field. So there is only one index which is defined in the top-most class
             SchemaIndexEntry schemaTop = node.getSchemaIE(field.getDeclaringType()); 
-            LongLongIndex fieldInd = (LongLongIndex) schemaTop.getIndex(field);
+            LongLongIndex fieldInd = schemaTop.getIndex(field);
+            PagedStringIndex strInd = schemaTop.getStringIndex(field);
+            if (strInd != null) {
+            	for (int i = 0; i < bufferCnt; i++) {
+            		GenericObject co = buffer[i];
+            		updateStringIndex(strInd, field, iField, iInd, co, (String) co.getField(field));
+            	}
+            	continue;
+            }
             try {
                 for (int i = 0; i < bufferCnt; i++) {
                     GenericObject co = buffer[i];
@@ -24,15 +24,21 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 
+import org.zoodb.api.DBLargeHashMap;
+import org.zoodb.api.DBLargeHashMapNode;
+import org.zoodb.api.DBLargeVector;
+import org.zoodb.api.DBLargeVectorChunk;
 import org.zoodb.api.impl.ZooPC;
 import org.zoodb.internal.DataDeleteSink;
 import org.zoodb.internal.DataSink;
 import org.zoodb.internal.GenericObject;
 import org.zoodb.internal.Node;
+import org.zoodb.internal.ObjectFilter;
 import org.zoodb.internal.OidBuffer;
 import org.zoodb.internal.Session;
 import org.zoodb.internal.ZooClassDef;
 import org.zoodb.internal.ZooClassProxy;
+import org.zoodb.internal.ZooCompositeIndexDef;
 import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.ZooHandleImpl;
 import org.zoodb.internal.client.SchemaManager;
@@ -42,10 +48,15 @@ import org.zoodb.internal.server.OptimisticTransactionResult;
 import org.zoodb.internal.server.ServerResponse;
 import org.zoodb.internal.server.SessionFactory;
 import org.zoodb.internal.server.TxObjInfo;
+import org.zoodb.internal.server.index.LongLongIndex.LLEntry;
+import org.zoodb.internal.server.index.LongLongIndex.LongLongIterator;
 import org.zoodb.internal.server.index.PagedOidIndex;
 import org.zoodb.internal.server.index.SchemaIndex.SchemaIndexEntry;
+import org.zoodb.internal.server.index.StringRange;
 import org.zoodb.internal.util.CloseableIterator;
 import org.zoodb.internal.util.DBLogger;
+import org.zoodb.internal.util.PrimLongSet;
+import org.zoodb.internal.util.PrimLongSetZ;
 import org.zoodb.internal.util.Util;
 import org.zoodb.tools.DBStatistics.STATS;
 
@@ -137,8 +148,8 @@ public class Node1P extends Node {
 	
     @Override
     public CloseableIterator<ZooPC> loadAllInstances(ZooClassProxy def, 
-            boolean loadFromCache) {
-        return disk.readAllObjects(def.getSchemaId(), loadFromCache);
+            boolean loadFromCache, ObjectFilter filter) {
+        return disk.readAllObjects(def.getSchemaId(), loadFromCache, filter);
     }
 
     @Override
@@ -153,6 +164,11 @@ public class Node1P extends Node {
 		return pc;
 	}
 	
+	@Override
+	public ZooPC[] loadInstancesById(long[] oids) {
+		return disk.readObjects(oids);
+	}
+	
 	@Override
 	public void refreshObject(ZooPC pc) {
 		if (pc.jdoZooIsNew() || (!pc.jdoZooIsStateHollow() && !pc.jdoZooIsTransactional())) {
@@ -163,6 +179,11 @@ public class Node1P extends Node {
 			//deleted objects remain unchanged (!) --> see spec.
 			return;
 		}
+		if (pc.getClass() == GenericObject.class) {
+			//this reads into the cached instance
+			disk.readGenericObject(pc.jdoZooGetClassDef(), pc.jdoZooGetOid());
+			return;
+		}
 		ServerResponse r = disk.readObject(pc);
 		if (r.result() == ServerResponse.RESULT.OBJECT_NOT_FOUND) {
 			//must have been deleted
@@ -188,10 +209,17 @@ public class Node1P extends Node {
 		ClientSessionCache commonCache = session.internalGetCache();
 	    ZooClassDef cs;
 	    if (obj.getClass() != GenericObject.class) {
+	    	if (obj instanceof DBLargeVector) {
+	    		session.getSchemaManager().migrateLegacyLargeVector(this);
+	    	}
 		    cs = commonCache.getSchema(obj.getClass(), this);
 		    if (cs == null || cs.jdoZooIsDeleted()) {
 		    	SchemaManager sm = session.getSchemaManager();
-		    	if (sm.getAutoCreateSchema()) {
+		    	//The nodes of large collections are not visible to users, so we always
+		    	//create their schema
+		    	if (sm.getAutoCreateSchema() || obj instanceof DBLargeHashMap || 
+		    			obj instanceof DBLargeHashMapNode || obj instanceof DBLargeVector ||
+		    			obj instanceof DBLargeVectorChunk) {
 		    		cs = sm.createSchema(this, obj.getClass()).getSchemaDef();
 		    	} else {
 		    		throw DBLogger.newUser("No schema found for object: " + obj.getClass().getName());
@@ -221,10 +249,61 @@ public class Node1P extends Node {
 		return disk.removeIndex(def, field);
 	}
 
+	@Override
+	public void defineCompositeIndex(ZooClassDef def, ZooCompositeIndexDef index) {
+		disk.defineCompositeIndex(def, index);
+	}
+
+	@Override
+	public boolean removeCompositeIndex(ZooClassDef def, ZooCompositeIndexDef index) {
+		return disk.removeCompositeIndex(def, index);
+	}
+
 	@Override
 	public Iterator<ZooPC> readObjectFromIndex( ZooFieldDef field, 
-			long minValue, long maxValue, boolean loadFromCache) {
-		return disk.readObjectFromIndex(field, minValue, maxValue, loadFromCache);
+			long minValue, long maxValue, boolean ascending, boolean loadFromCache,
+			PrimLongSet include, PrimLongSet exclude) {
+		return disk.readObjectFromIndex(field, minValue, maxValue, ascending, loadFromCache, 
+				include, exclude);
+	}
+
+	@Override
+	public PrimLongSetZ readOidsFromIndex(ZooFieldDef field, long minValue, long maxValue,
+			PrimLongSet filter) {
+		return disk.readOidsFromIndex(field, minValue, maxValue, filter);
+	}
+
+	@Override
+	public Iterator<ZooPC> readObjectFromIndex(ZooFieldDef field, StringRange range, 
+			long minValue, long maxValue, boolean loadFromCache, 
+			PrimLongSet include, PrimLongSet exclude) {
+		return disk.readObjectFromIndex(field, range, minValue, maxValue, loadFromCache, 
+				include, exclude);
+	}
+
+	@Override
+	public PrimLongSetZ readOidsFromIndex(ZooFieldDef field, StringRange range, 
+			long minValue, long maxValue, PrimLongSet filter) {
+		return disk.readOidsFromIndex(field, range, minValue, maxValue, filter);
+	}
+
+	@Override
+	public Iterator<ZooPC> readObjectFromIndex(ZooCompositeIndexDef index, 
+			long minValue, long maxValue, boolean ascending, boolean loadFromCache,
+			PrimLongSet include, PrimLongSet exclude) {
+		return disk.readObjectFromIndex(index, minValue, maxValue, ascending, loadFromCache, 
+				include, exclude);
+	}
+
+	@Override
+	public PrimLongSetZ readOidsFromIndex(ZooCompositeIndexDef index, long minValue, 
+			long maxValue, PrimLongSet filter) {
+		return disk.readOidsFromIndex(index, minValue, maxValue, filter);
+	}
+
+	@Override
+	public LongLongIterator<LLEntry> readIndexEntries(ZooFieldDef field, boolean ascending) {
+		return disk.readIndexEntries(field, ascending);
 	}
 
 	@Override
@@ -292,6 +371,31 @@ public class Node1P extends Node {
 		return disk.countInstances(clsDef, subClasses);
 	}
 
+	@Override
+	public long countOutdatedInstances(ZooClassProxy clsDef) {
+		return disk.countOutdatedInstances(clsDef);
+	}
+
+	@Override
+	public long[] readOutdatedOids(ZooClassProxy clsDef, int maxResults) {
+		return disk.readOutdatedOids(clsDef, maxResults);
+	}
+
+	@Override
+	public long[] readAllOids(ZooClassProxy clsDef, ZooFieldDef orderBy) {
+		return disk.readAllOids(clsDef, orderBy);
+	}
+
+	@Override
+	public void truncateOnCommit() {
+		disk.truncateOnCommit();
+	}
+
+	@Override
+	public void appendOnCommit() {
+		disk.appendOnCommit();
+	}
+
 	@Override
 	public GenericObject readGenericObject(ZooClassDef def, long oid) {
 		return disk.readGenericObject(def, oid);
@@ -20,23 +20,36 @@
  */
 package org.zoodb.internal.query;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.zoodb.internal.ZooCompositeIndexDef;
 import org.zoodb.internal.ZooFieldDef;
+import org.zoodb.internal.server.index.StringRange;
 
 /**
  * This class holds results from the query analyzer for the query executor.
  * - the query
- * - Index to use (if != null)
+ * - Index to use (if != null), either a field index or a composite index
  * - min/max values of that index
- * - ascending/descending? 
+ * - for String indices, the range of Strings
+ * - ascending/descending
+ * - whether the index returns the results in the requested order
+ * - ranges of other indices whose OIDs should be intersected with the results of this index
  * 
  * @author Tilmann Zaeschke
  */
 public final class QueryAdvice {
 	private final QueryTreeNode query;
 	private ZooFieldDef index;
+	private ZooCompositeIndexDef compositeIndex;
 	private long min;
 	private long max;
-	private boolean ascending;
+	private StringRange stringRange;
+	private boolean ascending = true;
+	private boolean ordered = false;
+	private List<QueryAdvice> intersections = null;
 	
 	public QueryAdvice(QueryTreeNode queryTree) {
 		this.query = queryTree;
@@ -50,6 +63,25 @@ public final class QueryAdvice {
 		this.index = index;
 	}
 
+	/**
+	 * @return The composite index to use, or {@code null} if a field index or no index
+	 * should be used.
+	 */
+	public ZooCompositeIndexDef getCompositeIndex() {
+		return compositeIndex;
+	}
+
+	void setCompositeIndex(ZooCompositeIndexDef compositeIndex) {
+		this.compositeIndex = compositeIndex;
+	}
+
+	/**
+	 * @return Whether the advice uses a field index or a composite index.
+	 */
+	public boolean hasIndex() {
+		return index != null || compositeIndex != null;
+	}
+
 	public long getMin() {
 		return min;
 	}
@@ -66,6 +98,19 @@ public final class QueryAdvice {
 		this.max = max;
 	}
 
+	/**
+	 * @return The range of Strings for a String index, or {@code null} if the index is not a 
+	 * String index. String indices that store the full Strings use this range instead of
+	 * min and max.
+	 */
+	public StringRange getStringRange() {
+		return stringRange;
+	}
+
+	void setStringRange(StringRange stringRange) {
+		this.stringRange = stringRange;
+	}
+
 	public boolean isAscending() {
 		return ascending;
 	}
@@ -74,9 +119,39 @@ public final class QueryAdvice {
 		this.ascending = ascending;
 	}
 
+	/**
+	 * @return Whether traversing the index returns the results in the order requested by
+	 * the query, i.e. whether sorting the results can be skipped.
+	 */
+	public boolean isOrdered() {
+		return ordered;
+	}
+
+	void setOrdered(boolean ordered) {
+		this.ordered = ordered;
+	}
+
 	public QueryTreeNode getQuery() {
 		return query;
 	}
+
+	/**
+	 * @return Index ranges that must also contain the OID of any object in the result. Only
+	 * the index, min, max and String range of the returned advices are relevant.
+	 */
+	public List<QueryAdvice> getIntersections() {
+		if (intersections == null) {
+			return Collections.emptyList();
+		}
+		return intersections;
+	}
+
+	void addIntersection(QueryAdvice qa) {
+		if (intersections == null) {
+			intersections = new ArrayList<>();
+		}
+		intersections.add(qa);
+	}
 	
 	
 }
\ No newline at end of file
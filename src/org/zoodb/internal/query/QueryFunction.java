@@ -79,6 +79,31 @@ public class QueryFunction {
 		}
 	}
 	
+	/**
+	 * Copy constructor.
+	 * @param f The original function
+	 * @param c The copier
+	 */
+	private QueryFunction(QueryFunction f, QueryTreeCopier c) {
+		this.returnType = f.returnType;
+		this.returnTypeDef = c.cls(f.returnTypeDef);
+		this.fnct = f.fnct;
+		this.zField = c.field(f.zField);
+		this.fieldId = f.fieldId;
+		this.field = f.field;
+		this.constant = f.fnct == FNCT_OP.PARAM ? 
+				c.param((QueryParameter) f.constant) : f.constant;
+		this.params = new QueryFunction[f.params.length];
+		for (int i = 0; i < params.length; i++) {
+			this.params[i] = f.params[i].copy(c);
+		}
+		this.isConstant = f.isConstant;
+	}
+	
+	QueryFunction copy(QueryTreeCopier c) {
+		return new QueryFunction(this, c);
+	}
+	
 	/**
 	 * 
 	 * @return 'true' if this sub-tree yields a constant result, independent of parameters etc
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.internal.query;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.zoodb.internal.util.CloseableIterator;
+
+/**
+ * This iterator applies a query filter to an iterator over candidate objects.
+ * Candidates are only loaded when the iterator is advanced, so a consumer that stops
+ * early avoids loading the remaining candidates.
+ *
+ * The candidate iterator is closed when this iterator is closed or exhausted.
+ *
+ * @author Tilmann Zaeschke
+ *
+ * @param <E> Iterator type
+ */
+public class QueryIterator<E> implements CloseableIterator<E> {
+
+	private final Iterator<?> candidates;
+	private final QueryTreeNode filter;
+	private final Class<?> exactClass;
+	private final long maxResults;
+	private long nResults = 0;
+	private E next = null;
+	private boolean isClosed = false;
+
+	/**
+	 *
+	 * @param candidates The candidate objects
+	 * @param filter The query filter
+	 * @param exactClass If not {@code null}, only objects of exactly this class are returned
+	 */
+	public QueryIterator(Iterator<?> candidates, QueryTreeNode filter, Class<?> exactClass) {
+		this(candidates, filter, exactClass, Long.MAX_VALUE);
+	}
+
+	/**
+	 *
+	 * @param candidates The candidate objects
+	 * @param filter The query filter
+	 * @param exactClass If not {@code null}, only objects of exactly this class are returned
+	 * @param maxResults The maximum number of results
+	 */
+	public QueryIterator(Iterator<?> candidates, QueryTreeNode filter, Class<?> exactClass,
+			long maxResults) {
+		this.candidates = candidates;
+		this.filter = filter;
+		this.exactClass = exactClass;
+		this.maxResults = maxResults;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public boolean hasNext() {
+		if (next != null) {
+			return true;
+		}
+		if (isClosed) {
+			return false;
+		}
+		while (nResults < maxResults && candidates.hasNext()) {
+			Object o = candidates.next();
+			if (exactClass != null && exactClass != o.getClass()) {
+				continue;
+			}
+			if (filter.evaluate(o)) {
+				next = (E) o;
+				nResults++;
+				return true;
+			}
+		}
+		close();
+		return false;
+	}
+
+	@Override
+	public E next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		E ret = next;
+		next = null;
+		return ret;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() {
+		if (isClosed) {
+			return;
+		}
+		isClosed = true;
+		if (candidates instanceof CloseableIterator) {
+			((CloseableIterator<?>)candidates).close();
+		}
+	}
+}
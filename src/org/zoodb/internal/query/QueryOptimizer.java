@@ -20,6 +20,7 @@
  */
 package org.zoodb.internal.query;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.IdentityHashMap;
@@ -30,16 +31,32 @@ import java.util.Map;
 import java.util.TreeSet;
 
 import org.zoodb.api.impl.ZooPC;
+import org.zoodb.internal.SerializerTools.PRIMITIVE;
 import org.zoodb.internal.ZooClassDef;
+import org.zoodb.internal.ZooCompositeIndexDef;
 import org.zoodb.internal.ZooFieldDef;
+import org.zoodb.internal.ZooFieldDef.JdoType;
+import org.zoodb.internal.query.QueryParser.COMP_OP;
 import org.zoodb.internal.query.QueryParser.FNCT_OP;
 import org.zoodb.internal.server.index.BitTools;
+import org.zoodb.internal.server.index.CompositeKeyEncoder;
+import org.zoodb.internal.server.index.StringRange;
 import org.zoodb.internal.util.DBLogger;
+import org.zoodb.internal.util.Pair;
 import org.zoodb.jdo.impl.QueryImpl;
 
 public class QueryOptimizer {
 	
 	private final ZooClassDef clsDef;
+	private List<ZooCompositeIndexDef> compositeIndices;
+	//indexed field that can return the results in the requested order, or null
+	private ZooFieldDef orderField;
+	private boolean orderAscending;
+	//whether the ordering index should be preferred over other indices
+	private boolean preferOrderField;
+	//The ranges of indexed String fields, in addition to the min/max of their keys
+	private final IdentityHashMap<ZooFieldDef, StringRange> stringRanges = 
+			new IdentityHashMap<ZooFieldDef, StringRange>();
 	
 	/**
 	 * A lookup map for all characters that indicate a (non-indexable) regex String. 
@@ -77,6 +94,24 @@ public class QueryOptimizer {
 	 * @return Index to use.
 	 */
 	public List<QueryAdvice> determineIndexToUse(QueryTreeNode queryTree) {
+		return determineIndexToUse(queryTree, null, false);
+	}
+	
+	/**
+	 * Determine index to use, see {@link #determineIndexToUse(QueryTreeNode)}.
+	 * 
+	 * If the results should be ordered by a single indexed field, the index of that field is
+	 * used in place of a scan over the whole extent. In that case the returned advice 
+	 * indicates with {@link QueryAdvice#isOrdered()} that sorting is not required.
+	 * 
+	 * @param queryTree the root of the query tree
+	 * @param ordering The requested ordering of the results, may be {@code null}
+	 * @param isTopN Whether only the first N results are required. If {@code true}, the 
+	 * ordering index is also preferred over other indices.
+	 * @return Index to use.
+	 */
+	public List<QueryAdvice> determineIndexToUse(QueryTreeNode queryTree, 
+			List<Pair<ZooFieldDef, Boolean>> ordering, boolean isTopN) {
 		List<QueryAdvice> advices = new LinkedList<QueryAdvice>();
 		List<ZooFieldDef> availableIndices = new LinkedList<ZooFieldDef>();
 		for (ZooFieldDef f: clsDef.getAllFields()) {
@@ -85,8 +120,10 @@ public class QueryOptimizer {
 			}
 		}
 
+		compositeIndices = clsDef.getAllCompositeIndices();
+
 		// step 1
-		if (availableIndices.isEmpty()) {
+		if (availableIndices.isEmpty() && compositeIndices.isEmpty()) {
 			//no index usage
 			advices.add( new QueryAdvice(queryTree) );
 			return advices;
@@ -101,6 +138,16 @@ public class QueryOptimizer {
 		subQueries.add(queryTree);
 		queryTree.createSubs(subQueries);
 		
+		//step 4b - the results of multiple sub-queries need to be merged and sorted anyway
+		if (subQueries.size() == 1 && ordering != null && ordering.size() == 1) {
+			ZooFieldDef f = ordering.get(0).getA();
+			if (isOrderedByIndex(f)) {
+				orderField = f;
+				orderAscending = ordering.get(0).getB();
+				preferOrderField = isTopN;
+			}
+		}
+		
 //		System.out.println("Query2: " + queryTree.print());
 		for (QueryTreeNode sq: subQueries) {
 			optimize(sq);
@@ -115,6 +162,7 @@ public class QueryOptimizer {
 			advices.add(determineIndexToUseSub(sq, minMap, maxMap));
 			minMap.clear();
 			maxMap.clear();
+			stringRanges.clear();
 		}
 		
 		//TODO merge queries
@@ -179,14 +227,22 @@ public class QueryOptimizer {
 			//shortcut
 			return;
 		}
-		IdentityHashMap<ZooFieldDef, TreeSet<QueryAdvice>> map = 
-				new IdentityHashMap<ZooFieldDef, TreeSet<QueryAdvice>>();
+		IdentityHashMap<Object, TreeSet<QueryAdvice>> map = 
+				new IdentityHashMap<Object, TreeSet<QueryAdvice>>();
+		//Advices on exact String indices are not merged. Their key ranges are only 
+		//approximations, overlapping key ranges can still have disjoint String ranges.
+		//Overlapping results are instead filtered out when the query is executed.
+		List<QueryAdvice> unmerged = new ArrayList<QueryAdvice>();
 		//sort QAs by index and by minValue
 		for (QueryAdvice qa: advices) {
-			TreeSet<QueryAdvice> subList = map.get(qa.getIndex());
+			if (qa.getStringRange() != null) {
+				unmerged.add(qa);
+				continue;
+			}
+			TreeSet<QueryAdvice> subList = map.get(indexOf(qa));
 			if (subList == null) {
 				subList = new TreeSet<QueryAdvice>(new AdviceComparator());
-				map.put(qa.getIndex(), subList);
+				map.put(indexOf(qa), subList);
 			}
 			subList.add(qa);
 		}
@@ -194,7 +250,10 @@ public class QueryOptimizer {
 		//merge
 		boolean merged = false;
 		for (QueryAdvice qa: advices) {
-			TreeSet<QueryAdvice> subList = map.get(qa.getIndex());
+			TreeSet<QueryAdvice> subList = map.get(indexOf(qa));
+			if (subList == null) {
+				continue;
+			}
 			Iterator<QueryAdvice> iter = subList.iterator();
 			QueryAdvice prev = iter.next();
 			while (iter.hasNext()) {
@@ -214,9 +273,14 @@ public class QueryOptimizer {
 			for (TreeSet<QueryAdvice> subList: map.values()) {
 				advices.addAll(subList);
 			}
+			advices.addAll(unmerged);
 		}
 	}
 
+	private static Object indexOf(QueryAdvice qa) {
+		return qa.getCompositeIndex() != null ? qa.getCompositeIndex() : qa.getIndex();
+	}
+
 	/**
 	 * 
 	 * @param queryTree This is a sub-query that does not contain OR operands.
@@ -240,7 +304,7 @@ public class QueryOptimizer {
 				continue;
 			}
 			ZooFieldDef f = term.getLhsFieldDef();
-			if (f == null || !f.isIndexed()) {
+			if (f == null || !isIndexed(f)) {
 				//ignore fields that are not index
 				continue;
 			}
@@ -336,12 +400,112 @@ public class QueryOptimizer {
 			default: 
 				throw new IllegalArgumentException("Name: " + term.getOp());
 			}
+			if (f.isString()) {
+				narrowStringRange(f, term.getOp(), termVal);
+			}
 			
 			//TODO take into account not-operators (x>1 && x<10) && !(x>5 && X <6) ??
 			// -> Hopefully this optimization is marginal and negligible.
 			//But it may break everything!
 		}
-		return createQueryAdvice(minMap, maxMap, queryTree);
+		QueryAdvice qa = createQueryAdvice(minMap, maxMap, queryTree);
+		if (orderField != null) {
+			qa = applyOrdering(qa, minMap, maxMap, queryTree);
+		}
+		return qa;
+	}
+	
+	/**
+	 * Narrow the range of Strings of an indexed String field. Unlike the min/max values of 
+	 * the keys, this range is exact. 
+	 */
+	private void narrowStringRange(ZooFieldDef f, COMP_OP op, Object termVal) {
+		StringRange r = getStringRange(f);
+		String s = termVal == QueryTerm.NULL ? null : (String) termVal;
+		switch (op) {
+		case EQ: r = r.withEqual(s); break;
+		case L: 
+		case LE: 
+			if (s != null) {
+				r = r.withMax(s, op == COMP_OP.LE);
+			}
+			break;
+		case A: 
+		case AE: 
+			if (s != null) {
+				r = r.withMin(s, op == COMP_OP.AE);
+			}
+			break;
+		default: 
+			//startsWith() is handled in setKeysForStringStartsWith(), others are ignored
+		}
+		stringRanges.put(f, r);
+	}
+
+	private StringRange getStringRange(ZooFieldDef f) {
+		StringRange r = stringRanges.get(f);
+		return r == null ? StringRange.all() : r;
+	}
+
+	/**
+	 * @param f the field
+	 * @return Whether the field has an index or is part of a composite index.
+	 */
+	private boolean isIndexed(ZooFieldDef f) {
+		if (f.isIndexed()) {
+			return true;
+		}
+		for (ZooCompositeIndexDef ci: compositeIndices) {
+			if (ci.hasField(f)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Only indices on primitive fields return objects in the order defined by the 
+	 * QueryComparator. String indices only store a prefix and a hash of the String.
+	 * @param f the field
+	 * @return Whether traversing the index of the field returns correctly ordered results.
+	 */
+	private static boolean isOrderedByIndex(ZooFieldDef f) {
+		return f.isIndexed() && f.getJdoType() == JdoType.PRIMITIVE 
+				&& f.getPrimitiveType() != PRIMITIVE.BOOLEAN;
+	}
+	
+	private QueryAdvice applyOrdering(QueryAdvice qa, 
+			IdentityHashMap<ZooFieldDef, Long> minMap, 
+			IdentityHashMap<ZooFieldDef, Long> maxMap, 
+			QueryTreeNode queryTree) {
+		if (qa.getIndex() != orderField) {
+			if (qa.hasIndex() && !preferOrderField) {
+				//The other index may be more selective
+				return qa;
+			}
+			QueryAdvice qaOld = qa;
+			qa = new QueryAdvice(queryTree);
+			qa.setIndex(orderField);
+			if (minMap.containsKey(orderField)) {
+				qa.setMin(minMap.get(orderField));
+				qa.setMax(maxMap.get(orderField));
+			} else {
+				qa.setMin(orderField.getMinValue());
+				qa.setMax(orderField.getMaxValue());
+			}
+			//the ranges of the other indices can still be used to filter the OIDs
+			if (qaOld.hasIndex()) {
+				qa.addIntersection(qaOld);
+				for (QueryAdvice qa2: qaOld.getIntersections()) {
+					if (qa2.getIndex() != orderField) {
+						qa.addIntersection(qa2);
+					}
+				}
+			}
+		}
+		qa.setAscending(orderAscending);
+		qa.setOrdered(true);
+		return qa;
 	}
 	
 	private void determineIndexToUseSubForQueryFunctions( 
@@ -367,7 +531,7 @@ public class QueryOptimizer {
 		}
 		
 		ZooFieldDef f = f0.getFieldDef();
-		if (f == null || !f.isIndexed()) {
+		if (f == null || !isIndexed(f)) {
 			//ignore fields that are not index
 			return;
 		}
@@ -410,6 +574,7 @@ public class QueryOptimizer {
 			if (key < maxMap.get(f)) {
 				maxMap.put(f, key);
 			}
+			stringRanges.put(f, getStringRange(f).withEqual(str));
 			break;
 		case STR_startsWith:
 			setKeysForStringStartsWith((String) param1, f, minMap, maxMap);
@@ -429,6 +594,7 @@ public class QueryOptimizer {
 		if (keyMax < maxMap.get(f)) {
 			maxMap.put(f, keyMax);
 		}
+		stringRanges.put(f, getStringRange(f).withPrefix(prefix));
 	}
 	
 	private QueryAdvice createQueryAdvice(
@@ -441,39 +607,155 @@ public class QueryOptimizer {
 		}
 		
 		//the advised index to use...
-		// start with first
-		ZooFieldDef def = minMap.keySet().iterator().next();
-		QueryAdvice qa = new QueryAdvice(queryTree);
-		qa.setIndex( def );
-		qa.setMin( minMap.get(def) );
-		qa.setMax( maxMap.get(def) );
-		
-		//only one index left? -> Easy!!!
-		//TODO well, better not use it if it covers the whole range? Maybe for sorting?
-		if (minMap.size() == 1) {
-			qa.setIndex( minMap.keySet().iterator().next() );
-			return qa;
-		}
-		
+		QueryAdvice qa = null;
+		int nIndexed = 0;
 		for (Map.Entry<ZooFieldDef, Long> me2: minMap.entrySet()) {
+			if (!me2.getKey().isIndexed()) {
+				//only part of a composite index
+				continue;
+			}
+			nIndexed++;
 			long min2 = me2.getValue();
 			long max2 = maxMap.get(me2.getKey());
 			//TODO fix for very large values
-			if ((max2-min2) < (qa.getMax() - qa.getMin())) {
+			if (qa == null || (max2-min2) < (qa.getMax() - qa.getMin())) {
+				if (qa == null) {
+					qa = new QueryAdvice(queryTree);
+				}
 				qa.setIndex( me2.getKey() );
 				qa.setMin( min2 );
 				qa.setMax( max2 );
+				qa.setStringRange( stringRangeOf(me2.getKey()) );
 			}
 		}
 		
+		//A composite index is preferred if it narrows more than one field
+		QueryAdvice qaComp = createCompositeQueryAdvice(minMap, maxMap, queryTree, 
+				qa == null ? 1 : 2);
+		if (qaComp != null) {
+			qa = qaComp;
+		} else if (qa == null) {
+			//none of the composite indices can be used
+			return new QueryAdvice(queryTree);
+		} else if (nIndexed == 1) {
+			//only one index left? -> Easy!!!
+			//TODO well, better not use it if it covers the whole range? Maybe for sorting?
+			return qa;
+		} else {
+			extendStringRange(qa);
+		}
+		
+		//Step 4c: Other indices that narrow the result are intersected with the chosen 
+		//index on the level of OIDs, i.e. before the objects are loaded. 
+		for (Map.Entry<ZooFieldDef, Long> me2: minMap.entrySet()) {
+			ZooFieldDef f = me2.getKey();
+			long min2 = me2.getValue();
+			long max2 = maxMap.get(f);
+			if (!f.isIndexed() || f == qa.getIndex() || 
+					(min2 <= f.getMinValue() && max2 >= f.getMaxValue())) {
+				//scanning the whole index is pointless
+				continue;
+			}
+			QueryAdvice qa2 = new QueryAdvice(queryTree);
+			qa2.setIndex(f);
+			qa2.setMin(min2);
+			qa2.setMax(max2);
+			qa2.setStringRange(stringRangeOf(f));
+			extendStringRange(qa2);
+			qa.addIntersection(qa2);
+		}
+
+//		DatabaseLogger.debugPrintln(0, "Using index: " + def.getName());
+		return qa;
+	}
+	
+	/**
+	 * Step 4d: A composite index can be used if the leading fields of the index are 
+	 * restricted to single values, optionally followed by a field that is restricted to a 
+	 * range. The remaining fields of the index are not restricted.
+	 * 
+	 * @param minNFields The minimum number of fields that the index has to narrow
+	 * @return The advice for the composite index that narrows the most fields, or 
+	 * {@code null} if no composite index narrows at least minNFields.
+	 */
+	private QueryAdvice createCompositeQueryAdvice(
+			IdentityHashMap<ZooFieldDef, Long> minMap, 
+			IdentityHashMap<ZooFieldDef, Long> maxMap, 
+			QueryTreeNode queryTree, int minNFields) {
+		QueryAdvice best = null;
+		int bestN = minNFields - 1;
+		for (ZooCompositeIndexDef ci: compositeIndices) {
+			ZooFieldDef[] fields = ci.getFields();
+			CompositeKeyEncoder enc = ci.getEncoder();
+			long codeMin = 0;
+			long codeMax = 0;
+			int n = 0;
+			boolean isRange = false;
+			while (n < fields.length && !isRange) {
+				ZooFieldDef f = findField(minMap, fields[n]);
+				if (f == null) {
+					break;
+				}
+				long min = minMap.get(f);
+				long max = maxMap.get(f);
+				if (min != max) {
+					if (min <= f.getMinValue() && max >= f.getMaxValue()) {
+						break;
+					}
+					if (f.isString()) {
+						//For String we have to extend the range because of the trailing hashcode
+						min = BitTools.getMinPosInPage(min);
+						max = BitTools.getMaxPosInPage(max);
+					}
+					isRange = true;
+				}
+				if (enc.isExact(n)) {
+					//avoid overflow of values outside the range of the type
+					min = Math.min(Math.max(min, f.getMinValue()), f.getMaxValue());
+					max = Math.min(Math.max(max, f.getMinValue()), f.getMaxValue());
+				}
+				codeMin |= enc.encodeField(n, min);
+				codeMax |= enc.encodeField(n, max);
+				n++;
+			}
+			if (n <= bestN) {
+				continue;
+			}
+			for (int i = n; i < fields.length; i++) {
+				codeMax |= enc.maxField(i);
+			}
+			best = new QueryAdvice(queryTree);
+			best.setCompositeIndex(ci);
+			best.setMin(enc.toKey(codeMin));
+			best.setMax(enc.toKey(codeMax));
+			bestN = n;
+		}
+		return best;
+	}
+	
+	private static ZooFieldDef findField(IdentityHashMap<ZooFieldDef, Long> map, 
+			ZooFieldDef field) {
+		for (ZooFieldDef f: map.keySet()) {
+			if (f.getFieldSchemaId() == field.getFieldSchemaId()) {
+				return f;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * @return The range of Strings for String fields, or {@code null} for other fields.
+	 */
+	private StringRange stringRangeOf(ZooFieldDef f) {
+		return f.isString() ? getStringRange(f) : null;
+	}
+	
+	private static void extendStringRange(QueryAdvice qa) {
 		if (qa.getIndex().isString()) {
 			//For String we have to extend the range because of the trailing hashcode
 			qa.setMin(BitTools.getMinPosInPage(qa.getMin()));
 			qa.setMax(BitTools.getMaxPosInPage(qa.getMax()));
 		}
-
-//		DatabaseLogger.debugPrintln(0, "Using index: " + def.getName());
-		return qa;
 	}
 
 	private void optimize(QueryTreeNode q) {
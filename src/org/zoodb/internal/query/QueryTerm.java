@@ -25,13 +25,16 @@ import static org.zoodb.internal.query.TypeConverterTools.toLong;
 
 import java.lang.reflect.Field;
 import java.util.Collection;
+import java.util.Date;
 import java.util.Map;
 
 import org.zoodb.api.impl.ZooPC;
 import org.zoodb.internal.DataDeSerializerNoClass;
+import org.zoodb.internal.ZooClassDef;
 import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.query.QueryParser.COMP_OP;
 import org.zoodb.internal.query.TypeConverterTools.COMPARISON_TYPE;
+import org.zoodb.internal.server.index.BitTools;
 import org.zoodb.internal.util.DBLogger;
 
 public final class QueryTerm {
@@ -201,6 +204,29 @@ public final class QueryTerm {
 		}
 	}
 
+	/**
+	 * Copy constructor.
+	 * @param t The original term
+	 * @param c The copier
+	 */
+	private QueryTerm(QueryTerm t, QueryTreeCopier c) {
+		this.lhsParam = c.param(t.lhsParam);
+		this.lhsValue = t.lhsValue;
+		this.lhsFieldDef = c.field(t.lhsFieldDef);
+		this.lhsFunction = c.function(t.lhsFunction);
+		this.op = t.op;
+		this.rhsParamName = t.rhsParamName;
+		this.rhsValue = t.rhsValue;
+		this.rhsParam = c.param(t.rhsParam);
+		this.rhsFieldDef = c.field(t.rhsFieldDef);
+		this.rhsFunction = c.function(t.rhsFunction);
+		this.compType = t.compType;
+	}
+	
+	QueryTerm copy(QueryTreeCopier c) {
+		return new QueryTerm(this, c);
+	}
+
 	public boolean isParametrized() {
 		return rhsParamName != null;
 	}
@@ -267,7 +293,6 @@ public final class QueryTerm {
 		}
 	}
 	
-	@SuppressWarnings({ "rawtypes", "unchecked" })
 	public boolean evaluate(Object cand) {
 		Object lhsVal = getLhsValue(cand);
 		if (lhsVal == INVALID) {
@@ -281,7 +306,11 @@ public final class QueryTerm {
 		
 		//TODO avoid indirection and store Parameter value in local _value field !!!!!!!!!!!!!!!!
 		Object qVal = getValue(cand);
-		
+		return compare(lhsVal, qVal);
+	}
+	
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private boolean compare(Object lhsVal, Object qVal) {
 		if (lhsVal != null && qVal != null) {
 			//could be null because of primitive objects
 			switch (compType) {
@@ -313,19 +342,7 @@ public final class QueryTerm {
 				return true;
 			}
 		} else if (lhsVal instanceof ZooPC && qVal instanceof ZooPC) {
-			long oid1 = ((ZooPC)lhsVal).jdoZooGetOid();
-			long oid2 = ((ZooPC)qVal).jdoZooGetOid();
-			if (oid1 == oid2 && op.allowsEqual()) {
-				return true;
-			} else if (op == COMP_OP.EQ) {
-				return false; //shortcut for most common case: oid1==oid2
-			}
-			int res = Long.compare(oid2, oid1);
-			if (res >= 1 && op.allowsLess()) {
-				return true;
-			} else if (res <= -1 && op.allowsMore()) {
-				return true;
-			}
+			return compareOids(((ZooPC)lhsVal).jdoZooGetOid(), ((ZooPC)qVal).jdoZooGetOid());
 		} else if (lhsVal instanceof ZooPC || qVal instanceof ZooPC) {
 			//Either one of them is null or one of them is not a PC
 			return op.allowsLess() || op.allowsMore();
@@ -356,15 +373,20 @@ public final class QueryTerm {
 			}
 		} else {
 			//here: qVal == QueryParser.NULL && oVal != null
-			//Ordering of null-value fields is not specified (JDO 3.0 14.6.6: Ordering Statement)
-			//We specify:  (null <= 'x' ==true)
-			if (op==COMP_OP.NE || op==COMP_OP.A || op==COMP_OP.AE) {
-				return true;
-			}
+			return compareWithNull();
 		}
 		return false;
 	}
 
+	/**
+	 * Compare a non-null value with 'null'.
+	 */
+	private boolean compareWithNull() {
+		//Ordering of null-value fields is not specified (JDO 3.0 14.6.6: Ordering Statement)
+		//We specify:  (null <= 'x' ==true)
+		return op==COMP_OP.NE || op==COMP_OP.A || op==COMP_OP.AE;
+	}
+
 	private boolean evaluateBoolFunction(Object lhsVal, Object cand) {
 		if (lhsVal == null) {
 			//According to JDO spec 14.6.2, calls on 'null' result in 'false'
@@ -385,38 +407,105 @@ public final class QueryTerm {
 		}
 	}
 
-	@SuppressWarnings({ "rawtypes", "unchecked" })
-	public boolean evaluate(DataDeSerializerNoClass dds, long pos) {
-		// we cannot cache this, because sub-classes may have different field instances.
-		//TODO cache per class? Or reset after query has processed first class set?
-		//Field f = fieldDef.getJavaField();
+	/**
+	 * Evaluate the term directly on a serialized object, without loading the object.
+	 * This is only possible if the left hand side is a field with a fixed size (primitive, 
+	 * String, Date or reference) and if the right hand side does not depend on the candidate. 
+	 * Non-null Strings can only be compared with '==' and '!=', because the serialized 
+	 * object contains only a hash of the String. 
+	 * @param dds Deserializer
+	 * @param pos Position of the object
+	 * @param clsDef The schema of the object
+	 * @return Whether the object is a match, or {@code null} if the object needs to be loaded 
+	 * to evaluate the term.
+	 */
+	public Boolean evaluate(DataDeSerializerNoClass dds, long pos, ZooClassDef clsDef) {
+		if (lhsFieldDef == null || lhsFunction != null || lhsValue != null || lhsParam != null ||
+				rhsFunction != null || rhsFieldDef != null || rhsValue == THIS || 
+				!op.isComparator()) {
+			return null;
+		}
+		//Sub-classes may hide the field or the object may have a different schema
+		ZooFieldDef[] fields = clsDef.getAllFields();
+		int fieldPos = lhsFieldDef.getFieldPos();
+		if (fieldPos >= fields.length || fields[fieldPos] != lhsFieldDef) {
+			return null;
+		}
 
-		long oVal;
-//		try {
-			dds.seekPos(pos);
-			//TODO this doesn't really work for float/double
-			oVal = dds.getAttrAsLong(lhsFieldDef.getDeclaringType(), lhsFieldDef);
-//		} catch (IllegalArgumentException e) {
-//			throw new JDOFatalInternalException("Cannot access field: " + fieldDef.getName() + 
-//					" cl=" + fieldDef.getDeclaringType().getClassName() + 
-//					" fcl=" + f.getDeclaringClass().getName(), e);
-//		}
-		//TODO avoid indirection and store Parameter value in local _value field !!!!!!!!!!!!!!!!
-		//TODO using 'null' for now, knowing it won't work...
 		Object qVal = getValue(null);
-		if (qVal != QueryTerm.NULL) {
-			if (qVal.equals(oVal) && (op==COMP_OP.EQ || op==COMP_OP.LE || op==COMP_OP.AE)) {
-				return true;
+		dds.seekPos(pos);
+		switch (lhsFieldDef.getJdoType()) {
+		case PRIMITIVE:
+			return compare(readPrimitive(dds, clsDef), qVal);
+		case DATE:
+		case STRING:
+		case REFERENCE:
+			break;
+		default:
+			return null;
+		}
+		
+		long oVal = dds.getAttrAsLongObjectNotNull(clsDef, lhsFieldDef);
+		if (oVal == BitTools.NULL) {
+			//This may also be a valid value
+			dds.seekPos(pos);
+			if (dds.isAttrNull(clsDef, lhsFieldDef)) {
+				return compare(null, qVal);
 			}
-			if (qVal instanceof Comparable) {
-				Comparable qComp = (Comparable) qVal;
-				int res = qComp.compareTo(oVal);  //-1:<   0:==  1:> 
-				if (res > 0 && (op == COMP_OP.LE || op==COMP_OP.L || op==COMP_OP.NE)) {
-					return true;
-				} else if (res < 0 && (op == COMP_OP.AE || op==COMP_OP.A || op==COMP_OP.NE)) {
-					return true;
+		}
+		
+		switch (lhsFieldDef.getJdoType()) {
+		case DATE:
+			return compare(new Date(oVal), qVal);
+		case STRING:
+			if (qVal == QueryTerm.NULL) {
+				return compareWithNull();
+			}
+			if (qVal instanceof String && (op == COMP_OP.EQ || op == COMP_OP.NE)) {
+				if (BitTools.toSortableLong((String) qVal) != oVal) {
+					return op == COMP_OP.NE;
 				}
 			}
+			//same hash or not comparable
+			return null;
+		case REFERENCE:
+			if (qVal instanceof ZooPC) {
+				return compareOids(oVal, ((ZooPC)qVal).jdoZooGetOid());
+			} else if (qVal == QueryTerm.NULL) {
+				return op.allowsLess() || op.allowsMore();
+			}
+			return null;
+		default:
+			throw new IllegalStateException(lhsFieldDef.getJdoType().toString());
+		}
+	}
+
+	private Object readPrimitive(DataDeSerializerNoClass dds, ZooClassDef clsDef) {
+		switch (lhsFieldDef.getPrimitiveType()) {
+		case BOOLEAN: return dds.getAttrBool(clsDef, lhsFieldDef);
+		case BYTE: return dds.getAttrByte(clsDef, lhsFieldDef);
+		case CHAR: return dds.getAttrChar(clsDef, lhsFieldDef);
+		case DOUBLE: return dds.getAttrDouble(clsDef, lhsFieldDef);
+		case FLOAT: return dds.getAttrFloat(clsDef, lhsFieldDef);
+		case INT: return dds.getAttrInt(clsDef, lhsFieldDef);
+		case LONG: return dds.getAttrLong(clsDef, lhsFieldDef);
+		case SHORT: return dds.getAttrShort(clsDef, lhsFieldDef);
+		default:
+			throw new IllegalArgumentException(lhsFieldDef.getPrimitiveType().toString());
+		}
+	}
+	
+	private boolean compareOids(long oid1, long oid2) {
+		if (oid1 == oid2 && op.allowsEqual()) {
+			return true;
+		} else if (op == COMP_OP.EQ) {
+			return false; //shortcut for most common case: oid1==oid2
+		}
+		int res = Long.compare(oid2, oid1);
+		if (res >= 1 && op.allowsLess()) {
+			return true;
+		} else if (res <= -1 && op.allowsMore()) {
+			return true;
 		}
 		return false;
 	}
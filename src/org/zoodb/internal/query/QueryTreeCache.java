@@ -0,0 +1,200 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.internal.query;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.zoodb.internal.Session;
+import org.zoodb.internal.ZooClassDef;
+import org.zoodb.internal.ZooFieldDef;
+import org.zoodb.internal.util.Pair;
+
+/**
+ * A bounded LRU cache for parsed queries. The cache can be shared by multiple sessions,
+ * every session gets its own copy of a cached query, with its own parameters and with
+ * the schema definitions of that session.
+ *
+ * Cached queries are only reused if all schema definitions that they refer to are the
+ * latest versions in the using session. Since schema evolution always creates new versions
+ * of a class (and of its sub-classes), queries on evolved classes are never reused.
+ * Sessions with uncommitted schema changes do not use the cache.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class QueryTreeCache {
+
+	/**
+	 * The result of parsing a query.
+	 */
+	public static final class CompiledQuery {
+		private final QueryTreeNode queryTree;
+		private final List<QueryParameter> parameters;
+		private final List<Pair<ZooFieldDef, Boolean>> ordering;
+		private final long rangeMin;
+		private final long rangeMax;
+		private final QueryParameter rangeMinParam;
+		private final QueryParameter rangeMaxParam;
+
+		public CompiledQuery(QueryTreeNode queryTree, List<QueryParameter> parameters,
+				List<Pair<ZooFieldDef, Boolean>> ordering, long rangeMin, long rangeMax,
+				QueryParameter rangeMinParam, QueryParameter rangeMaxParam) {
+			this.queryTree = queryTree;
+			this.parameters = parameters;
+			this.ordering = ordering;
+			this.rangeMin = rangeMin;
+			this.rangeMax = rangeMax;
+			this.rangeMinParam = rangeMinParam;
+			this.rangeMaxParam = rangeMaxParam;
+		}
+
+		private CompiledQuery copy(QueryTreeCopier c) {
+			ArrayList<QueryParameter> params = new ArrayList<>(parameters.size());
+			for (QueryParameter p: parameters) {
+				params.add(c.param(p));
+			}
+			ArrayList<Pair<ZooFieldDef, Boolean>> ord = new ArrayList<>(ordering.size());
+			for (Pair<ZooFieldDef, Boolean> p: ordering) {
+				ord.add(new Pair<>(c.field(p.getA()), p.getB()));
+			}
+			return new CompiledQuery(c.node(queryTree), params, ord, rangeMin, rangeMax,
+					c.param(rangeMinParam), c.param(rangeMaxParam));
+		}
+
+		public QueryTreeNode getQueryTree() {
+			return queryTree;
+		}
+
+		public List<QueryParameter> getParameters() {
+			return parameters;
+		}
+
+		public List<Pair<ZooFieldDef, Boolean>> getOrdering() {
+			return ordering;
+		}
+
+		public long getRangeMin() {
+			return rangeMin;
+		}
+
+		public long getRangeMax() {
+			return rangeMax;
+		}
+
+		public QueryParameter getRangeMinParam() {
+			return rangeMinParam;
+		}
+
+		public QueryParameter getRangeMaxParam() {
+			return rangeMaxParam;
+		}
+	}
+
+	private final LinkedHashMap<String, CompiledQuery> map;
+
+	/**
+	 * @param capacity Maximum number of cached queries
+	 */
+	public QueryTreeCache(final int capacity) {
+		this.map = new LinkedHashMap<String, CompiledQuery>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CompiledQuery> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 *
+	 * @param candClsDef The candidate class
+	 * @param filter The full filter string, including range and ordering
+	 * @param rangeMin The range minimum that was set via API
+	 * @param rangeMax The range maximum that was set via API
+	 * @param parameters Parameters that were declared via API
+	 * @return The key for a query
+	 */
+	public static String createKey(ZooClassDef candClsDef, String filter,
+			long rangeMin, long rangeMax, List<QueryParameter> parameters) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(candClsDef.getOid()).append(':');
+		sb.append(rangeMin).append(':').append(rangeMax).append(':');
+		for (QueryParameter p: parameters) {
+			sb.append(p.toString()).append(',');
+		}
+		sb.append(':').append(filter);
+		return sb.toString();
+	}
+
+	/**
+	 *
+	 * @param key The key
+	 * @param session The session that will use the query
+	 * @return A copy of the cached query for the given session, or {@code null} if the
+	 * query is not in the cache.
+	 */
+	public CompiledQuery get(String key, Session session) {
+		if (!isUsable(session)) {
+			return null;
+		}
+		CompiledQuery q;
+		synchronized (this) {
+			q = map.get(key);
+		}
+		if (q == null) {
+			return null;
+		}
+		try {
+			//cached entries are never modified, so we can copy them without lock
+			return q.copy(new QueryTreeCopier(session));
+		} catch (QueryTreeCopier.SchemaMismatchException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Store a query. The query is copied, i.e. later modifications of the query (for
+	 * example setting parameter values) do not affect the cache.
+	 * @param key The key
+	 * @param session The session that compiled the query
+	 * @param query The compiled query
+	 */
+	public void put(String key, Session session, CompiledQuery query) {
+		if (!isUsable(session)) {
+			return;
+		}
+		CompiledQuery copy = query.copy(new QueryTreeCopier(null));
+		synchronized (this) {
+			map.put(key, copy);
+		}
+	}
+
+	private static boolean isUsable(Session session) {
+		//Sessions with uncommitted schema changes should not share their queries
+		return !session.getSchemaManager().hasChanges();
+	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+}
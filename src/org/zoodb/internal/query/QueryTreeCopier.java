@@ -0,0 +1,107 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.internal.query;
+
+import java.util.IdentityHashMap;
+
+import org.zoodb.internal.Session;
+import org.zoodb.internal.ZooClassDef;
+import org.zoodb.internal.ZooFieldDef;
+
+/**
+ * Helper for copying query trees. Parameters are replaced with new instances, such that
+ * parameter values of the copy are independent of the original.
+ * If a target session is given, schema definitions are replaced with the definitions of
+ * the target session. Copying fails if the target session does not have the same (latest)
+ * version of a schema definition.
+ *
+ * @author Tilmann Zaeschke
+ */
+final class QueryTreeCopier {
+
+	/**
+	 * Thrown if a schema definition does not exist in the target session or if it has
+	 * been evolved.
+	 */
+	static final class SchemaMismatchException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private final IdentityHashMap<QueryParameter, QueryParameter> params =
+			new IdentityHashMap<>();
+	private final Session target;
+
+	/**
+	 * @param target The session that uses the copy, or {@code null} to keep the schema
+	 * definitions of the original.
+	 */
+	QueryTreeCopier(Session target) {
+		this.target = target;
+	}
+
+	QueryParameter param(QueryParameter p) {
+		if (p == null) {
+			return null;
+		}
+		QueryParameter ret = params.get(p);
+		if (ret == null) {
+			ret = new QueryParameter(p.getType(), (String) p.getName(), p.getDeclaration());
+			ret.setTypeDef(cls(p.getTypeDef()));
+			params.put(p, ret);
+		}
+		return ret;
+	}
+
+	ZooClassDef cls(ZooClassDef def) {
+		if (def == null || target == null) {
+			return def;
+		}
+		ZooClassDef ret = target.internalGetCache().getSchema(def.getOid());
+		if (ret == null || ret.getNextVersion() != null) {
+			throw new SchemaMismatchException();
+		}
+		return ret;
+	}
+
+	ZooFieldDef field(ZooFieldDef f) {
+		if (f == null || target == null) {
+			return f;
+		}
+		ZooFieldDef ret = cls(f.getDeclaringType()).getAllFieldsAsMap().get(f.getName());
+		if (ret == null || ret.getJdoType() != f.getJdoType()
+				|| !ret.getTypeName().equals(f.getTypeName())) {
+			throw new SchemaMismatchException();
+		}
+		return ret;
+	}
+
+	QueryFunction function(QueryFunction f) {
+		return f == null ? null : f.copy(this);
+	}
+
+	QueryTerm term(QueryTerm t) {
+		return t == null ? null : t.copy(this);
+	}
+
+	QueryTreeNode node(QueryTreeNode n) {
+		return n == null ? null : n.copy(this);
+	}
+}
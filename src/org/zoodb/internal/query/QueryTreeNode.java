@@ -23,6 +23,8 @@ package org.zoodb.internal.query;
 import java.util.List;
 
 import org.zoodb.internal.DataDeSerializerNoClass;
+import org.zoodb.internal.ObjectFilter;
+import org.zoodb.internal.ZooClassDef;
 import org.zoodb.internal.query.QueryParser.LOG_OP;
 import org.zoodb.internal.util.DBLogger;
 
@@ -32,7 +34,7 @@ import org.zoodb.internal.util.DBLogger;
  * 
  * @author Tilmann Zaeschke
  */
-public final class QueryTreeNode {
+public final class QueryTreeNode implements ObjectFilter {
 	
 	QueryTreeNode n1;
 	QueryTreeNode n2;
@@ -134,23 +136,46 @@ public final class QueryTreeNode {
 	
 	/**
 	 * Evaluate the query directly on a byte buffer rather than on materialized objects. 
-	 * @param pos position in byte buffer
 	 * @param dds DataDeSerializer
-	 * @return Whether the object is a match.
+	 * @param pos position in byte buffer
+	 * @param clsDef The schema of the object
+	 * @return Whether the object is a match, or {@code null} if the object needs to be 
+	 * loaded to evaluate the query.
 	 */
-	public boolean evaluate(DataDeSerializerNoClass dds, long pos) {
-		boolean first = (n1 != null ? n1.evaluate(dds, pos) : t1.evaluate(dds, pos));
+	public Boolean evaluate(DataDeSerializerNoClass dds, long pos, ZooClassDef clsDef) {
+		Boolean first = 
+				(n1 != null ? n1.evaluate(dds, pos, clsDef) : t1.evaluate(dds, pos, clsDef));
 		//do we have a second part?
 		if (op == null) {
 			return first;
 		}
-		if ( !first && op == LOG_OP.AND) {
+		if (first == Boolean.FALSE && op == LOG_OP.AND) {
 			return false;
 		}
-		if ( first && op == LOG_OP.OR) {
+		if (first == Boolean.TRUE && op == LOG_OP.OR) {
 			return true;
 		}
-		return (n2 != null ? n2.evaluate(dds, pos) : t2.evaluate(dds, pos));
+		Boolean second = 
+				(n2 != null ? n2.evaluate(dds, pos, clsDef) : t2.evaluate(dds, pos, clsDef));
+		switch (op) {
+		case AND:
+			if (second == Boolean.FALSE) {
+				return false;
+			}
+			return (first == Boolean.TRUE && second == Boolean.TRUE) ? true : null;
+		case OR:
+			if (second == Boolean.TRUE) {
+				return true;
+			}
+			return (first == Boolean.FALSE && second == Boolean.FALSE) ? false : null;
+		default:
+			return null;
+		}
+	}
+
+	@Override
+	public boolean accept(DataDeSerializerNoClass dds, long pos, ZooClassDef clsDef) {
+		return evaluate(dds, pos, clsDef) != Boolean.FALSE;
 	}
 	
 	/**
@@ -239,6 +264,15 @@ public final class QueryTreeNode {
 		}
 	}
 	
+	/**
+	 * Create a deep copy of this (sub-)tree.
+	 * @param c The copier
+	 * @return The copy
+	 */
+	QueryTreeNode copy(QueryTreeCopier c) {
+		return new QueryTreeNode(c.node(n1), c.term(t1), op, c.node(n2), c.term(t2), false);
+	}
+	
 	private QueryTreeNode cloneSingle(QueryTreeNode n1, QueryTerm t1, QueryTreeNode n2,
 			QueryTerm t2) {
 		QueryTreeNode ret = new QueryTreeNode(n1, t1, op, n2, t2, false).relateToChildren();
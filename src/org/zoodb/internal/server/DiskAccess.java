@@ -27,20 +27,36 @@ import java.util.Iterator;
 import org.zoodb.api.impl.ZooPC;
 import org.zoodb.internal.DataDeSerializer;
 import org.zoodb.internal.GenericObject;
+import org.zoodb.internal.ObjectFilter;
 import org.zoodb.internal.ZooClassDef;
+import org.zoodb.internal.ZooCompositeIndexDef;
 import org.zoodb.internal.ZooClassProxy;
 import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.ZooHandleImpl;
+import org.zoodb.internal.server.index.LongLongIndex.LLEntry;
+import org.zoodb.internal.server.index.LongLongIndex.LongLongIterator;
 import org.zoodb.internal.server.index.PagedOidIndex;
 import org.zoodb.internal.server.index.SchemaIndex.SchemaIndexEntry;
+import org.zoodb.internal.server.index.StringRange;
 import org.zoodb.internal.util.CloseableIterator;
+import org.zoodb.internal.util.PrimLongSet;
+import org.zoodb.internal.util.PrimLongSetZ;
 import org.zoodb.tools.DBStatistics.STATS;
 
 public interface DiskAccess {
 	
 	public long[] allocateOids(int oidAllocSize);
 
-	public CloseableIterator<ZooPC> readAllObjects(long schemaId, boolean loadFromCache);
+	/**
+	 * Read all objects of a class.
+	 * @param schemaId Schema ID
+	 * @param loadFromCache Whether to load data from cache, if possible
+	 * @param filter Filter that is evaluated on the serialized objects before they are loaded,
+	 * may be {@code null}
+	 * @return An iterator over the objects
+	 */
+	public CloseableIterator<ZooPC> readAllObjects(long schemaId, boolean loadFromCache, 
+			ObjectFilter filter);
 	
 	/**
 	 * Locate an object.
@@ -49,6 +65,13 @@ public interface DiskAccess {
 	 */
 	public ZooPC readObject(long oid);
 	public ZooPC readObject(DataDeSerializer dds, long oid);
+
+	/**
+	 * Read several objects at once, reading every data page only once.
+	 * @param oids The OIDs of the objects to read
+	 * @return The objects in the order of the OIDs, {@code null} for OIDs that were not found
+	 */
+	public ZooPC[] readObjects(long[] oids);
 	
 	public void close();
 
@@ -66,6 +89,16 @@ public interface DiskAccess {
 
 	public boolean removeIndex(ZooClassDef def, ZooFieldDef field);
 
+	/**
+	 * Defines a composite index and populates it, see 
+	 * {@link #defineIndex(ZooClassDef, ZooFieldDef, boolean)}.
+	 * @param cls The class for which an index should be defined
+	 * @param index The index definition
+	 */
+	void defineCompositeIndex(ZooClassDef cls, ZooCompositeIndexDef index);
+
+	public boolean removeCompositeIndex(ZooClassDef def, ZooCompositeIndexDef index);
+
 	public Collection<ZooClassDef> readSchemaAll();
 
 	/**
@@ -73,11 +106,98 @@ public interface DiskAccess {
 	 * @param field Field The indexed field
 	 * @param minValue range minimum
 	 * @param maxValue range maximum
+	 * @param ascending Whether to return the objects in ascending or descending order of
+	 * their index keys
 	 * @param loadFromCache Whether to load object from cache, if possible
+	 * @param include If not {@code null}, only objects with an OID in this set are returned
+	 * @param exclude If not {@code null}, objects with an OID in this set are not returned
 	 * @return An iterator over all matching objects
 	 */
 	Iterator<ZooPC> readObjectFromIndex(ZooFieldDef field, 
-			long minValue, long maxValue, boolean loadFromCache);
+			long minValue, long maxValue, boolean ascending, boolean loadFromCache,
+			PrimLongSet include, PrimLongSet exclude);
+
+	/**
+	 * Read the OIDs of all objects in the given range of an index, without loading the 
+	 * objects.
+	 * WARNING: float/double values need to be converted with BitTools before used on indices.
+	 * @param field Field The indexed field
+	 * @param minValue range minimum
+	 * @param maxValue range maximum
+	 * @param filter If not {@code null}, only OIDs that are also in this set are returned
+	 * @return The set of matching OIDs
+	 */
+	PrimLongSetZ readOidsFromIndex(ZooFieldDef field, long minValue, long maxValue, 
+			PrimLongSet filter);
+
+	/**
+	 * See {@link #readObjectFromIndex(ZooFieldDef, long, long, boolean, boolean, 
+	 * PrimLongSet, PrimLongSet)}. For String indices that store the full Strings, the
+	 * range of Strings is used, otherwise the range of hashed keys.
+	 * @param field Field The indexed String field
+	 * @param range The range of Strings
+	 * @param minValue range minimum of the hashed keys
+	 * @param maxValue range maximum of the hashed keys
+	 * @param loadFromCache Whether to load object from cache, if possible
+	 * @param include If not {@code null}, only objects with an OID in this set are returned
+	 * @param exclude If not {@code null}, objects with an OID in this set are not returned
+	 * @return An iterator over all matching objects
+	 */
+	Iterator<ZooPC> readObjectFromIndex(ZooFieldDef field, StringRange range, 
+			long minValue, long maxValue, boolean loadFromCache,
+			PrimLongSet include, PrimLongSet exclude);
+
+	/**
+	 * See {@link #readOidsFromIndex(ZooFieldDef, long, long, PrimLongSet)} and 
+	 * {@link #readObjectFromIndex(ZooFieldDef, StringRange, long, long, boolean, 
+	 * PrimLongSet, PrimLongSet)}.
+	 * @param field Field The indexed String field
+	 * @param range The range of Strings
+	 * @param minValue range minimum of the hashed keys
+	 * @param maxValue range maximum of the hashed keys
+	 * @param filter If not {@code null}, only OIDs that are also in this set are returned
+	 * @return The set of matching OIDs
+	 */
+	PrimLongSetZ readOidsFromIndex(ZooFieldDef field, StringRange range, 
+			long minValue, long maxValue, PrimLongSet filter);
+
+	/**
+	 * See {@link #readObjectFromIndex(ZooFieldDef, long, long, boolean, boolean, 
+	 * PrimLongSet, PrimLongSet)}. The keys are created with the encoder of the index.
+	 * @param index The composite index
+	 * @param minValue range minimum
+	 * @param maxValue range maximum
+	 * @param ascending Whether to return the objects in ascending or descending order of
+	 * their index keys
+	 * @param loadFromCache Whether to load object from cache, if possible
+	 * @param include If not {@code null}, only objects with an OID in this set are returned
+	 * @param exclude If not {@code null}, objects with an OID in this set are not returned
+	 * @return An iterator over all matching objects
+	 */
+	Iterator<ZooPC> readObjectFromIndex(ZooCompositeIndexDef index, 
+			long minValue, long maxValue, boolean ascending, boolean loadFromCache,
+			PrimLongSet include, PrimLongSet exclude);
+
+	/**
+	 * See {@link #readOidsFromIndex(ZooFieldDef, long, long, PrimLongSet)}.
+	 * @param index The composite index
+	 * @param minValue range minimum
+	 * @param maxValue range maximum
+	 * @param filter If not {@code null}, only OIDs that are also in this set are returned
+	 * @return The set of matching OIDs
+	 */
+	PrimLongSetZ readOidsFromIndex(ZooCompositeIndexDef index, long minValue, long maxValue, 
+			PrimLongSet filter);
+
+	/**
+	 * Iterate over the entries of an index, without loading any objects. The keys are the 
+	 * index keys, the values are the OIDs.
+	 * WARNING: float/double keys need to be converted with BitTools.
+	 * @param field Field The indexed field
+	 * @param ascending Whether to iterate in ascending or descending order of the keys
+	 * @return An iterator over all entries of the index
+	 */
+	LongLongIterator<LLEntry> readIndexEntries(ZooFieldDef field, boolean ascending);
 
 	public long getStats(STATS stats);
 
@@ -97,6 +217,14 @@ public interface DiskAccess {
 
 	public GenericObject readGenericObject(ZooClassDef def, long oid);
 
+	/**
+	 * Read the stored value of a String field without loading the object.
+	 * @param oid The OID of the object
+	 * @param field The String field
+	 * @return The value of the field
+	 */
+	public String readStringField(long oid, ZooFieldDef field);
+
 	public void refreshSchema(ZooClassDef def);
 
 	public long getObjectClass(long oid);
@@ -113,6 +241,42 @@ public interface DiskAccess {
 
 	public long countInstances(ZooClassProxy clsDef, boolean subClasses);
 
+	/**
+	 * @param clsDef The class
+	 * @return The number of instances of the class (without sub-classes) that are stored with
+	 * an outdated schema version.
+	 */
+	public long countOutdatedInstances(ZooClassProxy clsDef);
+
+	/**
+	 * @param clsDef The class
+	 * @param maxResults The maximum number of OIDs to return
+	 * @return OIDs of instances of the class (without sub-classes) that are stored with 
+	 * an outdated schema version.
+	 */
+	public long[] readOutdatedOids(ZooClassProxy clsDef, int maxResults);
+
+	/**
+	 * @param clsDef The class
+	 * @param orderBy An indexed field, or {@code null}
+	 * @return OIDs of all instances of the class (without sub-classes). The OIDs are ordered
+	 * by the index of {@code orderBy}, objects that are not in the index follow in OID order.
+	 * Without {@code orderBy} all OIDs are returned in ascending order.
+	 */
+	public long[] readAllOids(ZooClassProxy clsDef, ZooFieldDef orderBy);
+
+	/**
+	 * Remove free pages from the end of the database file when the current transaction
+	 * commits. Only pages that are not visible to any other transaction are removed.
+	 */
+	public void truncateOnCommit();
+
+	/**
+	 * Do not reuse free pages when the current transaction commits. All pages that are 
+	 * written by the commit are allocated at the end of the database file.
+	 */
+	public void appendOnCommit();
+
 	boolean checkIfObjectExists(long oid);
 
 	public long beginTransaction();
@@ -21,6 +21,7 @@
 package org.zoodb.internal.server;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -32,35 +33,45 @@ import org.slf4j.MarkerFactory;
 import org.zoodb.api.impl.ZooPC;
 import org.zoodb.internal.DataDeSerializer;
 import org.zoodb.internal.DataDeSerializerNoClass;
+import org.zoodb.internal.ObjectFilter;
 import org.zoodb.internal.GenericObject;
 import org.zoodb.internal.Node;
 import org.zoodb.internal.ZooClassDef;
 import org.zoodb.internal.ZooClassProxy;
+import org.zoodb.internal.ZooCompositeIndexDef;
 import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.ZooHandleImpl;
 import org.zoodb.internal.client.AbstractCache;
 import org.zoodb.internal.server.DiskIO.PAGE_TYPE;
 import org.zoodb.internal.server.ServerResponse.RESULT;
 import org.zoodb.internal.server.index.BitTools;
+import org.zoodb.internal.server.index.CompositeKeyEncoder;
 import org.zoodb.internal.server.index.FreeSpaceManager;
 import org.zoodb.internal.server.index.LongLongIndex;
-import org.zoodb.internal.server.index.LongLongIndex.LLEntryIterator;
+import org.zoodb.internal.server.index.LongLongIndex.LLEntry;
 import org.zoodb.internal.server.index.LongLongIndex.LongLongIterator;
+import org.zoodb.internal.server.index.LongLongSorter;
 import org.zoodb.internal.server.index.ObjectIterator;
 import org.zoodb.internal.server.index.ObjectPosIterator;
 import org.zoodb.internal.server.index.PagedOidIndex;
 import org.zoodb.internal.server.index.PagedOidIndex.FilePos;
 import org.zoodb.internal.server.index.PagedPosIndex;
+import org.zoodb.internal.server.index.PagedStringIndex;
+import org.zoodb.internal.server.index.ParallelPosFilter;
 import org.zoodb.internal.server.index.SchemaIndex;
 import org.zoodb.internal.server.index.SchemaIndex.SchemaIndexEntry;
+import org.zoodb.internal.server.index.StringRange;
 import org.zoodb.internal.server.index.ZooHandleIteratorAdapter;
 import org.zoodb.internal.util.CloseableIterator;
 import org.zoodb.internal.util.DBLogger;
 import org.zoodb.internal.util.FormattedStringBuilder;
 import org.zoodb.internal.util.PoolDDS;
+import org.zoodb.internal.util.PrimLongArrayList;
+import org.zoodb.internal.util.PrimLongSet;
 import org.zoodb.internal.util.PrimLongSetZ;
 import org.zoodb.internal.util.Util;
 import org.zoodb.tools.DBStatistics.STATS;
+import org.zoodb.tools.ZooConfig;
 
 /**
  * Disk storage functionality. This version stores all data in a single file, attempting a page 
@@ -119,6 +130,8 @@ public class DiskAccessOneFile implements DiskAccess {
 	private final StorageChannel file;
 	private final StorageChannelInput fileInAP;
 	private final PoolDDS ddsPool;
+	//Deserializers for parallel query evaluation, see ZooConfig.setQueryParallelism()
+	private final ArrayList<DataDeSerializerNoClass> ddsParallel = new ArrayList<>();
 
 	private final SchemaIndex schemaIndex;
 	private final PagedOidIndex oidIndex;
@@ -129,6 +142,37 @@ public class DiskAccessOneFile implements DiskAccess {
     
     private long txId;
 	private final TxContext txContext = new TxContext(); 
+	//Whether free pages at the end of the file should be removed on commit
+	private boolean truncateOnCommit = false;
+	private boolean appendOnCommit = false;
+	
+	//Read-only view for transactions in snapshot mode, otherwise 'null'.
+	private Snapshot snapshot = null;
+	
+	/**
+	 * A read-only view of the database as it was committed when the transaction started.
+	 * The indices are loaded from the current root page via a separate channel. The pages of 
+	 * the snapshot are not reused before the reader epoch is deregistered.
+	 */
+	private static final class Snapshot {
+		private final StorageChannel channel;
+		private final PagedOidIndex oidIndex;
+		private final SchemaIndex schemaIndex;
+		private final FreeSpaceManager.ReaderEpoch epoch;
+		
+		private Snapshot(SessionManager sm) {
+			RootPage rootPage = sm.getRootPage();
+			epoch = sm.getFsm().registerReader();
+			channel = sm.getFile().createChannel();
+			oidIndex = new PagedOidIndex(channel, rootPage.getOidIndexPage(), 0);
+			schemaIndex = new SchemaIndex(channel, rootPage.getSchemIndexPage(), false);
+		}
+		
+		private void close(SessionManager sm) {
+			sm.getFile().close(channel);
+			sm.getFsm().deregisterReader(epoch);
+		}
+	}
 	
 	DiskAccessOneFile(Node node, AbstractCache cache, SessionManager sm) {
 		this.sm = sm;
@@ -140,11 +184,7 @@ public class DiskAccessOneFile implements DiskAccess {
 		//such as the StorageRootFile.
 		//We keep the lock until initialization is finished, the lock is 
 		//released by an initial rollback() call
-		if (ALLOW_READ_CONCURRENCY) {
-			sm.readLock(this);
-		} else {
-			sm.writeLock(this);
-		}
+		sm.writeLock(this);
 		
 		this.freeIndex = sm.getFsm();
 		this.file = sm.getFile().createChannel();
@@ -228,6 +268,9 @@ public class DiskAccessOneFile implements DiskAccess {
 	    //we treat dropInstances as a schema operation, otherwise it would be significant slower.
 	    schemaIndex.markResetRequired();
 	    for (int i = 0; i < sie.getObjectIndexVersionCount(); i++) {
+	        if (sie.isObjectIndexVersionDropped(i)) {
+	            continue;
+	        }
 	        PagedPosIndex oi = sie.getObjectIndexVersion(i);
     		PagedPosIndex.ObjectPosIterator it = oi.iteratorObjects();
     		
@@ -265,7 +308,94 @@ public class DiskAccessOneFile implements DiskAccess {
 	
 	@Override
 	public long countInstances(ZooClassProxy clsDef, boolean subClasses) {
-		return schemaIndex.countInstances(clsDef, subClasses);
+		return getSchemaIndexForRead().countInstances(clsDef, subClasses);
+	}
+
+	@Override
+	public long countOutdatedInstances(ZooClassProxy clsDef) {
+		return getSchemaIndexForRead().countOutdatedInstances(clsDef);
+	}
+
+	@Override
+	public long[] readOutdatedOids(ZooClassProxy clsDef, int maxResults) {
+		SchemaIndexEntry sie = getSchemaIndexForRead().getSchema(clsDef.getSchemaId());
+		if (sie == null) {
+			return new long[0];
+		}
+		long[] ret = new long[maxResults];
+		int n = 0;
+		DataDeSerializerNoClass dds = new DataDeSerializerNoClass(fileInAP);
+		//ignore the latest version
+		for (int i = 0; i < sie.getObjectIndexVersionCount()-1 && n < maxResults; i++) {
+			if (sie.isObjectIndexVersionDropped(i)) {
+				continue;
+			}
+			PagedPosIndex.ObjectPosIterator it = sie.getObjectIndexVersion(i).iteratorObjects();
+			while (it.hasNextOPI() && n < maxResults) {
+				dds.seekPos(it.nextPos());
+				ret[n++] = dds.getOid();
+			}
+			it.close();
+		}
+		return n == maxResults ? ret : Arrays.copyOf(ret, n);
+	}
+
+	@Override
+	public long[] readAllOids(ZooClassProxy clsDef, ZooFieldDef orderBy) {
+		SchemaIndexEntry sie = getSchemaIndexForRead().getSchema(clsDef.getSchemaId());
+		if (sie == null) {
+			return new long[0];
+		}
+		PrimLongArrayList oids = new PrimLongArrayList();
+		DataDeSerializerNoClass dds = new DataDeSerializerNoClass(fileInAP);
+		PagedPosIndex.ObjectPosIteratorMerger it = sie.getObjectIndexIterator();
+		it.enableReadAhead(file);
+		try {
+			while (it.hasNextOPI()) {
+				dds.seekPos(it.nextPos());
+				oids.add(dds.getOid());
+			}
+		} finally {
+			it.close();
+		}
+		long[] ret = oids.toArray();
+		Arrays.sort(ret);
+		if (orderBy == null) {
+			return ret;
+		}
+
+		//Objects that are not in the index, for example those with 'null' keys, come last
+		PrimLongSetZ remaining = new PrimLongSetZ(ret.length);
+		for (long oid: ret) {
+			remaining.add(oid);
+		}
+		long[] ordered = new long[ret.length];
+		int n = 0;
+		PagedStringIndex strInd = orderBy.isString() ? getStringIndexForRead(orderBy) : null;
+		LongLongIterator<LLEntry> indexIter;
+		if (strInd != null) {
+			indexIter = strInd.iterator(StringRange.all());
+		} else {
+			//This includes String indices that store only hashes of the Strings
+			indexIter = getFieldIndexForRead(orderBy).iterator(Long.MIN_VALUE, Long.MAX_VALUE);
+		}
+		try {
+			while (indexIter.hasNext()) {
+				long oid = indexIter.next().getValue();
+				//The index may contain instances of sub-classes
+				if (remaining.remove(oid)) {
+					ordered[n++] = oid;
+				}
+			}
+		} finally {
+			indexIter.close();
+		}
+		for (long oid: ret) {
+			if (remaining.contains(oid)) {
+				ordered[n++] = oid;
+			}
+		}
+		return ordered;
 	}
 
 	@Override
@@ -280,16 +410,46 @@ public class DiskAccessOneFile implements DiskAccess {
 	 * SEE oidIterator()!
 	 * @param schemaId Schema ID
 	 * @param loadFromCache Whether to load data from cache, if possible
+	 * @param filter Filter that is evaluated on the serialized objects before they are loaded,
+	 * may be {@code null}
 	 */
 	@Override
-	public CloseableIterator<ZooPC> readAllObjects(long schemaId, boolean loadFromCache) {
-		SchemaIndexEntry se = schemaIndex.getSchema(schemaId);
+	public CloseableIterator<ZooPC> readAllObjects(long schemaId, boolean loadFromCache, 
+			ObjectFilter filter) {
+		SchemaIndexEntry se = getSchemaIndexForRead().getSchema(schemaId);
 		if (se == null) {
+			if (snapshot != null) {
+				//class did not exist when the snapshot was taken
+				return new ObjectPosIterator(new PagedPosIndex.ObjectPosIteratorMerger(), cache, objectReader, 
+						loadFromCache);
+			}
 			throw DBLogger.newUser("Schema not found for class: " + schemaId);
 		}
 		
-		return new ObjectPosIterator(se.getObjectIndexIterator(), cache, objectReader, 
-		        loadFromCache);
+		int parallelism = ZooConfig.getQueryParallelism();
+		if (filter != null && parallelism > 1) {
+			long[] positions = ParallelPosFilter.filter(se.getObjectIndexIterator(), cache, 
+					loadFromCache, filter, getParallelDDS(parallelism));
+			return new ObjectPosIterator(positions, cache, objectReader, loadFromCache);
+		}
+		
+		DataDeSerializerNoClass ddsFilter = 
+				filter != null ? new DataDeSerializerNoClass(fileInAP) : null;
+		PagedPosIndex.ObjectPosIteratorMerger posIter = se.getObjectIndexIterator();
+		posIter.enableReadAhead(file);
+		return new ObjectPosIterator(posIter, cache, objectReader, 
+		        loadFromCache, filter, ddsFilter);
+	}
+	
+	/**
+	 * Every partition of a parallel query needs its own reader. The readers are kept for 
+	 * later queries.
+	 */
+	private DataDeSerializerNoClass[] getParallelDDS(int parallelism) {
+		while (ddsParallel.size() < parallelism) {
+			ddsParallel.add(new DataDeSerializerNoClass(file.getReader(true)));
+		}
+		return ddsParallel.subList(0, parallelism).toArray(new DataDeSerializerNoClass[0]);
 	}
 	
 	/**
@@ -297,13 +457,135 @@ public class DiskAccessOneFile implements DiskAccess {
 	 */
 	@Override
 	public CloseableIterator<ZooPC> readObjectFromIndex(
-			ZooFieldDef field, long minValue, long maxValue, boolean loadFromCache) {
-		SchemaIndexEntry se = schemaIndex.getSchema(field.getDeclaringType());
-		LongLongIndex fieldInd = (LongLongIndex) se.getIndex(field);
-		LLEntryIterator iter = fieldInd.iterator(minValue, maxValue);
-		return new ObjectIterator(iter, cache, this, objectReader, loadFromCache);
+			ZooFieldDef field, long minValue, long maxValue, boolean ascending, 
+			boolean loadFromCache, PrimLongSet include, PrimLongSet exclude) {
+		LongLongIndex fieldInd = getFieldIndexForRead(field);
+		LongLongIterator<LLEntry> iter = ascending ? fieldInd.iterator(minValue, maxValue) : 
+			fieldInd.descendingIterator(maxValue, minValue);
+		return new ObjectIterator(iter, cache, this, objectReader, loadFromCache, 
+				include, exclude);
 	}	
 	
+	@Override
+	public PrimLongSetZ readOidsFromIndex(ZooFieldDef field, long minValue, long maxValue, 
+			PrimLongSet filter) {
+		LongLongIndex fieldInd = getFieldIndexForRead(field);
+		LongLongIterator<LLEntry> iter = fieldInd.iterator(minValue, maxValue);
+		PrimLongSetZ ret = new PrimLongSetZ();
+		while (iter.hasNext()) {
+			long oid = iter.next().getValue();
+			if (filter == null || filter.contains(oid)) {
+				ret.add(oid);
+			}
+		}
+		iter.close();
+		return ret;
+	}
+	
+	@Override
+	public CloseableIterator<ZooPC> readObjectFromIndex(ZooFieldDef field, StringRange range,
+			long minValue, long maxValue, boolean loadFromCache, PrimLongSet include, 
+			PrimLongSet exclude) {
+		PagedStringIndex strInd = getStringIndexForRead(field);
+		if (strInd == null) {
+			//String index that stores only hashes of the Strings
+			return readObjectFromIndex(field, minValue, maxValue, true, loadFromCache, 
+					include, exclude);
+		}
+		LongLongIterator<LLEntry> iter = strInd.iterator(range); 
+		return new ObjectIterator(iter, cache, this, objectReader, loadFromCache, 
+				include, exclude);
+	}
+	
+	@Override
+	public PrimLongSetZ readOidsFromIndex(ZooFieldDef field, StringRange range, 
+			long minValue, long maxValue, PrimLongSet filter) {
+		PagedStringIndex strInd = getStringIndexForRead(field);
+		if (strInd == null) {
+			//String index that stores only hashes of the Strings
+			return readOidsFromIndex(field, minValue, maxValue, filter);
+		}
+		LongLongIterator<LLEntry> iter = strInd.iterator(range);
+		PrimLongSetZ ret = new PrimLongSetZ();
+		while (iter.hasNext()) {
+			long oid = iter.next().getValue();
+			if (filter == null || filter.contains(oid)) {
+				ret.add(oid);
+			}
+		}
+		iter.close();
+		return ret;
+	}
+	
+	@Override
+	public LongLongIterator<LLEntry> readIndexEntries(ZooFieldDef field, boolean ascending) {
+		LongLongIndex fieldInd = getFieldIndexForRead(field);
+		return ascending ? fieldInd.iterator() : fieldInd.descendingIterator();
+	}
+	
+	@Override
+	public CloseableIterator<ZooPC> readObjectFromIndex(
+			ZooCompositeIndexDef index, long minValue, long maxValue, boolean ascending, 
+			boolean loadFromCache, PrimLongSet include, PrimLongSet exclude) {
+		LongLongIndex ind = getCompositeIndexForRead(index);
+		LongLongIterator<LLEntry> iter = ascending ? ind.iterator(minValue, maxValue) : 
+			ind.descendingIterator(maxValue, minValue);
+		return new ObjectIterator(iter, cache, this, objectReader, loadFromCache, 
+				include, exclude);
+	}	
+	
+	@Override
+	public PrimLongSetZ readOidsFromIndex(ZooCompositeIndexDef index, long minValue, 
+			long maxValue, PrimLongSet filter) {
+		LongLongIndex ind = getCompositeIndexForRead(index);
+		LongLongIterator<LLEntry> iter = ind.iterator(minValue, maxValue);
+		PrimLongSetZ ret = new PrimLongSetZ();
+		while (iter.hasNext()) {
+			long oid = iter.next().getValue();
+			if (filter == null || filter.contains(oid)) {
+				ret.add(oid);
+			}
+		}
+		iter.close();
+		return ret;
+	}
+	
+	private LongLongIndex getCompositeIndexForRead(ZooCompositeIndexDef index) {
+		SchemaIndexEntry se = getSchemaIndexForRead().getSchema(index.getDeclaringType());
+		LongLongIndex ind = se == null ? null : se.getCompositeIndex(index.getFieldIds());
+		if (ind == null) {
+			//This can only happen if the index was created after the snapshot was taken
+			throw DBLogger.newUser("Index is not available in the current snapshot: " + 
+					index.getName());
+		}
+		return ind;
+	}
+	
+	/**
+	 * @return The String index of the field or {@code null} if the field has an index that 
+	 * stores only hashes of the Strings. 
+	 */
+	private PagedStringIndex getStringIndexForRead(ZooFieldDef field) {
+		SchemaIndexEntry se = getSchemaIndexForRead().getSchema(field.getDeclaringType());
+		if (se == null || !se.hasIndex(field)) {
+			//This can only happen if the index was created after the snapshot was taken
+			throw DBLogger.newUser("Index is not available in the current snapshot: " + 
+					field.getName());
+		}
+		return se.getStringIndex(field);
+	}
+	
+	private LongLongIndex getFieldIndexForRead(ZooFieldDef field) {
+		SchemaIndexEntry se = getSchemaIndexForRead().getSchema(field.getDeclaringType());
+		LongLongIndex fieldInd = se == null ? null : (LongLongIndex) se.getIndex(field);
+		if (fieldInd == null) {
+			//This can only happen if the index was created after the snapshot was taken
+			throw DBLogger.newUser("Index is not available in the current snapshot: " + 
+					field.getName());
+		}
+		return fieldInd;
+	}
+	
     /**
      * Read objects.
      * This should never be necessary. TODO add warning?
@@ -314,13 +596,15 @@ public class DiskAccessOneFile implements DiskAccess {
      */
     @Override
     public CloseableIterator<ZooHandleImpl> oidIterator(ZooClassProxy clsPx, boolean subClasses) {
-        SchemaIndexEntry se = schemaIndex.getSchema(clsPx.getSchemaId());
+        SchemaIndexEntry se = getSchemaIndexForRead().getSchema(clsPx.getSchemaId());
         if (se == null) {
             throw new IllegalStateException("Schema not found for class: " + clsPx);
         }
 
+        PagedPosIndex.ObjectPosIteratorMerger posIter = se.getObjectIndexIterator();
+        posIter.enableReadAhead(file);
         ZooHandleIteratorAdapter it = new ZooHandleIteratorAdapter(
-                se.getObjectIndexIterator(), objectReader, cache);
+                posIter, objectReader, cache);
         return it;
     }
     	
@@ -337,6 +621,45 @@ public class DiskAccessOneFile implements DiskAccess {
 		return pci;
 	}
 
+	/**
+	 * Read several objects at once. All OIDs are first resolved to positions, then the 
+	 * objects are read in the order of their position. This way every data page is read only
+	 * once, independent of the order of the OIDs.
+	 * @param oids Object IDs
+	 * @return The objects in the order of the OIDs, {@code null} for OIDs that were not found
+	 */
+	@Override
+	public ZooPC[] readObjects(long[] oids) {
+		ZooPC[] ret = new ZooPC[oids.length];
+		if (oids.length == 0) {
+			return ret;
+		}
+		PagedOidIndex oidIndex = getOidIndexForRead();
+		LongLongSorter sorter = new LongLongSorter(oids.length);
+		try {
+			for (int i = 0; i < oids.length; i++) {
+				FilePos oie = oidIndex.findOid(oids[i]);
+				if (oie != null) {
+					sorter.add(BitTools.getPos(oie.getPage(), oie.getOffs()), i);
+				}
+			}
+			final DataDeSerializer dds = ddsPool.get();
+			try {
+				while (sorter.next()) {
+					long pos = sorter.getKey();
+					int i = (int) sorter.getValue();
+					ret[i] = readObject(dds, null, oids[i], BitTools.getPage(pos), 
+							BitTools.getOffs(pos));
+				}
+			} finally {
+				ddsPool.offer(dds);
+			}
+		} finally {
+			sorter.close();
+		}
+		return ret;
+	}
+
 	/**
 	 * Locate an object.
 	 * @param pc Hollow Object to read
@@ -344,7 +667,7 @@ public class DiskAccessOneFile implements DiskAccess {
 	@Override
 	public ServerResponse readObject(ZooPC pc) {
 		long oid = pc.jdoZooGetOid();
-		FilePos oie = oidIndex.findOid(oid);
+		FilePos oie = getOidIndexForRead().findOid(oid);
 		if (oie == null) {
 			return new ServerResponse(RESULT.OBJECT_NOT_FOUND,
 					"ERROR OID not found: " + Util.oidToString(oid));
@@ -354,7 +677,7 @@ public class DiskAccessOneFile implements DiskAccess {
 		
 		try {
 	        final DataDeSerializer dds = ddsPool.get();
-            dds.readObject(pc, oie.getPage(), oie.getOffs());
+            readObject(dds, pc, oid, oie.getPage(), oie.getOffs());
 	        ddsPool.offer(dds);
 		} catch (RuntimeException e) {
 			if (DBLogger.isUser(e)) {
@@ -365,9 +688,24 @@ public class DiskAccessOneFile implements DiskAccess {
 		return new ServerResponse(RESULT.SUCCESS);
 	}
 
+	@Override
+	public String readStringField(long oid, ZooFieldDef field) {
+		FilePos oie = getOidIndexForRead().findOid(oid);
+		if (oie == null) {
+			throw DBLogger.newObjectNotFoundException(
+					"ERROR OID not found: " + Util.oidToString(oid));
+		}
+		final DataDeSerializer dds = ddsPool.get();
+		try {
+			return dds.readStringField(oie.getPage(), oie.getOffs(), field);
+		} finally {
+			ddsPool.offer(dds);
+		}
+	}
+
 	@Override
 	public GenericObject readGenericObject(ZooClassDef def, long oid) {
-		FilePos oie = oidIndex.findOid(oid);
+		FilePos oie = getOidIndexForRead().findOid(oid);
 		if (oie == null) {
 			throw DBLogger.newObjectNotFoundException(
 					"ERROR OID not found: " + Util.oidToString(oid));
@@ -395,17 +733,59 @@ public class DiskAccessOneFile implements DiskAccess {
 	 */
 	@Override
 	public ZooPC readObject(DataDeSerializer dds, long oid) {
-		FilePos oie = oidIndex.findOid(oid);
+		FilePos oie = getOidIndexForRead().findOid(oid);
 		if (oie == null) {
 			throw DBLogger.newObjectNotFoundException("OID not found: " + Util.oidToString(oid));
 		}
 		
-		return dds.readObject(oie.getPage(), oie.getOffs(), false);
+		return readObject(dds, null, oid, oie.getPage(), oie.getOffs());
+	}
+
+	/**
+	 * Read an object via the shared object cache, if the cache is enabled. Objects that are
+	 * not in the cache are recorded while they are read from storage and are then added to 
+	 * the cache.
+	 * @param dds DataDeSerializer
+	 * @param pc Hollow object to read or {@code null} to create or find the object in the 
+	 * session cache
+	 * @param oid Object ID
+	 * @param page The page according to the OID index
+	 * @param offs The offset according to the OID index
+	 * @return The object
+	 */
+	private ZooPC readObject(DataDeSerializer dds, ZooPC pc, long oid, int page, int offs) {
+		SharedObjectCache objectCache = sm.getObjectCache();
+		if (objectCache == null) {
+			return readObject(dds, pc, page, offs);
+		}
+		long pos = BitTools.getPos(page, offs);
+		ObjectReader in = dds.getReader();
+		byte[] data = objectCache.get(oid, pos);
+		if (data != null) {
+			in.setNextObject(data);
+			return readObject(dds, pc, page, offs);
+		}
+		ZooPC ret;
+		in.startRecording();
+		try {
+			ret = readObject(dds, pc, page, offs);
+		} finally {
+			data = in.stopRecording();
+		}
+		objectCache.put(oid, pos, data);
+		return ret;
+	}
+
+	private static ZooPC readObject(DataDeSerializer dds, ZooPC pc, int page, int offs) {
+		if (pc == null) {
+			return dds.readObject(page, offs, false);
+		}
+		return dds.readObject(pc, page, offs);
 	}
 
 	@Override
 	public boolean checkIfObjectExists(long oid) {
-		FilePos oie = oidIndex.findOid(oid);
+		FilePos oie = getOidIndexForRead().findOid(oid);
 		return oie != null;
 	}
 
@@ -413,6 +793,7 @@ public class DiskAccessOneFile implements DiskAccess {
 	public void close() {
 		LOGGER.info("Closing DB session: {}", node.getDbPath());
 		try {
+			closeSnapshot();
 			sm.writeLock(this);
 			sm.close(file);
 		} finally {
@@ -424,49 +805,67 @@ public class DiskAccessOneFile implements DiskAccess {
 	@Override
 	public long beginTransaction() {
 		txContext.reset();
-		//TODO
-		//TODO
-		//TODO
-		//TODO
-		//TODO
-		//TODO
-		//TODO
-		//TODO Use R-Lock
-		//TODO
-		//TODO Move locking code into SessionManager
-		//TODO
-		//TODO
-		//TODO
-		//TODO
-		//TODO
-		if (ALLOW_READ_CONCURRENCY) {
-			sm.readLock(this);
-		} else {
-			sm.writeLock(this);
-		}
-		//lock.lock();
-//		try {
-//			DBLogger.debugPrintln(1, "DAOF.beginTransaction() WLOCK");
-//			if (!lock.tryLock(10, TimeUnit.SECONDS)) {
-//				throw DBLogger.newUser("Deadlock?");
-//			}
-//		} catch (InterruptedException e) {
-//			Thread.currentThread().interrupt();
-//		}
+		sm.checkGroupCommitFailure();
+		//Reading transactions share the lock. The lock is escalated to an exclusive lock
+		//in checkTxConsistency() and beginCommit().
+		LOGGER.info(LOCKING_MARKER, "DAOF.beginTransaction() RLOCK");
+		sm.readLock(this);
 		txId = sm.getNextTxId();
+		//pages may have been rewritten by other sessions
+		file.resetReaders();
+		if (node.getSession().getConfig().getSnapshotRead()) {
+			//Snapshot transactions need the lock only for setting up the snapshot
+			snapshot = new Snapshot(sm);
+			LOGGER.info(LOCKING_MARKER, "DAOF.beginTransaction() snapshot release lock");
+			sm.release(this);
+		}
 		return txId;
 	}
 	
-	private static boolean ALLOW_READ_CONCURRENCY = false;
+	private PagedOidIndex getOidIndexForRead() {
+		return snapshot == null ? oidIndex : snapshot.oidIndex;
+	}
+	
+	private SchemaIndex getSchemaIndexForRead() {
+		return snapshot == null ? schemaIndex : snapshot.schemaIndex;
+	}
+	
+	/**
+	 * Close the snapshot, if any.
+	 * @return 'true' if a snapshot was closed. In this case the transaction holds no lock.
+	 */
+	private boolean closeSnapshot() {
+		if (snapshot == null) {
+			return false;
+		}
+		snapshot.close(sm);
+		snapshot = null;
+		return true;
+	}
+	
+	/**
+	 * Read-concurrency is now always enabled, this method has no effect.
+	 * @param allowReadConcurrency ignored
+	 */
 	@Deprecated
 	public static void allowReadConcurrency(boolean allowReadConcurrency) {
-		System.err.println("TODO Remove this and always allow read-concurrency!");
-		//currently we don't allow it, because it is unsafe.
-		ALLOW_READ_CONCURRENCY = allowReadConcurrency;
+		//nothing to do
 	}
 	
+	@Override
+	public void truncateOnCommit() {
+		truncateOnCommit = true;
+	}
+
+	@Override
+	public void appendOnCommit() {
+		appendOnCommit = true;
+	}
+
 	@Override
 	public OptimisticTransactionResult rollbackTransaction() {
+		truncateOnCommit = false;
+		appendOnCommit = false;
 		try {
 			//anything to do here?
 			//--> This is also used during start-up to drop locks on the SessionManager!
@@ -484,7 +883,9 @@ public class DiskAccessOneFile implements DiskAccess {
 			return txr;
 		} finally {
 			LOGGER.info(LOCKING_MARKER, "DAOF.rollback() release lock");
-			sm.release(this);
+			if (!closeSnapshot()) {
+				sm.release(this);
+			}
 		}
 	}
 	
@@ -506,38 +907,22 @@ public class DiskAccessOneFile implements DiskAccess {
 	public OptimisticTransactionResult checkTxConsistency(ArrayList<TxObjInfo> updates) {
 		//change read-lock to write-lock
 		LOGGER.info(LOCKING_MARKER, "DAOF.checkTxConsistency() WLOCK 1");
-		sm.release(this);
-		//sm.getLock().writeLock(this);
-		if (ALLOW_READ_CONCURRENCY) {
-			//TODO should be read-lock! We allow this only for the tests to pass...
-			sm.readLock(this);
-		} else {
-			sm.writeLock(this);
-		}
-
-		OptimisticTransactionResult ovr = checkConsistencyInternal(updates, true);
-		if (ovr.hasFailed()) {
-			return ovr;
+		boolean isSnapshot = snapshot != null;
+		if (!isSnapshot) {
+			sm.release(this);
 		}
+		sm.writeLock(this);
 
-
-		//change write-lock to read-lock
-		LOGGER.info(LOCKING_MARKER, "DAOF.checkTxConsistency() WLOCK 2");
-		sm.release(this);
-		//TODO
-		//TODO
-		//TODO
-		//TODO
-		//TODO
-		//TODO
-		//TODO
-		//TODO
-		//TODO
-		//lock = sm.getReadLock();
-		if (ALLOW_READ_CONCURRENCY) {
-			sm.readLock(this);
-		} else {
-			sm.writeLock(this);
+		OptimisticTransactionResult ovr;
+		try {
+			ovr = checkConsistencyInternal(updates, true);
+		} finally {
+			//change write-lock to read-lock, the transaction is not over yet
+			LOGGER.info(LOCKING_MARKER, "DAOF.checkTxConsistency() RLOCK 2");
+			sm.release(this);
+			if (!isSnapshot) {
+				sm.readLock(this);
+			}
 		}
 		
 		return ovr;
@@ -545,16 +930,16 @@ public class DiskAccessOneFile implements DiskAccess {
 
 	@Override
 	public OptimisticTransactionResult beginCommit(ArrayList<TxObjInfo> updates) {
+		//fail while the tx still holds its read lock, it can then be rolled back
+		sm.checkGroupCommitFailure();
 		//change read-lock to write-lock
 		LOGGER.info(LOCKING_MARKER, "DAOF.beginCommit() WLOCK");
-		sm.release(this);
-		//sm.getLock().writeLock(this);
-		if (ALLOW_READ_CONCURRENCY) {
-			//TODO should be read-lock! We allow this only for the tests to pass...
-			sm.readLock(this);
-		} else {
-			sm.writeLock(this);
+		//A snapshot transaction holds no lock. Updates are checked for conflicts with 
+		//transactions that committed after the snapshot was taken.
+		if (!closeSnapshot()) {
+			sm.release(this);
 		}
+		sm.writeLock(this);
 
 		OptimisticTransactionResult ovr = checkConsistencyInternal(updates, false);
 		if (ovr.hasFailed()) {
@@ -565,7 +950,7 @@ public class DiskAccessOneFile implements DiskAccess {
 		file.newTransaction(txId);
 		//set index channel ID
 		sm.getFsm().getFile().newTransaction(txId);
-		freeIndex.notifyBegin(txId);
+		freeIndex.notifyBegin(txId, appendOnCommit);
 
 		return ovr;
 	}
@@ -577,13 +962,18 @@ public class DiskAccessOneFile implements DiskAccess {
 		txContext.setSchemaTxId(schemaIndex.getTxIdOfLastWrite());
 		txContext.setSchemaIndexTxId(schemaIndex.getTxIdOfLastWriteThatRequiresRefresh());
 
-		sm.commitInfrastructure(file, oidPage, schemaPage1, oidIndex.getLastUsedOid(), txId);
+		SessionManager.CommitGroup group = sm.commitInfrastructure(file, oidPage, schemaPage1, 
+				oidIndex.getLastUsedOid(), txId, truncateOnCommit);
+		truncateOnCommit = false;
+		appendOnCommit = false;
 		txContext.reset();
 
 		//we release the lock only if the commit succeeds. Otherwise we keep the lock until
 		//everything was rolled back.
 		LOGGER.info(LOCKING_MARKER, "DAOF.commit() lock release");
 		sm.release(this);
+		//with group commit, wait (without lock) until the commit is durable
+		sm.waitForCommitGroup(group);
 	}
 
 	/**
@@ -609,48 +999,79 @@ public class DiskAccessOneFile implements DiskAccess {
 	}
 	
 	/**
-	 * Defines an index and populates it. All objects are put into the cache. This is not 
-	 * necessarily useful, but it is a one-off operation. Otherwise we would need a special
-	 * purpose implementation of the deserializer, which would have the need for a cache removed.
+	 * Defines an index and populates it. 
+	 * The keys of all existing objects are collected and sorted first, then the index is 
+	 * built bottom-up, see {@link ZooConfig#setIndexBulkFill(int)} and 
+	 * {@link ZooConfig#setIndexSortBufferSize(int)}. 
 	 */
 	@Override
 	public void defineIndex(ZooClassDef def, ZooFieldDef field, boolean isUnique) {
 		SchemaIndexEntry se = schemaIndex.getSchema(def);
-		LongLongIndex fieldInd = (LongLongIndex) se.defineIndex(field, isUnique);
+		se.defineIndex(field, isUnique);
 		
-		//fill index with existing objects
+		//collect keys of existing objects
 		PagedPosIndex ind = se.getObjectIndexLatestSchemaVersion();
 		PagedPosIndex.ObjectPosIterator iter = ind.iteratorObjects();
-        DataDeSerializerNoClass dds = new DataDeSerializerNoClass(fileInAP);
-        if (field.isPrimitiveType()) {
-			while (iter.hasNext()) {
-				long pos = iter.nextPos();
-				dds.seekPos(pos);
-				//first read the key, then afterwards the field!
-				long key = dds.getAttrAsLong(def, field);
-				if (isUnique) {
-					if (!fieldInd.insertLongIfNotSet(key, dds.getLastOid())) {
-						throw DBLogger.newUser("Duplicate entry in unique index: " +
-								Util.oidToString(dds.getLastOid()) + "  v=" + key);
+		PagedStringIndex strInd = se.getStringIndex(field);
+		if (strInd != null) {
+			//String indices store the full Strings, so we have to read them from the objects
+			DataDeSerializer dds = ddsPool.get();
+			DataDeSerializerNoClass ddsOid = new DataDeSerializerNoClass(fileInAP);
+			String[] keys = new String[1024];
+			long[] oids = new long[keys.length];
+			int n = 0;
+			try {
+				while (iter.hasNext()) {
+					long pos = iter.nextPos();
+					ddsOid.seekPos(pos);
+					if (n == keys.length) {
+						keys = Arrays.copyOf(keys, n * 2);
+						oids = Arrays.copyOf(oids, n * 2);
 					}
-				} else {
-					fieldInd.insertLong(key, dds.getLastOid());
+					oids[n] = ddsOid.getOid();
+					keys[n] = dds.readStringField(BitTools.getPage(pos), 
+							BitTools.getOffs(pos), field);
+					n++;
 				}
+			} finally {
+				iter.close();
+				ddsPool.offer(dds);
 			}
-        } else {
-			while (iter.hasNext()) {
-				long pos = iter.nextPos();
-				dds.seekPos(pos);
-				//first read the key, then afterwards the field!
-				long key = dds.getAttrAsLongObjectNotNull(def, field);
-				fieldInd.insertLong(key, dds.getLastOid());
-				//TODO handle null values:
-				//-ignore them?
-				//-use special value?
+			strInd.bulkLoad(keys, oids, n, ZooConfig.getIndexBulkFill());
+			return;
+		}
+		LongLongIndex fieldInd = se.getIndex(field);
+		DataDeSerializerNoClass dds = new DataDeSerializerNoClass(fileInAP);
+		LongLongSorter sorter = new LongLongSorter(ZooConfig.getIndexSortBufferSize());
+		try {
+			if (field.isPrimitiveType()) {
+				while (iter.hasNext()) {
+					long pos = iter.nextPos();
+					dds.seekPos(pos);
+					//first read the key, then afterwards the field!
+					long key = dds.getAttrAsLong(def, field);
+					sorter.add(key, dds.getLastOid());
+				}
+			} else {
+				while (iter.hasNext()) {
+					long pos = iter.nextPos();
+					dds.seekPos(pos);
+					//first read the key, then afterwards the field!
+					long key = dds.getAttrAsLongObjectNotNull(def, field);
+					sorter.add(key, dds.getLastOid());
+					//TODO handle null values:
+					//-ignore them?
+					//-use special value?
+				}
 			}
-			//DatabaseLogger.debugPrintln(0, "FIXME defineIndex()");
-        }
-        iter.close();
+			iter.close();
+
+			//Only primitive keys are checked for uniqueness. Keys of strings can be equal for
+			//different values and all null values have the same key.
+			fieldInd.bulkLoad(sorter, ZooConfig.getIndexBulkFill(), field.isPrimitiveType());
+		} finally {
+			sorter.close();
+		}
 	}
 
 	@Override
@@ -659,12 +1080,56 @@ public class DiskAccessOneFile implements DiskAccess {
 		return e.removeIndex(field);
 	}
 
+	/**
+	 * Defines a composite index and populates it in the same way as
+	 * {@link #defineIndex(ZooClassDef, ZooFieldDef, boolean)}.
+	 */
+	@Override
+	public void defineCompositeIndex(ZooClassDef def, ZooCompositeIndexDef index) {
+		SchemaIndexEntry se = schemaIndex.getSchema(def);
+		LongLongIndex ind = se.defineCompositeIndex(index.getFields());
+		
+		//collect keys of existing objects
+		ZooFieldDef[] fields = index.getFields();
+		CompositeKeyEncoder encoder = index.getEncoder();
+		PagedPosIndex.ObjectPosIterator iter = 
+				se.getObjectIndexLatestSchemaVersion().iteratorObjects();
+		DataDeSerializerNoClass dds = new DataDeSerializerNoClass(fileInAP);
+		LongLongSorter sorter = new LongLongSorter(ZooConfig.getIndexSortBufferSize());
+		try {
+			while (iter.hasNext()) {
+				long pos = iter.nextPos();
+				long code = 0;
+				for (int i = 0; i < fields.length; i++) {
+					dds.seekPos(pos);
+					long key = fields[i].isPrimitiveType() ? 
+							dds.getAttrAsLong(def, fields[i]) : 
+							dds.getAttrAsLongObjectNotNull(def, fields[i]);
+					code |= encoder.encodeField(i, key);
+				}
+				sorter.add(encoder.toKey(code), dds.getLastOid());
+			}
+			iter.close();
+			
+			//Composite keys are never unique
+			ind.bulkLoad(sorter, ZooConfig.getIndexBulkFill(), false);
+		} finally {
+			sorter.close();
+		}
+	}
+
+	@Override
+	public boolean removeCompositeIndex(ZooClassDef cls, ZooCompositeIndexDef index) {
+		SchemaIndexEntry e = schemaIndex.getSchema(cls);
+		return e.removeCompositeIndex(index.getFieldIds());
+	}
+
     /**
      * Get the class of a given object.
      */
 	@Override
 	public long getObjectClass(long oid) {
-		FilePos oie = oidIndex.findOid(oid);
+		FilePos oie = getOidIndexForRead().findOid(oid);
 		if (oie == null) {
 			throw DBLogger.newObjectNotFoundException("OID not found: " + Util.oidToString(oid));
 		}
@@ -692,8 +1157,20 @@ public class DiskAccessOneFile implements DiskAccess {
 			return file.statsGetReadCountUnique();
 		case IO_PAGE_WRITE_CNT:
 			return file.statsGetWriteCount();
+		case IO_PAGE_CACHE_HIT_CNT:
+			return sm.getFile().statsGetPageCacheHitCount();
+		case IO_PAGE_CACHE_MISS_CNT:
+			return sm.getFile().statsGetPageCacheMissCount();
+		case IO_PAGE_READ_AHEAD_CNT:
+			return sm.getFile().statsGetReadAheadCount();
+		case IO_OBJECT_CACHE_HIT_CNT:
+			return sm.getObjectCache() == null ? 0 : sm.getObjectCache().statsGetHitCount();
+		case IO_OBJECT_CACHE_MISS_CNT:
+			return sm.getObjectCache() == null ? 0 : sm.getObjectCache().statsGetMissCount();
 		case DB_PAGE_CNT:
 			return file.statsGetPageCount();
+		case DB_PAGE_CNT_FREE:
+			return freeIndex.countFreePages();
 		case DB_PAGE_CNT_IDX_FSM:
 			return freeIndex.debugPageIds().size();
 		case DB_PAGE_CNT_IDX_OID:
@@ -715,6 +1192,9 @@ public class DiskAccessOneFile implements DiskAccess {
 	        int nPosIndexPages = 0;
 	        for (SchemaIndexEntry se: schemaIndex.getSchemata()) {
 	            for (int v = 0; v < se.getObjectIndexVersionCount(); v++) {
+	            	if (se.isObjectIndexVersionDropped(v)) {
+	            		continue;
+	            	}
 	                nPosIndexPages += se.getObjectIndexVersion(v).debugPageIds().size();
 	            }
 	        }
@@ -724,6 +1204,13 @@ public class DiskAccessOneFile implements DiskAccess {
 			return sm.getTxManager().statsGetBufferedTxCount();
 		case TX_MGR_BUFFERED_OID_CNT:
 			return sm.getTxManager().statsGetBufferedOidCount();
+		case DB_OBJ_CNT_OUTDATED_SCHEMA: {
+			long n = 0;
+	        for (SchemaIndexEntry se: schemaIndex.getSchemata()) {
+	        	n += se.countOutdatedInstances();
+	        }
+			return n;
+		}
 		default:
 			throw new IllegalArgumentException("Unknown stat:" + stats);
 		}
@@ -766,6 +1253,9 @@ public class DiskAccessOneFile implements DiskAccess {
         int nPosIndexPages = 0;
         for (SchemaIndexEntry se: sList) {
         	for (int v = 0; v < se.getObjectIndexVersionCount(); v++) {
+        		if (se.isObjectIndexVersionDropped(v)) {
+        			continue;
+        		}
         		PagedPosIndex ppi = se.getObjectIndexVersion(v);
         		LongLongIterator<LongLongIndex.LLEntry> it = ppi.iteratorPositions();
         		while (it.hasNext()) {
@@ -781,6 +1271,9 @@ public class DiskAccessOneFile implements DiskAccess {
         	}
             //pages used by pos-index
             for (int v = 0; v < se.getObjectIndexVersionCount(); v++) {
+            	if (se.isObjectIndexVersionDropped(v)) {
+            		continue;
+            	}
                 List<Integer> pageList = se.getObjectIndexVersion(v).debugPageIds();
                 nPosIndexPages += pageList.size();
                 for (Integer i: pageList) {
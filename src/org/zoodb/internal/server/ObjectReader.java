@@ -21,8 +21,11 @@
 package org.zoodb.internal.server;
 
 
+import java.nio.ByteBuffer;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.zoodb.internal.GenericObjectReader;
 import org.zoodb.internal.SerialInput;
 import org.zoodb.internal.server.DiskIO.PAGE_TYPE;
 import org.zoodb.internal.util.PrimLongSetZ;
@@ -31,86 +34,199 @@ import org.zoodb.tools.DBStatistics;
 /**
  * This class serves as a mediator between the serializer and the file access class.
  * 
+ * For the {@link SharedObjectCache}, the reader can record the serialized state of an object
+ * while it is read from storage, see {@link #startRecording()}. Recorded states can be read 
+ * again instead of reading from storage, see {@link #setNextObject(byte[])}.
+ * 
  * @author Tilmann Zaeschke
  */
-public class ObjectReader implements SerialInput {
+public class ObjectReader implements SerialInput, DiskIO {
 
 	public static final Logger LOGGER = LoggerFactory.getLogger(ObjectReader.class);
 
 	private final SerialInput in;
+	//The input of the current object, either 'in' or a recorded object
+	private SerialInput cur;
+	//The recorded object that is returned by the next startReading()
+	private byte[] next = null;
+	//The recorded data, 'null' if not recording
+	private ByteBuffer rec = null;
 	
 	public ObjectReader(StorageChannel file) {
 		this.in = file.getReader(true);
+		this.cur = in;
 	}
 
 	public ObjectReader(SerialInput in) {
 		this.in = in;
+		this.cur = in;
 	}
 
     @Override
     public int readInt() {
-        return in.readInt();
+        int i = cur.readInt();
+        if (rec != null) {
+        	record(S_INT).putInt(i);
+        }
+        return i;
     }
 
     @Override
     public long readLong() {
-        return in.readLong();
+        long l = cur.readLong();
+        if (rec != null) {
+        	record(S_LONG).putLong(l);
+        }
+        return l;
     }
 
     @Override
     public boolean readBoolean() {
-        return in.readBoolean();
+        boolean b = cur.readBoolean();
+        if (rec != null) {
+        	record(S_BYTE).put(b ? (byte) 1 : (byte) 0);
+        }
+        return b;
     }
 
     @Override
     public byte readByte() {
-        return in.readByte();
+        byte b = cur.readByte();
+        if (rec != null) {
+        	record(S_BYTE).put(b);
+        }
+        return b;
     }
 
     @Override
     public char readChar() {
-        return in.readChar();
+        char c = cur.readChar();
+        if (rec != null) {
+        	record(S_CHAR).putChar(c);
+        }
+        return c;
     }
 
     @Override
     public double readDouble() {
-        return in.readDouble();
+        double d = cur.readDouble();
+        if (rec != null) {
+        	record(S_DOUBLE).putDouble(d);
+        }
+        return d;
     }
 
     @Override
     public float readFloat() {
-        return in.readFloat();
+        float f = cur.readFloat();
+        if (rec != null) {
+        	record(S_FLOAT).putFloat(f);
+        }
+        return f;
     }
 
     @Override
     public short readShort() {
-        return in.readShort();
+        short s = cur.readShort();
+        if (rec != null) {
+        	record(S_SHORT).putShort(s);
+        }
+        return s;
     }
 
     @Override
     public void readFully(byte[] array) {
-    	in.readFully(array);
+    	cur.readFully(array);
+        if (rec != null) {
+        	record(array.length).put(array);
+        }
     }
 
     @Override
     public String readString() {
-        return in.readString();
+        String s = cur.readString();
+        if (rec != null) {
+        	//Same layout as the GenericObjectWriter, including alignment for 2-byte writing
+        	ByteBuffer b = record(S_INT + 1 + s.length() * S_CHAR);
+        	b.putInt(s.length());
+        	if ((b.position() & 0x00000001) == 1) {
+        		b.position(b.position() + 1);
+        	}
+        	for (int i = 0; i < s.length(); i++) {
+        		b.putChar(s.charAt(i));
+        	}
+        }
+        return s;
     }
 
     @Override
     public void skipRead(int nBytes) {
-    	in.skipRead(nBytes);
+    	cur.skipRead(nBytes);
+        if (rec != null) {
+        	//skipped data is also skipped when the recorded object is read
+        	ByteBuffer b = record(nBytes);
+        	b.position(b.position() + nBytes);
+        }
     }
 
     public long startReading(int page, int offs) {
+    	if (next != null) {
+    		cur = new GenericObjectReader(ByteBuffer.wrap(next));
+    		next = null;
+    		return cur.getHeaderClassOID();
+    	}
+    	cur = in;
     	//TODO Hmm this is dirty...
         ((StorageChannelInput)in).seekPage(PAGE_TYPE.DATA, page, offs);
         if (DBStatistics.isEnabled()) {
         	statNRead++;
         	statNReadUnique.add(page);
         }
+        if (rec != null) {
+        	rec.clear();
+        	rec.putLong(in.getHeaderClassOID());
+        	rec.putLong(in.getHeaderTimestamp());
+        }
         return in.getHeaderClassOID();
     }
+
+    /**
+     * Read the given recorded object with the next call to {@link #startReading(int, int)}.
+     * @param data The recorded object, see {@link #stopRecording()}
+     */
+    public void setNextObject(byte[] data) {
+    	next = data;
+    }
+
+    /**
+     * Start recording the data of the next object that is read from storage.
+     */
+    public void startRecording() {
+    	rec = ByteBuffer.allocate(1024);
+    }
+
+    /**
+     * @return The recorded data of the object that was read since 
+     * {@link #startRecording()}, including the header.
+     */
+    public byte[] stopRecording() {
+    	byte[] ret = new byte[rec.position()];
+    	rec.flip();
+    	rec.get(ret);
+    	rec = null;
+    	return ret;
+    }
+
+    private ByteBuffer record(int nBytes) {
+    	if (rec.remaining() < nBytes) {
+    		ByteBuffer b = ByteBuffer.allocate(Math.max(rec.capacity() * 2, 
+    				rec.position() + nBytes));
+    		rec.flip();
+    		b.put(rec);
+    		rec = b;
+    	}
+    	return rec;
+    }
     
 	private static final PrimLongSetZ statNReadUnique = new PrimLongSetZ();
 	private static int statNRead = 0; 
@@ -131,12 +247,12 @@ public class ObjectReader implements SerialInput {
 
 	@Override
 	public long getHeaderClassOID() {
-		return in.getHeaderClassOID();
+		return cur.getHeaderClassOID();
 	}
 
 	@Override
 	public long getHeaderTimestamp() {
-		return in.getHeaderTimestamp();
+		return cur.getHeaderTimestamp();
 	}
 
 	
@@ -69,7 +69,6 @@ public class ObjectWriterSV implements ObjectWriter, CallbackPageWrite {
             }
             posIndex = schemaIndexEntry.getObjectIndexLatestSchemaVersion();
         }
-        PagedPosIndex prevIndex = schemaIndexEntry.getObjectIndexVersion(prevSchemaVersion);
 		currentPage = out.getPage();
 		currentOffs = out.getOffset();
 
@@ -77,6 +76,8 @@ public class ObjectWriterSV implements ObjectWriter, CallbackPageWrite {
         final LongLongIndex.LLEntry objPos = oidIndex.findOidGetLong(oid);
         if (objPos != null) {
 	        long pos = objPos.getValue(); //long with 32=page + 32=offs
+	        PagedPosIndex prevIndex = 
+	        		schemaIndexEntry.getObjectIndexForPos(prevSchemaVersion, pos);
 	        //prevPos.getValue() returns > 0, so the loop is performed at least once.
 	        do {
 	            //remove and report to FSM if applicable
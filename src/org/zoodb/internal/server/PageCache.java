@@ -0,0 +1,327 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.internal.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import org.zoodb.internal.util.PrimLongMapZ;
+
+/**
+ * A bounded page buffer pool with CLOCK (second chance) eviction.
+ *
+ * The cache sits between the {@link StorageRoot} and the actual storage. It is shared by all
+ * {@link StorageChannel}s of a root, i.e. by all sessions of a {@code SessionManager}.
+ *
+ * Written pages are kept as 'dirty' until they are either evicted or until {@link #flush()} is
+ * called. Both cases use the {@link PageWriter} to write the page to storage. Since
+ * {@link StorageChannelImpl#flush()} calls {@link StorageRoot#force()}, which in turn flushes
+ * this cache before syncing the file, the ordering guarantees of the commit protocol
+ * (data before root page) are preserved.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class PageCache {
+
+	/**
+	 * Callback for writing dirty pages back to storage.
+	 */
+	public interface PageWriter {
+		void writeBack(ByteBuffer buf, long pageId);
+	}
+
+	private static final class Frame {
+		private long pageId = -1;
+		private final ByteBuffer data;
+		private boolean isDirty = false;
+		private boolean isReferenced = false;
+		Frame(int pageSize) {
+			//Frames are long-lived, direct buffers allow fast copying to/from FileChannels
+			data = ByteBuffer.allocateDirect(pageSize);
+		}
+	}
+
+	private static final Comparator<Frame> PAGE_ID_COMPARATOR = new Comparator<Frame>() {
+		@Override
+		public int compare(Frame o1, Frame o2) {
+			return Long.compare(o1.pageId, o2.pageId);
+		}
+	};
+
+	private final Frame[] frames;
+	private final PrimLongMapZ<Frame> map;
+	private final PageWriter writer;
+	private final int pageSize;
+	private int clockHand = 0;
+	private int nUsed = 0;
+	private int nDirty = 0;
+	private long maxDirtyPageId = -1;
+	//Number of write() calls, this allows detecting outdated prefetched pages
+	private long nWrites = 0;
+
+	private long statNHit = 0;
+	private long statNMiss = 0;
+
+	/**
+	 *
+	 * @param nPages Capacity of the cache in pages
+	 * @param pageSize The page size
+	 * @param writer The writer for evicted and flushed dirty pages
+	 */
+	public PageCache(int nPages, int pageSize, PageWriter writer) {
+		if (nPages <= 0) {
+			throw new IllegalArgumentException("Cache size: " + nPages);
+		}
+		this.frames = new Frame[nPages];
+		this.map = new PrimLongMapZ<>(nPages);
+		this.writer = writer;
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Copy a cached page into the given buffer. On success the position of the buffer is
+	 * advanced by the number of copied bytes, just like a {@code FileChannel.read()}.
+	 * @param dst Destination buffer
+	 * @param pageId The page ID
+	 * @return {@code true} if the page was in the cache, otherwise {@code false}.
+	 */
+	public synchronized boolean read(ByteBuffer dst, long pageId) {
+		Frame f = map.get(pageId);
+		if (f == null) {
+			statNMiss++;
+			return false;
+		}
+		statNHit++;
+		f.isReferenced = true;
+		ByteBuffer src = f.data.duplicate();
+		src.rewind();
+		dst.put(src);
+		return true;
+	}
+
+	/**
+	 * Add a page that has just been read from storage.
+	 * @param src Buffer with the page data between position and limit
+	 * @param pageId The page ID
+	 */
+	public synchronized void putClean(ByteBuffer src, long pageId) {
+		Frame f = map.get(pageId);
+		if (f != null) {
+			//A dirty page is always more recent than the one on disk
+			if (!f.isDirty) {
+				copy(src, f);
+			}
+			return;
+		}
+		f = allocateFrame(pageId);
+		copy(src, f);
+	}
+
+	/**
+	 * Add a page that has been read ahead of time. Unlike {@link #putClean(ByteBuffer, long)}
+	 * the page is only added if it is not in the cache yet and if no page has been written
+	 * since {@code writeCount} was obtained. Otherwise the page may have been rewritten while
+	 * it was read from storage.
+	 * @param src Buffer with the page data between position and limit
+	 * @param pageId The page ID
+	 * @param writeCount The write count before the page was read, see {@link #getWriteCount()}
+	 * @return {@code true} if the page was added.
+	 */
+	public synchronized boolean putPrefetched(ByteBuffer src, long pageId, long writeCount) {
+		if (writeCount != nWrites || map.get(pageId) != null) {
+			return false;
+		}
+		Frame f = allocateFrame(pageId);
+		copy(src, f);
+		return true;
+	}
+
+	/**
+	 * Add or update a page that is written. The page is marked as dirty and is written to
+	 * storage when it is evicted or when the cache is flushed.
+	 * The position of the source buffer is advanced to the limit.
+	 * @param src Buffer with the page data between position and limit
+	 * @param pageId The page ID
+	 */
+	public synchronized void write(ByteBuffer src, long pageId) {
+		Frame f = map.get(pageId);
+		if (f == null) {
+			f = allocateFrame(pageId);
+		}
+		copy(src, f);
+		src.position(src.limit());
+		nWrites++;
+		if (!f.isDirty) {
+			f.isDirty = true;
+			nDirty++;
+		}
+		if (pageId > maxDirtyPageId) {
+			maxDirtyPageId = pageId;
+		}
+	}
+
+	/**
+	 * Write all dirty pages to storage. Pages are written in ascending order of their page ID.
+	 */
+	public synchronized void flush() {
+		if (nDirty == 0) {
+			return;
+		}
+		ArrayList<Frame> dirty = new ArrayList<>(nDirty);
+		for (Frame f: frames) {
+			if (f != null && f.isDirty) {
+				dirty.add(f);
+			}
+		}
+		Collections.sort(dirty, PAGE_ID_COMPARATOR);
+		for (Frame f: dirty) {
+			writeBack(f);
+		}
+		maxDirtyPageId = -1;
+	}
+
+	/**
+	 * Remove all pages from the cache. Dirty pages are discarded.
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < frames.length; i++) {
+			frames[i] = null;
+		}
+		map.clear();
+		nUsed = 0;
+		nDirty = 0;
+		clockHand = 0;
+		maxDirtyPageId = -1;
+		//pending prefetches are outdated
+		nWrites++;
+	}
+
+	/**
+	 * Remove all pages with an ID equal to or larger than {@code nPages}, for example when
+	 * the storage is truncated. Dirty pages are discarded.
+	 * @param nPages The number of pages that remain in storage
+	 */
+	public synchronized void truncate(long nPages) {
+		for (Frame f: frames) {
+			if (f == null || f.pageId < nPages) {
+				continue;
+			}
+			if (f.isDirty) {
+				f.isDirty = false;
+				nDirty--;
+			}
+			map.remove(f.pageId);
+			f.pageId = -1;
+			f.isReferenced = false;
+		}
+		//pending prefetches may be beyond the new end of the storage
+		nWrites++;
+	}
+
+	private void copy(ByteBuffer src, Frame f) {
+		ByteBuffer s = src.duplicate();
+		f.data.clear();
+		f.data.put(s);
+		f.data.flip();
+		f.isReferenced = true;
+	}
+
+	private void writeBack(Frame f) {
+		ByteBuffer b = f.data.duplicate();
+		b.rewind();
+		writer.writeBack(b, f.pageId);
+		f.isDirty = false;
+		nDirty--;
+	}
+
+	private Frame allocateFrame(long pageId) {
+		Frame f;
+		if (nUsed < frames.length) {
+			f = new Frame(pageSize);
+			frames[nUsed++] = f;
+		} else {
+			f = evict();
+		}
+		f.pageId = pageId;
+		map.put(pageId, f);
+		return f;
+	}
+
+	/**
+	 * CLOCK: move the hand until we find a frame that has not been referenced since the
+	 * last sweep. Referenced frames get a second chance.
+	 */
+	private Frame evict() {
+		while (true) {
+			Frame f = frames[clockHand];
+			clockHand = (clockHand + 1) % frames.length;
+			if (f.isReferenced) {
+				f.isReferenced = false;
+				continue;
+			}
+			if (f.isDirty) {
+				writeBack(f);
+			}
+			map.remove(f.pageId);
+			f.pageId = -1;
+			return f;
+		}
+	}
+
+	/**
+	 *
+	 * @return The highest page ID that has been written to the cache but not yet to storage,
+	 * or {@code -1} if there are no such pages.
+	 */
+	public synchronized long getMaxDirtyPageId() {
+		return nDirty == 0 ? -1 : maxDirtyPageId;
+	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+
+	public synchronized boolean contains(long pageId) {
+		return map.get(pageId) != null;
+	}
+
+	/**
+	 * 
+	 * @return The number of pages that have been written to the cache.
+	 */
+	public synchronized long getWriteCount() {
+		return nWrites;
+	}
+
+	public int getCapacity() {
+		return frames.length;
+	}
+
+	public synchronized long statsGetHitCount() {
+		return statNHit;
+	}
+
+	public synchronized long statsGetMissCount() {
+		return statNMiss;
+	}
+}
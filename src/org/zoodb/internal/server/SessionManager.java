@@ -24,6 +24,7 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.locks.LockSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +32,7 @@ import org.zoodb.internal.Node;
 import org.zoodb.internal.client.AbstractCache;
 import org.zoodb.internal.server.DiskIO.PAGE_TYPE;
 import org.zoodb.internal.server.index.FreeSpaceManager;
+import org.zoodb.internal.server.index.FreeSpaceManager.ReaderEpoch;
 import org.zoodb.internal.server.index.PagedOidIndex;
 import org.zoodb.internal.server.index.SchemaIndex;
 import org.zoodb.internal.util.DBLogger;
@@ -55,6 +57,7 @@ class SessionManager {
 	private final RootPage rootPage;
 	private final int[] rootPages = new int[2];
 	private int rootPageID = 0;
+	private long lastRootTxId;
 
 	//hmm...
 	private final SchemaIndex schemaIndex;
@@ -66,8 +69,50 @@ class SessionManager {
 	
 	private final TxManager txManager;
 	
+	//Shared object cache, see ZooConfig.setObjectCacheSize(), may be null
+	private final SharedObjectCache objectCache;
+
+	//Group commit, see ZooConfig.setGroupCommitWindow()
+	private final long groupCommitWindowNanos;
+	private final Object groupCommitLock = new Object();
+	private CommitGroup openGroup = null;
+	private boolean isGroupFlushing = false;
+	//set if writing a commit group failed, the database file is unusable afterwards
+	private volatile RuntimeException groupCommitFailure = null;
+
+	/**
+	 * Commits that are made durable together with a single root page write. 
+	 * The root page is written with the state of the last commit in the group.
+	 * <p>
+	 * The changes of a commit become visible to other sessions when the commit joins the
+	 * group, i.e. before they are durable. If the group cannot be written, these changes
+	 * cannot be revoked, instead the database file becomes unusable, see 
+	 * {@link #checkGroupCommitFailure()}.
+	 */
+	static final class CommitGroup {
+		//prevents reuse of pages that were freed by the group until the root page is written
+		private final ReaderEpoch epoch;
+		private int userPage;
+		private int oidPage;
+		private int schemaPage;
+		private int indexPage;
+		private int freePage;
+		private int pageCount;
+		private long lastUsedOid;
+		private long rootTxId;
+		private int size = 0;
+		private boolean isDone = false;
+		private RuntimeException failure = null;
+		
+		private CommitGroup(ReaderEpoch epoch) {
+			this.epoch = epoch;
+		}
+	}
+	
 	public SessionManager(Path path) {
 		this.path = path;
+		int window = ZooConfig.getGroupCommitWindow();
+		groupCommitWindowNanos = window < 0 ? -1 : window * 1000L;
 		fsm = new FreeSpaceManager();
 		file = createPageAccessFile(path, "rw", fsm);
 		
@@ -126,7 +171,10 @@ class SessionManager {
 		//read main directory (page IDs)
 		//tx ID
 		long txId = in.readLong();
-		this.txManager = new TxManager(txId);
+		long cacheSize = ZooConfig.getObjectCacheSize();
+		this.objectCache = cacheSize > 0 ? new SharedObjectCache(cacheSize) : null;
+		this.txManager = new TxManager(txId, objectCache);
+		this.lastRootTxId = txId;
 		//User table 
 		int userPage = in.readInt();
 		//OID table
@@ -257,27 +305,58 @@ class SessionManager {
 		return file;
 	}
 
-	void commitInfrastructure(StorageChannel channel, int oidPage, int schemaPage1, long lastUsedOid, long txId) {
+	/**
+	 * 
+	 * @param truncate Whether free pages at the end of the file should be removed
+	 * @return {@code null} or, with group commit, the group that has to be passed to 
+	 * {@link #waitForCommitGroup(CommitGroup)} after releasing the lock.
+	 */
+	CommitGroup commitInfrastructure(StorageChannel channel, int oidPage, int schemaPage1, 
+			long lastUsedOid, long txId, boolean truncate) {
 		int userPage = rootPage.getUserPage(); //not updated currently
 		int indexPage = rootPage.getIndexPage(); //TODO remove this?
 
+		//The file has to be truncated after the root page is written. This is not supported
+		//with group commit, where the root page is written later by the group leader.
+		if (truncate && groupCommitWindowNanos < 0 && fsm.trimTail() > 0) {
+			LOGGER.info("Truncating DB file: {}", path);
+		} else {
+			truncate = false;
+		}
+
 		//This needs to be written last, because it is updated by other write methods which add
 		//new pages to the FSM.
 		int freePage = fsm.write();
 		int pageCount = fsm.getPageCount();
 		
 		if (!rootPage.isDirty(userPage, oidPage, schemaPage1, indexPage, freePage)) {
-			return;
+			return null;
 		}
 		rootPage.set(userPage, oidPage, schemaPage1, indexPage, freePage, pageCount);
 		
+		//Transactions may commit in a different order than they started. The root page needs
+		//an increasing ID, because it is used to identify the latest root page.
+		long rootTxId = Math.max(txManager.getLatestTxId(), lastRootTxId + 1);
+		lastRootTxId = rootTxId;
+		
+		if (groupCommitWindowNanos >= 0) {
+			return joinCommitGroup(channel, userPage, oidPage, schemaPage1, indexPage, freePage, 
+					pageCount, lastUsedOid, txId, rootTxId);
+		}
+		
 		// flush the file including all splits 
 		channel.flush(); 
 		writeMainPage(userPage, oidPage, schemaPage1, indexPage, freePage, pageCount, fileOut, 
-				lastUsedOid, txId);
+				lastUsedOid, rootTxId);
 		//Second flush to update root pages.
 		channel.flush(); 
 		
+		if (truncate) {
+			//The removed pages were free before this transaction, they are not referenced 
+			//by the new or by the previous root page.
+			file.truncate(pageCount);
+		}
+		
 		//tell FSM that new free pages can now be reused.
 		fsm.notifyCommit();
 		
@@ -286,6 +365,143 @@ class SessionManager {
 		//refresh() is performed through the session object.
 		//schemaIndex.refreshIterators();
 		txManager.deRegisterTx(txId);
+		return null;
+	}
+
+	private CommitGroup joinCommitGroup(StorageChannel channel, int userPage, int oidPage, 
+			int schemaPage, int indexPage, int freePage, int pageCount, long lastUsedOid, 
+			long txId, long rootTxId) {
+		synchronized (groupCommitLock) {
+			//Do not build on top of changes that could not be written.
+			checkGroupCommitFailure();
+			//Write data and index pages, they are synced by the leader of the group.
+			channel.flushNoForce();
+			rootChannel.flushNoForce();
+			
+			CommitGroup g = openGroup;
+			if (g == null) {
+				g = new CommitGroup(fsm.registerReader());
+				openGroup = g;
+			}
+			g.userPage = userPage;
+			g.oidPage = oidPage;
+			g.schemaPage = schemaPage;
+			g.indexPage = indexPage;
+			g.freePage = freePage;
+			g.pageCount = pageCount;
+			g.lastUsedOid = lastUsedOid;
+			g.rootTxId = rootTxId;
+			g.size++;
+			
+			//Pages freed by this commit are protected by the epoch of the group.
+			//From here on the commit is visible to other sessions.
+			fsm.notifyCommit();
+			txManager.deRegisterTx(txId);
+			return g;
+		}
+	}
+	
+	/**
+	 * Wait until the commit group is durable. This should be called without holding the
+	 * lock, so that other sessions can join the group in the meantime.
+	 * The first caller that finds the group not yet being written becomes the leader and
+	 * writes the group, all other callers wait for it.
+	 * @param g The group returned by commitInfrastructure(), may be {@code null}
+	 */
+	void waitForCommitGroup(CommitGroup g) {
+		if (g == null) {
+			return;
+		}
+		boolean isInterrupted = false;
+		boolean isLeader = false;
+		synchronized (groupCommitLock) {
+			while (!g.isDone && isGroupFlushing) {
+				try {
+					groupCommitLock.wait();
+				} catch (InterruptedException e) {
+					//We have to wait anyway, otherwise the group may never be written.
+					isInterrupted = true;
+				}
+			}
+			if (!g.isDone) {
+				isGroupFlushing = true;
+				isLeader = true;
+			}
+		}
+		if (isLeader) {
+			try {
+				if (groupCommitWindowNanos > 0) {
+					//let other commits join the group
+					LockSupport.parkNanos(groupCommitWindowNanos);
+				}
+				writeCommitGroup();
+			} finally {
+				synchronized (groupCommitLock) {
+					isGroupFlushing = false;
+					groupCommitLock.notifyAll();
+				}
+			}
+		}
+		if (isInterrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (g.failure != null) {
+			//every member of the group gets its own exception
+			throw DBLogger.newFatalDataStore("Commit failed while writing the commit group.", 
+					g.failure);
+		}
+	}
+	
+	/**
+	 * Fails if a commit group could not be written. The commits of the group are already 
+	 * visible in memory, so the database file cannot be used anymore. All sessions have to
+	 * be closed, reopening the file reverts it to the last durable commit.
+	 */
+	void checkGroupCommitFailure() {
+		RuntimeException failure = groupCommitFailure;
+		if (failure != null) {
+			throw DBLogger.newFatalDataStore("The database is unusable after a failed " +
+					"group commit, it has to be closed and reopened: " + path, failure);
+		}
+	}
+	
+	private void writeCommitGroup() {
+		CommitGroup g;
+		synchronized (groupCommitLock) {
+			g = openGroup;
+			openGroup = null;
+		}
+		RuntimeException failure = null;
+		try {
+			//a previous group failed, this group builds on top of it
+			checkGroupCommitFailure();
+			//sync data and index pages of all commits in the group
+			file.sync();
+			//The root page writer belongs to the root channel, whose flushNoForce() may be
+			//called concurrently by other sessions.
+			synchronized (rootChannel) {
+				writeMainPage(g.userPage, g.oidPage, g.schemaPage, g.indexPage, g.freePage, 
+						g.pageCount, fileOut, g.lastUsedOid, g.rootTxId);
+				fileOut.flush();
+			}
+			//sync root page
+			file.sync();
+			LOGGER.debug("Group commit: {} transactions, rootTxId={}", g.size, g.rootTxId);
+		} catch (RuntimeException e) {
+			//The commits of the group are visible but not durable. Nothing can be written
+			//anymore, so releasing the pages that were freed by the group is safe.
+			LOGGER.error("Group commit failed, database is unusable: {}", path, e);
+			if (groupCommitFailure == null) {
+				groupCommitFailure = e;
+			}
+			failure = e;
+		} finally {
+			fsm.deregisterReader(g.epoch);
+		}
+		synchronized (groupCommitLock) {
+			g.failure = failure;
+			g.isDone = true;
+		}
 	}
 
 	RootPage getRootPage() {
@@ -381,6 +597,13 @@ class SessionManager {
 		return txManager;
 	}
 
+	/**
+	 * @return The shared object cache or {@code null} if the cache is disabled.
+	 */
+	SharedObjectCache getObjectCache() {
+		return objectCache;
+	}
+
 	public boolean isLocked() {
 		return lock.isLocked();
 	}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.internal.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache for serialized objects with LRU eviction.
+ *
+ * The cache is shared by all sessions of a {@code SessionManager}. It avoids reading and
+ * decoding the same pages again when several sessions load the same objects. The serialized
+ * state includes the header with the class OID and the ID of the transaction that wrote
+ * the object.
+ *
+ * Entries are keyed by OID and are only returned if they were read from the position that
+ * the OID index of the reader returns. This way, readers with an older snapshot of the
+ * database never see newer versions and vice versa. In addition, all updated and deleted
+ * objects are removed when a transaction commits, see {@link TxManager}.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class SharedObjectCache {
+
+	//approximate memory overhead per entry
+	private static final int ENTRY_OVERHEAD = 64;
+
+	private static final class Entry {
+		private final long pos;
+		private final byte[] data;
+		Entry(long pos, byte[] data) {
+			this.pos = pos;
+			this.data = data;
+		}
+		private int size() {
+			return data.length + ENTRY_OVERHEAD;
+		}
+	}
+
+	//access-ordered, the first entry is the least recently used
+	private final LinkedHashMap<Long, Entry> map = new LinkedHashMap<>(16, 0.75f, true);
+	private final long maxBytes;
+	private long nBytes = 0;
+
+	private long statNHit = 0;
+	private long statNMiss = 0;
+
+	/**
+	 *
+	 * @param maxBytes Capacity of the cache in bytes
+	 */
+	public SharedObjectCache(long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("Cache size: " + maxBytes);
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 *
+	 * @param oid The OID
+	 * @param pos The position of the object according to the OID index of the reader
+	 * @return The serialized object or {@code null} if it is not in the cache.
+	 */
+	public synchronized byte[] get(long oid, long pos) {
+		Entry e = map.get(oid);
+		if (e == null || e.pos != pos) {
+			statNMiss++;
+			return null;
+		}
+		statNHit++;
+		return e.data;
+	}
+
+	/**
+	 * Add an object that has just been read from storage.
+	 * @param oid The OID
+	 * @param pos The position from which the object was read
+	 * @param data The serialized object
+	 */
+	public synchronized void put(long oid, long pos, byte[] data) {
+		Entry e = new Entry(pos, data);
+		if (e.size() > maxBytes) {
+			return;
+		}
+		Entry prev = map.put(oid, e);
+		if (prev != null) {
+			nBytes -= prev.size();
+		}
+		nBytes += e.size();
+		Iterator<Map.Entry<Long, Entry>> it = map.entrySet().iterator();
+		while (nBytes > maxBytes) {
+			nBytes -= it.next().getValue().size();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Remove objects that have been updated or deleted.
+	 * @param updates The updated or deleted objects
+	 */
+	public synchronized void invalidate(List<TxObjInfo> updates) {
+		for (TxObjInfo info: updates) {
+			Entry e = map.remove(info.getOid());
+			if (e != null) {
+				nBytes -= e.size();
+			}
+		}
+	}
+
+	/**
+	 * Remove all objects from the cache.
+	 */
+	public synchronized void clear() {
+		map.clear();
+		nBytes = 0;
+	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+
+	public synchronized long getSizeInBytes() {
+		return nBytes;
+	}
+
+	public long getCapacity() {
+		return maxBytes;
+	}
+
+	public synchronized long statsGetHitCount() {
+		return statNHit;
+	}
+
+	public synchronized long statsGetMissCount() {
+		return statNMiss;
+	}
+}
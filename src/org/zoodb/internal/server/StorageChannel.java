@@ -44,10 +44,33 @@ public interface StorageChannel {
 
 	void flush();
 
+	/**
+	 * Write the pages of all writers without syncing the storage.
+	 */
+	void flushNoForce();
+
+	/**
+	 * Drop buffered pages of all readers, pages may have been rewritten by other sessions.
+	 */
+	void resetReaders();
+
 	void write(ByteBuffer buf, long currentPage);
 
 	void readPage(ByteBuffer buf, long pageId);
 
+	/**
+	 * Request an asynchronous read of a page that is likely to be read soon.
+	 * @param pageId The page ID
+	 * @see StorageRoot#prefetch(int)
+	 */
+	void prefetch(int pageId);
+
+	/**
+	 * @return The number of pages that scans should prefetch, or {@code 0} if read-ahead
+	 * is disabled.
+	 */
+	int getReadAheadPages();
+
 	int statsGetReadCount();
 
 	int statsGetWriteCount();
@@ -59,14 +59,14 @@ public final class StorageChannelImpl implements StorageChannel {
 	}
 
 	@Override
-	public final StorageChannelInput getReader(boolean autoPaging) {
+	public final synchronized StorageChannelInput getReader(boolean autoPaging) {
 		StorageChannelInput in = new StorageReader(this, autoPaging);
 		viewsIn.add(in);
 		return in;
 	}
 	
 	@Override
-	public final StorageChannelOutput getWriter(boolean autoPaging) {
+	public final synchronized StorageChannelOutput getWriter(boolean autoPaging) {
 		StorageChannelOutput out = new StorageWriter(this, autoPaging);
 		viewsOut.add(out);
 		return out;
@@ -81,12 +81,18 @@ public final class StorageChannelImpl implements StorageChannel {
 		root.force();
 	}
 
-	public void flushNoForce() {
+	@Override
+	public synchronized void flushNoForce() {
 		//flush associated splits.
 		for (StorageChannelOutput paf: viewsOut) {
 			//flush() only writers
 			paf.flush();
 		}
+		resetReaders();
+	}
+
+	@Override
+	public void resetReaders() {
 		for (StorageChannelInput paf: viewsIn) {
 			paf.reset();
 		}
@@ -102,6 +108,16 @@ public final class StorageChannelImpl implements StorageChannel {
 		root.readPage(buf, pageId);
 	}
 
+	@Override
+	public final void prefetch(int pageId) {
+		root.prefetch(pageId);
+	}
+
+	@Override
+	public final int getReadAheadPages() {
+		return root.getReadAheadPages();
+	}
+
 	@Override
 	public final void write(ByteBuffer buf, long pageId) {
 		root.write(buf, pageId);
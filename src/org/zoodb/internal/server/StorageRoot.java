@@ -28,6 +28,13 @@ public interface StorageRoot {
 
 	public void force();
 
+	/**
+	 * Write cached pages and sync the storage. Unlike {@link #force()}, this does not flush the
+	 * writers of the index channel, so it can be called while another session writes to the
+	 * index.
+	 */
+	public void sync();
+
 	public int statsGetPageCount();
 
 	public int statsGetReadCount();
@@ -36,10 +43,46 @@ public interface StorageRoot {
 
 	public int statsGetWriteCount();
 
+	/**
+	 * @return Number of page reads that could be served from the page cache.
+	 */
+	public long statsGetPageCacheHitCount();
+
+	/**
+	 * @return Number of page reads that could not be served from the page cache.
+	 */
+	public long statsGetPageCacheMissCount();
+
+	/**
+	 * @return Number of pages that were read ahead and added to the page cache.
+	 */
+	public long statsGetReadAheadCount();
+
 	public void readPage(ByteBuffer buf, long pageId);
 
+	/**
+	 * Read a page in the background and add it to the page cache. This returns immediately.
+	 * Requests may be dropped, for example if too many requests are pending.
+	 * @param pageId The page ID
+	 */
+	public void prefetch(int pageId);
+
+	/**
+	 * @return The number of pages that scans should prefetch, or {@code 0} if read-ahead
+	 * is disabled or not supported.
+	 */
+	public int getReadAheadPages();
+
 	public void write(ByteBuffer buf, long pageId);
 
+	/**
+	 * Remove all pages with an ID equal to or larger than {@code nPages} from the storage.
+	 * This should only be called after the root page has been written, and only if no
+	 * transaction can still access the removed pages.
+	 * @param nPages The new number of pages
+	 */
+	public void truncate(int nPages);
+
 	int getPageSize();
 
 	void reportFreePage(int pageId);
@@ -28,17 +28,31 @@ import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.zoodb.internal.server.index.FreeSpaceManager;
 import org.zoodb.internal.util.DBLogger;
 import org.zoodb.internal.util.PrimLongSetZ;
 import org.zoodb.tools.DBStatistics;
+import org.zoodb.tools.ZooConfig;
 import org.zoodb.tools.ZooDebug;
 
 /**
  * A common root for multiple file views. Each view accesses its own page,
  * the root contains the common file resource.
  * 
+ * Pages are buffered in a {@link PageCache} that is shared by all views. The cache size is
+ * configured via {@link ZooConfig#setFilePageCacheSize(int)}, a size of {@code 0} disables it.
+ * 
+ * Scans can request pages to be read ahead, see {@link ZooConfig#setReadAheadPages(int)}. 
+ * These pages are read by background threads into the page cache, so read-ahead requires
+ * the page cache to be enabled.
+ * 
  * @author Tilmann Zaeschke
  *
  */
@@ -53,6 +67,17 @@ public final class StorageRootFile implements StorageRoot {
 	private final FileChannel fc;
 	// use LONG to enforce long-arithmetic in calculations
 	private final long PAGE_SIZE;
+	//may be null if disabled
+	private final PageCache cache;
+
+	private static final int READ_AHEAD_THREADS = 2;
+	//may be null if disabled
+	private final ExecutorService readAhead;
+	private final int readAheadPages;
+	//pages that are currently being read ahead
+	private final PrimLongSetZ readAheadPending = new PrimLongSetZ();
+	private volatile boolean isClosed = false;
+	private final AtomicLong statNReadAhead = new AtomicLong();
 
 	private int statNRead; 
 	private int statNWrite; 
@@ -89,6 +114,32 @@ public final class StorageRootFile implements StorageRoot {
 			throw DBLogger.newFatal("Error opening database: " + dbPath, e);
 		}
 		this.indexChannel = new StorageChannelImpl(this);
+		int cacheSize = ZooConfig.getFilePageCacheSize();
+		if (cacheSize > 0) {
+			cache = new PageCache(cacheSize, pageSize, new PageCache.PageWriter() {
+				@Override
+				public void writeBack(ByteBuffer buf, long pageId) {
+					writeToFile(buf, pageId);
+				}
+			});
+		} else {
+			cache = null;
+		}
+		int nReadAhead = ZooConfig.getReadAheadPages();
+		if (cache != null && nReadAhead > 0) {
+			readAheadPages = nReadAhead;
+			readAhead = Executors.newFixedThreadPool(READ_AHEAD_THREADS, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ZooDB-ReadAhead");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		} else {
+			readAheadPages = 0;
+			readAhead = null;
+		}
 	}
 
 	@Override
@@ -105,7 +156,21 @@ public final class StorageRootFile implements StorageRoot {
 	public final void close() {
 		indexChannel.close();
 		//TODO flush();
+		isClosed = true;
+		if (readAhead != null) {
+			//Do not interrupt, this would close the FileChannel
+			readAhead.shutdown();
+			try {
+				readAhead.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
 		try {
+			if (cache != null) {
+				cache.flush();
+				cache.clear();
+			}
 			fc.force(true);
 			fileLock.release();
 			fc.close();
@@ -116,7 +181,7 @@ public final class StorageRootFile implements StorageRoot {
 	}
 
 	@Override
-	public void close(StorageChannel channel) {
+	public synchronized void close(StorageChannel channel) {
 		if (!views.remove(channel) && channel != indexChannel) {
 			throw new IllegalStateException();
 		}
@@ -125,7 +190,15 @@ public final class StorageRootFile implements StorageRoot {
 	@Override
 	public void force() {
 		indexChannel.flushNoForce();
+		sync();
+	}
+
+	@Override
+	public void sync() {
 		try {
+			if (cache != null) {
+				cache.flush();
+			}
 			fc.force(false);
 		} catch (IOException e) {
 			throw DBLogger.newFatal("Error writing database file.", e);
@@ -133,7 +206,7 @@ public final class StorageRootFile implements StorageRoot {
 	}
 
 	@Override
-	public final StorageChannel createChannel() {
+	public final synchronized StorageChannel createChannel() {
 		StorageChannel c = new StorageChannelImpl(this);
 		views.add(c);
 		return c;
@@ -151,11 +224,24 @@ public final class StorageRootFile implements StorageRoot {
 	
 	@Override
 	public final void readPage(ByteBuffer buf, long pageId) {
+		if (cache != null && cache.read(buf, pageId)) {
+			return;
+		}
 		try {
+			int pos = buf.position();
 			fc.read(buf, pageId * PAGE_SIZE);
 			if (DBStatistics.isEnabled()) {
-				statNRead++;
-				statNReadUnique.add(pageId);
+				//readers of different sessions may run concurrently
+				synchronized (statNReadUnique) {
+					statNRead++;
+					statNReadUnique.add(pageId);
+				}
+			}
+			if (cache != null) {
+				ByteBuffer b = buf.duplicate();
+				b.limit(b.position());
+				b.position(pos);
+				cache.putClean(b, pageId);
 			}
 		} catch (IOException e) {
 			throw DBLogger.newFatal("Error loading Page: " + pageId, e);
@@ -163,11 +249,95 @@ public final class StorageRootFile implements StorageRoot {
 	}
 
 	@Override
-	public final void write(ByteBuffer buf, long pageId) {
+	public void prefetch(final int pageId) {
+		if (readAhead == null || isClosed || pageId <= 0 || cache.contains(pageId)) {
+			return;
+		}
+		synchronized (readAheadPending) {
+			if (readAheadPending.size() >= 2 * readAheadPages 
+					|| !readAheadPending.add(pageId)) {
+				return;
+			}
+		}
 		try {
-			if (pageId<0) {
+			readAhead.execute(new Runnable() {
+				@Override
+				public void run() {
+					readAhead(pageId);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			//closed
+			synchronized (readAheadPending) {
+				readAheadPending.remove(pageId);
+			}
+		}
+	}
+
+	private void readAhead(long pageId) {
+		try {
+			if (isClosed) {
+				return;
+			}
+			//Get the write count first, any later write may make this page outdated
+			long writeCount = cache.getWriteCount();
+			if (cache.contains(pageId)) {
 				return;
 			}
+			ByteBuffer buf = ByteBuffer.allocate((int) PAGE_SIZE);
+			fc.read(buf, pageId * PAGE_SIZE);
+			if (buf.hasRemaining()) {
+				//beyond the end of the file
+				return;
+			}
+			buf.flip();
+			if (cache.putPrefetched(buf, pageId, writeCount)) {
+				statNReadAhead.incrementAndGet();
+			}
+		} catch (IOException e) {
+			//Ignore, for example if the file has been closed. The page is read
+			//again when it is needed.
+		} finally {
+			synchronized (readAheadPending) {
+				readAheadPending.remove(pageId);
+			}
+		}
+	}
+
+	@Override
+	public int getReadAheadPages() {
+		return readAheadPages;
+	}
+
+	@Override
+	public final void write(ByteBuffer buf, long pageId) {
+		if (pageId<0) {
+			return;
+		}
+		if (cache != null) {
+			cache.write(buf, pageId);
+		} else {
+			writeToFile(buf, pageId);
+		}
+	}
+
+	@Override
+	public void truncate(int nPages) {
+		try {
+			if (cache != null) {
+				cache.truncate(nPages);
+			}
+			if (fc.size() > nPages * PAGE_SIZE) {
+				fc.truncate(nPages * PAGE_SIZE);
+				fc.force(true);
+			}
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error truncating database file.", e);
+		}
+	}
+
+	private void writeToFile(ByteBuffer buf, long pageId) {
+		try {
 			if (DBStatistics.isEnabled()) {
 				statNWrite++;
 			}
@@ -184,9 +354,11 @@ public final class StorageRootFile implements StorageRoot {
 
 	@Override
 	public int statsGetReadCountUnique() {
-		int ret = statNReadUnique.size();
-		statNReadUnique.clear();
-		return ret;
+		synchronized (statNReadUnique) {
+			int ret = statNReadUnique.size();
+			statNReadUnique.clear();
+			return ret;
+		}
 	}
 
 	@Override
@@ -202,10 +374,30 @@ public final class StorageRootFile implements StorageRoot {
 	@Override
 	public int statsGetPageCount() {
 		try {
-			return (int) (raf.length() / PAGE_SIZE);
+			int nPages = (int) (raf.length() / PAGE_SIZE);
+			if (cache != null) {
+				//pages that have not been written to disk yet
+				nPages = (int) Math.max(nPages, cache.getMaxDirtyPageId() + 1);
+			}
+			return nPages;
 		} catch (IOException e) {
 			throw DBLogger.newFatal("", e);
 		}
 	}
 
+	@Override
+	public long statsGetPageCacheHitCount() {
+		return cache == null ? 0 : cache.statsGetHitCount();
+	}
+
+	@Override
+	public long statsGetPageCacheMissCount() {
+		return cache == null ? 0 : cache.statsGetMissCount();
+	}
+
+	@Override
+	public long statsGetReadAheadCount() {
+		return statNReadAhead.get();
+	}
+
 }
@@ -98,7 +98,7 @@ public class StorageRootInMemory implements StorageRoot {
 	}
 
 	@Override
-	public void close(StorageChannel channel) {
+	public synchronized void close(StorageChannel channel) {
 		if (!views.remove(channel) && channel != indexChannel) {
 			throw new IllegalStateException();
 		}
@@ -115,7 +115,12 @@ public class StorageRootInMemory implements StorageRoot {
 	}
 
 	@Override
-	public final StorageChannel createChannel() {
+	public void sync() {
+		//Nothing to do
+	}
+
+	@Override
+	public final synchronized StorageChannel createChannel() {
 		StorageChannel c = new StorageChannelImpl(this);
 		views.add(c);
 		return c;
@@ -133,12 +138,16 @@ public class StorageRootInMemory implements StorageRoot {
 
 	@Override
 	public void readPage(ByteBuffer buf, long pageId) {
-		ByteBuffer b2 = buffers.get((int) pageId);
+		//duplicate() because concurrent readers must not share the buffer position
+		ByteBuffer b2 = buffers.get((int) pageId).duplicate();
 		b2.rewind();
 		buf.put(b2);
 		if (DBStatistics.isEnabled()) {
-			statNRead++;
-			statNReadUnique.add(pageId);
+			//readers of different sessions may run concurrently
+			synchronized (statNReadUnique) {
+				statNRead++;
+				statNReadUnique.add(pageId);
+			}
 		}
 	}
 
@@ -157,6 +166,13 @@ public class StorageRootInMemory implements StorageRoot {
 		b2.clear();
 		b2.put(buf);
 	}
+
+	@Override
+	public void truncate(int nPages) {
+		while (buffers.size() > nPages) {
+			buffers.remove(buffers.size() - 1);
+		}
+	}
 	
 	@Override
 	public int statsGetReadCount() {
@@ -165,9 +181,11 @@ public class StorageRootInMemory implements StorageRoot {
 
 	@Override
 	public int statsGetReadCountUnique() {
-		int ret = statNReadUnique.size();
-		statNReadUnique.clear();
-		return ret;
+		synchronized (statNReadUnique) {
+			int ret = statNReadUnique.size();
+			statNReadUnique.clear();
+			return ret;
+		}
 	}
 
 	@Override
@@ -175,6 +193,32 @@ public class StorageRootInMemory implements StorageRoot {
 		return statNWrite;
 	}
 
+	@Override
+	public long statsGetPageCacheHitCount() {
+		//no cache required
+		return 0;
+	}
+
+	@Override
+	public long statsGetPageCacheMissCount() {
+		return 0;
+	}
+
+	@Override
+	public long statsGetReadAheadCount() {
+		return 0;
+	}
+
+	@Override
+	public void prefetch(int pageId) {
+		//all pages are in memory
+	}
+
+	@Override
+	public int getReadAheadPages() {
+		return 0;
+	}
+
 	@Override
 	public int getPageSize() {
 		return PAGE_SIZE;
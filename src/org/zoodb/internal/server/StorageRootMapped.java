@@ -0,0 +1,369 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.internal.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zoodb.internal.server.index.FreeSpaceManager;
+import org.zoodb.internal.util.DBLogger;
+import org.zoodb.internal.util.PrimLongSetZ;
+import org.zoodb.tools.DBStatistics;
+import org.zoodb.tools.ZooDebug;
+
+/**
+ * A common root for multiple file views that accesses the database file via memory mapping.
+ *
+ * The file is mapped in segments of {@link #SEGMENT_SIZE} bytes. Segments are mapped
+ * on demand, either when a page is read for the first time or when the file grows.
+ * Existing segments are never remapped, and the segment array is replaced (copy-on-write)
+ * when a segment is added, so readers never see an invalidated mapping.
+ *
+ * Mapping a segment beyond the end of the file extends the file. The logical file length is
+ * therefore tracked separately and the file is truncated to this length when it is closed.
+ * When free pages at the end of the file are removed with {@link #truncate(int)}, the
+ * segments behind the new end are dropped and mapped again if the file grows. Dropped
+ * segments are unmapped by the garbage collector.
+ *
+ * This implementation can be selected with
+ * {@code ZooConfig.setFileProcessor(ZooConfig.FILE_PAF_MAPPED)}.
+ *
+ * @author Tilmann Zaeschke
+ *
+ */
+public final class StorageRootMapped implements StorageRoot {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(StorageRootMapped.class);
+
+	/** Segment size in bytes, this must be a multiple of the page size. */
+	public static final int SEGMENT_SIZE = 1 << 24; //16MB
+
+	private final ArrayList<StorageChannel> views = new ArrayList<>();
+	private final StorageChannelImpl indexChannel;
+
+	private final FreeSpaceManager fsm;
+	private final RandomAccessFile raf;
+	private final FileLock fileLock;
+	private final FileChannel fc;
+	// use LONG to enforce long-arithmetic in calculations
+	private final long PAGE_SIZE;
+	private final int PAGES_PER_SEGMENT;
+
+	//replaced (never modified) when new segments are mapped
+	private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+	private boolean[] isSegmentDirty = new boolean[0];
+	//logical file length in bytes
+	private volatile long fileLength;
+
+	private int statNRead;
+	private int statNWrite;
+	private final PrimLongSetZ statNReadUnique = new PrimLongSetZ();
+
+	public StorageRootMapped(String dbPath, String options, int pageSize, FreeSpaceManager fsm) {
+		this.fsm = fsm;
+		PAGE_SIZE = pageSize;
+		if (SEGMENT_SIZE % pageSize != 0) {
+			throw DBLogger.newUser("Page size must be a divisor of " + SEGMENT_SIZE +
+					": " + pageSize);
+		}
+		PAGES_PER_SEGMENT = SEGMENT_SIZE / pageSize;
+		File file = new File(dbPath);
+		if (!file.exists()) {
+			throw DBLogger.newUser("DB file does not exist: " + dbPath);
+		}
+		try {
+			raf = new RandomAccessFile(file, options);
+			fc = raf.getChannel();
+			try {
+				//tryLock is supposed to return null, but it throws an Exception
+				fileLock = fc.tryLock();
+				if (fileLock == null) {
+					fc.close();
+					raf.close();
+					throw DBLogger.newUser("This file is in use by another process: " + dbPath);
+				}
+			} catch (OverlappingFileLockException e) {
+				fc.close();
+				raf.close();
+				throw DBLogger.newUser(
+						"This file is in use by another PersistenceManager: " + dbPath);
+			}
+			if (ZooDebug.isTesting()) {
+				ZooDebug.registerFile(fc);
+			}
+			fileLength = fc.size();
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error opening database: " + dbPath, e);
+		}
+		this.indexChannel = new StorageChannelImpl(this);
+	}
+
+	@Override
+	public int getNextPage(int prevPage) {
+		return fsm.getNextPage(prevPage);
+	}
+
+	@Override
+	public void reportFreePage(int pageId) {
+		fsm.reportFreePage(pageId);
+	}
+
+	@Override
+	public final void close() {
+		indexChannel.close();
+		try {
+			forceSegments(true);
+			//drop the unused part of the last segment
+			if (fc.size() > fileLength) {
+				try {
+					fc.truncate(fileLength);
+				} catch (IOException e) {
+					//Some OS do not allow truncating files with active mappings, the
+					//remaining pages are just empty pages at the end of the file.
+					LOGGER.warn("Could not truncate database file: {}", e.getMessage());
+				}
+			}
+			fc.force(true);
+			fileLock.release();
+			fc.close();
+			raf.close();
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error closing database file.", e);
+		}
+		segments = new MappedByteBuffer[0];
+	}
+
+	@Override
+	public synchronized void close(StorageChannel channel) {
+		if (!views.remove(channel) && channel != indexChannel) {
+			throw new IllegalStateException();
+		}
+	}
+
+	@Override
+	public void force() {
+		indexChannel.flushNoForce();
+		sync();
+	}
+
+	@Override
+	public void sync() {
+		forceSegments(false);
+	}
+
+	private synchronized void forceSegments(boolean all) {
+		MappedByteBuffer[] segs = segments;
+		for (int i = 0; i < segs.length; i++) {
+			if (all || isSegmentDirty[i]) {
+				segs[i].force();
+				isSegmentDirty[i] = false;
+			}
+		}
+	}
+
+	@Override
+	public final synchronized StorageChannel createChannel() {
+		StorageChannel c = new StorageChannelImpl(this);
+		views.add(c);
+		return c;
+	}
+
+	@Override
+	public final StorageChannel getIndexChannel() {
+		return indexChannel;
+	}
+
+	@Override
+	public int getDataChannelCount() {
+		return views.size();
+	}
+
+	/**
+	 *
+	 * @param segId The segment ID
+	 * @return The segment, mapping it if required.
+	 */
+	private MappedByteBuffer getSegment(int segId) {
+		MappedByteBuffer[] segs = segments;
+		if (segId < segs.length) {
+			return segs[segId];
+		}
+		return mapSegments(segId);
+	}
+
+	private synchronized MappedByteBuffer mapSegments(int segId) {
+		MappedByteBuffer[] segs = segments;
+		if (segId < segs.length) {
+			//mapped by another thread
+			return segs[segId];
+		}
+		MappedByteBuffer[] newSegs = Arrays.copyOf(segs, segId + 1);
+		try {
+			for (int i = segs.length; i <= segId; i++) {
+				newSegs[i] = fc.map(MapMode.READ_WRITE, (long)i * SEGMENT_SIZE, SEGMENT_SIZE);
+			}
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error mapping database file segment: " + segId, e);
+		}
+		isSegmentDirty = Arrays.copyOf(isSegmentDirty, newSegs.length);
+		segments = newSegs;
+		return newSegs[segId];
+	}
+
+	@Override
+	public final void readPage(ByteBuffer buf, long pageId) {
+		long pos = pageId * PAGE_SIZE;
+		if (pos >= fileLength) {
+			//behave like FileChannel.read() at EOF
+			return;
+		}
+		MappedByteBuffer seg = getSegment((int) (pageId / PAGES_PER_SEGMENT));
+		ByteBuffer src = seg.duplicate();
+		int offs = (int) ((pageId % PAGES_PER_SEGMENT) * PAGE_SIZE);
+		int len = (int) Math.min(Math.min(PAGE_SIZE, buf.remaining()), fileLength - pos);
+		src.limit(offs + len);
+		src.position(offs);
+		buf.put(src);
+		if (DBStatistics.isEnabled()) {
+			//readers of different sessions may run concurrently
+			synchronized (statNReadUnique) {
+				statNRead++;
+				statNReadUnique.add(pageId);
+			}
+		}
+	}
+
+	@Override
+	public final void write(ByteBuffer buf, long pageId) {
+		if (pageId<0) {
+			return;
+		}
+		if (DBStatistics.isEnabled()) {
+			statNWrite++;
+		}
+		int segId = (int) (pageId / PAGES_PER_SEGMENT);
+		MappedByteBuffer seg = getSegment(segId);
+		ByteBuffer dst = seg.duplicate();
+		int len = buf.remaining();
+		dst.position((int) ((pageId % PAGES_PER_SEGMENT) * PAGE_SIZE));
+		dst.put(buf);
+		synchronized (this) {
+			isSegmentDirty[segId] = true;
+			long end = pageId * PAGE_SIZE + len;
+			if (end > fileLength) {
+				fileLength = end;
+			}
+		}
+	}
+
+	@Override
+	public synchronized void truncate(int nPages) {
+		long newLength = nPages * PAGE_SIZE;
+		if (newLength >= fileLength) {
+			return;
+		}
+		forceSegments(false);
+		fileLength = newLength;
+		//Unmap all segments behind the new end, they are mapped again when the file grows.
+		//The last remaining segment is still mapped, so the file can only be truncated at
+		//the end of that segment. The rest is truncated when the file is closed.
+		int nSegs = (int) ((newLength + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+		if (nSegs < segments.length) {
+			segments = Arrays.copyOf(segments, nSegs);
+			isSegmentDirty = Arrays.copyOf(isSegmentDirty, nSegs);
+		}
+		try {
+			if (fc.size() > (long)nSegs * SEGMENT_SIZE) {
+				fc.truncate((long)nSegs * SEGMENT_SIZE);
+			}
+		} catch (IOException e) {
+			//Some OS do not allow truncating files with active mappings, see close()
+			LOGGER.warn("Could not truncate database file: {}", e.getMessage());
+		}
+	}
+
+	@Override
+	public final int statsGetReadCount() {
+		return statNRead;
+	}
+
+	@Override
+	public int statsGetReadCountUnique() {
+		synchronized (statNReadUnique) {
+			int ret = statNReadUnique.size();
+			statNReadUnique.clear();
+			return ret;
+		}
+	}
+
+	@Override
+	public final int statsGetWriteCount() {
+		return statNWrite;
+	}
+
+	@Override
+	public long statsGetPageCacheHitCount() {
+		//we rely on the OS page cache
+		return 0;
+	}
+
+	@Override
+	public long statsGetPageCacheMissCount() {
+		return 0;
+	}
+
+	@Override
+	public long statsGetReadAheadCount() {
+		return 0;
+	}
+
+	@Override
+	public void prefetch(int pageId) {
+		//we rely on the OS page cache
+	}
+
+	@Override
+	public int getReadAheadPages() {
+		return 0;
+	}
+
+	@Override
+	public final int getPageSize() {
+		return (int) PAGE_SIZE;
+	}
+
+	@Override
+	public int statsGetPageCount() {
+		return (int) (fileLength / PAGE_SIZE);
+	}
+
+}
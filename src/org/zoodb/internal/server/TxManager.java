@@ -21,10 +21,15 @@
 package org.zoodb.internal.server;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
-import org.zoodb.internal.util.Pair;
 import org.zoodb.internal.util.PrimLongMapZ;
 
 /**
@@ -51,28 +56,97 @@ import org.zoodb.internal.util.PrimLongMapZ;
  * In other words: a transaction can be removed if it ended before any CURRENTLY ACTIVE transaction 
  * started.
  * 
+ * Concurrency:
+ * The latest update of every object is kept in one of several stripes, selected by OID. 
+ * Validation locks only the stripes of the updated objects, transactions with disjoint 
+ * updates do not block each other. Beginning and ending transactions does not block at all,
+ * active transactions are kept in a concurrent sorted set. The history of ended transactions 
+ * is reclaimed in bulk by whichever thread finds that it is no longer needed.
  * 
  * @author Tilmann Zaeschke
  */
 class TxManager {
 
-	/** This stores a history of all objects that were modified or deleted in a transaction. */
-	private final PrimLongMapZ<ArrayList<TxObjInfo>> updateHistory = new PrimLongMapZ<>();
+	//must be 64, stripes are selected via the bits of a long
+	private static final int N_STRIPES = 64;
 	
-	private final PrimLongMapZ<TxObjInfo> updateSummary = new PrimLongMapZ<>();
+	/** The updates of a transaction that have been added to the update summary. */
+	private static final class TxUpdates {
+		private final long txId;
+		private final ArrayList<TxObjInfo> updates;
+		//the latest txId at the time the transaction ended
+		private long txEnd;
+		TxUpdates(long txId, ArrayList<TxObjInfo> updates) {
+			this.txId = txId;
+			this.updates = updates;
+		}
+	}
+	
+	/** 
+	 * The latest update of all objects that were modified or deleted in a transaction,
+	 * striped by OID. Every stripe is guarded by the lock with the same index. 
+	 */
+	private final PrimLongMapZ<TxObjInfo>[] updateSummary;
+	private final ReentrantLock[] stripeLocks = new ReentrantLock[N_STRIPES];
+	
+	/** Updates of transactions that have not ended yet. */
+	private final ConcurrentHashMap<Long, TxUpdates> updateHistory = new ConcurrentHashMap<>();
+	
+	/** Updates of ended transactions, roughly in the order that they ended. */
+	private final ConcurrentLinkedQueue<TxUpdates> endedTx = new ConcurrentLinkedQueue<>();
+	
+	private volatile boolean isSingleSession = true;
+	
+	private final ConcurrentSkipListSet<Long> activeTXs = new ConcurrentSkipListSet<>();
+	private final AtomicLong latestTxId;
+	//number of threads in getNextTxId(), see getMinActiveTxId()
+	private final AtomicInteger nStarting = new AtomicInteger();
+	private final AtomicBoolean isReclaiming = new AtomicBoolean();
 	
-	//TODO use CritBit tree?
-	//Maps tx-end to tx-ID
-	//Transactions are added in the order that they end. This means they are ordered by txEnd.
-	private final LinkedList<Pair<Long, Long>> endedTx = new LinkedList<>();
+	//may be null
+	private final SharedObjectCache objectCache;
 	
-	private boolean isSingleSession = true;
+	/**
+	 * 
+	 * @param txId The ID of the last committed transaction
+	 * @param objectCache The shared object cache or {@code null}. Updated and deleted objects
+	 * are removed from the cache when a transaction commits.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public TxManager(long txId, SharedObjectCache objectCache) {
+		this.latestTxId = new AtomicLong(txId);
+		this.objectCache = objectCache;
+		this.updateSummary = new PrimLongMapZ[N_STRIPES];
+		for (int i = 0; i < N_STRIPES; i++) {
+			updateSummary[i] = new PrimLongMapZ<>();
+			stripeLocks[i] = new ReentrantLock();
+		}
+	}
 	
-	private final LinkedList<Long> activeTXs = new LinkedList<>();
-	private long latestTxId = -1;
+	private static int stripe(long oid) {
+		//OIDs are mostly allocated sequentially, so we mix the bits a bit
+		long h = oid * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 58);
+	}
+	
+	/**
+	 * Locks the stripes in ascending order to avoid deadlocks.
+	 * @param stripes Bit mask of stripes
+	 */
+	private void lockStripes(long stripes) {
+		for (int i = 0; i < N_STRIPES; i++) {
+			if ((stripes & (1L << i)) != 0) {
+				stripeLocks[i].lock();
+			}
+		}
+	}
 	
-	public TxManager(long txId) {
-		this.latestTxId = txId;
+	private void unlockStripes(long stripes) {
+		for (int i = N_STRIPES - 1; i >= 0; i--) {
+			if ((stripes & (1L << i)) != 0) {
+				stripeLocks[i].unlock();
+			}
+		}
 	}
 	
 	/**
@@ -82,58 +156,72 @@ class TxManager {
 	 * @param txContext
 	 * @return A list of conflicting objects or {@code null} if there are no conflicts
 	 */
-	synchronized List<Long> addUpdates(long txId, TxContext txContext, boolean isTrialRun) {
+	List<Long> addUpdates(long txId, TxContext txContext, boolean isTrialRun) {
+		ArrayList<TxObjInfo> updatesAndDeletes = txContext.getUpdatesAndDeletes();
 		if (isSingleSession) {
 			//no need to record history
+			if (!isTrialRun && objectCache != null) {
+				objectCache.invalidate(updatesAndDeletes);
+			}
 			return null;
 		}
 		
-		ArrayList<TxObjInfo> updatesAndDeletes = txContext.getUpdatesAndDeletes();
-		
-		//first, check for conflicts
-		ArrayList<Long> conflicts = null;
+		long stripes = 0;
 		for (TxObjInfo clientInfo: updatesAndDeletes) {
-			long oid = clientInfo.getOid();
-			long ots = clientInfo.getTS();
-			//At this point we should not ignore objects that are apparently new!
-			//Why? Even if the object appears new, the OID may be in use, which 
-			//may present a conflict.
+			stripes |= 1L << stripe(clientInfo.getOid());
+		}
+		
+		lockStripes(stripes);
+		try {
+			//first, check for conflicts
+			ArrayList<Long> conflicts = null;
+			for (TxObjInfo clientInfo: updatesAndDeletes) {
+				long oid = clientInfo.getOid();
+				long ots = clientInfo.getTS();
+				//At this point we should not ignore objects that are apparently new!
+				//Why? Even if the object appears new, the OID may be in use, which 
+				//may present a conflict.
 
-			TxObjInfo serverInfo = updateSummary.get(oid);
-			//OLD:
-			//Did the current transaction begin before the other was committed?
-			//I.e. is the updateTimeStamp higher than the readTimeStamp of the current TX?
-			//NEW: We just check whether the cached TS equals the expected TS. 
-			//If not, we have a conflict. Note, that the new timestamp may be LOWER than the
-			//cached timestamp if the object was updated AFTER the current TX started, but
-			//before the current TX first accessed the object.
-			//System.out.println("TxM-au: " + oid + " ots=" + ots + "   txTS=" + (serverInfo != null?serverInfo.getTS():"null"));
-			if (serverInfo != null && serverInfo.getTxId() != ots) {
-				if (clientInfo.isDeleted() && serverInfo.isDeleted()) {
-					//okay, ignore
-					//continue;
-					//TODO For now we don't ignore these. To ignore these, we have to report back
-					//so that there will be no attempts on updating any indexes. Furthermore,
-					//it is not obvious that this is the right thing to do, because the TX may 
-					//semantically rely on having deleted an object, however the object is already 
-					//gone (for example if the number of deleted objects counts).
-				}
-				if (conflicts == null) {
-					conflicts = new ArrayList<>();
+				TxObjInfo serverInfo = updateSummary[stripe(oid)].get(oid);
+				//OLD:
+				//Did the current transaction begin before the other was committed?
+				//I.e. is the updateTimeStamp higher than the readTimeStamp of the current TX?
+				//NEW: We just check whether the cached TS equals the expected TS. 
+				//If not, we have a conflict. Note, that the new timestamp may be LOWER than the
+				//cached timestamp if the object was updated AFTER the current TX started, but
+				//before the current TX first accessed the object.
+				//System.out.println("TxM-au: " + oid + " ots=" + ots + "   txTS=" + (serverInfo != null?serverInfo.getTS():"null"));
+				if (serverInfo != null && serverInfo.getTxId() != ots) {
+					if (clientInfo.isDeleted() && serverInfo.isDeleted()) {
+						//okay, ignore
+						//continue;
+						//TODO For now we don't ignore these. To ignore these, we have to report back
+						//so that there will be no attempts on updating any indexes. Furthermore,
+						//it is not obvious that this is the right thing to do, because the TX may 
+						//semantically rely on having deleted an object, however the object is already 
+						//gone (for example if the number of deleted objects counts).
+					}
+					if (conflicts == null) {
+						conflicts = new ArrayList<>();
+					}
+					conflicts.add(oid);
 				}
-				conflicts.add(oid);
 			}
+			if (conflicts != null || isTrialRun) {
+				return conflicts;
+			}
+
+			//apply updates
+			updateHistory.put(txId, new TxUpdates(txId, updatesAndDeletes));
+			for (TxObjInfo info: updatesAndDeletes) {
+				info.setTxId(txId);
+				updateSummary[stripe(info.getOid())].put(info.getOid(), info);
+			}
+		} finally {
+			unlockStripes(stripes);
 		}
-		if (conflicts != null || isTrialRun) {
-			return conflicts;
-		}
-		
-		//apply updates
-		updateHistory.put(txId, updatesAndDeletes);
-		for (TxObjInfo info: updatesAndDeletes) {
-			// +1 to ensure conflicts even with latest transaction
-			info.setTxId(txId);
-			updateSummary.put(info.getOid(), info);
+		if (objectCache != null) {
+			objectCache.invalidate(updatesAndDeletes);
 		}
 		//not very clean: 'null' indicates no conflicts.
 		return null;
@@ -144,64 +232,140 @@ class TxManager {
 	 * To be called after commit() or rollback().
 	 * @param txId
 	 */
-	synchronized void deRegisterTx(long txId) {
+	void deRegisterTx(long txId) {
 		activeTXs.remove(txId);
 		if (isSingleSession) {
 			//no need to record history
 			return;
 		}
 		
-		//cache only if there are active TXs
-		if (activeTXs.isEmpty()) {
-			updateHistory.clear();
-			updateSummary.clear();
+		TxUpdates tx = updateHistory.remove(txId);
+		if (tx != null) {
+			tx.txEnd = latestTxId.get();
+			endedTx.add(tx);
+		}
+		reclaimHistory();
+	}
+
+	/**
+	 * Drop all transactions with END < min(active_start), i.e. drop all that ended before any
+	 * of the currently active transactions started. 
+	 * Only one thread reclaims at a time, other threads just skip this. The remaining 
+	 * transactions are reclaimed by the next call.
+	 */
+	private void reclaimHistory() {
+		if (!isReclaiming.compareAndSet(false, true)) {
 			return;
 		}
-		
-		endedTx.add(new Pair<>(latestTxId, txId));
-		
-		//drop all tx with END < min(active_start), i.e. drop all that ended before any of the 
-		//remaining active transactions started.
-		
-		long minOpenTx = activeTXs.getFirst();
-		while (!endedTx.isEmpty() && endedTx.getFirst().getA() < minOpenTx) {
-			long beginID = endedTx.getFirst().getB();
-			ArrayList<TxObjInfo> allUpdates = updateHistory.get(beginID);
-			if (allUpdates != null) {
-				for (TxObjInfo info: allUpdates) {
-					long oid = info.getOid();
-					long tx = updateSummary.get(oid).getTxId();
-					if (tx == beginID) {
-						updateSummary.remove(oid);
+		try {
+			long minOpenTx = getMinActiveTxId();
+			if (minOpenTx < 0) {
+				return;
+			}
+			ArrayList<TxUpdates> done = new ArrayList<>();
+			TxUpdates tx;
+			while ((tx = endedTx.peek()) != null && tx.txEnd < minOpenTx) {
+				done.add(endedTx.poll());
+			}
+			if (done.isEmpty()) {
+				return;
+			}
+			
+			//sort by stripe, then remove everything with one lock per stripe
+			ArrayList<ArrayList<TxObjInfo>> byStripe = new ArrayList<>(N_STRIPES);
+			for (int i = 0; i < N_STRIPES; i++) {
+				byStripe.add(null);
+			}
+			for (TxUpdates t: done) {
+				for (TxObjInfo info: t.updates) {
+					int s = stripe(info.getOid());
+					ArrayList<TxObjInfo> list = byStripe.get(s);
+					if (list == null) {
+						list = new ArrayList<>();
+						byStripe.set(s, list);
 					}
+					list.add(info);
 				}
-				updateHistory.remove(beginID);
 			}
-			endedTx.removeFirst();
+			for (int i = 0; i < N_STRIPES; i++) {
+				ArrayList<TxObjInfo> list = byStripe.get(i);
+				if (list == null) {
+					continue;
+				}
+				stripeLocks[i].lock();
+				try {
+					PrimLongMapZ<TxObjInfo> summary = updateSummary[i];
+					for (TxObjInfo info: list) {
+						//Remove only if the object has not been updated again later
+						if (summary.get(info.getOid()) == info) {
+							summary.remove(info.getOid());
+						}
+					}
+				} finally {
+					stripeLocks[i].unlock();
+				}
+			}
+		} finally {
+			isReclaiming.set(false);
+		}
+	}
+
+	/**
+	 * A transaction may have taken its ID in getNextTxId() without being visible in 
+	 * {@code activeTXs} yet. In this case we return -1. Transactions that start after
+	 * {@code nStarting} was checked get an ID that is larger than the ID read before.
+	 * @return The ID of the oldest active transaction, the next ID if there are no active 
+	 * transactions, or -1 if that is not known.
+	 */
+	private long getMinActiveTxId() {
+		long next = latestTxId.get() + 1;
+		if (nStarting.get() > 0) {
+			return -1;
 		}
+		Long first = activeTXs.ceiling(Long.MIN_VALUE);
+		return first == null ? next : Math.min(first, next);
+	}
+
+	/**
+	 * @return The ID of the latest transaction that has been started.
+	 */
+	long getLatestTxId() {
+		return latestTxId.get();
 	}
 
 	/**
 	 * To be called when opening a new transaction.
 	 * @return ID for the new TX
 	 */
-	synchronized long getNextTxId() {
-		//this is synchronized to ensure correct ordering of the list.
-		//alternatively we could use a sorted list, but this is probably not cheaper... ?
-		latestTxId++;
-		activeTXs.add(latestTxId);
-		return latestTxId;
+	long getNextTxId() {
+		nStarting.incrementAndGet();
+		try {
+			long txId = latestTxId.incrementAndGet();
+			activeTXs.add(txId);
+			return txId;
+		} finally {
+			nStarting.decrementAndGet();
+		}
 	}
 
-	synchronized void setMultiSession() {
+	void setMultiSession() {
 		isSingleSession = false;
 	}
 	
-	synchronized int statsGetBufferedTxCount() {
-		return updateHistory.size();
+	int statsGetBufferedTxCount() {
+		return updateHistory.size() + endedTx.size();
 	}
 	
-	synchronized int statsGetBufferedOidCount() {
-		return updateSummary.size();
+	int statsGetBufferedOidCount() {
+		int n = 0;
+		for (int i = 0; i < N_STRIPES; i++) {
+			stripeLocks[i].lock();
+			try {
+				n += updateSummary[i].size();
+			} finally {
+				stripeLocks[i].unlock();
+			}
+		}
+		return n;
 	}
 }
@@ -155,7 +155,15 @@ abstract class AbstractIndexPage {
 			incrementNEntries();
 		} else {
 			//load page
-			page = ind.readPage(pageId, this);
+			//Concurrent readers may try to load the same page, we want to load it only once.
+			synchronized (ind) {
+				page = subPages[pos];
+				if (page == null) {
+					page = ind.readPage(pageId, this);
+					subPages[pos] = page;
+				}
+			}
+			return page;
 		}
 		subPages[pos] = page;
 		return page;
@@ -391,8 +399,13 @@ abstract class AbstractIndexPage {
 		if (page != null) {
 			return page;
 		}
-		page = ind.readPage(subPageIds[pos], this);
-		subPages[pos] = page;
+		synchronized (ind) {
+			page = subPages[pos];
+			if (page == null) {
+				page = ind.readPage(subPageIds[pos], this);
+				subPages[pos] = page;
+			}
+		}
 		return page;
 	}
 
@@ -48,6 +48,26 @@ public abstract class AbstractPageIterator<E> implements LongLongIndex.LongLongI
 		return currentPage.readCachedPage(pagePos);
 	}
 
+	/**
+	 * Prefetch the sub-pages that follow the given sub-page, if read-ahead is enabled.
+	 * Pages that are already loaded are skipped.
+	 * @param parent The parent page
+	 * @param pagePos Position of the sub-page that is read next
+	 * @see org.zoodb.internal.server.StorageChannel#prefetch(int)
+	 */
+	protected final void readAhead(AbstractIndexPage parent, short pagePos) {
+		int n = ind.file.getReadAheadPages();
+		if (n <= 0) {
+			return;
+		}
+		int max = Math.min(pagePos + n, parent.getNKeys());
+		for (int i = pagePos + 1; i <= max; i++) {
+			if (parent.subPages[i] == null && parent.subPageIds[i] > 0) {
+				ind.file.prefetch(parent.subPageIds[i]);
+			}
+		}
+	}
+
 	protected void checkValidity() {
 		ind.checkValidity(modCount, txId);
 	}
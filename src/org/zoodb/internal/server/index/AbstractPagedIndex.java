@@ -166,7 +166,14 @@ public abstract class AbstractPagedIndex extends AbstractIndex {
 	
 	protected abstract AbstractIndexPage getRoot();
 	
-	final AbstractIndexPage readPage(int pageId, AbstractIndexPage parentPage) {
+	/**
+	 * Read a page from disk. This is synchronized because the reader is shared by all sessions,
+	 * which can read concurrently.
+	 * @param pageId The page ID
+	 * @param parentPage The parent page
+	 * @return The page
+	 */
+	final synchronized AbstractIndexPage readPage(int pageId, AbstractIndexPage parentPage) {
 		if (pageId == 0) {
 			throw new IllegalArgumentException();
 		}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.internal.server.index;
+
+import org.zoodb.internal.server.index.SchemaIndex.FTYPE;
+
+/**
+ * Encodes the index keys of several fields into a single key for composite indices.
+ * <p>
+ * The 64 bits of the key are shared by the fields. The first field occupies the most
+ * significant bits, so the keys are ordered by the first field, then by the second field,
+ * and so on.
+ * <p>
+ * Fields with small keys (for example int, short or char) are stored exactly if they fit
+ * into their share of the bits. Larger keys (long, double, String, references) are reduced
+ * to a sign, an exponent and the leading bits of their value. This preserves the order, but
+ * different values can result in the same key. As with String indices, the query has to be
+ * evaluated on all objects returned by the index.
+ *
+ * @author Tilmann Zaeschke
+ */
+public final class CompositeKeyEncoder {
+
+	public static final int MIN_FIELDS = 2;
+	public static final int MAX_FIELDS = 8;
+
+	//sign bit and 6 bits for the exponent of compressed keys
+	private static final int HEADER_BITS = 7;
+
+	private final int[] bits;
+	private final int[] shift;
+	private final long[] mask;
+	private final long[] offset;
+	private final boolean[] isExact;
+
+	/**
+	 * @param types The types of the fields, in order of significance
+	 */
+	public CompositeKeyEncoder(FTYPE[] types) {
+		int n = types.length;
+		if (n < MIN_FIELDS || n > MAX_FIELDS) {
+			throw new IllegalArgumentException("Composite indices require between " +
+					MIN_FIELDS + " and " + MAX_FIELDS + " fields: " + n);
+		}
+		bits = new int[n];
+		shift = new int[n];
+		mask = new long[n];
+		offset = new long[n];
+		isExact = new boolean[n];
+
+		//Distribute the bits, starting with the smallest types. Types that are smaller than
+		//their share leave more bits for the larger types.
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			int j = i;
+			while (j > 0 && types[order[j-1]].getBits() > types[i].getBits()) {
+				order[j] = order[j-1];
+				j--;
+			}
+			order[j] = i;
+		}
+		int remaining = 64;
+		for (int j = 0; j < n; j++) {
+			int i = order[j];
+			int share = remaining / (n - j);
+			int natural = types[i].getBits();
+			isExact[i] = natural <= share;
+			bits[i] = isExact[i] ? natural : share;
+			remaining -= bits[i];
+		}
+
+		int pos = 64;
+		for (int i = 0; i < n; i++) {
+			pos -= bits[i];
+			shift[i] = pos;
+			mask[i] = bits[i] == 64 ? -1L : (1L << bits[i]) - 1;
+			//exact keys are stored as unsigned offset from the minimum of the type
+			offset[i] = types[i].isSigned() ? 1L << (bits[i] - 1) : 0;
+		}
+	}
+
+	public int getFieldCount() {
+		return bits.length;
+	}
+
+	/**
+	 * @param i Position of the field
+	 * @return The number of bits that are used for the field.
+	 */
+	public int getBits(int i) {
+		return bits[i];
+	}
+
+	/**
+	 * @param i Position of the field
+	 * @return Whether different keys of the field result in different composite keys.
+	 */
+	public boolean isExact(int i) {
+		return isExact[i];
+	}
+
+	/**
+	 * @param keys The index keys of the fields
+	 * @return The composite key.
+	 */
+	public long encode(long[] keys) {
+		long code = 0;
+		for (int i = 0; i < bits.length; i++) {
+			code |= encodeField(i, keys[i]);
+		}
+		return toKey(code);
+	}
+
+	/**
+	 * Encode the key of a single field. The composite key is the result of
+	 * {@link #toKey(long)} for the bitwise OR of all fields.
+	 * @param i Position of the field
+	 * @param key The index key of the field
+	 * @return The encoded field, shifted to its position in the composite key.
+	 */
+	public long encodeField(int i, long key) {
+		long code;
+		if (isExact[i]) {
+			code = (key + offset[i]) & mask[i];
+		} else {
+			int b = bits[i];
+			int m = b - HEADER_BITS;
+			if (key >= 0) {
+				code = (1L << (b - 1)) | compress(key, m);
+			} else {
+				code = ((1L << (b - 1)) - 1) - compress(~key, m);
+			}
+		}
+		return code << shift[i];
+	}
+
+	/**
+	 * @param i Position of the field
+	 * @return The encoded field with all bits set, shifted to its position in the
+	 * composite key.
+	 */
+	public long maxField(int i) {
+		return mask[i] << shift[i];
+	}
+
+	/**
+	 * Convert the unsigned code into a key that has the same order when compared as
+	 * signed long.
+	 * @param code The bitwise OR of the encoded fields
+	 * @return The composite key
+	 */
+	public long toKey(long code) {
+		return code ^ Long.MIN_VALUE;
+	}
+
+	/**
+	 * @param x A positive number
+	 * @param m number of bits for the leading bits of x
+	 * @return Exponent and leading bits of x, or x if it fits into m bits.
+	 */
+	private static long compress(long x, int m) {
+		int len = 64 - Long.numberOfLeadingZeros(x);
+		if (len <= m) {
+			return x;
+		}
+		int e = len - m;
+		return ((long)e << m) | (x >>> e);
+	}
+}
@@ -72,6 +72,21 @@ public class FreeSpaceManager {
 	//Later, we need a map of those, one per session?
 	private boolean hasWritingSettled;
 
+	//Snapshot readers that may still read pages that were freed after they started.
+	private final ArrayList<ReaderEpoch> readers = new ArrayList<>();
+
+	/**
+	 * A registered snapshot reader. It records the lowest ID of all transactions that committed
+	 * after the reader was registered. Pages freed by these transactions may still be read by
+	 * the reader, so they are not reused until the reader is deregistered.
+	 */
+	public static final class ReaderEpoch {
+		private long minCommittedTxId = Long.MAX_VALUE;
+		private ReaderEpoch() {
+			//
+		}
+	}
+
 	
 	/**
 	 * Constructor for free space manager.
@@ -163,6 +178,50 @@ public class FreeSpaceManager {
 		return lastPage.get() + 1;
 	}
 
+	/**
+	 * Remove free pages from the end of the database. Only pages that could be reused by the
+	 * current transaction are removed, i.e. pages that are not visible to any other
+	 * transaction. Pages that are freed by the current transaction are not removed.
+	 * This must be called during a commit, before {@link #write()}.
+	 * @return The number of removed pages.
+	 */
+	public int trimTail() {
+		int last = lastPage.get();
+		int n = 0;
+		while (last > 0) {
+			LongLongIndex.LLEntry e = idx.findValue(last);
+			if (e == null || e.getValue() < 0 || e.getValue() > maxFreeTxId) {
+				break;
+			}
+			idx.removeLong(last);
+			last--;
+			n++;
+		}
+		if (n > 0) {
+			lastPage.set(last);
+			//The iterator may point to removed pages
+			iter.close();
+			iter = idx.iterator(1, Long.MAX_VALUE);
+		}
+		return n;
+	}
+
+	/**
+	 * @return Number of free pages of committed transactions, including pages that cannot
+	 * be reused yet.
+	 */
+	public int countFreePages() {
+		int n = 0;
+		LLEntryIterator it = idx.iterator(1, Long.MAX_VALUE);
+		while (it.hasNextULL()) {
+			if (it.nextULL().getValue() >= 0) {
+				n++;
+			}
+		}
+		it.close();
+		return n;
+	}
+
 	/**
 	 * Get a new free page.
 	 * @param prevPage Any previous page that is not required anymore, but
@@ -267,6 +326,42 @@ public class FreeSpaceManager {
 		return lastPage.addAndGet(1);
 	}
 
+	/**
+	 * Register a snapshot reader. Until the reader is deregistered, no pages are reused that
+	 * were freed by transactions that commit after the registration.
+	 * This should be called while holding a lock that prevents concurrent commits.
+	 * @return The epoch of the reader
+	 * @see #deregisterReader(ReaderEpoch)
+	 */
+	public ReaderEpoch registerReader() {
+		ReaderEpoch e = new ReaderEpoch();
+		synchronized (readers) {
+			readers.add(e);
+		}
+		return e;
+	}
+
+	/**
+	 * @param epoch The epoch of a reader that is not active anymore
+	 * @see #registerReader()
+	 */
+	public void deregisterReader(ReaderEpoch epoch) {
+		synchronized (readers) {
+			if (!readers.remove(epoch)) {
+				throw new IllegalStateException();
+			}
+		}
+	}
+
+	/**
+	 * @return The number of registered snapshot readers.
+	 */
+	public int getReaderCount() {
+		synchronized (readers) {
+			return readers.size();
+		}
+	}
+
 	public void reportFreePage(int prevPage) {
 		if (prevPage > 0) {
 			toAdd.add(prevPage);
@@ -278,13 +373,35 @@ public class FreeSpaceManager {
 	public void notifyCommit() {
 		iter.close();
 		iter = null;
+		synchronized (readers) {
+			for (ReaderEpoch e: readers) {
+				if (currentTxId < e.minCommittedTxId) {
+					e.minCommittedTxId = currentTxId;
+				}
+			}
+		}
 	}
 	
-	public void notifyBegin(long newTxId) {
+	/**
+	 * Prepare the free space manager for a new writing transaction.
+	 * @param newTxId The ID of the transaction
+	 * @param appendOnly If {@code true}, free pages are not reused by this transaction, all
+	 * new pages are allocated at the end of the file.
+	 */
+	public void notifyBegin(long newTxId, boolean appendOnly) {
 		currentTxId = newTxId;
 		
 		//TODO not good for multi-session
-		maxFreeTxId = currentTxId - 1;
+		long maxFree = currentTxId - 1;
+		//do not reuse pages that may still be visible to snapshot readers
+		synchronized (readers) {
+			for (ReaderEpoch e: readers) {
+				if (e.minCommittedTxId <= maxFree) {
+					maxFree = e.minCommittedTxId - 1;
+				}
+			}
+		}
+		maxFreeTxId = maxFree;
 		
 		
 		//Create a new Iterator for the current transaction
@@ -292,7 +409,7 @@ public class FreeSpaceManager {
 		//TODO use pageCount i.o. MAX_VALUE???
 		//-> No cloning of pages that refer to new allocated disk space
 		//-> But checking for isInterestedInPage is also expensive...
-		iter = idx.iterator(1, Long.MAX_VALUE);
+		iter = idx.iterator(appendOnly ? Long.MAX_VALUE : 1, Long.MAX_VALUE);
 		
 		//TODO optimization:
 		//do not create an iterator. Instead implement special method that deletes and returns the
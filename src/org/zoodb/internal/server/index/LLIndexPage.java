@@ -20,11 +20,13 @@
  */
 package org.zoodb.internal.server.index;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.NoSuchElementException;
 
 import org.zoodb.internal.server.index.LongLongIndex.LLEntryIterator;
 import org.zoodb.internal.util.DBLogger;
+import org.zoodb.internal.util.Util;
 
 class LLIndexPage extends AbstractIndexPage {
 	private LLIndexPage parent;
@@ -955,4 +957,97 @@ class LLIndexPage extends AbstractIndexPage {
 	final void setNEntries(int n) {
 		nEntries = (short) n;
 	}
+
+	/**
+	 * Build the tree bottom-up from sorted entries. The given root must be empty.
+	 * The entries are spread evenly over the leaves such that the leaves are filled up to
+	 * the given fill ratio, the same is done for the inner pages. Entries with equal key and
+	 * value are added only once.
+	 *
+	 * @param root The (empty) root page
+	 * @param entries The entries, sorted by key and value
+	 * @param fillPercent Fill ratio of the pages, between 50 and 100
+	 * @param failOnDuplicateKey For unique indices only: whether to fail if a key occurs
+	 * more than once. If {@code false}, the entry with the highest value is used.
+	 */
+	static void bulkLoad(LLIndexPage root, LongLongSorter entries, int fillPercent,
+			boolean failOnDuplicateKey) {
+		AbstractPagedIndex ind = root.ind;
+		if (root.isLeaf || root.nEntries != -1) {
+			throw DBLogger.newFatalInternal("Bulk loading requires an empty index.");
+		}
+		long n = entries.size();
+		if (n == 0) {
+			return;
+		}
+
+		//leaves
+		int perLeaf = Math.max(1, ind.maxLeafN * fillPercent / 100);
+		long nLeaves = (n + perLeaf - 1) / perLeaf;
+		ArrayList<LLIndexPage> level = new ArrayList<LLIndexPage>((int) nLeaves);
+		LLIndexPage leaf = null;
+		int leafSize = 0;
+		boolean isUnique = ind.isUnique();
+		while (entries.next()) {
+			long key = entries.getKey();
+			long value = entries.getValue();
+			if (leaf != null && leaf.nEntries > 0 && key == leaf.keys[leaf.nEntries-1]) {
+				if (isUnique) {
+					if (failOnDuplicateKey) {
+						throw DBLogger.newUser("Duplicate entry in unique index: " +
+								Util.oidToString(value) + "  v=" + key);
+					}
+					leaf.values[leaf.nEntries-1] = value;
+					continue;
+				} else if (value == leaf.values[leaf.nEntries-1]) {
+					continue;
+				}
+			}
+			if (leaf == null || leaf.nEntries == leafSize) {
+				leaf = (LLIndexPage) ind.createPage(null, true);
+				//spread the remainder over the first pages
+				leafSize = (int) (n / nLeaves + (level.size() < n % nLeaves ? 1 : 0));
+				level.add(leaf);
+			}
+			leaf.keys[leaf.nEntries] = key;
+			leaf.values[leaf.nEntries] = value;
+			leaf.nEntries++;
+		}
+
+		//inner pages
+		int perInner = Math.max(2, (ind.maxInnerN + 1) * fillPercent / 100);
+		while (level.size() > ind.maxInnerN + 1) {
+			int nChildren = level.size();
+			int nInner = (nChildren + perInner - 1) / perInner;
+			ArrayList<LLIndexPage> parents = new ArrayList<LLIndexPage>(nInner);
+			int pos = 0;
+			for (int i = 0; i < nInner; i++) {
+				int size = nChildren / nInner + (i < nChildren % nInner ? 1 : 0);
+				LLIndexPage inner = (LLIndexPage) ind.createPage(null, false);
+				inner.setChildren(level, pos, size);
+				parents.add(inner);
+				pos += size;
+			}
+			level = parents;
+		}
+		root.setChildren(level, 0, level.size());
+		root.markPageDirtyAndClone();
+		ind.markDirty();
+	}
+
+	private void setChildren(ArrayList<LLIndexPage> pages, int start, int n) {
+		for (int i = 0; i < n; i++) {
+			LLIndexPage p = pages.get(start + i);
+			subPages[i] = p;
+			subPageIds[i] = p.pageId();
+			p.setParent(this);
+			if (i > 0) {
+				keys[i-1] = p.getMinKey();
+				if (!ind.isUnique()) {
+					values[i-1] = p.getMinKeyValue();
+				}
+			}
+		}
+		nEntries = (short) (n - 1);
+	}
 }
@@ -132,6 +132,7 @@ class LLIterator extends AbstractPageIterator<LongLongIndex.LLEntry> implements
 
 			//read last page
 			stack.add(new IteratorPos(currentPage, currentPos));
+			readAhead(currentPage, currentPos);
 			currentPage = (LLIndexPage) findPage(currentPage, currentPos);
 			currentPos = 0;
 		}
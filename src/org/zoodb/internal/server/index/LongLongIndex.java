@@ -130,6 +130,16 @@ public interface LongLongIndex {
 	 */
 	boolean insertLongIfNotSet(long key, long value);
 
+	/**
+	 * Fill an empty index by building it bottom-up from sorted entries. This is much faster
+	 * than inserting the entries one by one and the pages are filled up to the given ratio.
+	 * @param entries The entries
+	 * @param fillPercent The fill ratio of the pages, between 50 and 100.
+	 * @param failOnDuplicateKey Unique indices only: whether to fail if a key occurs more
+	 * than once.
+	 */
+	void bulkLoad(LongLongSorter entries, int fillPercent, boolean failOnDuplicateKey);
+
 	int statsGetLeavesN();
 
 	int statsGetInnerN();
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.internal.server.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import org.zoodb.internal.util.DBLogger;
+
+/**
+ * Sorts key/value pairs by key and value, for example for bulk loading indices.
+ * <p>
+ * Pairs are collected in a buffer of limited size. Whenever the buffer is full, it is sorted
+ * and written to a temporary file (run). {@link #next()} merges the runs and the remaining
+ * buffer. The temporary files are deleted by {@link #close()}.
+ * <p>
+ * Usage: call {@link #add(long, long)} for all pairs, then iterate with {@link #next()},
+ * {@link #getKey()} and {@link #getValue()}. Finally call {@link #close()}.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class LongLongSorter {
+
+	private static final int IO_BUFFER_SIZE = 64*1024;
+
+	private final int maxBufferSize;
+	private long[] keys;
+	private long[] values;
+	private int nBuffer = 0;
+	private long size = 0;
+	private final ArrayList<Run> runs = new ArrayList<Run>();
+	private PriorityQueue<Run> queue;
+	private Run current;
+
+	/**
+	 * @param bufferSize The number of pairs that are sorted in memory. Larger numbers of
+	 * pairs are sorted via temporary files.
+	 */
+	public LongLongSorter(int bufferSize) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("Buffer size: " + bufferSize);
+		}
+		maxBufferSize = bufferSize;
+		keys = new long[Math.min(bufferSize, 1024)];
+		values = new long[keys.length];
+	}
+
+	public void add(long key, long value) {
+		if (queue != null) {
+			throw new IllegalStateException();
+		}
+		if (nBuffer == keys.length) {
+			if (keys.length < maxBufferSize) {
+				int newSize = (int) Math.min(maxBufferSize, keys.length * 2L);
+				keys = Arrays.copyOf(keys, newSize);
+				values = Arrays.copyOf(values, newSize);
+			} else {
+				spill();
+			}
+		}
+		keys[nBuffer] = key;
+		values[nBuffer] = value;
+		nBuffer++;
+		size++;
+	}
+
+	/**
+	 * @return The number of pairs that have been added.
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * @return The number of temporary files that have been written.
+	 */
+	public int statsGetRunsN() {
+		return runs.size();
+	}
+
+	/**
+	 * Move to the next pair in sort order.
+	 * @return {@code false} if there are no more pairs.
+	 */
+	public boolean next() {
+		if (queue == null) {
+			startMerge();
+		} else if (current != null) {
+			if (current.advance()) {
+				queue.add(current);
+			}
+		}
+		current = queue.poll();
+		return current != null;
+	}
+
+	public long getKey() {
+		return current.key;
+	}
+
+	public long getValue() {
+		return current.value;
+	}
+
+	/**
+	 * Delete all temporary files.
+	 */
+	public void close() {
+		for (Run r: runs) {
+			r.close();
+		}
+		runs.clear();
+		current = null;
+		if (queue != null) {
+			queue.clear();
+		}
+	}
+
+	private void spill() {
+		sort(0, nBuffer - 1);
+		File file = null;
+		try {
+			file = File.createTempFile("zoodbSort", ".tmp");
+			file.deleteOnExit();
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(file), IO_BUFFER_SIZE));
+			try {
+				for (int i = 0; i < nBuffer; i++) {
+					out.writeLong(keys[i]);
+					out.writeLong(values[i]);
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			if (file != null) {
+				file.delete();
+			}
+			throw DBLogger.newFatal("Error while writing sort file: " + file, e);
+		}
+		runs.add(new FileRun(file));
+		nBuffer = 0;
+	}
+
+	private void startMerge() {
+		sort(0, nBuffer - 1);
+		queue = new PriorityQueue<Run>(runs.size() + 1);
+		for (Run r: runs) {
+			if (r.advance()) {
+				queue.add(r);
+			}
+		}
+		Run buffer = new BufferRun();
+		if (buffer.advance()) {
+			queue.add(buffer);
+		}
+	}
+
+	private int compare(int i, int j) {
+		if (keys[i] != keys[j]) {
+			return keys[i] < keys[j] ? -1 : 1;
+		}
+		if (values[i] != values[j]) {
+			return values[i] < values[j] ? -1 : 1;
+		}
+		return 0;
+	}
+
+	private void swap(int i, int j) {
+		long k = keys[i];
+		keys[i] = keys[j];
+		keys[j] = k;
+		long v = values[i];
+		values[i] = values[j];
+		values[j] = v;
+	}
+
+	/**
+	 * Quicksort on both arrays.
+	 * @param lo first index
+	 * @param hi last index (inclusive)
+	 */
+	private void sort(int lo, int hi) {
+		while (hi - lo > 16) {
+			//median of three
+			int mid = (lo + hi) >>> 1;
+			if (compare(mid, lo) < 0) {
+				swap(mid, lo);
+			}
+			if (compare(hi, lo) < 0) {
+				swap(hi, lo);
+			}
+			if (compare(hi, mid) < 0) {
+				swap(hi, mid);
+			}
+			//move pivot to hi-1
+			swap(mid, hi - 1);
+			int pivot = hi - 1;
+			int i = lo;
+			int j = hi - 1;
+			while (true) {
+				while (compare(++i, pivot) < 0) { }
+				while (compare(--j, pivot) > 0) { }
+				if (i >= j) {
+					break;
+				}
+				swap(i, j);
+			}
+			swap(i, hi - 1);
+			//recurse into the smaller part
+			if (i - lo < hi - i) {
+				sort(lo, i - 1);
+				lo = i + 1;
+			} else {
+				sort(i + 1, hi);
+				hi = i - 1;
+			}
+		}
+		//insertion sort
+		for (int i = lo + 1; i <= hi; i++) {
+			for (int j = i; j > lo && compare(j, j - 1) < 0; j--) {
+				swap(j, j - 1);
+			}
+		}
+	}
+
+	/**
+	 * A sorted sequence of pairs.
+	 */
+	private abstract static class Run implements Comparable<Run> {
+		long key;
+		long value;
+
+		/**
+		 * @return {@code false} if the run is exhausted.
+		 */
+		abstract boolean advance();
+
+		void close() {
+			//nothing to do
+		}
+
+		@Override
+		public int compareTo(Run o) {
+			if (key != o.key) {
+				return key < o.key ? -1 : 1;
+			}
+			if (value != o.value) {
+				return value < o.value ? -1 : 1;
+			}
+			return 0;
+		}
+	}
+
+	private class BufferRun extends Run {
+		private int pos = 0;
+
+		@Override
+		boolean advance() {
+			if (pos >= nBuffer) {
+				return false;
+			}
+			key = keys[pos];
+			value = values[pos];
+			pos++;
+			return true;
+		}
+	}
+
+	private static class FileRun extends Run {
+		private final File file;
+		private DataInputStream in;
+
+		FileRun(File file) {
+			this.file = file;
+		}
+
+		@Override
+		boolean advance() {
+			try {
+				if (in == null) {
+					in = new DataInputStream(new BufferedInputStream(
+							new FileInputStream(file), IO_BUFFER_SIZE));
+				}
+				key = in.readLong();
+				value = in.readLong();
+				return true;
+			} catch (EOFException e) {
+				close();
+				return false;
+			} catch (IOException e) {
+				close();
+				throw DBLogger.newFatal("Error while reading sort file: " + file, e);
+			}
+		}
+
+		@Override
+		void close() {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					DBLogger.LOGGER.warn("Error while closing sort file: " + file, e);
+				}
+				in = null;
+			}
+			file.delete();
+		}
+	}
+}
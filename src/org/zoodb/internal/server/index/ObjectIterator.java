@@ -27,8 +27,10 @@ import org.zoodb.internal.DataDeSerializer;
 import org.zoodb.internal.client.AbstractCache;
 import org.zoodb.internal.server.DiskAccessOneFile;
 import org.zoodb.internal.server.ObjectReader;
-import org.zoodb.internal.server.index.LongLongIndex.LLEntryIterator;
+import org.zoodb.internal.server.index.LongLongIndex.LLEntry;
+import org.zoodb.internal.server.index.LongLongIndex.LongLongIterator;
 import org.zoodb.internal.util.CloseableIterator;
+import org.zoodb.internal.util.PrimLongSet;
 
 /**
  * TODO
@@ -42,11 +44,13 @@ import org.zoodb.internal.util.CloseableIterator;
  */
 public class ObjectIterator implements CloseableIterator<ZooPC> {
 
-	private final LLEntryIterator iter;  
+	private final LongLongIterator<LLEntry> iter;  
 	private final DiskAccessOneFile file;
 	private final DataDeSerializer deSer;
 	private final boolean loadFromCache;
 	private final AbstractCache cache;
+	private final PrimLongSet include;
+	private final PrimLongSet exclude;
 	private ZooPC pc = null;
 	
 	/**
@@ -55,19 +59,38 @@ public class ObjectIterator implements CloseableIterator<ZooPC> {
 	 * The last three fields can be null. If they are, the objects are simply returned and no checks
 	 * are performed.
 	 * 
-	 * @param iter An entry iterator
+	 * @param iter An entry iterator, this may be an ascending or a descending iterator
 	 * @param cache The cache
 	 * @param file File handle
 	 * @param in Object input stream
 	 * @param loadFromCache Whether to load from cache, if possible
 	 */
-	public ObjectIterator(LLEntryIterator iter, AbstractCache cache, 
+	public ObjectIterator(LongLongIterator<LLEntry> iter, AbstractCache cache, 
 			DiskAccessOneFile file, ObjectReader in, boolean loadFromCache) {
+		this(iter, cache, file, in, loadFromCache, null, null);
+	}
+
+	/**
+	 * Object iterator that skips objects based on their OID, before they are loaded.
+	 * 
+	 * @param iter An entry iterator, this may be an ascending or a descending iterator
+	 * @param cache The cache
+	 * @param file File handle
+	 * @param in Object input stream
+	 * @param loadFromCache Whether to load from cache, if possible
+	 * @param include If not {@code null}, only objects with an OID in this set are returned
+	 * @param exclude If not {@code null}, objects with an OID in this set are not returned
+	 */
+	public ObjectIterator(LongLongIterator<LLEntry> iter, AbstractCache cache, 
+			DiskAccessOneFile file, ObjectReader in, boolean loadFromCache, 
+			PrimLongSet include, PrimLongSet exclude) {
 		this.iter = iter;
 		this.file = file;
 		this.deSer = new DataDeSerializer(in, cache);
 		this.loadFromCache = loadFromCache; 
 		this.cache = cache;
+		this.include = include;
+		this.exclude = exclude;
 		findNext();
 	}
 
@@ -87,8 +110,12 @@ public class ObjectIterator implements CloseableIterator<ZooPC> {
 	}
 	
 	private void findNext() {
-		while (iter.hasNextULL()) {
-			LongLongIndex.LLEntry e = iter.nextULL();
+		while (iter.hasNext()) {
+			LLEntry e = iter.next();
+			if ((include != null && !include.contains(e.getValue())) 
+					|| (exclude != null && exclude.contains(e.getValue()))) {
+				continue;
+			}
 			
 			//try loading from cache first
 			if (loadFromCache) {
@@ -22,6 +22,9 @@ package org.zoodb.internal.server.index;
 
 import org.zoodb.api.impl.ZooPC;
 import org.zoodb.internal.DataDeSerializer;
+import org.zoodb.internal.DataDeSerializerNoClass;
+import org.zoodb.internal.ObjectFilter;
+import org.zoodb.internal.ZooClassDef;
 import org.zoodb.internal.client.AbstractCache;
 import org.zoodb.internal.server.ObjectReader;
 import org.zoodb.internal.util.CloseableIterator;
@@ -41,13 +44,56 @@ public class ObjectPosIterator implements CloseableIterator<ZooPC> {
 	private final PagedPosIndex.ObjectPosIteratorMerger iter;
 	private final boolean skipIfCached;
 	private final DataDeSerializer dds;
+	private final AbstractCache cache;
+	private final ObjectFilter filter;
+	private final DataDeSerializerNoClass ddsFilter;
+	//Positions that have already been filtered, see ParallelPosFilter, may be null
+	private final long[] positions;
+	private int posI = 0;
 	private ZooPC pc = null;
 	
 	public ObjectPosIterator(PagedPosIndex.ObjectPosIteratorMerger iter, AbstractCache cache, 
 	        ObjectReader raf, boolean skipIfCached) {
+		this(iter, cache, raf, skipIfCached, null, null);
+	}
+	
+	/**
+	 * @param iter Position iterator
+	 * @param cache The cache
+	 * @param raf The reader for loading objects
+	 * @param skipIfCached Whether to return cached objects instead of loading them
+	 * @param filter Filter that is evaluated before objects are loaded, may be {@code null}
+	 * @param ddsFilter Deserializer for evaluating the filter, may be {@code null} if 
+	 * there is no filter
+	 */
+	public ObjectPosIterator(PagedPosIndex.ObjectPosIteratorMerger iter, AbstractCache cache, 
+	        ObjectReader raf, boolean skipIfCached, ObjectFilter filter, 
+	        DataDeSerializerNoClass ddsFilter) {
 		this.iter = iter;
         this.dds = new DataDeSerializer(raf, cache);
         this.skipIfCached = skipIfCached;
+        this.cache = cache;
+        this.filter = filter;
+        this.ddsFilter = ddsFilter;
+        this.positions = null;
+        findNext();
+	}
+	
+	/**
+	 * @param positions Positions of objects that have already been filtered
+	 * @param cache The cache
+	 * @param raf The reader for loading objects
+	 * @param skipIfCached Whether to return cached objects instead of loading them
+	 */
+	public ObjectPosIterator(long[] positions, AbstractCache cache, ObjectReader raf, 
+			boolean skipIfCached) {
+		this.iter = null;
+        this.dds = new DataDeSerializer(raf, cache);
+        this.skipIfCached = skipIfCached;
+        this.cache = cache;
+        this.filter = null;
+        this.ddsFilter = null;
+        this.positions = positions;
         findNext();
 	}
 
@@ -64,8 +110,11 @@ public class ObjectPosIterator implements CloseableIterator<ZooPC> {
 	}
 	
 	private void findNext() {
-	    while (iter.hasNextOPI()) {
-	        long pos = iter.nextPos();
+	    while (hasNextPos()) {
+	        long pos = nextPos();
+	        if (filter != null && !accept(pos)) {
+	        	continue;
+	        }
 	        pc = dds.readObject(BitTools.getPage(pos), BitTools.getOffs(pos), skipIfCached);
 	        if (skipIfCached) {
     		    if (!pc.jdoZooIsDeleted()) {
@@ -78,15 +127,50 @@ public class ObjectPosIterator implements CloseableIterator<ZooPC> {
 	    pc = null;
 	}
 
+	private boolean hasNextPos() {
+		return positions != null ? posI < positions.length : iter.hasNextOPI();
+	}
+	
+	private long nextPos() {
+		return positions != null ? positions[posI++] : iter.nextPos();
+	}
+	
+	/**
+	 * Evaluate the filter on the serialized object. 
+	 * @return {@code false} if the object can not match the filter.
+	 */
+	private boolean accept(long pos) {
+		ddsFilter.seekPos(pos);
+		long oid = ddsFilter.getOid();
+		if (skipIfCached) {
+			//The serialized object is outdated if the cached object was modified 
+			ZooPC co = cache.findCoByOID(oid);
+			if (co != null && co.jdoZooIsDirty()) {
+				return true;
+			}
+		}
+		ZooClassDef def = cache.getSchema(ddsFilter.getLastClassOid());
+		if (def == null || def.getNextVersion() != null) {
+			//object needs to be evolved
+			return true;
+		}
+		return filter.accept(ddsFilter, pos, def);
+	}
+
 	@Override
 	public void remove() {
 		// do we need this? Should we allow it? I guess it fails anyway in the LLE-iterator.
+		if (iter == null) {
+			throw new UnsupportedOperationException();
+		}
 		iter.remove();
 	}
 	
 	@Override
 	public void close() {
 	    pc = null;
-		iter.close();
+	    if (iter != null) {
+	    	iter.close();
+	    }
 	}
 }
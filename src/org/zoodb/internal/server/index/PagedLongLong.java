@@ -71,6 +71,11 @@ public class PagedLongLong extends AbstractPagedIndex implements LongLongIndex {
 		return true;
 	}
 
+	@Override
+	public void bulkLoad(LongLongSorter entries, int fillPercent, boolean failOnDuplicateKey) {
+		LLIndexPage.bulkLoad(getRoot(), entries, fillPercent, failOnDuplicateKey);
+	}
+
 	@Override
 	public long removeLong(long key, long value) {
 		LLIndexPage page = getRoot().locatePageForKey(key, value, false);
@@ -234,7 +234,7 @@ public class PagedOidIndex {
 		return idx.findValue(oid);
 	}
 
-	public long[] allocateOids(int oidAllocSize) {
+	public synchronized long[] allocateOids(int oidAllocSize) {
 		long l1 = lastAllocatedInMemory;
 		long l2 = l1 + oidAllocSize;
 
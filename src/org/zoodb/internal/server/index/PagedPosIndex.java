@@ -51,6 +51,15 @@ public class PagedPosIndex {
 	    private final LinkedList<ObjectPosIterator> il = 
 	            new LinkedList<PagedPosIndex.ObjectPosIterator>();
 	    private ObjectPosIterator iter = null;
+	    //Read-ahead, see enableReadAhead(), the buffer is a ring of upcoming positions
+	    private StorageChannel readAheadChannel = null;
+	    private int readAheadPages = 0;
+	    private long[] ahead = null;
+	    private int aheadStart = 0;
+	    private int aheadSize = 0;
+	    //number of distinct consecutive pages in the buffer
+	    private int aheadPageCnt = 0;
+	    private int aheadLastPage = -1;
 	    
 	    void add(ObjectPosIterator iter) {
 	        if (this.iter == null) {
@@ -65,7 +74,29 @@ public class PagedPosIndex {
             throw new UnsupportedOperationException();
 	    }
 
+	    /**
+	     * Let the iterator peek at upcoming positions and prefetch the pages of the 
+	     * following objects. This has no effect if read-ahead is disabled for the channel.
+	     * @param channel The channel for reading the objects
+	     * @see StorageChannel#getReadAheadPages()
+	     */
+	    public void enableReadAhead(StorageChannel channel) {
+	    	int n = channel.getReadAheadPages();
+	    	if (n > 0) {
+	    		readAheadChannel = channel;
+	    		readAheadPages = n;
+	    		ahead = new long[64];
+	    	}
+	    }
+	    
         public boolean hasNextOPI() {
+        	if (aheadSize > 0) {
+        		return true;
+        	}
+        	return hasNextPosInIndex();
+        }
+        
+        private boolean hasNextPosInIndex() {
             if (iter == null) {
                 return false;
             }
@@ -88,12 +119,51 @@ public class PagedPosIndex {
 	    }
 
 	    public long nextPos() {
-	        if (!hasNextOPI()) {
+	    	if (readAheadChannel != null) {
+	    		return nextPosReadAhead();
+	    	}
+	        if (!hasNextPosInIndex()) {
 	            throw new NoSuchElementException();
 	        }
             return iter.nextPos(); 
 	    }
 	    
+	    private long nextPosReadAhead() {
+	    	//fill the buffer until it covers the current page plus the read-ahead pages
+	    	while (aheadPageCnt <= readAheadPages && hasNextPosInIndex()) {
+	    		long pos = iter.nextPos();
+	    		int page = BitTools.getPage(pos);
+	    		if (aheadSize == 0 || page != aheadLastPage) {
+	    			aheadLastPage = page;
+	    			aheadPageCnt++;
+	    			if (aheadPageCnt > 1) {
+	    				//the first page is read right now anyway
+	    				readAheadChannel.prefetch(page);
+	    			}
+	    		}
+	    		if (aheadSize == ahead.length) {
+	    			long[] a2 = new long[ahead.length * 2];
+	    			for (int i = 0; i < aheadSize; i++) {
+	    				a2[i] = ahead[(aheadStart + i) % ahead.length];
+	    			}
+	    			ahead = a2;
+	    			aheadStart = 0;
+	    		}
+	    		ahead[(aheadStart + aheadSize) % ahead.length] = pos;
+	    		aheadSize++;
+	    	}
+	    	if (aheadSize == 0) {
+	    		throw new NoSuchElementException();
+	    	}
+	    	long pos = ahead[aheadStart];
+	    	aheadStart = (aheadStart + 1) % ahead.length;
+	    	aheadSize--;
+	    	if (aheadSize == 0 || BitTools.getPage(ahead[aheadStart]) != BitTools.getPage(pos)) {
+	    		aheadPageCnt--;
+	    	}
+	    	return pos;
+	    }
+	    
 	    @Override
 	    public void remove() {
 	        throw new UnsupportedOperationException();
@@ -109,6 +179,8 @@ public class PagedPosIndex {
 	            i.close();
 	        }
 	        il.clear();
+	        aheadSize = 0;
+	        aheadPageCnt = 0;
 	    }
 	}
 
@@ -237,6 +309,10 @@ public class PagedPosIndex {
 		return idx.removeLong(pos);
 	}
 
+	public boolean containsPos(long pos) {
+		return idx.findValue(pos) != null;
+	}
+
 	public ObjectPosIterator iteratorObjects() {
 		return new ObjectPosIterator(idx, 0, Long.MAX_VALUE);
 	}
@@ -279,7 +355,29 @@ public class PagedPosIndex {
 		idx.clear();
 	}
 
+	/**
+	 * The underlying index does not maintain a size, so this iterates over the positions.
+	 * This does not load any objects.
+	 * @return The number of objects in this index.
+	 */
 	public long size() {
-		return idx.size();
+		long n = 0;
+		ObjectPosIterator it = iteratorObjects();
+		while (it.hasNextOPI()) {
+			it.nextPos();
+			n++;
+		}
+		it.close();
+		return n;
+	}
+
+	/**
+	 * @return Whether this index contains no objects.
+	 */
+	public boolean isEmpty() {
+		ObjectPosIterator it = iteratorObjects();
+		boolean isEmpty = !it.hasNextOPI();
+		it.close();
+		return isEmpty;
 	}
 }
@@ -0,0 +1,1005 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.internal.server.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.zoodb.internal.server.DiskIO;
+import org.zoodb.internal.server.DiskIO.PAGE_TYPE;
+import org.zoodb.internal.server.StorageChannel;
+import org.zoodb.internal.server.StorageChannelInput;
+import org.zoodb.internal.server.StorageChannelOutput;
+import org.zoodb.internal.server.index.LongLongIndex.LLEntry;
+import org.zoodb.internal.server.index.LongLongIndex.LongLongIterator;
+import org.zoodb.internal.util.DBLogger;
+
+/**
+ * Index for String fields that stores the Strings instead of a 64 bit hash.
+ *
+ * In contrast to the {@link LongLongIndex}, keys are of variable length. The index is a
+ * B+-tree over entries consisting of the String, a 'truncated' flag and the OID. Entries are
+ * ordered by String (with 'null' first), then by the flag and then by OID. There are
+ * therefore no duplicate entries and the index is never unique, uniqueness is checked by
+ * the caller.
+ *
+ * On the page, each key is stored as the length of the prefix it shares with the preceding
+ * key, followed by the remaining characters. This is efficient for Strings with long common
+ * prefixes, such as URLs or file names.
+ *
+ * Strings that are longer than {@link #getMaxKeyLength()} are truncated, otherwise a single
+ * entry could exceed a page. Truncation preserves the order of the keys, but the entries of
+ * truncated Strings can only be used as candidates that have to be checked by loading the
+ * object, see {@link #isExact(String)}.
+ *
+ * Page layout:
+ * - byte: 0 for leaf pages, 1 for inner pages
+ * - short: number of entries
+ * - int: number of data bytes
+ * - data: the entries, for inner pages followed by the page IDs of the n+1 sub-pages
+ *
+ * Entry layout:
+ * - byte: flags, 1 for 'null', 2 for truncated keys
+ * - var-int: number of characters shared with the previous key
+ * - var-int: number of remaining characters
+ * - the remaining characters, 1-3 bytes each
+ * - long: OID
+ *
+ * @author Tilmann Zaeschke
+ */
+public class PagedStringIndex extends AbstractIndex {
+
+	private static final byte FLAG_NULL = 1;
+	private static final byte FLAG_TRUNCATED = 2;
+	//type + nEntries + data length
+	private static final int PAGE_HEADER = 1 + 2 + 4;
+	//flags + two var-ints + OID + sub-page ID, if the var-ints have at most 3 bytes
+	private static final int MAX_ENTRY_OVERHEAD = 1 + 3 + 3 + 8 + 4;
+
+	private final StorageChannelInput in;
+	private final StorageChannelOutput out;
+	//max bytes of data per page
+	private final int capacity;
+	private final int maxKeyLen;
+	private Page root;
+	private int modCount = 0;
+	private byte[] buf;
+
+	private static final class Page {
+		private Page parent;
+		private final boolean isLeaf;
+		private int n = 0;
+		private String[] keys;
+		private boolean[] truncs;
+		private long[] oids;
+		//n+1 sub-pages for inner pages
+		private int[] subPageIds;
+		private Page[] subPages;
+		//number of data bytes on disk
+		private int size;
+		private int pageId = -1;
+		private boolean isDirty = true;
+
+		private Page(Page parent, boolean isLeaf, int capacity) {
+			this.parent = parent;
+			this.isLeaf = isLeaf;
+			keys = new String[capacity];
+			truncs = new boolean[capacity];
+			oids = new long[capacity];
+			if (!isLeaf) {
+				subPageIds = new int[capacity + 1];
+				subPages = new Page[capacity + 1];
+				//the single sub-page ID
+				size = 4;
+			}
+		}
+
+		private void ensureCapacity(int c) {
+			if (c > keys.length) {
+				int len = Math.max(c, keys.length * 2);
+				keys = Arrays.copyOf(keys, len);
+				truncs = Arrays.copyOf(truncs, len);
+				oids = Arrays.copyOf(oids, len);
+				if (!isLeaf) {
+					subPageIds = Arrays.copyOf(subPageIds, len + 1);
+					subPages = Arrays.copyOf(subPages, len + 1);
+				}
+			}
+		}
+	}
+
+	private PagedStringIndex(StorageChannel file, boolean isNew) {
+		super(file, isNew, false);
+		in = file.getReader(false);
+		out = file.getWriter(false);
+		capacity = file.getPageSize() - DiskIO.PAGE_HEADER_SIZE - PAGE_HEADER;
+		//There should be space for at least four entries per page (we assume 3 byte per char).
+		maxKeyLen = (capacity / 4 - MAX_ENTRY_OVERHEAD) / 3;
+		buf = new byte[capacity];
+	}
+
+	public static PagedStringIndex newIndex(StorageChannel file) {
+		PagedStringIndex ind = new PagedStringIndex(file, true);
+		ind.root = new Page(null, true, 16);
+		return ind;
+	}
+
+	public static PagedStringIndex loadIndex(StorageChannel file, int pageId) {
+		PagedStringIndex ind = new PagedStringIndex(file, false);
+		ind.root = ind.readPage(pageId, null);
+		return ind;
+	}
+
+	/**
+	 * @return The maximum number of characters of a key. Longer keys are truncated.
+	 */
+	public int getMaxKeyLength() {
+		return maxKeyLen;
+	}
+
+	/**
+	 * @param key A String
+	 * @return Whether the index stores the full String, i.e. whether lookups of the String
+	 * return exact matches only.
+	 */
+	public boolean isExact(String key) {
+		return key == null || key.length() <= maxKeyLen;
+	}
+
+	private String truncate(String key) {
+		return isExact(key) ? key : key.substring(0, maxKeyLen);
+	}
+
+	public void insert(String key, long oid) {
+		String k = truncate(key);
+		boolean trunc = k != key;
+		Page leaf = findLeaf(k, trunc, oid);
+		int pos = search(leaf, k, trunc, oid);
+		if (pos >= 0) {
+			//already there
+			return;
+		}
+		pos = -(pos + 1);
+		insertEntry(leaf, pos, k, trunc, oid);
+		markPageDirty(leaf);
+		if (leaf.size > capacity) {
+			split(leaf);
+		}
+		modCount++;
+	}
+
+	/**
+	 * @param key The String
+	 * @param oid The OID
+	 * @throws NoSuchElementException if the entry does not exist
+	 */
+	public void remove(String key, long oid) {
+		String k = truncate(key);
+		boolean trunc = k != key;
+		Page leaf = findLeaf(k, trunc, oid);
+		int pos = search(leaf, k, trunc, oid);
+		if (pos < 0) {
+			throw new NoSuchElementException("Key not found: " + key + " / " + oid);
+		}
+		removeEntry(leaf, pos);
+		markPageDirty(leaf);
+		if (leaf != root) {
+			if (leaf.n == 0) {
+				removeSubPage(leaf);
+			} else if (leaf.size < capacity / 4) {
+				mergeLeaf(leaf);
+			}
+		}
+		while (!root.isLeaf && root.n == 0) {
+			//collapse root
+			Page newRoot = getSubPage(root, 0);
+			file.reportFreePage(root.pageId);
+			newRoot.parent = null;
+			root = newRoot;
+		}
+		modCount++;
+	}
+
+	private static final class BulkEntry {
+		private final String key;
+		private final boolean trunc;
+		private final long oid;
+		private BulkEntry(String key, boolean trunc, long oid) {
+			this.key = key;
+			this.trunc = trunc;
+			this.oid = oid;
+		}
+	}
+
+	/**
+	 * Builds the index bottom-up. The entries are sorted first, then the leaves are filled
+	 * from left to right and the inner pages are built level by level. 
+	 * The index must be empty.
+	 * @param keys The keys
+	 * @param oids The OIDs
+	 * @param n The number of entries
+	 * @param fillPercent Fill ratio of the pages in percent
+	 */
+	public void bulkLoad(String[] keys, long[] oids, int n, int fillPercent) {
+		if (!root.isLeaf || root.n != 0) {
+			throw DBLogger.newFatalInternal("Bulk loading requires an empty index.");
+		}
+		if (n == 0) {
+			return;
+		}
+		BulkEntry[] entries = new BulkEntry[n];
+		for (int i = 0; i < n; i++) {
+			String k = truncate(keys[i]);
+			entries[i] = new BulkEntry(k, k != keys[i], oids[i]);
+		}
+		Arrays.sort(entries, new Comparator<BulkEntry>() {
+			@Override
+			public int compare(BulkEntry e1, BulkEntry e2) {
+				return PagedStringIndex.compare(e1.key, e1.trunc, e1.oid, 
+						e2.key, e2.trunc, e2.oid);
+			}
+		});
+		int maxSize = capacity * fillPercent / 100;
+
+		//leaves, for each page we also keep the first entry as separator for the parent
+		ArrayList<Page> level = new ArrayList<Page>();
+		ArrayList<BulkEntry> firsts = new ArrayList<BulkEntry>();
+		Page leaf = null;
+		BulkEntry prev = null;
+		for (BulkEntry e: entries) {
+			if (prev != null && 
+					compare(prev.key, prev.trunc, prev.oid, e.key, e.trunc, e.oid) == 0) {
+				//already there
+				continue;
+			}
+			prev = e;
+			if (leaf == null || leaf.size + entrySize(leaf.keys[leaf.n - 1], e.key) > maxSize) {
+				leaf = new Page(null, true, 16);
+				level.add(leaf);
+				firsts.add(e);
+			}
+			insertEntry(leaf, leaf.n, e.key, e.trunc, e.oid);
+		}
+
+		//inner pages
+		while (level.size() > 1) {
+			ArrayList<Page> parents = new ArrayList<Page>();
+			ArrayList<BulkEntry> parentFirsts = new ArrayList<BulkEntry>();
+			Page parent = null;
+			for (int i = 0; i < level.size(); i++) {
+				Page child = level.get(i);
+				BulkEntry sep = firsts.get(i);
+				if (parent == null || parent.size + 4 + 
+						entrySize(parent.n > 0 ? parent.keys[parent.n - 1] : null, sep.key) 
+						> maxSize) {
+					parent = new Page(null, false, 16);
+					parent.subPages[0] = child;
+					child.parent = parent;
+					parents.add(parent);
+					parentFirsts.add(sep);
+					continue;
+				}
+				insertEntry(parent, parent.n, sep.key, sep.trunc, sep.oid);
+				parent.subPages[parent.n] = child;
+				child.parent = parent;
+				parent.size += 4;
+			}
+			int nP = parents.size();
+			if (nP > 1 && parent.n == 0) {
+				//avoid a last page with a single sub-page, if possible
+				Page left = parents.get(nP - 2);
+				BulkEntry sep = parentFirsts.get(nP - 1);
+				if (left.size + 4 + entrySize(left.keys[left.n - 1], sep.key) <= capacity) {
+					insertEntry(left, left.n, sep.key, sep.trunc, sep.oid);
+					left.subPages[left.n] = parent.subPages[0];
+					left.subPages[left.n].parent = left;
+					left.size += 4;
+					parents.remove(nP - 1);
+					parentFirsts.remove(nP - 1);
+				}
+			}
+			level = parents;
+			firsts = parentFirsts;
+		}
+		if (root.pageId >= 0) {
+			file.reportFreePage(root.pageId);
+		}
+		root = level.get(0);
+		markDirty();
+		modCount++;
+	}
+
+	/**
+	 * @param range The range of keys
+	 * @return An iterator over all entries in the range. The values are the OIDs, the keys
+	 * are only an approximation, see {@link BitTools#toSortableLong(String)}.
+	 */
+	public LongLongIterator<LLEntry> iterator(StringRange range) {
+		return new StringIterator(this, range);
+	}
+
+	private static int compare(String k1, boolean t1, long o1, String k2, boolean t2, long o2) {
+		if (k1 != k2) {
+			if (k1 == null) {
+				return -1;
+			}
+			if (k2 == null) {
+				return 1;
+			}
+			int c = k1.compareTo(k2);
+			if (c != 0) {
+				return c;
+			}
+		}
+		if (t1 != t2) {
+			return t1 ? 1 : -1;
+		}
+		return Long.compare(o1, o2);
+	}
+
+	/**
+	 * @return Position of the entry, or (-(insertion point) - 1) if the entry does not exist.
+	 */
+	private static int search(Page p, String k, boolean t, long oid) {
+		int lo = 0;
+		int hi = p.n - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = compare(p.keys[mid], p.truncs[mid], p.oids[mid], k, t, oid);
+			if (c < 0) {
+				lo = mid + 1;
+			} else if (c > 0) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(lo + 1);
+	}
+
+	/**
+	 * @return The position of the sub-page that may contain the entry.
+	 */
+	private static int searchSubPage(Page p, String k, boolean t, long oid) {
+		int pos = search(p, k, t, oid);
+		//Separators are the first entries of the sub-page on their right
+		return pos >= 0 ? pos + 1 : -(pos + 1);
+	}
+
+	private Page findLeaf(String k, boolean t, long oid) {
+		Page p = root;
+		while (!p.isLeaf) {
+			p = getSubPage(p, searchSubPage(p, k, t, oid));
+		}
+		return p;
+	}
+
+	private Page getSubPage(Page p, int pos) {
+		Page sub = p.subPages[pos];
+		if (sub == null) {
+			synchronized (this) {
+				sub = p.subPages[pos];
+				if (sub == null) {
+					sub = readPage(p.subPageIds[pos], p);
+					p.subPages[pos] = sub;
+				}
+			}
+		}
+		return sub;
+	}
+
+	private static int indexOf(Page parent, Page sub) {
+		for (int i = 0; i <= parent.n; i++) {
+			if (parent.subPages[i] == sub) {
+				return i;
+			}
+		}
+		throw DBLogger.newFatalInternal("Index page not found in parent page.");
+	}
+
+	private void markPageDirty(Page p) {
+		while (p != null && !p.isDirty) {
+			p.isDirty = true;
+			p = p.parent;
+		}
+		markDirty();
+	}
+
+	private static int entrySize(String prev, String key) {
+		if (key == null) {
+			return 1 + 8;
+		}
+		int shared = sharedPrefix(prev, key);
+		int size = 1 + varIntSize(shared) + varIntSize(key.length() - shared) + 8;
+		for (int i = shared; i < key.length(); i++) {
+			size += charSize(key.charAt(i));
+		}
+		return size;
+	}
+
+	private static int sharedPrefix(String prev, String key) {
+		if (prev == null || key == null) {
+			return 0;
+		}
+		int len = Math.min(prev.length(), key.length());
+		int i = 0;
+		while (i < len && prev.charAt(i) == key.charAt(i)) {
+			i++;
+		}
+		return i;
+	}
+
+	private static int varIntSize(int i) {
+		int n = 1;
+		while ((i >>>= 7) != 0) {
+			n++;
+		}
+		return n;
+	}
+
+	private static int charSize(char c) {
+		if (c >= 0x0001 && c <= 0x007F) {
+			return 1;
+		}
+		return c <= 0x07FF ? 2 : 3;
+	}
+
+	private static void insertEntry(Page p, int pos, String k, boolean t, long oid) {
+		String prev = pos > 0 ? p.keys[pos-1] : null;
+		p.size += entrySize(prev, k);
+		if (pos < p.n) {
+			String next = p.keys[pos];
+			p.size += entrySize(k, next) - entrySize(prev, next);
+		}
+		p.ensureCapacity(p.n + 1);
+		System.arraycopy(p.keys, pos, p.keys, pos + 1, p.n - pos);
+		System.arraycopy(p.truncs, pos, p.truncs, pos + 1, p.n - pos);
+		System.arraycopy(p.oids, pos, p.oids, pos + 1, p.n - pos);
+		p.keys[pos] = k;
+		p.truncs[pos] = t;
+		p.oids[pos] = oid;
+		p.n++;
+	}
+
+	private static void removeEntry(Page p, int pos) {
+		String prev = pos > 0 ? p.keys[pos-1] : null;
+		String k = p.keys[pos];
+		p.size -= entrySize(prev, k);
+		if (pos + 1 < p.n) {
+			String next = p.keys[pos + 1];
+			p.size += entrySize(prev, next) - entrySize(k, next);
+		}
+		System.arraycopy(p.keys, pos + 1, p.keys, pos, p.n - pos - 1);
+		System.arraycopy(p.truncs, pos + 1, p.truncs, pos, p.n - pos - 1);
+		System.arraycopy(p.oids, pos + 1, p.oids, pos, p.n - pos - 1);
+		p.n--;
+		p.keys[p.n] = null;
+	}
+
+	private static void insertSubPage(Page p, int pos, Page sub) {
+		System.arraycopy(p.subPageIds, pos, p.subPageIds, pos + 1, p.n - pos);
+		System.arraycopy(p.subPages, pos, p.subPages, pos + 1, p.n - pos);
+		p.subPageIds[pos] = sub.pageId;
+		p.subPages[pos] = sub;
+		sub.parent = p;
+		p.size += 4;
+	}
+
+	private static void removeSubPageRef(Page p, int pos) {
+		System.arraycopy(p.subPageIds, pos + 1, p.subPageIds, pos, p.n + 1 - pos);
+		System.arraycopy(p.subPages, pos + 1, p.subPages, pos, p.n + 1 - pos);
+		p.subPages[p.n + 1] = null;
+		p.size -= 4;
+	}
+
+	private static void recomputeSize(Page p) {
+		int size = p.isLeaf ? 0 : 4 * (p.n + 1);
+		String prev = null;
+		for (int i = 0; i < p.n; i++) {
+			size += entrySize(prev, p.keys[i]);
+			prev = p.keys[i];
+		}
+		p.size = size;
+	}
+
+	/**
+	 * Split a page that exceeds the page size.
+	 */
+	private void split(Page p) {
+		//find middle by size
+		int half = p.size / 2;
+		int m = 0;
+		int s = 0;
+		String prev = null;
+		while (m < p.n - 2 && s < half) {
+			s += entrySize(prev, p.keys[m]) + (p.isLeaf ? 0 : 4);
+			prev = p.keys[m];
+			m++;
+		}
+		m = Math.max(m, 1);
+
+		Page right = new Page(p.parent, p.isLeaf, p.keys.length);
+		String sepKey;
+		boolean sepTrunc;
+		long sepOid;
+		if (p.isLeaf) {
+			//move entries m..n-1, the separator is a copy of the first entry on the right
+			int nR = p.n - m;
+			System.arraycopy(p.keys, m, right.keys, 0, nR);
+			System.arraycopy(p.truncs, m, right.truncs, 0, nR);
+			System.arraycopy(p.oids, m, right.oids, 0, nR);
+			right.n = nR;
+			Arrays.fill(p.keys, m, p.n, null);
+			p.n = m;
+			sepKey = right.keys[0];
+			sepTrunc = right.truncs[0];
+			sepOid = right.oids[0];
+		} else {
+			//entry m moves up, the entries m+1..n-1 and sub-pages m+1..n move to the right
+			sepKey = p.keys[m];
+			sepTrunc = p.truncs[m];
+			sepOid = p.oids[m];
+			int nR = p.n - m - 1;
+			System.arraycopy(p.keys, m + 1, right.keys, 0, nR);
+			System.arraycopy(p.truncs, m + 1, right.truncs, 0, nR);
+			System.arraycopy(p.oids, m + 1, right.oids, 0, nR);
+			System.arraycopy(p.subPageIds, m + 1, right.subPageIds, 0, nR + 1);
+			System.arraycopy(p.subPages, m + 1, right.subPages, 0, nR + 1);
+			right.n = nR;
+			for (int i = 0; i <= nR; i++) {
+				if (right.subPages[i] != null) {
+					right.subPages[i].parent = right;
+				}
+			}
+			Arrays.fill(p.keys, m, p.n, null);
+			Arrays.fill(p.subPages, m + 1, p.n + 1, null);
+			p.n = m;
+		}
+		recomputeSize(p);
+		recomputeSize(right);
+
+		Page parent = p.parent;
+		if (parent == null) {
+			//new root
+			parent = new Page(null, false, 16);
+			parent.subPages[0] = p;
+			parent.subPageIds[0] = p.pageId;
+			p.parent = parent;
+			root = parent;
+		}
+		int pos = indexOf(parent, p);
+		insertEntry(parent, pos, sepKey, sepTrunc, sepOid);
+		//The entry was inserted in front of the sub-page on its right
+		insertSubPage(parent, pos + 1, right);
+		markPageDirty(parent);
+		if (parent.size > capacity) {
+			split(parent);
+		}
+	}
+
+	/**
+	 * Remove an empty page from its parent.
+	 */
+	private void removeSubPage(Page p) {
+		Page parent = p.parent;
+		file.reportFreePage(p.pageId);
+		int pos = indexOf(parent, p);
+		if (parent.n == 0) {
+			//the parent becomes empty as well
+			if (parent == root) {
+				file.reportFreePage(root.pageId);
+				root = new Page(null, true, 16);
+				markPageDirty(root);
+			} else {
+				removeSubPage(parent);
+			}
+			return;
+		}
+		removeEntry(parent, pos > 0 ? pos - 1 : 0);
+		removeSubPageRef(parent, pos);
+		markPageDirty(parent);
+	}
+
+	/**
+	 * Merge an underfull leaf with a neighbour, if possible.
+	 */
+	private void mergeLeaf(Page p) {
+		Page parent = p.parent;
+		int pos = indexOf(parent, p);
+		Page left;
+		Page right;
+		if (pos > 0) {
+			left = getSubPage(parent, pos - 1);
+			right = p;
+		} else if (parent.n > 0) {
+			left = p;
+			right = getSubPage(parent, pos + 1);
+			pos++;
+		} else {
+			return;
+		}
+		//the first key of the right page loses (at most) its shared prefix
+		if (left.size + right.size + entrySize(null, right.keys[0]) > capacity) {
+			return;
+		}
+		left.ensureCapacity(left.n + right.n);
+		System.arraycopy(right.keys, 0, left.keys, left.n, right.n);
+		System.arraycopy(right.truncs, 0, left.truncs, left.n, right.n);
+		System.arraycopy(right.oids, 0, left.oids, left.n, right.n);
+		left.n += right.n;
+		recomputeSize(left);
+		markPageDirty(left);
+
+		file.reportFreePage(right.pageId);
+		removeEntry(parent, pos - 1);
+		removeSubPageRef(parent, pos);
+		markPageDirty(parent);
+	}
+
+	private Page readPage(int pageId, Page parent) {
+		synchronized (this) {
+			in.seekPageForRead(PAGE_TYPE.FIELD_INDEX, pageId);
+			boolean isLeaf = in.readByte() == 0;
+			int n = in.readShort();
+			int len = in.readInt();
+			Page p = new Page(parent, isLeaf, Math.max(n, 16));
+			in.noCheckRead(buf, len);
+			int pos = 0;
+			String prev = null;
+			char[] chars = new char[maxKeyLen];
+			for (int i = 0; i < n; i++) {
+				byte flags = buf[pos++];
+				String key = null;
+				if ((flags & FLAG_NULL) == 0) {
+					int shared = 0;
+					int b;
+					int shift = 0;
+					do {
+						b = buf[pos++];
+						shared |= (b & 0x7F) << shift;
+						shift += 7;
+					} while ((b & 0x80) != 0);
+					int suffix = 0;
+					shift = 0;
+					do {
+						b = buf[pos++];
+						suffix |= (b & 0x7F) << shift;
+						shift += 7;
+					} while ((b & 0x80) != 0);
+					if (shared > 0) {
+						prev.getChars(0, shared, chars, 0);
+					}
+					int end = shared + suffix;
+					for (int c = shared; c < end; c++) {
+						int b0 = buf[pos++] & 0xFF;
+						if ((b0 & 0x80) == 0) {
+							chars[c] = (char) b0;
+						} else if ((b0 & 0xE0) == 0xC0) {
+							chars[c] = (char) (((b0 & 0x1F) << 6) | (buf[pos++] & 0x3F));
+						} else {
+							int b1 = buf[pos++] & 0x3F;
+							chars[c] = (char) (((b0 & 0x0F) << 12) | (b1 << 6) |
+									(buf[pos++] & 0x3F));
+						}
+					}
+					key = new String(chars, 0, end);
+				}
+				long oid = 0;
+				for (int j = 0; j < 8; j++) {
+					oid = (oid << 8) | (buf[pos++] & 0xFF);
+				}
+				p.keys[i] = key;
+				p.truncs[i] = (flags & FLAG_TRUNCATED) != 0;
+				p.oids[i] = oid;
+				prev = key;
+			}
+			p.n = n;
+			if (!isLeaf) {
+				for (int i = 0; i <= n; i++) {
+					p.subPageIds[i] = ((buf[pos] & 0xFF) << 24) | ((buf[pos+1] & 0xFF) << 16) |
+							((buf[pos+2] & 0xFF) << 8) | (buf[pos+3] & 0xFF);
+					pos += 4;
+				}
+			}
+			p.size = len;
+			p.pageId = pageId;
+			p.isDirty = false;
+			return p;
+		}
+	}
+
+	/**
+	 * Write all modified pages.
+	 * @return The page ID of the root page.
+	 */
+	public int write() {
+		int ret = writePage(root);
+		markClean();
+		return ret;
+	}
+
+	private int writePage(Page p) {
+		if (!p.isDirty) {
+			return p.pageId;
+		}
+		if (!p.isLeaf) {
+			//first write the sub-pages, this updates their page IDs
+			for (int i = 0; i <= p.n; i++) {
+				if (p.subPages[i] != null) {
+					p.subPageIds[i] = writePage(p.subPages[i]);
+				}
+			}
+		}
+
+		int pos = 0;
+		String prev = null;
+		for (int i = 0; i < p.n; i++) {
+			String key = p.keys[i];
+			if (key == null) {
+				buf[pos++] = FLAG_NULL;
+			} else {
+				buf[pos++] = p.truncs[i] ? FLAG_TRUNCATED : 0;
+				int shared = sharedPrefix(prev, key);
+				pos = writeVarInt(shared, pos);
+				pos = writeVarInt(key.length() - shared, pos);
+				for (int c = shared; c < key.length(); c++) {
+					char ch = key.charAt(c);
+					if (ch >= 0x0001 && ch <= 0x007F) {
+						buf[pos++] = (byte) ch;
+					} else if (ch <= 0x07FF) {
+						buf[pos++] = (byte) (0xC0 | ((ch >> 6) & 0x1F));
+						buf[pos++] = (byte) (0x80 | (ch & 0x3F));
+					} else {
+						buf[pos++] = (byte) (0xE0 | ((ch >> 12) & 0x0F));
+						buf[pos++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+						buf[pos++] = (byte) (0x80 | (ch & 0x3F));
+					}
+				}
+			}
+			long oid = p.oids[i];
+			for (int j = 56; j >= 0; j -= 8) {
+				buf[pos++] = (byte) (oid >>> j);
+			}
+			prev = key;
+		}
+		if (!p.isLeaf) {
+			for (int i = 0; i <= p.n; i++) {
+				int id = p.subPageIds[i];
+				buf[pos++] = (byte) (id >>> 24);
+				buf[pos++] = (byte) (id >>> 16);
+				buf[pos++] = (byte) (id >>> 8);
+				buf[pos++] = (byte) id;
+			}
+		}
+		if (pos != p.size) {
+			throw DBLogger.newFatalInternal("Index page size mismatch: " + pos + "/" + p.size);
+		}
+
+		p.pageId = out.allocateAndSeek(PAGE_TYPE.FIELD_INDEX, p.pageId);
+		out.writeByte((byte) (p.isLeaf ? 0 : 1));
+		out.writeShort((short) p.n);
+		out.writeInt(pos);
+		out.noCheckWrite(buf, pos);
+		out.flush();
+		p.isDirty = false;
+		return p.pageId;
+	}
+
+	private int writeVarInt(int i, int pos) {
+		while ((i & ~0x7F) != 0) {
+			buf[pos++] = (byte) ((i & 0x7F) | 0x80);
+			i >>>= 7;
+		}
+		buf[pos++] = (byte) i;
+		return pos;
+	}
+
+	/**
+	 * Remove all entries and return all pages to the free space manager.
+	 */
+	public void clear() {
+		clear(root);
+		root = new Page(null, true, 16);
+		markDirty();
+		modCount++;
+	}
+
+	private void clear(Page p) {
+		if (!p.isLeaf) {
+			for (int i = 0; i <= p.n; i++) {
+				clear(getSubPage(p, i));
+			}
+		}
+		file.reportFreePage(p.pageId);
+	}
+
+	public List<Integer> debugPageIds() {
+		ArrayList<Integer> pages = new ArrayList<Integer>();
+		debugPageIds(root, pages);
+		return pages;
+	}
+
+	private void debugPageIds(Page p, List<Integer> pages) {
+		pages.add(p.pageId);
+		if (!p.isLeaf) {
+			for (int i = 0; i <= p.n; i++) {
+				debugPageIds(getSubPage(p, i), pages);
+			}
+		}
+	}
+
+	private void checkValidity(int modCount, long txId) {
+		if (file.getTxId() != txId) {
+			throw DBLogger.newUser("This iterator has been invalidated by commit() or rollback().");
+		}
+		if (this.modCount != modCount) {
+			throw new ConcurrentModificationException();
+		}
+	}
+
+	/**
+	 * Iterator over a range of entries.
+	 */
+	private static class StringIterator implements LongLongIterator<LLEntry> {
+
+		private final PagedStringIndex ind;
+		private final int modCount;
+		private final long txId;
+		private Page page;
+		private int pos;
+		//upper bound
+		private final boolean hasMax;
+		private final String maxKey;
+		private final boolean maxTrunc;
+		private final long maxOid;
+		//truncated prefix, if any
+		private final String prefix;
+
+		StringIterator(PagedStringIndex ind, StringRange range) {
+			this.ind = ind;
+			this.modCount = ind.modCount;
+			this.txId = ind.file.getTxId();
+			if (range.isEmpty()) {
+				hasMax = false;
+				maxKey = null;
+				maxTrunc = false;
+				maxOid = 0;
+				prefix = null;
+				page = null;
+				return;
+			}
+
+			//lower bound
+			String minKey = null;
+			boolean minTrunc = false;
+			long minOid = Long.MIN_VALUE;
+			if (range.getMin() != null) {
+				minKey = ind.truncate(range.getMin());
+				minTrunc = minKey != range.getMin();
+				if (!minTrunc && !range.isMinInclusive()) {
+					minOid = Long.MAX_VALUE;
+				}
+			}
+			if (range.getPrefix() != null) {
+				prefix = ind.truncate(range.getPrefix());
+				boolean pTrunc = prefix != range.getPrefix();
+				if (compare(minKey, minTrunc, minOid, prefix, pTrunc, Long.MIN_VALUE) < 0) {
+					minKey = prefix;
+					minTrunc = pTrunc;
+					minOid = Long.MIN_VALUE;
+				}
+			} else {
+				prefix = null;
+			}
+
+			//upper bound
+			if (range.isNullOnly()) {
+				hasMax = true;
+				maxKey = null;
+				maxTrunc = false;
+				maxOid = Long.MAX_VALUE;
+			} else if (range.getMax() != null) {
+				hasMax = true;
+				maxKey = ind.truncate(range.getMax());
+				maxTrunc = maxKey != range.getMax();
+				maxOid = (maxTrunc || range.isMaxInclusive()) ? Long.MAX_VALUE : Long.MIN_VALUE;
+			} else {
+				hasMax = false;
+				maxKey = null;
+				maxTrunc = false;
+				maxOid = 0;
+			}
+
+			page = ind.findLeaf(minKey, minTrunc, minOid);
+			pos = search(page, minKey, minTrunc, minOid);
+			if (pos < 0) {
+				pos = -(pos + 1);
+			}
+			findNext();
+		}
+
+		private void findNext() {
+			while (pos >= page.n) {
+				page = nextLeaf(page);
+				if (page == null) {
+					return;
+				}
+				pos = 0;
+			}
+			String k = page.keys[pos];
+			if (hasMax && compare(k, page.truncs[pos], page.oids[pos],
+					maxKey, maxTrunc, maxOid) > 0) {
+				page = null;
+				return;
+			}
+			if (prefix != null && (k == null || !k.startsWith(prefix))) {
+				page = null;
+			}
+		}
+
+		private Page nextLeaf(Page p) {
+			while (p.parent != null) {
+				Page parent = p.parent;
+				int i = indexOf(parent, p);
+				if (i < parent.n) {
+					p = ind.getSubPage(parent, i + 1);
+					while (!p.isLeaf) {
+						p = ind.getSubPage(p, 0);
+					}
+					return p;
+				}
+				p = parent;
+			}
+			return null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			ind.checkValidity(modCount, txId);
+			return page != null;
+		}
+
+		@Override
+		public LLEntry next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			LLEntry e = new LLEntry(BitTools.toSortableLong(page.keys[pos]), page.oids[pos]);
+			pos++;
+			findNext();
+			return e;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+			page = null;
+		}
+	}
+}
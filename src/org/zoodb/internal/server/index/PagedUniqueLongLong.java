@@ -79,6 +79,11 @@ public class PagedUniqueLongLong extends AbstractPagedIndex implements LongLongI
 		return true;
 	}
 
+	@Override
+	public void bulkLoad(LongLongSorter entries, int fillPercent, boolean failOnDuplicateKey) {
+		LLIndexPage.bulkLoad(getRoot(), entries, fillPercent, failOnDuplicateKey);
+	}
+
 	/**
 	 * @param key The key to remove
 	 * @return the previous value
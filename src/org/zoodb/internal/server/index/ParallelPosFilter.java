@@ -0,0 +1,185 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.internal.server.index;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.zoodb.api.impl.ZooPC;
+import org.zoodb.internal.DataDeSerializerNoClass;
+import org.zoodb.internal.ObjectFilter;
+import org.zoodb.internal.ZooClassDef;
+import org.zoodb.internal.client.AbstractCache;
+import org.zoodb.internal.util.PrimLongArrayList;
+
+/**
+ * Evaluates an {@link ObjectFilter} on the serialized objects of a pos-index in parallel.
+ *
+ * The positions are split into partitions that cover disjoint page ranges. Every partition
+ * is evaluated by a separate task of the common fork-join pool with its own deserializer.
+ * The accepted positions are returned in the order of the pos-index, such that they can be
+ * loaded sequentially by the calling thread.
+ *
+ * Only the filter evaluation is parallel. The client cache is not thread-safe, therefore
+ * the tasks only read the schemata from the cache, which are not modified while the calling
+ * thread waits for the tasks. The check for modified cached objects is done by the calling
+ * thread.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class ParallelPosFilter {
+
+	/** Partitions with fewer objects are not worth the overhead of a separate task. */
+	public static final int MIN_PARTITION_SIZE = 256;
+
+	private static final byte REJECT = 0;
+	private static final byte ACCEPT = 1;
+
+	private final long[] positions;
+	private final long[] oids;
+	private final byte[] results;
+	private final AbstractCache cache;
+	private final ObjectFilter filter;
+
+	private ParallelPosFilter(long[] positions, AbstractCache cache, ObjectFilter filter) {
+		this.positions = positions;
+		this.oids = new long[positions.length];
+		this.results = new byte[positions.length];
+		this.cache = cache;
+		this.filter = filter;
+	}
+
+	/**
+	 *
+	 * @param iter Position iterator, this is closed when all positions have been read
+	 * @param cache The cache
+	 * @param skipIfCached Whether cached objects will be returned instead of loading them
+	 * @param filter The filter
+	 * @param dds One deserializer per partition, the number of deserializers is the maximum
+	 * number of partitions
+	 * @return The accepted positions in the order of the iterator.
+	 */
+	public static long[] filter(PagedPosIndex.ObjectPosIteratorMerger iter, AbstractCache cache,
+			boolean skipIfCached, ObjectFilter filter, DataDeSerializerNoClass[] dds) {
+		PrimLongArrayList list = new PrimLongArrayList();
+		try {
+			while (iter.hasNextOPI()) {
+				list.add(iter.nextPos());
+			}
+		} finally {
+			iter.close();
+		}
+		ParallelPosFilter pf = new ParallelPosFilter(list.toArray(), cache, filter);
+		pf.run(dds);
+		return pf.collect(skipIfCached);
+	}
+
+	private void run(DataDeSerializerNoClass[] dds) {
+		int nPart = Math.min(dds.length, positions.length / MIN_PARTITION_SIZE);
+		if (nPart <= 1) {
+			evaluate(dds[0], 0, positions.length);
+			return;
+		}
+		ArrayList<Partition> tasks = new ArrayList<>(nPart);
+		int start = 0;
+		for (int i = 0; i < nPart; i++) {
+			int end = i == nPart - 1 ?
+					positions.length : nextPageBoundary((int)((long)positions.length*(i+1)/nPart));
+			if (end > start) {
+				tasks.add(new Partition(dds[i], start, end));
+			}
+			start = end;
+		}
+		ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+	}
+
+	/**
+	 * Move the end of a partition forward to the first object on a different page, such
+	 * that no page is decoded by two partitions.
+	 */
+	private int nextPageBoundary(int end) {
+		if (end <= 0) {
+			return 0;
+		}
+		int page = BitTools.getPage(positions[end - 1]);
+		while (end < positions.length && BitTools.getPage(positions[end]) == page) {
+			end++;
+		}
+		return end;
+	}
+
+	private void evaluate(DataDeSerializerNoClass dds, int start, int end) {
+		for (int i = start; i < end; i++) {
+			long pos = positions[i];
+			dds.seekPos(pos);
+			oids[i] = dds.getOid();
+			ZooClassDef def = cache.getSchema(dds.getLastClassOid());
+			if (def == null || def.getNextVersion() != null) {
+				//object needs to be evolved
+				results[i] = ACCEPT;
+			} else {
+				results[i] = filter.accept(dds, pos, def) ? ACCEPT : REJECT;
+			}
+		}
+	}
+
+	private long[] collect(boolean skipIfCached) {
+		PrimLongArrayList ret = new PrimLongArrayList();
+		for (int i = 0; i < positions.length; i++) {
+			if (results[i] == REJECT && skipIfCached) {
+				//The serialized object is outdated if the cached object was modified
+				ZooPC co = cache.findCoByOID(oids[i]);
+				if (co == null || !co.jdoZooIsDirty()) {
+					continue;
+				}
+			} else if (results[i] == REJECT) {
+				continue;
+			}
+			ret.add(positions[i]);
+		}
+		return ret.toArray();
+	}
+
+	private class Partition extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final DataDeSerializerNoClass dds;
+		private final int start;
+		private final int end;
+
+		Partition(DataDeSerializerNoClass dds, int start, int end) {
+			this.dds = dds;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			evaluate(dds, start, end);
+		}
+	}
+}
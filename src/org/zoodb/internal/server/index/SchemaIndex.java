@@ -28,12 +28,14 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 
 import org.zoodb.api.impl.ZooPC;
 import org.zoodb.internal.Node;
 import org.zoodb.internal.PersistentSchemaOperation;
 import org.zoodb.internal.ZooClassDef;
 import org.zoodb.internal.ZooClassProxy;
+import org.zoodb.internal.ZooCompositeIndexDef;
 import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.server.CallbackPageRead;
 import org.zoodb.internal.server.CallbackPageWrite;
@@ -97,6 +99,16 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 		private FTYPE fType;
 		private int page;
 		private LongLongIndex index;
+		//Only for String indices with fType STRING_EXACT
+		private PagedStringIndex strIndex;
+	}
+
+	private static class CompositeIndex {
+		//The unique fieldIds of the indexed fields, in order of significance
+		private long[] fieldIds;
+		private FTYPE[] fTypes;
+		private int page;
+		private LongLongIndex index;
 	}
 
 	public static enum FTYPE {
@@ -108,26 +120,58 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 		FLOAT(4, Float.TYPE, "float"),
 		CHAR(2, Character.TYPE, "char"), 
 		STRING(8, null, "java.lang.String"),
-		REF(8, Long.TYPE, ZooPC.class.getName());
-//		private final int len;
+		REF(8, Long.TYPE, ZooPC.class.getName()),
+		//marker for composite indices, followed by the types of the fields
+		COMPOSITE(8, null, null),
+		//String index that stores full keys, see PagedStringIndex
+		STRING_EXACT(8, null, null);
+		private final int len;
 //		private final Type type;
 		private final String typeName;
 		private FTYPE(int len, Type type, String typeName) {
-//			this.len = len;
+			this.len = len;
 //			this.type = type;
 			this.typeName = typeName;
 		}
 		public static FTYPE fromType(ZooFieldDef fieldType) {
+			FTYPE t = lookup(fieldType);
+			if (t == null) {
+				throw new IllegalArgumentException("Type is not indexable: " + 
+						fieldType.getTypeName());
+			}
+			return t;
+		}
+		/**
+		 * @param fieldType The field
+		 * @return Whether the type of the field can be indexed. For example boolean and Date 
+		 * fields can not be indexed.
+		 */
+		public static boolean isIndexable(ZooFieldDef fieldType) {
+			return lookup(fieldType) != null;
+		}
+		private static FTYPE lookup(ZooFieldDef fieldType) {
 			if (fieldType.isPersistentType()) {
 				return REF;
 			}
 			String typeName = fieldType.getTypeName();
 			for (FTYPE t: values()) {
-				if (t.typeName.equals(typeName)) {
+				if (typeName.equals(t.typeName)) {
 					return t;
 				}
 			}
-			throw new IllegalArgumentException("Type is not indexable: " + typeName);
+			return null;
+		}
+		/**
+		 * @return The number of bits of the index keys of this type.
+		 */
+		public int getBits() {
+			return len * 8;
+		}
+		/**
+		 * @return Whether the index keys of this type can be negative.
+		 */
+		public boolean isSigned() {
+			return this != CHAR;
 		}
 	}
 	
@@ -147,6 +191,7 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 		private int[] objIndexPages;
 		private transient PagedPosIndex[] objIndex;
 		private ArrayList<FieldIndex> fieldIndices = new ArrayList<FieldIndex>();
+		private ArrayList<CompositeIndex> compositeIndices = new ArrayList<CompositeIndex>();
 		
 		/**
 		 * Constructor for reading index.
@@ -166,11 +211,24 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 		    int nF = in.readShort();
 		    for (int i = 0; i < nF; i++) {
 		    	FieldIndex fi = new FieldIndex();
-		    	fieldIndices.add(fi);
 		    	fi.fieldId = in.readLong();
 		    	fi.fType = FTYPE.values()[in.readByte()];
 		    	fi.isUnique = in.readBoolean();
 		    	fi.page = in.readInt();
+		    	if (fi.fType == FTYPE.COMPOSITE) {
+		    		CompositeIndex ci = new CompositeIndex();
+		    		ci.page = fi.page;
+		    		int nCF = in.readShort();
+		    		ci.fieldIds = new long[nCF];
+		    		ci.fTypes = new FTYPE[nCF];
+		    		for (int j = 0; j < nCF; j++) {
+		    			ci.fieldIds[j] = in.readLong();
+		    			ci.fTypes[j] = FTYPE.values()[in.readByte()];
+		    		}
+		    		compositeIndices.add(ci);
+		    	} else {
+		    		fieldIndices.add(fi);
+		    	}
 		    }
 		}
 		
@@ -202,19 +260,31 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 		    for (int page: objIndexPages) {
 		        out.writeInt(page);  //no data page yet
 		    }
-		    out.writeShort((short) fieldIndices.size());
+		    out.writeShort((short) (fieldIndices.size() + compositeIndices.size()));
 		    for (FieldIndex fi: fieldIndices) {
 		    	out.writeLong(fi.fieldId);
 		    	out.writeByte((byte) fi.fType.ordinal());
 		    	out.writeBoolean(fi.isUnique);
 		    	out.writeInt(fi.page);
 		    }
+		    //composite indices are stored like field indices, followed by their fields
+		    for (CompositeIndex ci: compositeIndices) {
+		    	out.writeLong(0);
+		    	out.writeByte((byte) FTYPE.COMPOSITE.ordinal());
+		    	out.writeBoolean(false);
+		    	out.writeInt(ci.page);
+		    	out.writeShort((short) ci.fieldIds.length);
+		    	for (int i = 0; i < ci.fieldIds.length; i++) {
+		    		out.writeLong(ci.fieldIds[i]);
+		    		out.writeByte((byte) ci.fTypes[i].ordinal());
+		    	}
+		    }
 		}
 
 		/**
 		 * @return The pos-index for the latest schema version
 		 */
-        public PagedPosIndex getObjectIndexLatestSchemaVersion() {
+        public synchronized PagedPosIndex getObjectIndexLatestSchemaVersion() {
             // lazy loading
             int v = objIndex.length-1;
             if (objIndex[v] == null) {
@@ -227,10 +297,13 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
          * 
          * @return Pos-indices for all schema versions
          */
-        public ObjectPosIteratorMerger getObjectIndexIterator() {
+        public synchronized ObjectPosIteratorMerger getObjectIndexIterator() {
             // lazy loading
             ObjectPosIteratorMerger ret = new ObjectPosIteratorMerger(); 
             for (int i = 0; i < objIndex.length; i++) {
+                if (isObjectIndexVersionDropped(i)) {
+                    continue;
+                }
                 if (objIndex[i] == null) {
                     objIndex[i] = PagedPosIndex.loadIndex(file, objIndexPages[i]);
                 }
@@ -239,7 +312,7 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
             return ret;
         }
 
-		public LongLongIndex defineIndex(ZooFieldDef field, boolean isUnique) {
+		public void defineIndex(ZooFieldDef field, boolean isUnique) {
 			//double check
 			if (!field.isPrimitiveType() && !field.isString() && !field.isPersistentType()) {
 				throw new IllegalArgumentException("Type cannot be indexed: " + field.getTypeName());
@@ -256,15 +329,21 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 			fi.isUnique = isUnique;
 			field.setIndexed(true);
 			field.setUnique(isUnique);
-			//unique String indexes use a non-unique index!
-			if (isUnique && !field.isString()) {
+			createIndex(fi, field);
+			fieldIndices.add(fi);
+			markRefreshRequired();
+		}
+
+		private void createIndex(FieldIndex fi, ZooFieldDef field) {
+			if (field.isString()) {
+				//String indexes are never unique, uniqueness is checked by the caller
+				fi.fType = FTYPE.STRING_EXACT;
+				fi.strIndex = PagedStringIndex.newIndex(file);
+			} else if (fi.isUnique) {
 				fi.index = IndexFactory.createUniqueIndex(PAGE_TYPE.FIELD_INDEX, file);
 			} else {
 				fi.index = IndexFactory.createIndex(PAGE_TYPE.FIELD_INDEX, file);
 			}
-			fieldIndices.add(fi);
-			markRefreshRequired();
-			return fi.index;
 		}
 
 		public boolean removeIndex(ZooFieldDef field) {
@@ -273,7 +352,7 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 				FieldIndex fi = iter.next(); 
 				if (fi.fieldId == field.getFieldSchemaId()) {
 					iter.remove();
-					fi.index.clear();
+					clearIndex(fi);
 					field.setIndexed(false);
 					markRefreshRequired();
 					return true;
@@ -282,26 +361,168 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 			return false;
 		}
 
-		public LongLongIndex getIndex(ZooFieldDef field) {
+		/**
+		 * @param field The field
+		 * @return The index of the field, or {@code null} if the field has no index or if 
+		 * it is a String index with full keys, see {@link #getStringIndex(ZooFieldDef)}. 
+		 */
+		public synchronized LongLongIndex getIndex(ZooFieldDef field) {
+			FieldIndex fi = findIndex(field);
+			if (fi == null || fi.fType == FTYPE.STRING_EXACT) {
+				return null;
+			}
+			return loadIndex(fi);
+		}
+
+		/**
+		 * @param field The field
+		 * @return The String index with full keys of the field, or {@code null} if the field 
+		 * has no such index. Older databases may contain String indices that store only 
+		 * a hash of the keys, these are returned by {@link #getIndex(ZooFieldDef)}.
+		 */
+		public synchronized PagedStringIndex getStringIndex(ZooFieldDef field) {
+			FieldIndex fi = findIndex(field);
+			if (fi == null || fi.fType != FTYPE.STRING_EXACT) {
+				return null;
+			}
+			return loadStringIndex(fi);
+		}
+
+		/**
+		 * @param field The field
+		 * @return Whether the field has an index.
+		 */
+		public boolean hasIndex(ZooFieldDef field) {
+			return findIndex(field) != null;
+		}
+
+		private FieldIndex findIndex(ZooFieldDef field) {
 			for (FieldIndex fi: fieldIndices) {
 				if (fi.fieldId == field.getFieldSchemaId()) {
-					if (fi.index == null) {
-						if (fi.isUnique && !field.isString()) {
-							fi.index = IndexFactory.loadUniqueIndex(PAGE_TYPE.FIELD_INDEX, file, fi.page);
-						} else {
-							fi.index = IndexFactory.loadIndex(PAGE_TYPE.FIELD_INDEX, file, fi.page);
-						}
-					}
-					return fi.index;
+					return fi;
+				}
+			}
+			return null;
+		}
+
+		private LongLongIndex loadIndex(FieldIndex fi) {
+			if (fi.index == null) {
+				//String indices are never unique
+				if (fi.isUnique && fi.fType != FTYPE.STRING) {
+					fi.index = IndexFactory.loadUniqueIndex(PAGE_TYPE.FIELD_INDEX, file, fi.page);
+				} else {
+					fi.index = IndexFactory.loadIndex(PAGE_TYPE.FIELD_INDEX, file, fi.page);
+				}
+			}
+			return fi.index;
+		}
+
+		private PagedStringIndex loadStringIndex(FieldIndex fi) {
+			if (fi.strIndex == null) {
+				fi.strIndex = PagedStringIndex.loadIndex(file, fi.page);
+			}
+			return fi.strIndex;
+		}
+
+		private void clearIndex(FieldIndex fi) {
+			if (fi.fType == FTYPE.STRING_EXACT) {
+				loadStringIndex(fi).clear();
+			} else {
+				loadIndex(fi).clear();
+			}
+		}
+
+		private List<Integer> debugPageIds(FieldIndex fi) {
+			if (fi.fType == FTYPE.STRING_EXACT) {
+				return loadStringIndex(fi).debugPageIds();
+			}
+			return loadIndex(fi).debugPageIds();
+		}
+
+		/**
+		 * Define a composite index. The index is never unique, because the keys of several
+		 * fields may be compressed into a single key.
+		 * @param fields The indexed fields, in order of significance
+		 * @return The new index
+		 */
+		public LongLongIndex defineCompositeIndex(ZooFieldDef[] fields) {
+			long[] fieldIds = new long[fields.length];
+			FTYPE[] fTypes = new FTYPE[fields.length];
+			for (int i = 0; i < fields.length; i++) {
+				fieldIds[i] = fields[i].getFieldSchemaId();
+				fTypes[i] = FTYPE.fromType(fields[i]);
+			}
+			if (findCompositeIndex(fieldIds) != null) {
+				throw new IllegalArgumentException(
+						"Index is already defined: " + Arrays.toString(fieldIds));
+			}
+			CompositeIndex ci = new CompositeIndex();
+			ci.fieldIds = fieldIds;
+			ci.fTypes = fTypes;
+			ci.index = IndexFactory.createIndex(PAGE_TYPE.FIELD_INDEX, file);
+			compositeIndices.add(ci);
+			markRefreshRequired();
+			return ci.index;
+		}
+
+		public boolean removeCompositeIndex(long[] fieldIds) {
+			CompositeIndex ci = findCompositeIndex(fieldIds);
+			if (ci == null) {
+				return false;
+			}
+			compositeIndices.remove(ci);
+			loadCompositeIndex(ci).clear();
+			//the index directory has to be written even if no other index changed
+			markDirty();
+			markRefreshRequired();
+			return true;
+		}
+
+		/**
+		 * @param fieldIds The schema IDs of the indexed fields, in order of significance
+		 * @return The composite index or {@code null} if no such index exists.
+		 */
+		public synchronized LongLongIndex getCompositeIndex(long[] fieldIds) {
+			CompositeIndex ci = findCompositeIndex(fieldIds);
+			return ci == null ? null : loadCompositeIndex(ci);
+		}
+
+		/**
+		 * @return The schema IDs of the fields of all composite indices.
+		 */
+		public ArrayList<long[]> getCompositeIndexFieldIds() {
+			ArrayList<long[]> ret = new ArrayList<long[]>();
+			for (CompositeIndex ci: compositeIndices) {
+				ret.add(ci.fieldIds);
+			}
+			return ret;
+		}
+
+		private CompositeIndex findCompositeIndex(long[] fieldIds) {
+			for (CompositeIndex ci: compositeIndices) {
+				if (Arrays.equals(ci.fieldIds, fieldIds)) {
+					return ci;
 				}
 			}
 			return null;
 		}
 
+		private LongLongIndex loadCompositeIndex(CompositeIndex ci) {
+			if (ci.index == null) {
+				ci.index = IndexFactory.loadIndex(PAGE_TYPE.FIELD_INDEX, file, ci.page);
+			}
+			return ci.index;
+		}
+
 		public ArrayList<LongLongIndex> getIndices() {
 			ArrayList<LongLongIndex> indices = new ArrayList<LongLongIndex>();
 			for (FieldIndex fi: fieldIndices) {
-				indices.add(fi.index);
+				if (fi.fType != FTYPE.STRING_EXACT) {
+					indices.add(loadIndex(fi));
+				}
+			}
+			for (CompositeIndex ci: compositeIndices) {
+				indices.add(loadCompositeIndex(ci));
 			}
 			return indices;
 		}
@@ -309,7 +530,10 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 		public ArrayList<AbstractPagedIndex> clearIndices() {
 			ArrayList<AbstractPagedIndex> indices = new ArrayList<AbstractPagedIndex>();
 			for (FieldIndex fi: fieldIndices) {
-				fi.index.clear();
+				clearIndex(fi);
+			}
+			for (CompositeIndex ci: compositeIndices) {
+				loadCompositeIndex(ci).clear();
 			}
 			return indices;
 		}
@@ -335,6 +559,16 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 					fi.page = fi.index.write();
 					dirty = true;
 				}
+				if (fi.strIndex != null && fi.strIndex.isDirty()) {
+					fi.page = fi.strIndex.write();
+					dirty = true;
+				}
+			}
+			for (CompositeIndex ci: compositeIndices) {
+				if (ci.index != null && ci.index.isDirty()) {
+					ci.page = ci.index.write();
+					dirty = true;
+				}
 			}
 			return dirty;
 		}
@@ -354,24 +588,37 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
                     fi.fieldId = op.getFieldId();
                     fi.fType = FTYPE.fromType(field);
                     fi.isUnique = field.isIndexUnique();
-                    if (fi.isUnique && !field.isString()) {
-                        fi.index = IndexFactory.createUniqueIndex(PAGE_TYPE.FIELD_INDEX, file);
-                    } else {
-                        fi.index = IndexFactory.createIndex(PAGE_TYPE.FIELD_INDEX, file);
-                    }
+                    createIndex(fi, field);
                     fieldIndices.add(fi);
                 } else {
                     for (int i = 0; i < fieldIndices.size(); i++) {
                         if (fieldIndices.get(i).fieldId == op.getFieldId()) {
                             FieldIndex fi = fieldIndices.remove(i);
-                            fi.index.clear();
+                            clearIndex(fi);
                         }
                     }
                 }
             }
+            //remove composite indexes for deleted fields
+            for (int i = compositeIndices.size() - 1; i >= 0; i--) {
+                CompositeIndex ci = compositeIndices.get(i);
+                if (ZooCompositeIndexDef.locateFields(defNew, ci.fieldIds) == null) {
+                    compositeIndices.remove(i);
+                    loadCompositeIndex(ci).clear();
+                }
+            }
         }
         
-        public PagedPosIndex getObjectIndexVersion(int version) {
+        /**
+         * @param version The schema version
+         * @return The pos-index of the given schema version.
+         * @throws IllegalStateException if the index has been dropped, callers have to check 
+         * {@link #isObjectIndexVersionDropped(int)} first.
+         */
+        public synchronized PagedPosIndex getObjectIndexVersion(int version) {
+            if (isObjectIndexVersionDropped(version)) {
+                throw new IllegalStateException("Pos-index has been dropped: version=" + version);
+            }
             // lazy loading
             if (objIndex[version] == null) {
                 objIndex[version] = PagedPosIndex.loadIndex(file, objIndexPages[version]);
@@ -379,9 +626,76 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
             return objIndex[version];
         }
 
+        /**
+         * Java objects of evolved classes are converted when they are loaded, but they are
+         * written with the latest schema version. This looks up the version that the object
+         * is actually stored with.
+         * @param version The expected schema version
+         * @param pos The current position of the object
+         * @return The pos-index that contains the position.
+         */
+        public synchronized PagedPosIndex getObjectIndexForPos(int version, long pos) {
+            for (int v = version; v >= 0; v--) {
+                if (!isObjectIndexVersionDropped(v) && getObjectIndexVersion(v).containsPos(pos)) {
+                    return getObjectIndexVersion(v);
+                }
+            }
+            //not found, fall back to the expected version
+            return isObjectIndexVersionDropped(version) ? 
+                    getObjectIndexLatestSchemaVersion() : getObjectIndexVersion(version);
+        }
+
         public int getObjectIndexVersionCount() {
             return objIndex.length;
         }
+
+        /**
+         * Pos-indices of outdated schema versions are dropped once they contain no more 
+         * objects, see {@link #dropEmptyObjectIndexVersions()}. 
+         * @param version The schema version
+         * @return Whether the pos-index of the given schema version has been dropped.
+         */
+        public synchronized boolean isObjectIndexVersionDropped(int version) {
+            return objIndex[version] == null && objIndexPages[version] == 0;
+        }
+
+        /**
+         * This iterates over the pos-indices of all outdated schema versions.
+         * @return The number of objects that are stored with an outdated schema version.
+         */
+        public long countOutdatedInstances() {
+            long n = 0;
+            for (int i = 0; i < getObjectIndexVersionCount()-1; i++) {
+                if (!isObjectIndexVersionDropped(i)) {
+                    n += getObjectIndexVersion(i).size();
+                }
+            }
+            return n;
+        }
+
+        /**
+         * Drop the pos-indices of outdated schema versions that contain no more objects, for
+         * example after all objects have been migrated to the latest schema version. 
+         * Only indices that are already loaded are checked.
+         * @return Whether any indices were dropped.
+         */
+        synchronized boolean dropEmptyObjectIndexVersions() {
+            boolean dropped = false;
+            for (int i = 0; i < objIndex.length-1; i++) {
+                PagedPosIndex oi = objIndex[i];
+                if (oi == null || !oi.isEmpty()) {
+                    continue;
+                }
+                if (objIndexPages[i] != 0) {
+                    //report pages to FSM, unless the index has never been written
+                    oi.clear();
+                }
+                objIndex[i] = null;
+                objIndexPages[i] = 0;
+                dropped = true;
+            }
+            return dropped;
+        }
 	}
 
 	public SchemaIndex(StorageChannel file, int indexPage1, boolean isNew) {
@@ -418,6 +732,9 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 		
 		//write the indices
 		for (SchemaIndexEntry e: schemaIndex.values()) {
+			if (e.dropEmptyObjectIndexVersions()) {
+				markDirty();
+			}
 		    //for (PagedPosIndex oi: e.objIndex) {
 		    for (int i = 0; i < e.objIndex.length; i++) {
 		        PagedPosIndex oi = e.objIndex[i];
@@ -511,11 +828,24 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 		//and check for indices
 		//TODO maybe we do not need this for a refresh...
 		for (ZooFieldDef f: def.getAllFields()) {
-			if (e.getIndex(f) != null) {
+			if (e.hasIndex(f)) {
 				f.setIndexed(true);
 				f.setUnique(e.isUnique(f));
 			}
 		}
+		associateCompositeIndices(def, e);
+	}
+	
+	private static void associateCompositeIndices(ZooClassDef def, SchemaIndexEntry se) {
+		List<ZooCompositeIndexDef> list = def.getLocalCompositeIndices();
+		list.clear();
+		for (long[] fieldIds: se.getCompositeIndexFieldIds()) {
+			ZooFieldDef[] fields = ZooCompositeIndexDef.locateFields(def, fieldIds);
+			//older schema versions may not have all fields
+			if (fields != null) {
+				list.add(new ZooCompositeIndexDef(def, fields));
+			}
+		}
 	}
 
 	
@@ -550,7 +880,7 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 			//and check for indices
 			SchemaIndexEntry se = getSchema(def);
 			for (ZooFieldDef f: def.getAllFields()) {
-				if (se.getIndex(f) != null) {
+				if (se.hasIndex(f)) {
 					f.setIndexed(true);
 					f.setUnique(se.isUnique(f));
 				}
@@ -558,6 +888,7 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 					f.setType(ret.get(f.getTypeOID()));
 				}
 			}
+			associateCompositeIndices(def, se);
 		}
 
 		//build proxy structure
@@ -599,7 +930,10 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 		
 		//field indices
 		for (FieldIndex fi: entry.fieldIndices) {
-			fi.index.clear();
+			entry.clearIndex(fi);
+		}
+		for (CompositeIndex ci: entry.compositeIndices) {
+			entry.loadCompositeIndex(ci).clear();
 		}
 		
 		//pos index
@@ -623,7 +957,10 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 	    ArrayList<Integer> ret = new ArrayList<Integer>();
         for (SchemaIndexEntry e: schemaIndex.values()) {
             for (FieldIndex fi: e.fieldIndices) {
-                ret.addAll(fi.index.debugPageIds());
+                ret.addAll(e.debugPageIds(fi));
+            }
+            for (CompositeIndex ci: e.compositeIndices) {
+                ret.addAll(e.loadCompositeIndex(ci).debugPageIds());
             }
         }
         return ret;
@@ -649,6 +986,9 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 		SchemaIndexEntry entry = getSchema(def.getSchemaId());
 		long n = 0;
         for (int i = 0; i < entry.getObjectIndexVersionCount(); i++) {
+        	if (entry.isObjectIndexVersionDropped(i)) {
+        		continue;
+        	}
         	PagedPosIndex objInd = entry.getObjectIndexVersion(i);
         	n += objInd.size();
         }
@@ -660,6 +1000,16 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 		return n;
 	}
 
+	/**
+	 * @param def The class
+	 * @return The number of instances of the class (without sub-classes) that are stored with
+	 * an outdated schema version.
+	 */
+	public long countOutdatedInstances(ZooClassProxy def) {
+		SchemaIndexEntry entry = getSchema(def.getSchemaId());
+		return entry == null ? 0 : entry.countOutdatedInstances();
+	}
+
 	public void notifyOverflowRead(int currentPage) {
 		pageIDs.add(currentPage);
 	}
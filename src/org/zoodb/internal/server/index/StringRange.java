@@ -0,0 +1,233 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.internal.server.index;
+
+/**
+ * An immutable range of String values, as used for lookups in a {@link PagedStringIndex}.
+ *
+ * As in queries, 'null' is smaller than any other String. A range without lower bound
+ * therefore includes 'null', a range with a lower bound or a prefix does not.
+ *
+ * @author Tilmann Zaeschke
+ */
+public final class StringRange {
+
+	private static final StringRange ALL =
+			new StringRange(null, true, null, true, null, false, false);
+	private static final StringRange NULL =
+			new StringRange(null, true, null, true, null, true, false);
+	private static final StringRange EMPTY =
+			new StringRange(null, true, null, true, null, false, true);
+
+	//lower bound, 'null' if there is none
+	private final String min;
+	private final boolean minInclusive;
+	//upper bound, 'null' if there is none
+	private final String max;
+	private final boolean maxInclusive;
+	//required prefix, or 'null'
+	private final String prefix;
+	private final boolean isNullOnly;
+	private final boolean isEmpty;
+
+	private StringRange(String min, boolean minInclusive, String max, boolean maxInclusive,
+			String prefix, boolean isNullOnly, boolean isEmpty) {
+		this.min = min;
+		this.minInclusive = minInclusive;
+		this.max = max;
+		this.maxInclusive = maxInclusive;
+		this.prefix = prefix;
+		this.isNullOnly = isNullOnly;
+		this.isEmpty = isEmpty;
+	}
+
+	/**
+	 * @return A range that contains all values, including 'null'.
+	 */
+	public static StringRange all() {
+		return ALL;
+	}
+
+	/**
+	 * @return A range that contains only 'null'.
+	 */
+	public static StringRange isNull() {
+		return NULL;
+	}
+
+	/**
+	 * @param s A String value, may be 'null'
+	 * @return A range that contains only the given value.
+	 */
+	public static StringRange equal(String s) {
+		return all().withEqual(s);
+	}
+
+	/**
+	 * @param s A String value, may be 'null'
+	 * @return The intersection of this range and the given value.
+	 */
+	public StringRange withEqual(String s) {
+		if (s == null) {
+			return withNull();
+		}
+		return withMin(s, true).withMax(s, true);
+	}
+
+	/**
+	 * @return The intersection of this range and 'null'.
+	 */
+	public StringRange withNull() {
+		if (isEmpty || min != null || prefix != null) {
+			return EMPTY;
+		}
+		return NULL;
+	}
+
+	/**
+	 * @param s The lower bound
+	 * @param inclusive Whether the bound is inclusive
+	 * @return The intersection of this range and all values above the bound.
+	 */
+	public StringRange withMin(String s, boolean inclusive) {
+		if (isEmpty || isNullOnly) {
+			return EMPTY;
+		}
+		if (min != null) {
+			int c = s.compareTo(min);
+			if (c < 0 || (c == 0 && (inclusive || !minInclusive))) {
+				return this;
+			}
+		}
+		return create(s, inclusive, max, maxInclusive, prefix);
+	}
+
+	/**
+	 * @param s The upper bound
+	 * @param inclusive Whether the bound is inclusive
+	 * @return The intersection of this range and all values below the bound.
+	 */
+	public StringRange withMax(String s, boolean inclusive) {
+		if (isEmpty || isNullOnly) {
+			return this;
+		}
+		if (max != null) {
+			int c = s.compareTo(max);
+			if (c > 0 || (c == 0 && (inclusive || !maxInclusive))) {
+				return this;
+			}
+		}
+		return create(min, minInclusive, s, inclusive, prefix);
+	}
+
+	/**
+	 * @param p The prefix
+	 * @return The intersection of this range and all values that start with the prefix.
+	 */
+	public StringRange withPrefix(String p) {
+		if (isEmpty || isNullOnly) {
+			return EMPTY;
+		}
+		if (prefix != null) {
+			if (prefix.startsWith(p)) {
+				return this;
+			}
+			if (!p.startsWith(prefix)) {
+				return EMPTY;
+			}
+		}
+		return create(min, minInclusive, max, maxInclusive, p);
+	}
+
+	private static StringRange create(String min, boolean minInclusive, String max,
+			boolean maxInclusive, String prefix) {
+		if (min != null && max != null) {
+			int c = min.compareTo(max);
+			if (c > 0 || (c == 0 && !(minInclusive && maxInclusive))) {
+				return EMPTY;
+			}
+		}
+		if (prefix != null) {
+			if (max != null && max.compareTo(prefix) < 0) {
+				return EMPTY;
+			}
+			if (min != null && min.compareTo(prefix) > 0 && !min.startsWith(prefix)) {
+				return EMPTY;
+			}
+		}
+		return new StringRange(min, minInclusive, max, maxInclusive, prefix, false, false);
+	}
+
+	/**
+	 * @return The lower bound or 'null' if there is no lower bound.
+	 */
+	public String getMin() {
+		return min;
+	}
+
+	public boolean isMinInclusive() {
+		return minInclusive;
+	}
+
+	/**
+	 * @return The upper bound or 'null' if there is no upper bound.
+	 */
+	public String getMax() {
+		return max;
+	}
+
+	public boolean isMaxInclusive() {
+		return maxInclusive;
+	}
+
+	/**
+	 * @return The required prefix or 'null' if there is none.
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * @return Whether the range contains only 'null'.
+	 */
+	public boolean isNullOnly() {
+		return isNullOnly;
+	}
+
+	/**
+	 * @return Whether the range contains no values at all.
+	 */
+	public boolean isEmpty() {
+		return isEmpty;
+	}
+
+	@Override
+	public String toString() {
+		if (isEmpty) {
+			return "[]";
+		}
+		if (isNullOnly) {
+			return "[null]";
+		}
+		return (minInclusive ? "[" : "(") + min + ", " + max + (maxInclusive ? "]" : ")") +
+				(prefix != null ? " prefix=" + prefix : "");
+	}
+}
@@ -93,6 +93,11 @@ public class ClosableIteratorWrapper<E> implements CloseableIterator<E> {
 	@Override
 	public void close() {
 		isClosed = true;
+		if (current instanceof CloseableIterator) {
+			//e.g. lazy query results
+			((CloseableIterator<E>)current).close();
+		}
+		current = null;
 		if (registry != null) {
 		    registry.deregisterResource(this);
 		}
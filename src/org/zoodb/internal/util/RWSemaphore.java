@@ -20,79 +20,90 @@
  */
 package org.zoodb.internal.util;
 
-import java.util.concurrent.Semaphore;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
+/**
+ * A read-write lock where locks are identified by keys rather than by threads. This allows
+ * locks to be released by a different thread than the one that acquired it.
+ * 
+ * Multiple keys can hold a read-lock concurrently, at most {@link #MAX_READERS}. 
+ * A write-lock is exclusive, with one exception: read-locks that were acquired by the
+ * thread that requests the write-lock are ignored. A single thread can not read and write
+ * at the same time, so this is safe, and it allows a thread to run multiple interleaved 
+ * sessions without dead-locking itself.
+ * 
+ * Waiting writers have precedence over new readers.
+ *
+ * @param <T> The key type
+ */
 public class RWSemaphore<T> {
 
-	public static final int MAX_READERS = 16;
+	public static final int MAX_READERS = 64;
 	private final T NO_KEY = null;
 	
-	private final Semaphore rSemaphore;
-	private final Semaphore wSemaphore;
+	private final Map<T, Thread> readers = new IdentityHashMap<>();
 	private T currentWriterKey = NO_KEY;
+	private Thread currentWriterThread = null;
 	
-	public RWSemaphore() {
-		rSemaphore = new Semaphore(MAX_READERS, false);
-		wSemaphore = new Semaphore(1, false);
-	}
-	
-	public void readLock(T key) {
+	public synchronized void readLock(T key) {
+		Thread t = Thread.currentThread();
 		try {
-			wSemaphore.acquire();
-			rSemaphore.acquire();
+			while ((currentWriterKey != NO_KEY && currentWriterThread != t) 
+					|| readers.size() >= MAX_READERS) {
+				wait();
+			}
 		} catch (InterruptedException e) {
 			throw new RuntimeException(e);
-		} finally {
-			wSemaphore.release();
 		}
+		readers.put(key, t);
 	}
 	
-	public void writeLock(T key) {
-		//ensure that there is no writer yet
+	public synchronized void writeLock(T key) {
+		Thread t = Thread.currentThread();
 		try {
-			wSemaphore.acquire();
-			if (currentWriterKey != NO_KEY) {
-				throw new IllegalStateException();
+			//ensure that there is no writer yet
+			while (currentWriterKey != NO_KEY) {
+				wait();
 			}
-			//wait for other readers to finish
-			rSemaphore.acquire(MAX_READERS);
-			rSemaphore.release(MAX_READERS);
+			//block new readers
 			currentWriterKey = key;
+			currentWriterThread = t;
+			//wait for other readers to finish
+			while (hasReadersOfOtherThreads(t)) {
+				wait();
+			}
 		} catch (InterruptedException e) {
+			if (currentWriterKey == key) {
+				currentWriterKey = NO_KEY;
+				currentWriterThread = null;
+				notifyAll();
+			}
 			throw new RuntimeException(e);
 		}
 	}
 	
-	private void releaseRead(T key) {
-		if (rSemaphore.availablePermits() == MAX_READERS) {
-			// i.e. there are no locks left to be released.
-			throw new IllegalStateException(); 
-//			new IllegalStateException().printStackTrace();
-//			return;
-		}
-		rSemaphore.release();
-	}
-	
-	private void releaseWrite(T key) {
-		if (currentWriterKey != key) {
-			//throw 
-			new IllegalStateException().printStackTrace();
-			return;
+	private boolean hasReadersOfOtherThreads(Thread t) {
+		for (Thread r: readers.values()) {
+			if (r != t) {
+				return true;
+			}
 		}
-		currentWriterKey = NO_KEY;
-		wSemaphore.release();
+		return false;
 	}
 	
-	public void release(T key) {
-		if (currentWriterKey == key) {
-			releaseWrite(key);
-		} else {
-			releaseRead(key);
+	public synchronized void release(T key) {
+		if (key != NO_KEY && currentWriterKey == key) {
+			currentWriterKey = NO_KEY;
+			currentWriterThread = null;
+		} else if (readers.remove(key) == null) {
+			// i.e. there are no locks left to be released.
+			throw new IllegalStateException(); 
 		}
+		notifyAll();
 	}
 
-	public boolean isLocked() {
-		return rSemaphore.availablePermits() < MAX_READERS || wSemaphore.availablePermits() < 1 ;
+	public synchronized boolean isLocked() {
+		return !readers.isEmpty() || currentWriterKey != NO_KEY;
 	}
-	
 }
@@ -29,6 +29,7 @@ import javax.jdo.JDOUserException;
 import javax.jdo.PersistenceManager;
 
 import org.zoodb.api.impl.ZooPC;
+import org.zoodb.internal.ObjectFilter;
 import org.zoodb.internal.Session;
 import org.zoodb.internal.SessionConfig;
 import org.zoodb.internal.util.ClosableIteratorWrapper;
@@ -85,6 +86,16 @@ public class ExtentImpl<T> implements Extent<T> {
      */
     @Override
 	public Iterator<T> iterator() {
+    	return iterator(null);
+    }
+    
+    /**
+     * @param filter Filter that is evaluated on stored objects before they are loaded, 
+     * may be {@code null}. Objects that are rejected by the filter are not returned, 
+     * other objects still need to be checked against the filter by the caller.
+     * @return An iterator over the extent
+     */
+	Iterator<T> iterator(ObjectFilter filter) {
 		Session.LOGGER.info("extent.iterator() on class: {}", extClass);
     	if (isDummyExtent || 
     			(!pm.currentTransaction().isActive() && 
@@ -97,7 +108,7 @@ public class ExtentImpl<T> implements Extent<T> {
     		@SuppressWarnings("unchecked")
 	    	SynchronizedROIterator<T> it = new SynchronizedROIterator<T>(
 	    			(CloseableIterator<T>) pm.getSession().loadAllInstances(
-	    		        extClass, subclasses, !ignoreCache), pm.getSession().getLock());
+	    		        extClass, subclasses, !ignoreCache, filter), pm.getSession().getLock());
 	    	allIterators.add(it);
 	    	return it;
     	} finally {
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.jdo.impl;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jdo.FetchGroup;
+import javax.jdo.JDOUserException;
+
+import org.zoodb.api.impl.ZooPC;
+
+/**
+ * Fetch group implementation. A fetch group is a named set of fields of a class.
+ * Categories are expanded into their fields when they are added.
+ *
+ * ZooDB always loads all fields of an object, fetch groups only determine which references
+ * are followed when objects are loaded. The recursion depth of members is stored, but
+ * loading is only limited by the maximum fetch depth of the fetch plan.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class FetchGroupImpl implements FetchGroup, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Counts modifications of fetch groups and their registration in PM or PMF. */
+	private static final AtomicInteger MOD_COUNT = new AtomicInteger();
+
+	private final Class<?> type;
+	private final String name;
+	private final HashSet<String> members = new HashSet<String>();
+	private final HashMap<String, Integer> recursionDepths = new HashMap<String, Integer>();
+	private boolean postLoad;
+	private boolean isUnmodifiable = false;
+
+	/**
+	 * Create an empty fetch group. This can also serve as key for looking up fetch groups.
+	 * @param type The class
+	 * @param name The name
+	 */
+	FetchGroupImpl(Class<?> type, String name) {
+		if (type == null || name == null) {
+			throw new JDOUserException("Class and name of fetch group must not be null.");
+		}
+		this.type = type;
+		this.name = name;
+		this.postLoad = DEFAULT.equals(name);
+	}
+
+	/**
+	 * Create a new fetch group. The fetch groups "default" and "all" are populated with
+	 * the fields of their category.
+	 * @param type The class
+	 * @param name The name
+	 * @return The new fetch group
+	 */
+	static FetchGroupImpl create(Class<?> type, String name) {
+		FetchGroupImpl fg = new FetchGroupImpl(type, name);
+		if (DEFAULT.equals(name) || ALL.equals(name)) {
+			fg.addCategoryInternal(name);
+		}
+		return fg;
+	}
+
+	/**
+	 * Create a modifiable copy of a fetch group.
+	 * @param fg The original fetch group
+	 */
+	FetchGroupImpl(FetchGroupImpl fg) {
+		this.type = fg.type;
+		this.name = fg.name;
+		this.postLoad = fg.postLoad;
+		this.members.addAll(fg.members);
+		this.recursionDepths.putAll(fg.recursionDepths);
+	}
+
+	private void checkModifiable() {
+		if (isUnmodifiable) {
+			throw new JDOUserException("The fetch group is unmodifiable: " + this);
+		}
+		modified();
+	}
+
+	/**
+	 * Invalidate fields that fetch plans have resolved from fetch groups.
+	 */
+	static void modified() {
+		MOD_COUNT.incrementAndGet();
+	}
+
+	static int getModCount() {
+		return MOD_COUNT.get();
+	}
+
+	private Field getField(String memberName) {
+		for (Class<?> c = type; c != null && c != ZooPC.class && c != Object.class;
+				c = c.getSuperclass()) {
+			for (Field f: c.getDeclaredFields()) {
+				if (f.getName().equals(memberName) && isPersistent(f)) {
+					return f;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static boolean isPersistent(Field f) {
+		int mod = f.getModifiers();
+		return !Modifier.isStatic(mod) && !Modifier.isTransient(mod);
+	}
+
+	private static boolean isBasic(Class<?> t) {
+		return t.isPrimitive() || t == String.class || t == Boolean.class ||
+				t == Character.class || Number.class.isAssignableFrom(t) ||
+				Date.class.isAssignableFrom(t) || t.isEnum();
+	}
+
+	private static boolean isMultiValued(Class<?> t) {
+		return t.isArray() || Collection.class.isAssignableFrom(t) ||
+				Map.class.isAssignableFrom(t);
+	}
+
+	private static boolean isInCategory(Field f, String categoryName) {
+		Class<?> t = f.getType();
+		if (ALL.equals(categoryName)) {
+			return true;
+		} else if (BASIC.equals(categoryName) || DEFAULT.equals(categoryName)) {
+			return isBasic(t);
+		} else if (MULTIVALUED.equals(categoryName)) {
+			return isMultiValued(t);
+		} else if (RELATIONSHIP.equals(categoryName)) {
+			return !isBasic(t);
+		}
+		throw new JDOUserException("Unknown category: " + categoryName);
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Class getType() {
+		return type;
+	}
+
+	@Override
+	public boolean getPostLoad() {
+		return postLoad;
+	}
+
+	@Override
+	public FetchGroup setPostLoad(boolean postLoad) {
+		checkModifiable();
+		this.postLoad = postLoad;
+		return this;
+	}
+
+	@Override
+	public FetchGroup addMember(String memberName) {
+		checkModifiable();
+		if (getField(memberName) == null) {
+			throw new JDOUserException("Field not found in " + type.getName() + ": " +
+					memberName);
+		}
+		members.add(memberName);
+		return this;
+	}
+
+	@Override
+	public FetchGroup addMembers(String... memberNames) {
+		for (String m: memberNames) {
+			addMember(m);
+		}
+		return this;
+	}
+
+	@Override
+	public FetchGroup removeMember(String memberName) {
+		checkModifiable();
+		if (!members.remove(memberName)) {
+			throw new JDOUserException("Member not found in fetch group: " + memberName);
+		}
+		recursionDepths.remove(memberName);
+		return this;
+	}
+
+	@Override
+	public FetchGroup removeMembers(String... memberNames) {
+		for (String m: memberNames) {
+			removeMember(m);
+		}
+		return this;
+	}
+
+	@Override
+	public FetchGroup addCategory(String categoryName) {
+		checkModifiable();
+		addCategoryInternal(categoryName);
+		return this;
+	}
+
+	private void addCategoryInternal(String categoryName) {
+		for (Class<?> c = type; c != null && c != ZooPC.class && c != Object.class;
+				c = c.getSuperclass()) {
+			for (Field f: c.getDeclaredFields()) {
+				if (isPersistent(f) && isInCategory(f, categoryName)) {
+					members.add(f.getName());
+				}
+			}
+		}
+	}
+
+	@Override
+	public FetchGroup removeCategory(String categoryName) {
+		checkModifiable();
+		for (Class<?> c = type; c != null && c != ZooPC.class && c != Object.class;
+				c = c.getSuperclass()) {
+			for (Field f: c.getDeclaredFields()) {
+				if (isPersistent(f) && isInCategory(f, categoryName)) {
+					members.remove(f.getName());
+					recursionDepths.remove(f.getName());
+				}
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public FetchGroup setRecursionDepth(String memberName, int recursionDepth) {
+		checkModifiable();
+		if (!members.contains(memberName)) {
+			throw new JDOUserException("Member not found in fetch group: " + memberName);
+		}
+		recursionDepths.put(memberName, recursionDepth);
+		return this;
+	}
+
+	@Override
+	public int getRecursionDepth(String memberName) {
+		if (!members.contains(memberName)) {
+			throw new JDOUserException("Member not found in fetch group: " + memberName);
+		}
+		Integer d = recursionDepths.get(memberName);
+		return d == null ? 1 : d;
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Set getMembers() {
+		return Collections.unmodifiableSet(new HashSet<String>(members));
+	}
+
+	Set<String> getMembersInternal() {
+		return members;
+	}
+
+	@Override
+	public FetchGroup setUnmodifiable() {
+		isUnmodifiable = true;
+		return this;
+	}
+
+	@Override
+	public boolean isUnmodifiable() {
+		return isUnmodifiable;
+	}
+
+	@Override
+	public int hashCode() {
+		return type.hashCode() * 31 + name.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof FetchGroup)) {
+			return false;
+		}
+		FetchGroup fg = (FetchGroup) obj;
+		return type == fg.getType() && name.equals(fg.getName());
+	}
+
+	@Override
+	public String toString() {
+		return "FetchGroup(" + type.getName() + ", " + name + ")" + members;
+	}
+}
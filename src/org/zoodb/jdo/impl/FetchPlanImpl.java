@@ -20,142 +20,253 @@
  */
 package org.zoodb.jdo.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import javax.jdo.FetchPlan;
+import javax.jdo.JDOUserException;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.zoodb.internal.ReferencePrefetcher;
+import org.zoodb.internal.ZooClassDef;
+import org.zoodb.internal.ZooFieldDef;
+import org.zoodb.internal.ZooFieldDef.JdoType;
 
-public class FetchPlanImpl implements FetchPlan {
+/**
+ * Fetch plan implementation. 
+ * 
+ * ZooDB always loads all fields of an object. The fetch plan determines which referenced 
+ * objects are loaded together with an object: Fields that are in one of the active fetch 
+ * groups are followed up to the maximum fetch depth, see {@link ReferencePrefetcher}.
+ * With the default fetch group only, no references are followed.
+ * 
+ * Fetch groups are resolved by name and class, first in the scope of the 
+ * PersistenceManager, then in the scope of the PersistenceManagerFactory. Fetch groups of
+ * super classes apply to sub classes.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class FetchPlanImpl implements FetchPlan, ReferencePrefetcher.FieldSelector {
+
+	private final PersistenceManagerImpl pm;
+	private final ReferencePrefetcher prefetcher;
+	private final LinkedHashSet<String> groups = new LinkedHashSet<String>();
+	private int maxFetchDepth = 1;
+	private int fetchSize = FETCH_SIZE_OPTIMAL;
+	private int detachmentOptions = DETACH_LOAD_FIELDS;
+	private Collection<?> detachmentRoots = Collections.emptyList();
+	private Class<?>[] detachmentRootClasses = new Class<?>[0];
+	//selected fields per class, invalidated when the groups change
+	private final IdentityHashMap<ZooClassDef, ZooFieldDef[]> fieldCache = 
+			new IdentityHashMap<ZooClassDef, ZooFieldDef[]>();
+	private int fieldCacheModCount = -1;
 
-	public static final Logger LOGGER = LoggerFactory.getLogger(FetchPlan.class);
+	FetchPlanImpl(PersistenceManagerImpl pm, ReferencePrefetcher prefetcher) {
+		this.pm = pm;
+		this.prefetcher = prefetcher;
+		groups.add(DEFAULT);
+		update();
+	}
+
+	/**
+	 * Create a copy of a fetch plan with a new prefetcher, for example for queries.
+	 * @param plan The original plan
+	 */
+	FetchPlanImpl(FetchPlanImpl plan) {
+		this.pm = plan.pm;
+		this.prefetcher = new ReferencePrefetcher(pm.getSession());
+		this.groups.addAll(plan.groups);
+		this.maxFetchDepth = plan.maxFetchDepth;
+		this.fetchSize = plan.fetchSize;
+		this.detachmentOptions = plan.detachmentOptions;
+		this.detachmentRoots = plan.detachmentRoots;
+		this.detachmentRootClasses = plan.detachmentRootClasses;
+		update();
+	}
+
+	ReferencePrefetcher getPrefetcher() {
+		return prefetcher;
+	}
+
+	private void update() {
+		fieldCache.clear();
+		prefetcher.setMaxDepth(maxFetchDepth);
+		prefetcher.setFieldSelector(groups.isEmpty() ? null : this);
+	}
+
+	@Override
+	public ZooFieldDef[] selectFields(ZooClassDef def) {
+		int modCount = FetchGroupImpl.getModCount();
+		if (modCount != fieldCacheModCount) {
+			fieldCache.clear();
+			fieldCacheModCount = modCount;
+		}
+		ZooFieldDef[] fields = fieldCache.get(def);
+		if (fields == null) {
+			fields = resolveFields(def);
+			fieldCache.put(def, fields);
+		}
+		return fields;
+	}
+
+	private ZooFieldDef[] resolveFields(ZooClassDef def) {
+		Class<?> cls = def.getJavaClass();
+		HashSet<String> names = new HashSet<String>();
+		boolean all = false;
+		for (String g: groups) {
+			boolean isDefined = false;
+			for (Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass()) {
+				FetchGroupImpl fg = pm.getActiveFetchGroup(c, g);
+				if (fg != null) {
+					isDefined = true;
+					names.addAll(fg.getMembersInternal());
+				}
+			}
+			if (!isDefined && ALL.equals(g)) {
+				all = true;
+			}
+		}
+		
+		ArrayList<ZooFieldDef> ret = new ArrayList<ZooFieldDef>();
+		for (ZooFieldDef f: def.getAllFields()) {
+			JdoType t = f.getJdoType();
+			if (t != JdoType.REFERENCE && t != JdoType.ARRAY && t != JdoType.SCO) {
+				//cannot reference other objects
+				continue;
+			}
+			if (all || names.contains(f.getName())) {
+				ret.add(f);
+			}
+		}
+		return ret.toArray(new ZooFieldDef[ret.size()]);
+	}
 
-	
 	@Override
 	public FetchPlan addGroup(String fetchGroupName) {
-		//TODO
-		LOGGER.warn("STUB FecthPlanImpl");
+		groups.add(fetchGroupName);
+		update();
 		return this;
 	}
 
 	@Override
 	public FetchPlan removeGroup(String fetchGroupName) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		groups.remove(fetchGroupName);
+		update();
+		return this;
 	}
 
 	@Override
 	public FetchPlan clearGroups() {
-		//TODO
-		LOGGER.warn("STUB FecthPlanImpl");
+		groups.clear();
+		update();
 		return this;
 	}
 
 	@SuppressWarnings("rawtypes")
 	@Override
 	public Set getGroups() {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		return Collections.unmodifiableSet(new HashSet<String>(groups));
 	}
 
-	@SuppressWarnings("rawtypes")
+	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@Override
 	public FetchPlan setGroups(Collection fetchGroupNames) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		groups.clear();
+		if (fetchGroupNames != null) {
+			groups.addAll(fetchGroupNames);
+		}
+		update();
+		return this;
 	}
 
 	@Override
 	public FetchPlan setGroups(String... fetchGroupNames) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		groups.clear();
+		if (fetchGroupNames != null) {
+			groups.addAll(Arrays.asList(fetchGroupNames));
+		}
+		update();
+		return this;
 	}
 
 	@Override
 	public FetchPlan setGroup(String fetchGroupName) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		groups.clear();
+		groups.add(fetchGroupName);
+		update();
+		return this;
 	}
 
 	@Override
 	public FetchPlan setMaxFetchDepth(int fetchDepth) {
-		//TODO
-		LOGGER.warn("STUB FecthPlanImpl");
+		if (fetchDepth == 0 || fetchDepth < ReferencePrefetcher.DEPTH_UNLIMITED) {
+			throw new JDOUserException("Illegal fetch depth: " + fetchDepth);
+		}
+		maxFetchDepth = fetchDepth;
+		update();
 		return this;
 	}
 
 	@Override
 	public int getMaxFetchDepth() {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return 0;
+		return maxFetchDepth;
 	}
 
 	@SuppressWarnings("rawtypes")
 	@Override
 	public FetchPlan setDetachmentRoots(Collection roots) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		detachmentRoots = roots == null ? Collections.emptyList() : 
+			Collections.unmodifiableList(new ArrayList<Object>((Collection<?>) roots));
+		return this;
 	}
 
 	@SuppressWarnings("rawtypes")
 	@Override
 	public Collection getDetachmentRoots() {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		return detachmentRoots;
 	}
 
 	@SuppressWarnings("rawtypes")
 	@Override
 	public FetchPlan setDetachmentRootClasses(Class... rootClasses) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		detachmentRootClasses = rootClasses == null ? new Class[0] : rootClasses.clone();
+		return this;
 	}
 
 	@SuppressWarnings("rawtypes")
 	@Override
 	public Class[] getDetachmentRootClasses() {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		return detachmentRootClasses.clone();
 	}
 
 	@Override
 	public FetchPlan setFetchSize(int fetchSize) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		if (fetchSize < FETCH_SIZE_GREEDY) {
+			throw new JDOUserException("Illegal fetch size: " + fetchSize);
+		}
+		this.fetchSize = fetchSize;
+		return this;
 	}
 
 	@Override
 	public int getFetchSize() {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return 0;
+		return fetchSize;
 	}
 
 	@Override
 	public FetchPlan setDetachmentOptions(int options) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		detachmentOptions = options;
+		return this;
 	}
 
 	@Override
 	public int getDetachmentOptions() {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return 0;
+		return detachmentOptions;
 	}
 
 }
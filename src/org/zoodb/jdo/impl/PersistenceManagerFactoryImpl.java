@@ -41,7 +41,9 @@ import javax.jdo.spi.JDOImplHelper;
 import javax.jdo.spi.StateInterrogation;
 
 import org.zoodb.api.impl.ZooPC;
+import org.zoodb.internal.query.QueryTreeCache;
 import org.zoodb.jdo.spi.ZooStateInterrogator;
+import org.zoodb.tools.ZooConfig;
 
 /**
  * This class simulates the JDO PersistenceManagerFactory
@@ -58,6 +60,11 @@ public class PersistenceManagerFactoryImpl
 	private static final StateInterrogation SI = new ZooStateInterrogator();
 	
 	private HashMap<InstanceLifecycleListener, List<Class<?>>> lcListeners = new HashMap<>(); 
+	//shared by all PMs, created on first use
+	private transient QueryTreeCache queryCache;
+	private transient boolean isQueryCacheInitialized = false;
+	//active fetch groups, shared by all PMs
+	private HashMap<FetchGroup, FetchGroupImpl> fetchGroups = new HashMap<>();
 	
     /**
      * @param props NOT SUPPORTED!
@@ -126,14 +133,25 @@ public class PersistenceManagerFactoryImpl
         PersistenceManagerFactoryImpl pmf = 
             (PersistenceManagerFactoryImpl) super.clone();
         pmf.pms = new HashSet<PersistenceManagerImpl>(); //do not clone _pm!
+        pmf.queryCache = null;
+        pmf.isQueryCacheInitialized = false;
+        pmf.fetchGroups = new HashMap<>(fetchGroups);
         return pmf;
     }
 
 	@Override
 	public void addFetchGroups(FetchGroup... arg0) {
 		checkOpen(); //? TZ
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		synchronized (fetchGroups) {
+			for (FetchGroup fg: arg0) {
+				if (!(fg instanceof FetchGroupImpl)) {
+					throw new JDOUserException("Fetch group not created by ZooDB: " + fg);
+				}
+				fg.setUnmodifiable();
+				fetchGroups.put(fg, (FetchGroupImpl) fg);
+			}
+			FetchGroupImpl.modified();
+		}
 	}
 
 	@SuppressWarnings("rawtypes")
@@ -234,15 +252,34 @@ public class PersistenceManagerFactoryImpl
 	@SuppressWarnings("rawtypes")
 	@Override
 	public FetchGroup getFetchGroup(Class arg0, String arg1) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		checkOpen();
+		FetchGroupImpl fg = getActiveFetchGroup(arg0, arg1);
+		if (fg != null) {
+			return new FetchGroupImpl(fg);
+		}
+		return FetchGroupImpl.create(arg0, arg1);
+	}
+
+	/**
+	 * @param cls The class
+	 * @param name The name of the fetch group
+	 * @return The active fetch group or {@code null} if there is no such group.
+	 */
+	FetchGroupImpl getActiveFetchGroup(Class<?> cls, String name) {
+		synchronized (fetchGroups) {
+			if (fetchGroups.isEmpty()) {
+				return null;
+			}
+			return fetchGroups.get(new FetchGroupImpl(cls, name));
+		}
 	}
 
 	@SuppressWarnings("rawtypes")
 	@Override
 	public Set getFetchGroups() {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		synchronized (fetchGroups) {
+			return new HashSet<FetchGroup>(fetchGroups.values());
+		}
 	}
 
 	@Override
@@ -312,15 +349,21 @@ public class PersistenceManagerFactoryImpl
 	@Override
 	public void removeAllFetchGroups() {
 		checkOpen(); //? TZ
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		synchronized (fetchGroups) {
+			fetchGroups.clear();
+			FetchGroupImpl.modified();
+		}
 	}
 
 	@Override
 	public void removeFetchGroups(FetchGroup... arg0) {
 		checkOpen(); //? TZ
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		synchronized (fetchGroups) {
+			for (FetchGroup fg: arg0) {
+				fetchGroups.remove(fg);
+			}
+			FetchGroupImpl.modified();
+		}
 	}
 
 	@Override
@@ -437,6 +480,19 @@ public class PersistenceManagerFactoryImpl
 		}
 	}
 
+	/**
+	 * 
+	 * @return The query cache, or {@code null} if query caching is disabled.
+	 */
+	synchronized QueryTreeCache getQueryTreeCache() {
+		if (!isQueryCacheInitialized) {
+			int size = ZooConfig.getQueryCacheSize();
+			queryCache = size > 0 ? new QueryTreeCache(size) : null;
+			isQueryCacheInitialized = true;
+		}
+		return queryCache;
+	}
+
 	void deRegister(PersistenceManagerImpl persistenceManagerImpl) {
 		synchronized (pms) {
 			pms.remove(persistenceManagerImpl);
@@ -24,6 +24,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -85,7 +86,10 @@ public class PersistenceManagerImpl implements PersistenceManager, SessionParent
     private final Session nativeConnection;
     private final SessionConfig cfg = new SessionConfig();
     
-    private final FetchPlan fetchplan = new FetchPlanImpl();
+    private final FetchPlanImpl fetchplan;
+    //fetch groups in the scope of this PM
+    private final HashMap<FetchGroup, FetchGroupImpl> fetchGroups = 
+    		new HashMap<FetchGroup, FetchGroupImpl>();
     
     /**
      * @param props
@@ -100,6 +104,7 @@ public class PersistenceManagerImpl implements PersistenceManager, SessionParent
         cfg.setNonTransactionalRead(factory.getNontransactionalRead());
     	nativeConnection = new Session(this, factory.getConnectionURL(), cfg);
     	nativeConnection.setMultithreaded(factory.getMultithreaded());
+    	fetchplan = new FetchPlanImpl(this, nativeConnection.getPrefetcher());
         transaction = new TransactionImpl(this, 
         		factory.getRetainValues(),
         		factory.getOptimistic(),
@@ -394,7 +399,14 @@ public class PersistenceManagerImpl implements PersistenceManager, SessionParent
     public Collection getObjectsById(Collection oids) {
     	DBTracer.logCall(this, oids);
         checkOpen();
-        throw new UnsupportedOperationException();
+        Object[] ret = nativeConnection.getObjectsById((Collection<?>) oids);
+        int i = 0;
+        for (Object oid: oids) {
+        	if (ret[i++] == null) {
+        		throw new JDOObjectNotFoundException("OID=" + Util.oidToString(oid));
+        	}
+        }
+        return Arrays.asList(ret);
     }
 
     /**
@@ -526,15 +538,38 @@ public class PersistenceManagerImpl implements PersistenceManager, SessionParent
 	public FetchGroup getFetchGroup(Class arg0, String arg1) {
     	DBTracer.logCall(this, arg0, arg1);
         checkOpen();
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+        FetchGroupImpl key = new FetchGroupImpl(arg0, arg1);
+        FetchGroupImpl fg = fetchGroups.get(key);
+        if (fg == null) {
+        	FetchGroupImpl pmfGroup = factory.getActiveFetchGroup(arg0, arg1);
+        	fg = pmfGroup != null ? new FetchGroupImpl(pmfGroup) : 
+        		FetchGroupImpl.create(arg0, arg1);
+        	fetchGroups.put(fg, fg);
+        	FetchGroupImpl.modified();
+        }
+        return fg;
+	}
+
+	/**
+	 * @param cls The class
+	 * @param name The name of the fetch group
+	 * @return The fetch group in the scope of this PM or of the PMF, or {@code null} if 
+	 * there is no such group.
+	 */
+	FetchGroupImpl getActiveFetchGroup(Class<?> cls, String name) {
+		if (!fetchGroups.isEmpty()) {
+			FetchGroupImpl fg = fetchGroups.get(new FetchGroupImpl(cls, name));
+			if (fg != null) {
+				return fg;
+			}
+		}
+		return factory.getActiveFetchGroup(cls, name);
 	}
 
 	@Override
 	public FetchPlan getFetchPlan() {
     	DBTracer.logCall(this);
         checkOpen();
-        LOGGER.warn("STUB PersistenceManagerImpl.getFetchPlan()");
         return fetchplan;
 	}
 
@@ -631,16 +666,15 @@ public class PersistenceManagerImpl implements PersistenceManager, SessionParent
 	public Object[] getObjectsById(Object[] arg0, boolean arg1) {
     	DBTracer.logCall(this, arg0, arg1);
         checkOpen();
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		//validate is ignored, see getObjectById(Object, boolean)
+		return getObjectsById(arg0);
 	}
 
 	@Override
 	public Object[] getObjectsById(boolean arg0, Object... arg1) {
     	DBTracer.logCall(this, arg0, arg1);
         checkOpen();
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		return getObjectsById(arg1);
 	}
 
 	@Override
@@ -957,16 +991,15 @@ public class PersistenceManagerImpl implements PersistenceManager, SessionParent
 	public void retrieve(Object arg0) {
     	DBTracer.logCall(this, arg0);
         checkOpen();
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		nativeConnection.retrieveAll(Arrays.asList(arg0));
 	}
 
 	@Override
 	public void retrieve(Object arg0, boolean arg1) {
     	DBTracer.logCall(this, arg0, arg1);
         checkOpen();
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		//All fields are loaded anyway
+		retrieve(arg0);
 	}
 
 	@SuppressWarnings("rawtypes")
@@ -974,16 +1007,14 @@ public class PersistenceManagerImpl implements PersistenceManager, SessionParent
 	public void retrieveAll(Collection arg0) {
     	DBTracer.logCall(this, arg0);
         checkOpen();
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		nativeConnection.retrieveAll(arg0);
 	}
 
 	@Override
 	public void retrieveAll(Object... arg0) {
     	DBTracer.logCall(this, arg0);
         checkOpen();
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		nativeConnection.retrieveAll(Arrays.asList(arg0));
 	}
 
 	@SuppressWarnings("rawtypes")
@@ -991,24 +1022,21 @@ public class PersistenceManagerImpl implements PersistenceManager, SessionParent
 	public void retrieveAll(Collection arg0, boolean arg1) {
     	DBTracer.logCall(this, arg0, arg1);
         checkOpen();
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		nativeConnection.retrieveAll(arg0);
 	}
 
 	@Override
 	public void retrieveAll(Object[] arg0, boolean arg1) {
     	DBTracer.logCall(this, arg0, arg1);
         checkOpen();
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		nativeConnection.retrieveAll(Arrays.asList(arg0));
 	}
 
 	@Override
 	public void retrieveAll(boolean arg0, Object... arg1) {
     	DBTracer.logCall(this, arg0, arg1);
         checkOpen();
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		nativeConnection.retrieveAll(Arrays.asList(arg1));
 	}
 
 	@Override
@@ -1053,8 +1081,7 @@ public class PersistenceManagerImpl implements PersistenceManager, SessionParent
 	public Collection getObjectsById(Collection arg0, boolean arg1) {
     	DBTracer.logCall(this, arg0, arg1);
         checkOpen();
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		return getObjectsById(arg0);
 	}
 	
 	/**
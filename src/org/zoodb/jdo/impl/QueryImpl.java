@@ -20,6 +20,8 @@
  */
 package org.zoodb.jdo.impl;
 
+import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -47,6 +49,7 @@ import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.client.session.ClientSessionCache;
 import org.zoodb.internal.query.QueryAdvice;
 import org.zoodb.internal.query.QueryComparator;
+import org.zoodb.internal.query.QueryIterator;
 import org.zoodb.internal.query.QueryMergingIterator;
 import org.zoodb.internal.query.QueryOptimizer;
 import org.zoodb.internal.query.QueryParameter;
@@ -54,13 +57,15 @@ import org.zoodb.internal.query.QueryParameter.DECLARATION;
 import org.zoodb.internal.query.QueryParser;
 import org.zoodb.internal.query.QueryParserV3;
 import org.zoodb.internal.query.QueryTerm;
+import org.zoodb.internal.query.QueryTreeCache;
+import org.zoodb.internal.query.QueryTreeCache.CompiledQuery;
 import org.zoodb.internal.query.QueryTreeIterator;
 import org.zoodb.internal.query.QueryTreeNode;
 import org.zoodb.internal.query.TypeConverterTools;
-import org.zoodb.internal.util.CloseableIterator;
 import org.zoodb.internal.util.DBLogger;
 import org.zoodb.internal.util.ObjectIdentitySet;
 import org.zoodb.internal.util.Pair;
+import org.zoodb.internal.util.PrimLongSetZ;
 import org.zoodb.internal.util.SynchronizedROCollection;
 import org.zoodb.tools.DBStatistics;
 import org.zoodb.tools.DBStatistics.STATS;
@@ -97,6 +102,9 @@ public class QueryImpl implements Query {
 	private Class<?> resultClass = null;
 	
 	private final ObjectIdentitySet<Object> queryResults = new ObjectIdentitySet<Object>();
+	//lazy results that still depend on the state of this query
+	private final ArrayList<WeakReference<StreamingQueryResult<?>>> streamingResults = 
+			new ArrayList<>();
 
 	private List<QueryParameter> parameters = new ArrayList<QueryParameter>();
 	
@@ -110,6 +118,8 @@ public class QueryImpl implements Query {
 	private QueryParameter rangeMaxParameter = null;
 	private String rangeStr = null;
 	
+	private transient FetchPlanImpl fetchPlan;
+	
 	@SuppressWarnings("rawtypes")
 	public QueryImpl(PersistenceManagerImpl pm, Extent ext, String filter) {
 		this(pm);
@@ -131,6 +141,7 @@ public class QueryImpl implements Query {
 		this.pm = pm;
 		ignoreCache = pm.getIgnoreCache();
 		pm.getSession().checkActiveRead();
+		fetchPlan = new FetchPlanImpl((FetchPlanImpl) pm.getFetchPlan());
 	}
 
 	/**
@@ -278,6 +289,12 @@ public class QueryImpl implements Query {
 			((ExtentAdaptor<?>)queryResult).closeAll();
 		} else if (queryResult instanceof ExtentImpl) {
 			((ExtentImpl<?>)queryResult).closeAll();
+		} else if (queryResult instanceof SynchronizedROCollection) {
+			try {
+				((SynchronizedROCollection<?>)queryResult).close();
+			} catch (IOException e) {
+				throw DBLogger.newFatal("Failed closing query result", e);
+			}
 		} else {
 			//TODO ignore this
 			LOGGER.warn("QueryResult not closable.");
@@ -322,6 +339,29 @@ public class QueryImpl implements Query {
 			pm.getSession().statsInc(DBStatistics.STATS.QU_COMPILED);
 		}
 		
+		QueryTreeCache cache = 
+				((PersistenceManagerFactoryImpl)pm.getPersistenceManagerFactory()).getQueryTreeCache();
+		String key = null;
+		if (cache != null) {
+			key = QueryTreeCache.createKey(candClsDef, fStr, rangeMin, rangeMax, parameters);
+			CompiledQuery cq = cache.get(key, pm.getSession());
+			if (cq != null) {
+				if (DBStatistics.isEnabled()) {
+					pm.getSession().statsInc(DBStatistics.STATS.QU_COMPILED_CACHE_HIT);
+				}
+				queryTree = cq.getQueryTree();
+				parameters.clear();
+				parameters.addAll(cq.getParameters());
+				ordering.clear();
+				ordering.addAll(cq.getOrdering());
+				rangeMin = cq.getRangeMin();
+				rangeMax = cq.getRangeMax();
+				rangeMinParameter = cq.getRangeMinParam();
+				rangeMaxParameter = cq.getRangeMaxParam();
+				return;
+			}
+		}
+		
 		//We do this on the query before assigning values to parameter.
 		//Would it make sense to assign the values first and then properly parse the query???
 		//Probably not: 
@@ -336,6 +376,10 @@ public class QueryImpl implements Query {
 		rangeMax = qp.getRangeMax();
 		rangeMinParameter = qp.getRangeMinParam();
 		rangeMaxParameter = qp.getRangeMaxParam();
+		if (cache != null) {
+			cache.put(key, pm.getSession(), new CompiledQuery(queryTree, parameters, ordering, 
+					rangeMin, rangeMax, rangeMinParameter, rangeMaxParameter));
+		}
 	}
 	
 	private void resetQuery() {
@@ -495,17 +539,54 @@ public class QueryImpl implements Query {
 		}
 	}
 	
+	/**
+	 * 
+	 * @param ret The result list
+	 * @param qa The query advice
+	 * @param accepted OIDs of objects that were already added to the result list, or 
+	 * {@code null}. Objects with these OIDs are skipped before they are loaded, newly 
+	 * added objects are added to the set. 
+	 */
+	private void applyQueryOnExtent(List<Object> ret, QueryAdvice qa, PrimLongSetZ accepted) {
+		QueryIterator<Object> it = createQueryIterator(qa, Long.MAX_VALUE, accepted);
+		while (it.hasNext()) {
+			Object o = it.next();
+			if (accepted == null || accepted.add(((ZooPC)o).jdoZooGetOid())) {
+				ret.add(o);
+			}
+		}
+		it.close();
+	}
+	
+	/**
+	 * Creates an iterator that evaluates the query lazily on the candidates of the given 
+	 * advice, i.e. on an index or on the extent.
+	 * @param qa The query advice
+	 * @param maxResults The maximum number of results
+	 * @return An iterator over the matching objects
+	 */
+	<E> QueryIterator<E> createQueryIterator(QueryAdvice qa, long maxResults) {
+		return createQueryIterator(qa, maxResults, null);
+	}
+	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
-	private void applyQueryOnExtent(List<Object> ret, QueryAdvice qa) {
-		QueryTreeNode queryTree = qa.getQuery();
+	private <E> QueryIterator<E> createQueryIterator(QueryAdvice qa, long maxResults, 
+			PrimLongSetZ exclude) {
 		Iterator<?> ext2;
-		if (!ignoreCache) {
-			ClientSessionCache cache = pm.getSession().internalGetCache();
-			cache.persistReachableObjects();
-		}
-		if (qa.getIndex() != null) {
-			ext2 = pm.getSession().getPrimaryNode().readObjectFromIndex(qa.getIndex(),
-					qa.getMin(), qa.getMax(), !ignoreCache);
+		if (qa.hasIndex()) {
+			Node node = pm.getSession().getPrimaryNode();
+			PrimLongSetZ include = intersectIndices(node, qa);
+			if (qa.getCompositeIndex() != null) {
+				ext2 = node.readObjectFromIndex(qa.getCompositeIndex(), qa.getMin(), 
+						qa.getMax(), qa.isAscending(), !ignoreCache, include, exclude);
+			} else if (qa.getStringRange() != null) {
+				//String indices are not used for ordering
+				ext2 = node.readObjectFromIndex(qa.getIndex(), qa.getStringRange(), 
+						qa.getMin(), qa.getMax(), !ignoreCache, include, exclude);
+			} else {
+				ext2 = node.readObjectFromIndex(qa.getIndex(), qa.getMin(), qa.getMax(), 
+						qa.isAscending(), !ignoreCache, include, exclude);
+			}
 			if (!ignoreCache) {
 				ClientSessionCache cache = pm.getSession().internalGetCache();
 				ArrayList<ZooPC> dirtyObjs = cache.getDirtyObjects();
@@ -529,41 +610,93 @@ public class QueryImpl implements Query {
 				//use user-defined extent
 				ext2 = ext.iterator();
 			} else {
-				//create type extent
-				ext2 = new ExtentImpl(candCls, subClasses, pm, ignoreCache).iterator();
+				//create type extent, objects that cannot match are skipped before loading them
+				ext2 = new ExtentImpl(candCls, subClasses, pm, ignoreCache).iterator(
+						qa.getQuery());
 			}
 		}
 		
-		if (ext != null && !subClasses) {
-			// normal iteration
-			while (ext2.hasNext()) {
-				Object o = ext2.next();
-				if (subClasses) {
-					if (!candCls.isAssignableFrom(o.getClass())) {
-						continue;
-					}
-				} else {
-					if (candCls != o.getClass()) {
-						continue;
-					}
-				}
-				boolean isMatch = queryTree.evaluate(o);
-				if (isMatch) {
-					ret.add(o);
-				}
+		//A user-defined extent may contain sub-classes. Otherwise we ignore the possibly 
+		//existing compatible extent to allow indices.
+		Class<?> exactClass = (ext != null && !subClasses) ? candCls : null;
+		return new QueryIterator<>(ext2, qa.getQuery(), exactClass, maxResults);
+	}
+
+	/**
+	 * Intersect the OIDs of all index ranges that need to be intersected with the main 
+	 * index of the advice. 
+	 * @return The OIDs of all objects that can match the query, or {@code null} if there
+	 * are no indices to intersect.
+	 */
+	private PrimLongSetZ intersectIndices(Node node, QueryAdvice qa) {
+		if (qa.getIntersections().isEmpty()) {
+			return null;
+		}
+		PrimLongSetZ oids = null;
+		for (QueryAdvice qa2: qa.getIntersections()) {
+			if (qa2.getCompositeIndex() != null) {
+				oids = node.readOidsFromIndex(qa2.getCompositeIndex(), 
+						qa2.getMin(), qa2.getMax(), oids);
+			} else if (qa2.getStringRange() != null) {
+				oids = node.readOidsFromIndex(qa2.getIndex(), qa2.getStringRange(), 
+						qa2.getMin(), qa2.getMax(), oids);
+			} else {
+				oids = node.readOidsFromIndex(qa2.getIndex(), qa2.getMin(), qa2.getMax(), oids);
 			}
-		} else {
-			// normal iteration (ignoring the possibly existing compatible extent to allow indices)
-			while (ext2.hasNext()) {
-				Object o = ext2.next();
-				boolean isMatch = queryTree.evaluate(o);
-				if (isMatch) {
-					ret.add(o);
-				}
+		}
+		if (!ignoreCache) {
+			//Modified objects may not match their index entries anymore, so we always 
+			//check them.
+			for (ZooPC pc: pm.getSession().internalGetCache().getDirtyObjects()) {
+				oids.add(pc.jdoZooGetOid());
 			}
 		}
-		if (ext2 instanceof CloseableIterator) {
-			((CloseableIterator)ext2).close();
+		return oids;
+	}
+
+	/**
+	 * Results are streamed if only a range of the results is requested and if the results 
+	 * don't need to be merged, sorted or otherwise processed.
+	 */
+	private boolean isStreamable(boolean isIndexOrdered) {
+		return indexToUse.size() == 1 && resultSettings == null && !unique 
+				&& (ordering.isEmpty() || isIndexOrdered) && rangeMax < Long.MAX_VALUE;
+	}
+
+	/**
+	 * Check whether the index returns the results in the requested order. 
+	 * Dirty objects in the cache may have been modified or may not yet be in the index, 
+	 * in that case the results need to be sorted.
+	 */
+	private boolean isIndexOrdered() {
+		if (indexToUse.size() != 1 || !indexToUse.get(0).isOrdered()) {
+			return false;
+		}
+		return ignoreCache || pm.getSession().internalGetCache().getDirtyObjects().isEmpty();
+	}
+
+	/**
+	 * Materialize streaming results. This is required before the query or its parameters are
+	 * modified, because streaming results are evaluated lazily.
+	 */
+	private void detachStreamingResults() {
+		if (streamingResults.isEmpty()) {
+			return;
+		}
+		try {
+			pm.getSession().lock();
+			//Results are closed at the end of the transaction 
+			if (pm.getSession().isActive()) {
+				for (WeakReference<StreamingQueryResult<?>> ref: streamingResults) {
+					StreamingQueryResult<?> r = ref.get();
+					if (r != null) {
+						r.detach();
+					}
+				}
+			}
+			streamingResults.clear();
+		} finally {
+			pm.getSession().unlock();
 		}
 	}
 	
@@ -597,37 +730,42 @@ public class QueryImpl implements Query {
 			//assign parameters
 			assignParametersToQueryTree(queryTree);
 			//This is only for indices, not for given extents
+			resolveRange();
 			QueryOptimizer qo = new QueryOptimizer(candClsDef);
-			indexToUse = qo.determineIndexToUse(queryTree);
+			indexToUse = qo.determineIndexToUse(queryTree, ordering, rangeMax < Long.MAX_VALUE);
+
+			if (!ignoreCache) {
+				ClientSessionCache cache = pm.getSession().internalGetCache();
+				cache.persistReachableObjects();
+			}
+			boolean isIndexOrdered = isIndexOrdered();
+			if (isStreamable(isIndexOrdered)) {
+				StreamingQueryResult<Object> sqr = 
+						new StreamingQueryResult<>(this, indexToUse.get(0), rangeMax);
+				streamingResults.add(new WeakReference<StreamingQueryResult<?>>(sqr));
+				Object ret = postProcess(sqr, true);
+				queryResults.add(ret);
+				return ret;
+			}
 
 			//TODO can also return a list with (yet) unknown size. In that case size() should return
 			//Integer.MAX_VALUE (JDO 2.2 14.6.1)
 			ArrayList<Object> ret = new ArrayList<Object>();
-			for (QueryAdvice qa: indexToUse) {
-				applyQueryOnExtent(ret, qa);
+			if (indexToUse.size() == 1) {
+				applyQueryOnExtent(ret, indexToUse.get(0), null);
+				fetchPlan.getPrefetcher().prefetch(ret);
+				return postProcess(ret, isIndexOrdered);
 			}
 
-			//Now check if we need to check for duplicates, i.e. if multiple indices were used.
+			//If we have more than one sub-query, we need to merge the results, because the 
+			//result sets may overlap. We do this on the level of OIDs, such that objects that 
+			//were already found by a previous sub-query are not loaded again.
+			PrimLongSetZ accepted = new PrimLongSetZ();
 			for (QueryAdvice qa: indexToUse) {
-				if (qa.getIndex() != indexToUse.get(0).getIndex()) {
-					LOGGER.warn("Merging query results(A)!");
-					ObjectIdentitySet<Object> ret2 = new ObjectIdentitySet<Object>();
-					ret2.addAll(ret);
-					return postProcess(ret2);
-				}
-			}
-
-			//If we have more than one sub-query, we need to merge anyway, because the result sets may
-			//overlap. 
-			//TODO implement merging of sub-queries!!!
-			if (indexToUse.size() > 1) {
-				LOGGER.warn( "Merging query results(B)!");
-				ObjectIdentitySet<Object> ret2 = new ObjectIdentitySet<Object>();
-				ret2.addAll(ret);
-				return postProcess(ret2);
+				applyQueryOnExtent(ret, qa, accepted);
 			}
-
-			return postProcess(ret);
+			fetchPlan.getPrefetcher().prefetch(ret);
+			return postProcess(ret, false);
 		} finally {
 			pm.getSession().unlock();
 			if (LOGGER.isInfoEnabled()) {
@@ -637,7 +775,7 @@ public class QueryImpl implements Query {
 		}
 	}
 
-	private Object postProcess(Collection<Object> c) {
+	private Object postProcess(Collection<Object> c, boolean isSorted) {
 		if (resultSettings != null) {
 			QueryResultProcessor rp = 
 					new QueryResultProcessor(resultSettings, candCls, candClsDef, resultClass);
@@ -663,28 +801,32 @@ public class QueryImpl implements Query {
 				return null;
 			}
 		}
-		if (ordering != null && !ordering.isEmpty()) {
+		if (!isSorted && !ordering.isEmpty()) {
 			if (!(c instanceof List)) {
 				c = new ArrayList<>(c);
 			}
 			Collections.sort((List<Object>) c, new QueryComparator<Object>(ordering));
 		}
 		
-		//get range
+		resolveRange();
+		
+		//To void remove() calls
+		return new SynchronizedROCollection<>(c, pm.getSession(), rangeMin, rangeMax);
+	}
+	
+	private void resolveRange() {
 		if (rangeMinParameter != null) {
 			rangeMin = TypeConverterTools.toLong(rangeMinParameter.getValue());
 		}
 		if (rangeMaxParameter != null) {
 			rangeMax = TypeConverterTools.toLong(rangeMaxParameter.getValue());
 		}
-		
-		//To void remove() calls
-		return new SynchronizedROCollection<>(c, pm.getSession(), rangeMin, rangeMax);
 	}
 	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	@Override
 	public Object execute() {
+		detachStreamingResults();
 		//now go through extent. Skip this if extent was generated on server from local filters.
 		filter = filter.trim();
 		if (filter.length() == 0 && orderingStr == null && !isDummyQuery) {
@@ -695,14 +837,21 @@ public class QueryImpl implements Query {
 					ClientSessionCache cache = pm.getSession().internalGetCache();
 					cache.persistReachableObjects();
 				}
-				if (ext == null) {
-					ext = new ExtentImpl(candCls, subClasses, pm, ignoreCache);
+				if (ext == null && resultSettings != null) {
+					Object ret = aggregateOnIndex();
+					if (ret != null) {
+						return ret;
+					}
+				}
+				Extent<?> ext2 = ext;
+				if (ext2 == null) {
+					ext2 = new ExtentImpl(candCls, subClasses, pm, ignoreCache);
 				}
 				if (DBStatistics.isEnabled()) {
 					pm.getSession().statsInc(STATS.QU_EXECUTED_TOTAL);
 					pm.getSession().statsInc(STATS.QU_EXECUTED_WITHOUT_INDEX);
 				}
-				return postProcess(new ExtentAdaptor(ext));
+				return postProcess(new ExtentAdaptor(ext2), false);
 			} finally {
 				pm.getSession().unlock();
 			}
@@ -713,6 +862,29 @@ public class QueryImpl implements Query {
 		return runQuery();
 	}
 	
+	/**
+	 * Aggregations over all instances of a class can be evaluated on indices, without 
+	 * loading any objects. This requires that there are no uncommitted changes.
+	 * @return The aggregation result or {@code null} if the aggregation requires loading 
+	 * objects. 
+	 */
+	private Object aggregateOnIndex() {
+		QueryResultProcessor rp = 
+				new QueryResultProcessor(resultSettings, candCls, candClsDef, resultClass);
+		if (!rp.isIndexAggregation(candClsDef, subClasses)) {
+			return null;
+		}
+		if (pm.getSession().getSchemaManager().hasChanges() || 
+				(!ignoreCache && !pm.getSession().internalGetCache().getDirtyObjects().isEmpty())) {
+			return null;
+		}
+		if (DBStatistics.isEnabled()) {
+			pm.getSession().statsInc(STATS.QU_EXECUTED_TOTAL);
+		}
+		return rp.processResultAggregationFromIndex(
+				pm.getSession().getPrimaryNode(), candClsDef, subClasses);
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -742,6 +914,7 @@ public class QueryImpl implements Query {
 	 */
 	@Override
 	public Object executeWithArray(Object... parameters) {
+		detachStreamingResults();
 		compileQuery();
 		checkParamCount(parameters.length);
 		for (int i = 0; i < parameters.length; i++) {
@@ -756,6 +929,7 @@ public class QueryImpl implements Query {
 	@SuppressWarnings("rawtypes")
 	@Override
 	public Object executeWithMap(Map parameters) {
+		detachStreamingResults();
 		compileQuery();
 		checkParamCount(parameters.size());
 		for (QueryParameter p: this.parameters) {
@@ -766,8 +940,7 @@ public class QueryImpl implements Query {
 
 	@Override
 	public FetchPlan getFetchPlan() {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		return fetchPlan;
 	}
 
 	@Override
@@ -955,6 +1128,8 @@ public class QueryImpl implements Query {
 		if (isUnmodifiable) {
 			throw new JDOUserException("This query is unmodifiable.");
 		}
+		//The query is about to be modified
+		detachStreamingResults();
 	}
 
 	@Override
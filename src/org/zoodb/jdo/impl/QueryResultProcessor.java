@@ -24,9 +24,14 @@ import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Iterator;
 
+import org.zoodb.internal.Node;
 import org.zoodb.internal.SerializerTools.PRIMITIVE;
 import org.zoodb.internal.ZooClassDef;
 import org.zoodb.internal.ZooFieldDef;
+import org.zoodb.internal.ZooFieldDef.JdoType;
+import org.zoodb.internal.server.index.BitTools;
+import org.zoodb.internal.server.index.LongLongIndex.LLEntry;
+import org.zoodb.internal.server.index.LongLongIndex.LongLongIterator;
 import org.zoodb.internal.util.DBLogger;
 
 /**
@@ -119,7 +124,33 @@ class QueryResultProcessor {
 	    		throw new UnsupportedOperationException(field.getPrimitiveType().name());
 			}
 		}
-		abstract void add(Object o);
+		void add(Object o) {
+			if (isFloat) {
+				addFloat(getFloat(o));
+			} else {
+				addInt(getInt(o));
+			}
+		}
+		/**
+		 * @param key An index key of the field
+		 */
+		void addKey(long key) {
+			if (isFloat) {
+				addFloat(keyToFloat(key));
+			} else {
+				addInt(key);
+			}
+		}
+		double keyToFloat(long key) {
+			return field.getPrimitiveType() == PRIMITIVE.DOUBLE ? 
+					BitTools.toDouble(key) : BitTools.toFloat(key);
+		}
+		void addFloat(double d) {
+			throw new UnsupportedOperationException();
+		}
+		void addInt(long l) {
+			throw new UnsupportedOperationException();
+		}
 		abstract Object result();
 	}
 	
@@ -128,13 +159,14 @@ class QueryResultProcessor {
 		private long l;
 		long n;
 		@Override
-		void add(Object o) {
+		void addFloat(double d2) {
 			n++;
-			if (isFloat) {
-				d += getFloat(o);
-			} else {
-				l += getInt(o);
-			}
+			d += d2;
+		}
+		@Override
+		void addInt(long l2) {
+			n++;
+			l += l2;
 		}
 		@Override
 		Object result() {
@@ -152,17 +184,15 @@ class QueryResultProcessor {
 		private double d = Double.NEGATIVE_INFINITY;
 		private long l = Long.MIN_VALUE;
 		@Override
-		void add(Object o) {
-			if (isFloat) {
-				double d2 = getFloat(o);
-				if (d2 > d) {
-					d = d2;
-				}
-			} else {
-				long i2 = getInt(o);
-				if (i2 > l) {
-					l = i2;
-				}
+		void addFloat(double d2) {
+			if (d2 > d) {
+				d = d2;
+			}
+		}
+		@Override
+		void addInt(long i2) {
+			if (i2 > l) {
+				l = i2;
 			}
 		}
 		@Override
@@ -179,17 +209,15 @@ class QueryResultProcessor {
 		private double d = Double.MAX_VALUE;
 		private long l = Long.MAX_VALUE;
 		@Override
-		void add(Object o) {
-			if (isFloat) {
-				double d2 = getFloat(o);
-				if (d2 < d) {
-					d = d2;
-				}
-			} else {
-				long i2 = getInt(o);
-				if (i2 < l) {
-					l = i2;
-				}
+		void addFloat(double d2) {
+			if (d2 < d) {
+				d = d2;
+			}
+		}
+		@Override
+		void addInt(long i2) {
+			if (i2 < l) {
+				l = i2;
 			}
 		}
 		@Override
@@ -206,12 +234,12 @@ class QueryResultProcessor {
 		private double d;
 		private long l;
 		@Override
-		void add(Object o) {
-			if (isFloat) {
-				d += getFloat(o);
-			} else {
-				l += getInt(o);
-			}
+		void addFloat(double d2) {
+			d += d2;
+		}
+		@Override
+		void addInt(long l2) {
+			l += l2;
 		}
 		@Override
 		Object result() {
@@ -369,6 +397,80 @@ class QueryResultProcessor {
 				i.add(o);
 			}
 		}
+		return aggregationResult();
+	}
+
+	/**
+	 * Check whether the aggregation can be evaluated on indices only, without loading any 
+	 * objects. This is only possible if the aggregation covers all instances of the 
+	 * candidate class and if the aggregated fields have an index. The result is only valid
+	 * if the database does not contain uncommitted changes.
+	 * Field indices contain all sub-classes of the class that declares the field, so the
+	 * field must be declared in the candidate class itself.
+	 * @param candClsDef The candidate class
+	 * @param subClasses Whether sub-classes are included
+	 * @return {@code true} if the aggregation can be evaluated on indices only.
+	 */
+	boolean isIndexAggregation(ZooClassDef candClsDef, boolean subClasses) {
+		if (isProjection) {
+			return false;
+		}
+		for (Item i: items) {
+			if (i instanceof COUNT) {
+				continue;
+			}
+			ZooFieldDef f = i.field;
+			if (!f.isIndexed() || f.getJdoType() != JdoType.PRIMITIVE 
+					|| f.getPrimitiveType() == PRIMITIVE.BOOLEAN) {
+				return false;
+			}
+			if (f.getDeclaringType().getSchemaId() != candClsDef.getSchemaId()) {
+				return false;
+			}
+			if (!subClasses && !candClsDef.getVersionProxy().getSubProxies().isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Evaluate the aggregation on the indices, see 
+	 * {@link #isIndexAggregation(ZooClassDef, boolean)}.
+	 * @param node The node
+	 * @param candClsDef The candidate class
+	 * @param subClasses Whether sub-classes are included
+	 * @return The aggregation result
+	 */
+	Object processResultAggregationFromIndex(Node node, ZooClassDef candClsDef, 
+			boolean subClasses) {
+		for (Item i: items) {
+			if (i instanceof COUNT) {
+				((COUNT)i).n = node.countInstances(candClsDef.getVersionProxy(), subClasses);
+				continue;
+			}
+			boolean isMinMax = i instanceof MIN || i instanceof MAX;
+			LongLongIterator<LLEntry> it = node.readIndexEntries(i.field, !(i instanceof MAX));
+			try {
+				while (it.hasNext()) {
+					long key = it.next().getKey();
+					if (isMinMax && i.isFloat && Double.isNaN(i.keyToFloat(key))) {
+						//NaN is ignored when comparing objects
+						continue;
+					}
+					i.addKey(key);
+					if (isMinMax) {
+						break;
+					}
+				}
+			} finally {
+				it.close();
+			}
+		}
+		return aggregationResult();
+	}
+	
+	private Object aggregationResult() {
 		//prepare returning results
 		if (items.size() == 1) {
 			return items.get(0).result();
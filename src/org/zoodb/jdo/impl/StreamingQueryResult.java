@@ -0,0 +1,183 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.jdo.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.zoodb.internal.query.QueryAdvice;
+import org.zoodb.internal.query.QueryIterator;
+
+/**
+ * A lazy query result. The query is evaluated once, on the index or extent that was chosen
+ * when the query was executed. Objects are only loaded while an iterator is advanced, and
+ * evaluation stops after {@code maxResults} matches.
+ * 
+ * All iterators share the same underlying query iterator. Results are buffered as they are
+ * consumed, so further iterators first return the buffered results and then continue with
+ * the underlying iterator.
+ * 
+ * The result is materialized (up to {@code maxResults}) before the query is modified or
+ * executed again, see {@link #detach()}.
+ *
+ * @author Tilmann Zaeschke
+ *
+ * @param <E> The result type
+ */
+public class StreamingQueryResult<E> implements Collection<E> {
+
+	private final QueryImpl query;
+	private final QueryAdvice advice;
+	private final long maxResults;
+	//created on first access
+	private QueryIterator<E> source = null;
+	//results that have been read from the source
+	private final ArrayList<E> materializedList = new ArrayList<>();
+	private boolean isComplete = false;
+
+	StreamingQueryResult(QueryImpl query, QueryAdvice advice, long maxResults) {
+		this.query = query;
+		this.advice = advice;
+		this.maxResults = maxResults;
+	}
+
+	/**
+	 * Load all results, further iterations do not depend on the query anymore.
+	 */
+	void detach() {
+		materialize();
+	}
+
+	private ArrayList<E> materialize() {
+		//WARNING: this loads all results into memory!
+		while (fetch()) {
+			//continue
+		}
+		return materializedList;
+	}
+
+	/**
+	 * Read the next result from the underlying iterator into the buffer.
+	 * @return 'false' if there are no more results.
+	 */
+	private boolean fetch() {
+		if (isComplete) {
+			return false;
+		}
+		if (source == null) {
+			source = query.createQueryIterator(advice, maxResults);
+		}
+		if (source.hasNext()) {
+			materializedList.add(source.next());
+			return true;
+		}
+		source.close();
+		isComplete = true;
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return materialize().size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return materializedList.isEmpty() && !fetch();
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return materialize().contains(o);
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return new Iterator<E>() {
+			private int pos = 0;
+
+			@Override
+			public boolean hasNext() {
+				return pos < materializedList.size() || fetch();
+			}
+
+			@Override
+			public E next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return materializedList.get(pos++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("Query results are immutable.");
+			}
+		};
+	}
+
+	@Override
+	public Object[] toArray() {
+		return materialize().toArray();
+	}
+
+	@Override
+	public <T> T[] toArray(T[] a) {
+		return materialize().toArray(a);
+	}
+
+	@Override
+	public boolean add(E e) {
+		throw new UnsupportedOperationException("Query results are immutable.");
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		throw new UnsupportedOperationException("Query results are immutable.");
+	}
+
+	@Override
+	public boolean containsAll(Collection<?> c) {
+		return materialize().containsAll(c);
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends E> c) {
+		throw new UnsupportedOperationException("Query results are immutable.");
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		throw new UnsupportedOperationException("Query results are immutable.");
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> c) {
+		throw new UnsupportedOperationException("Query results are immutable.");
+	}
+
+	@Override
+	public void clear() {
+		throw new UnsupportedOperationException("Query results are immutable.");
+	}
+}
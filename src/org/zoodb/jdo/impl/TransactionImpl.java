@@ -20,6 +20,8 @@
  */
 package org.zoodb.jdo.impl;
 
+import javax.jdo.Constants;
+import javax.jdo.JDOUnsupportedOptionException;
 import javax.jdo.JDOUserException;
 import javax.jdo.PersistenceManager;
 import javax.jdo.Transaction;
@@ -148,7 +150,6 @@ public class TransactionImpl implements Transaction {
 	@Override
 	public String getIsolationLevel() {
     	DBTracer.logCall(this);
-		// TODO Auto-generated method stub
 //		javax.jdo.option.TransactionIsolationLevel.read-committed
 //		The datastore supports the read-committed isolation level.
 //		javax.jdo.option.TransactionIsolationLevel.read-uncommitted
@@ -159,7 +160,10 @@ public class TransactionImpl implements Transaction {
 //		The datastore supports the serializable isolation level.
 //		javax.jdo.option.TransactionIsolationLevel.snapshot
 //		The datastore supports the snapshot isolation level.	
-		return "read-committed";
+		if (connection.getConfig().getSnapshotRead()) {
+			return Constants.TX_SNAPSHOT;
+		}
+		return Constants.TX_READ_COMMITTED;
 	}
 
 	@Override
@@ -200,10 +204,19 @@ public class TransactionImpl implements Transaction {
 	}
 
 	@Override
-	public void setIsolationLevel(String arg0) {
+	public void setIsolationLevel(String level) {
     	DBTracer.logCall(this);
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+    	if (connection.isActive()) {
+    		throw new JDOUserException(
+    				"Isolation level cannot be changed in an active transaction.");
+    	}
+    	if (Constants.TX_SNAPSHOT.equals(level)) {
+    		connection.getConfig().setSnapshotRead(true);
+    	} else if (Constants.TX_READ_COMMITTED.equals(level)) {
+    		connection.getConfig().setSnapshotRead(false);
+    	} else {
+    		throw new JDOUnsupportedOptionException("Isolation level not supported: " + level);
+    	}
 	}
 
 	@Override
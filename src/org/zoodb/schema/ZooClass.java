@@ -67,6 +67,29 @@ public interface ZooClass {
 	 */
 	public abstract boolean isIndexUnique(String fieldName);
 
+	/**
+	 * Creates a composite index on the specified fields for the current class and all 
+	 * sub-classes. The index is ordered by the first field, then by the second field, and so
+	 * on. Queries can use the index if they compare the leading fields with '==' and
+	 * optionally the following field with a range.
+	 * Composite indices do not enforce unique keys.
+	 * @param fieldNames The names of the fields to be indexed, between 2 and 8 fields
+	 */
+	public abstract void createCompositeIndex(String ... fieldNames);
+
+	/**
+	 * @param fieldNames The names of the indexed fields, in the order used for 
+	 * {@link #createCompositeIndex(String...)}
+	 * @return {@code true} if the index could be removed
+	 */
+	public abstract boolean removeCompositeIndex(String ... fieldNames);
+
+	/**
+	 * @param fieldNames The names of the fields to check, in order
+	 * @return {@code true} if there is a composite index on the fields
+	 */
+	public abstract boolean hasCompositeIndex(String ... fieldNames);
+
 	/**
 	 * Drops all instances of the class. This does not affect cached instances
 	 */
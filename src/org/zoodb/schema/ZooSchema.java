@@ -88,4 +88,44 @@ public interface ZooSchema {
 	 */
     public Collection<ZooClass> getAllClasses();
 
+	/**
+	 * Start migrating all objects that are stored with an outdated schema version to the 
+	 * latest version of their class. Otherwise such objects are evolved every time they are 
+	 * loaded.
+	 * <p>
+	 * Migration is performed in a background thread with a separate session, in transactions 
+	 * of {@code batchSize} objects with a pause of {@code pauseMillis} between transactions.
+	 * Transactions that fail due to concurrent updates are retried later. 
+	 * The pos-indices of outdated schema versions are dropped once they are empty.
+	 * Migration ends when all objects are migrated, when {@link #stopMigration()} is called,
+	 * or when this session is closed. 
+	 * <p>
+	 * Progress can be monitored with {@link #getOutdatedInstanceCount(ZooClass)} and 
+	 * {@link org.zoodb.tools.DBStatistics#getSchemaMigrationCount()}.
+	 * @param batchSize Number of objects that are migrated per transaction
+	 * @param pauseMillis Pause between transactions in milliseconds
+	 */
+	public void startMigration(int batchSize, long pauseMillis);
+
+	/**
+	 * Stop the background migration. This returns immediately, the current migration 
+	 * transaction is completed in the background.
+	 * @see #startMigration(int, long)
+	 */
+	public void stopMigration();
+
+	/**
+	 * @return Whether a background migration started by this session is running.
+	 * @see #startMigration(int, long)
+	 */
+	public boolean isMigrationRunning();
+
+	/**
+	 * @param cls The class
+	 * @return The number of instances of the class (without sub-classes) that are stored
+	 * with an outdated schema version.
+	 * @see #startMigration(int, long)
+	 */
+	public long getOutdatedInstanceCount(ZooClass cls);
+
 }
@@ -41,6 +41,16 @@ public class DBStatistics {
 		/** Data page (only stored objects) read access counter. 
 		 * Counts only unique access (each page counted only once). */
 		IO_DATA_PAGE_READ_CNT_UNQ(true), 
+		/** Page read requests that were served by the page cache. */
+		IO_PAGE_CACHE_HIT_CNT(true),
+		/** Page read requests that could not be served by the page cache. */
+		IO_PAGE_CACHE_MISS_CNT(true),
+		/** Pages that were read ahead into the page cache. */
+		IO_PAGE_READ_AHEAD_CNT(true),
+		/** Object read requests that were served by the shared object cache. */
+		IO_OBJECT_CACHE_HIT_CNT(true),
+		/** Object read requests that could not be served by the shared object cache. */
+		IO_OBJECT_CACHE_MISS_CNT(true),
 		
 		/** Number of pages used by free space manager. */
 		DB_PAGE_CNT_IDX_FSM(true), 
@@ -54,6 +64,10 @@ public class DBStatistics {
 		DB_PAGE_CNT_DATA(true),
 		/** Total number of pages. */
 		DB_PAGE_CNT(true), 
+		/** Number of free pages. */
+		DB_PAGE_CNT_FREE(true), 
+		/** Number of objects that are stored with an outdated schema version. */
+		DB_OBJ_CNT_OUTDATED_SCHEMA(true), 
 		
 		/** Number of objects in buffered past transactions. */
 		TX_MGR_BUFFERED_OID_CNT(true), 
@@ -62,12 +76,17 @@ public class DBStatistics {
 		
 		/** Number of queries compiled. */
 		QU_COMPILED(false),
+		/** Number of query compilations that were served by the query cache. */
+		QU_COMPILED_CACHE_HIT(false),
 		/** Number of queries executed. */
 		QU_EXECUTED_TOTAL(false),
 		/** Number of queries executed without index (using Extent) */
 		QU_EXECUTED_WITHOUT_INDEX(false),
 		/** Number of queries with ordering without index. */
-		QU_EXECUTED_WITH_ORDERING_WITHOUT_INDEX(false);
+		QU_EXECUTED_WITH_ORDERING_WITHOUT_INDEX(false),
+		
+		/** Number of objects migrated by the background schema migration of a session. */
+		SCHEMA_MIGRATION_OBJ_CNT(false);
 		
 		private final boolean isServerStat;
 		private STATS(boolean isServerStat) {
@@ -127,10 +146,99 @@ public class DBStatistics {
 		return s.getPrimaryNode().getStats(STATS.IO_DATA_PAGE_READ_CNT_UNQ);
 	}
 
+	/**
+	 * 
+	 * @return Number of page reads served by the page cache. The page cache is shared by all
+	 * sessions on the same database.
+	 */
+	public long getStoragePageCacheHitCount() {
+		return s.getPrimaryNode().getStats(STATS.IO_PAGE_CACHE_HIT_CNT);
+	}
+
+	/**
+	 * 
+	 * @return Number of page reads that were not served by the page cache. The page cache is 
+	 * shared by all sessions on the same database.
+	 */
+	public long getStoragePageCacheMissCount() {
+		return s.getPrimaryNode().getStats(STATS.IO_PAGE_CACHE_MISS_CNT);
+	}
+
+	/**
+	 * 
+	 * @return Number of pages that were read ahead by scans and added to the page cache.
+	 * @see org.zoodb.tools.ZooConfig#setReadAheadPages(int)
+	 */
+	public long getStoragePageReadAheadCount() {
+		return s.getPrimaryNode().getStats(STATS.IO_PAGE_READ_AHEAD_CNT);
+	}
+
+	/**
+	 * 
+	 * @return Number of object reads served by the shared object cache. The object cache is 
+	 * shared by all sessions on the same database.
+	 * @see org.zoodb.tools.ZooConfig#setObjectCacheSize(long)
+	 */
+	public long getObjectCacheHitCount() {
+		return s.getPrimaryNode().getStats(STATS.IO_OBJECT_CACHE_HIT_CNT);
+	}
+
+	/**
+	 * 
+	 * @return Number of object reads that were not served by the shared object cache. 
+	 * The object cache is shared by all sessions on the same database.
+	 * @see org.zoodb.tools.ZooConfig#setObjectCacheSize(long)
+	 */
+	public long getObjectCacheMissCount() {
+		return s.getPrimaryNode().getStats(STATS.IO_OBJECT_CACHE_MISS_CNT);
+	}
+
+	/**
+	 * 
+	 * @return Number of pages of the database file.
+	 */
+	public long getStoragePageCount() {
+		return s.getPrimaryNode().getStats(STATS.DB_PAGE_CNT);
+	}
+
+	/**
+	 * 
+	 * @return Number of free pages in the database file. Free pages are reused by later 
+	 * transactions, free pages at the end of the file can be removed by compaction.
+	 * @see org.zoodb.tools.ZooCompactDb
+	 */
+	public long getStorageFreePageCount() {
+		return s.getPrimaryNode().getStats(STATS.DB_PAGE_CNT_FREE);
+	}
+
+	/**
+	 * 
+	 * @return Number of objects in the database that are stored with an outdated schema 
+	 * version. This iterates over the pos-indices of all outdated schema versions.
+	 * @see org.zoodb.schema.ZooSchema#startMigration(int, long)
+	 */
+	public long getOutdatedSchemaObjectCount() {
+		return s.getPrimaryNode().getStats(STATS.DB_OBJ_CNT_OUTDATED_SCHEMA);
+	}
+
+	/**
+	 * 
+	 * @return Number of objects that were migrated to the latest schema version by the 
+	 * background migration of this session.
+	 * @see org.zoodb.schema.ZooSchema#startMigration(int, long)
+	 */
+	public long getSchemaMigrationCount() {
+		return s.getStats(STATS.SCHEMA_MIGRATION_OBJ_CNT);
+	}
+
 	public long getQueryCompileCount() {
 		return s.getStats(STATS.QU_COMPILED);
 	}
 
+	public long getQueryCompileCacheHitCount() {
+		return s.getStats(STATS.QU_COMPILED_CACHE_HIT);
+	}
+
 	public long getQueryExecutionCount() {
 		return s.getStats(STATS.QU_EXECUTED_TOTAL);
 	}
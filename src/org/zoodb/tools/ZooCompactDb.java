@@ -0,0 +1,421 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.tools;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zoodb.api.impl.ZooPC;
+import org.zoodb.internal.Session;
+import org.zoodb.internal.SessionConfig;
+import org.zoodb.internal.ZooClassDef;
+import org.zoodb.internal.ZooClassProxy;
+import org.zoodb.internal.ZooCompositeIndexDef;
+import org.zoodb.internal.ZooFieldDef;
+import org.zoodb.internal.ZooHandleImpl;
+import org.zoodb.internal.util.DBLogger;
+import org.zoodb.internal.util.PrimLongSetZ;
+import org.zoodb.schema.ZooClass;
+import org.zoodb.schema.ZooField;
+import org.zoodb.tools.internal.ZooCommandLineTool;
+
+/**
+ * Compaction and physical reclustering of a database.
+ *
+ * All objects are rewritten class by class. Objects of a class are written in OID order or,
+ * if a clustering field is defined with {@link #clusterBy(String, String)}, in the order of
+ * the index of that field. Objects given to {@link #setObjectOrder(long[])}, for example in
+ * the order of a traversal of the object graph, are written first.
+ * <p>
+ * Objects are rewritten twice. The first pass moves them to the end of the file, this frees
+ * the pages that they currently occupy. The second pass writes them in the requested order 
+ * into the lowest free pages. The database file therefore grows temporarily by the size of 
+ * all objects. The OID index is updated for every rewritten object. Attribute indices are 
+ * moved in the same way, every index is rebuilt in a single transaction, so it is never
+ * missing. Finally free pages at the end of the file are removed.
+ * <p>
+ * Compaction uses normal transactions, so other sessions can still use the database.
+ * However, objects that are modified concurrently may not be rewritten and free pages that
+ * are still visible to other transactions are not removed. Removing free pages is not
+ * supported with group commit, see {@link ZooConfig#setGroupCommitWindow(int)}.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class ZooCompactDb extends ZooCommandLineTool {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(ZooCompactDb.class);
+
+	/** Default number of objects that are rewritten per transaction. */
+	public static final int DEFAULT_BATCH_SIZE = 10000;
+
+	//Every commit can only remove pages that were free before the commit started
+	private static final int MAX_TRUNCATE_COMMITS = 10;
+
+	private final String dbName;
+	private final String dbPath;
+	//class name -> field name
+	private final Map<String, String> clusterFields = new HashMap<String, String>();
+	private long[] objectOrder = new long[0];
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	//Objects are rewritten in several passes, but counted only once
+	private final PrimLongSetZ rewritten = new PrimLongSetZ();
+	private long pageCountBefore = -1;
+	private long freePageCountBefore = -1;
+	private long pageCountAfter = -1;
+	private long freePageCountAfter = -1;
+
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			err.println("Error: Please provide a database.");
+			err.println("Usage: ");
+			err.println("    ZooCompactDb <db> [<class>:<field> ...]");
+			return;
+		}
+		String dbName = args[0];
+		if (!ZooHelper.getDataStoreManager().dbExists(dbName)) {
+			err.println("ERROR Database not found: " + dbName);
+			return;
+		}
+
+		ZooCompactDb compactor = new ZooCompactDb(dbName);
+		for (int i = 1; i < args.length; i++) {
+			int sep = args[i].lastIndexOf(':');
+			if (sep <= 0) {
+				err.println("ERROR Expected <class>:<field> but got: " + args[i]);
+				return;
+			}
+			compactor.clusterBy(args[i].substring(0, sep), args[i].substring(sep + 1));
+		}
+
+		out.println("Compacting database: " + dbName);
+		compactor.run();
+		out.println("Objects rewritten: " + compactor.getRewrittenObjectCount());
+		out.println("Pages before:      " + compactor.getPageCountBefore() +
+				" (free: " + compactor.getFreePageCountBefore() + ")");
+		out.println("Pages after:       " + compactor.getPageCountAfter() +
+				" (free: " + compactor.getFreePageCountAfter() + ")");
+		out.println("Compacting database done.");
+	}
+
+	/**
+	 *
+	 * @param dbName The name of the database
+	 */
+	public ZooCompactDb(String dbName) {
+		this.dbName = dbName;
+		this.dbPath = ZooHelper.getDataStoreManager().getDbPath(dbName);
+	}
+
+	/**
+	 * Write the instances of a class in the order of an indexed field.
+	 * @param className The name of the class
+	 * @param fieldName The name of an indexed field of the class
+	 * @return this
+	 */
+	public ZooCompactDb clusterBy(String className, String fieldName) {
+		clusterFields.put(className, fieldName);
+		return this;
+	}
+
+	/**
+	 * Write the given objects first and in the given order, for example in the order of a
+	 * traversal of the object graph. OIDs of objects that do not exist are ignored.
+	 * @param oids The OIDs of the objects
+	 * @return this
+	 */
+	public ZooCompactDb setObjectOrder(long[] oids) {
+		this.objectOrder = oids.clone();
+		return this;
+	}
+
+	/**
+	 * @param batchSize Number of objects that are rewritten per transaction, the default is
+	 * {@link #DEFAULT_BATCH_SIZE}.
+	 * @return this
+	 */
+	public ZooCompactDb setBatchSize(int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("batchSize=" + batchSize);
+		}
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * Compact the database.
+	 */
+	public void run() {
+		LOGGER.info("Compaction started: {}", dbName);
+		//This session keeps the database open and is used for statistics
+		Session main = new Session(dbPath, new SessionConfig());
+		try {
+			long[] counts = readPageCounts(main);
+			pageCountBefore = counts[0];
+			freePageCountBefore = counts[1];
+
+			ArrayList<String> classes = getClassNames(main);
+			//Move all objects and indices to the end of the file, this frees the pages 
+			//before them
+			rewriteAll(classes, true);
+			rebuildIndexes(classes, true);
+			//Write all objects into the lowest free pages. The snapshot reader prevents that
+			//pages freed by one batch are reused by a later batch, so the objects end up in 
+			//ascending page order.
+			SessionConfig cfg = new SessionConfig();
+			cfg.setSnapshotRead(true);
+			Session pin = new Session(dbPath, cfg);
+			try {
+				pin.begin();
+				rewriteAll(classes, false);
+			} finally {
+				pin.rollbackAndClose();
+			}
+			rebuildIndexes(classes, false);
+			truncate(main);
+
+			counts = readPageCounts(main);
+			pageCountAfter = counts[0];
+			freePageCountAfter = counts[1];
+		} finally {
+			main.rollbackAndClose();
+		}
+		LOGGER.info("Compaction finished: {} -> {} pages", pageCountBefore, pageCountAfter);
+	}
+
+	private static long[] readPageCounts(Session s) {
+		s.begin();
+		try {
+			DBStatistics stats = new DBStatistics(s);
+			return new long[]{stats.getStoragePageCount(), stats.getStorageFreePageCount()};
+		} finally {
+			s.rollback();
+		}
+	}
+
+	private ArrayList<String> getClassNames(Session s) {
+		s.begin();
+		try {
+			HashSet<String> names = new HashSet<String>();
+			ArrayList<String> ret = new ArrayList<String>();
+			for (ZooClass c: s.getSchemaManager().getAllSchemata()) {
+				String name = c.getName();
+				if (name.equals(ZooPC.class.getName()) || name.equals(ZooClassDef.class.getName())
+						|| !names.add(name)) {
+					continue;
+				}
+				ret.add(name);
+			}
+			for (Map.Entry<String, String> e: clusterFields.entrySet()) {
+				ZooClass c = s.getSchemaManager().locateSchema(e.getKey());
+				if (c == null) {
+					throw DBLogger.newUser("Class not found: " + e.getKey());
+				}
+				if (!c.hasIndex(e.getValue())) {
+					throw DBLogger.newUser("Field has no index: " + e.getKey() + "." +
+							e.getValue());
+				}
+			}
+			return ret;
+		} finally {
+			s.rollback();
+		}
+	}
+
+	private long[] readOids(String className) {
+		Session s = new Session(dbPath, new SessionConfig());
+		try {
+			s.begin();
+			ZooClassProxy px = s.getSchemaManager().locateSchema(className);
+			if (px == null) {
+				//class has been removed concurrently
+				return new long[0];
+			}
+			ZooFieldDef orderBy = null;
+			if (clusterFields.containsKey(className)) {
+				orderBy = px.getSchemaDef().getAllFieldsAsMap().get(clusterFields.get(className));
+			}
+			return s.getPrimaryNode().readAllOids(px, orderBy);
+		} finally {
+			s.rollbackAndClose();
+		}
+	}
+
+	private void rewriteAll(ArrayList<String> classes, boolean append) {
+		PrimLongSetZ done = new PrimLongSetZ();
+		rewrite(objectOrder, null, append);
+		for (long oid: objectOrder) {
+			done.add(oid);
+		}
+		for (String className: classes) {
+			rewrite(readOids(className), done, append);
+		}
+	}
+
+	/**
+	 * Rewrite the given objects. Objects are written in the order in which they are marked
+	 * dirty.
+	 * @param append Whether the objects should be written to the end of the file
+	 */
+	private void rewrite(long[] oids, PrimLongSetZ exclude, boolean append) {
+		for (int i = 0; i < oids.length; i += batchSize) {
+			Session s = new Session(dbPath, new SessionConfig());
+			try {
+				s.begin();
+				if (append) {
+					s.getPrimaryNode().appendOnCommit();
+				}
+				PrimLongSetZ batch = new PrimLongSetZ();
+				for (int j = i; j < oids.length && j < i + batchSize; j++) {
+					if (exclude != null && exclude.contains(oids[j])) {
+						continue;
+					}
+					ZooHandleImpl h = s.getHandle(oids[j]);
+					if (h != null) {
+						h.getGenericObject().jdoZooMarkDirty();
+						batch.add(oids[j]);
+					}
+				}
+				if (s.tryCommit(false)) {
+					rewritten.addAll(batch);
+				} else {
+					//Concurrent updates, the objects are simply not rewritten
+					LOGGER.info("Compaction: commit failed");
+				}
+			} finally {
+				s.rollbackAndClose();
+			}
+		}
+	}
+
+	/**
+	 * Rebuild all attribute indices.
+	 * @param append Whether the indices should be written to the end of the file
+	 */
+	private void rebuildIndexes(ArrayList<String> classes, boolean append) {
+		//Indices are removed and recreated in the same transaction, so other sessions never
+		//see a class without its indices. The schema operations are applied in order.
+		Session s = new Session(dbPath, new SessionConfig());
+		try {
+			s.begin();
+			if (append) {
+				s.getPrimaryNode().appendOnCommit();
+			}
+			for (String className: classes) {
+				ZooClassProxy px = s.getSchemaManager().locateSchema(className);
+				if (px == null) {
+					//class has been removed concurrently
+					continue;
+				}
+				ArrayList<String[]> composites = new ArrayList<String[]>();
+				for (ZooCompositeIndexDef ci: px.getSchemaDef().getLocalCompositeIndices()) {
+					String[] names = new String[ci.getFields().length];
+					for (int i = 0; i < names.length; i++) {
+						names[i] = ci.getFields()[i].getName();
+					}
+					composites.add(names);
+				}
+				for (String[] names: composites) {
+					px.removeCompositeIndex(names);
+				}
+				for (ZooField f: px.getLocalFields()) {
+					if (f.hasIndex()) {
+						boolean isUnique = f.isIndexUnique();
+						f.removeIndex();
+						f.createIndex(isUnique);
+					}
+				}
+				for (String[] names: composites) {
+					px.createCompositeIndex(names);
+				}
+			}
+			if (!s.tryCommit(false)) {
+				//The old indices are still valid
+				LOGGER.info("Compaction: rebuilding indices failed");
+			}
+		} finally {
+			s.rollbackAndClose();
+		}
+	}
+
+	private void truncate(Session main) {
+		long nPages = readPageCounts(main)[0];
+		for (int i = 0; i < MAX_TRUNCATE_COMMITS; i++) {
+			Session s = new Session(dbPath, new SessionConfig());
+			try {
+				s.begin();
+				s.getPrimaryNode().truncateOnCommit();
+				s.commit(false);
+			} finally {
+				s.rollbackAndClose();
+			}
+			long nPages2 = readPageCounts(main)[0];
+			if (nPages2 >= nPages) {
+				break;
+			}
+			nPages = nPages2;
+		}
+	}
+
+	/**
+	 * @return The number of distinct objects that were rewritten in successfully committed
+	 * transactions.
+	 */
+	public long getRewrittenObjectCount() {
+		return rewritten.size();
+	}
+
+	/**
+	 * @return The number of pages before compaction.
+	 * @see DBStatistics#getStoragePageCount()
+	 */
+	public long getPageCountBefore() {
+		return pageCountBefore;
+	}
+
+	/**
+	 * @return The number of free pages before compaction.
+	 * @see DBStatistics#getStorageFreePageCount()
+	 */
+	public long getFreePageCountBefore() {
+		return freePageCountBefore;
+	}
+
+	/**
+	 * @return The number of pages after compaction.
+	 * @see DBStatistics#getStoragePageCount()
+	 */
+	public long getPageCountAfter() {
+		return pageCountAfter;
+	}
+
+	/**
+	 * @return The number of free pages after compaction.
+	 * @see DBStatistics#getStorageFreePageCount()
+	 */
+	public long getFreePageCountAfter() {
+		return freePageCountAfter;
+	}
+}
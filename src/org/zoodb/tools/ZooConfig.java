@@ -15,22 +15,49 @@ public class ZooConfig {
 	public static final String FILE_PAF_BB = preServer + "StorageRootFile";
 	//public static final String FILE_PAF_BB = preServer + "StorageInMemory";
 	public static final String FILE_PAF_IN_MEMORY = preServer + "StorageRootInMemory";
+	public static final String FILE_PAF_MAPPED = preServer + "StorageRootMapped";
 
 	public static final String FILE_MGR_IN_MEMORY = preZoo + "tools.impl.DataStoreManagerInMemory";
 	public static final String FILE_MGR_ONE_FILE = preZoo + "tools.impl.DataStoreManagerOneFile";
 	//public static final String FILE_MGR_ONE_FILE = FILE_MGR_IN_MEMORY; 
 
 	public static final int FILE_PAGE_SIZE_DEFAULT = 1024*4;  //bytes
+	public static final int FILE_PAGE_CACHE_SIZE_DEFAULT = 1024;  //pages
+	public static final int READ_AHEAD_DISABLED = 0;  //pages
+	public static final long OBJECT_CACHE_SIZE_DISABLED = 0;  //bytes
+	public static final int GROUP_COMMIT_DISABLED = -1;
+	public static final int QUERY_CACHE_SIZE_DEFAULT = 100;  //queries
+	public static final int INDEX_BULK_FILL_DEFAULT = 90;  //percent
+	public static final int INDEX_SORT_BUFFER_SIZE_DEFAULT = 1024*1024;  //entries
+	public static final int QUERY_PARALLELISM_DISABLED = 1;  //partitions
 
 	
 	private static String fileDefault = FILE_PAF_BB;
 	private static String fileManagerDefault = FILE_MGR_ONE_FILE;
 	private static int defaultPageSize = FILE_PAGE_SIZE_DEFAULT;
+	private static int defaultPageCacheSize = FILE_PAGE_CACHE_SIZE_DEFAULT;
+	private static int readAheadPages = READ_AHEAD_DISABLED;
+	private static long objectCacheSize = OBJECT_CACHE_SIZE_DISABLED;
+	private static int groupCommitWindow = GROUP_COMMIT_DISABLED;
+	private static int queryCacheSize = QUERY_CACHE_SIZE_DEFAULT;
+	private static boolean fastFieldAccess = true;
+	private static int indexBulkFill = INDEX_BULK_FILL_DEFAULT;
+	private static int indexSortBufferSize = INDEX_SORT_BUFFER_SIZE_DEFAULT;
+	private static int queryParallelism = QUERY_PARALLELISM_DISABLED;
 
 	public static void setDefaults() {
 		fileDefault = FILE_PAF_BB;
 		fileManagerDefault = FILE_MGR_ONE_FILE;
 		defaultPageSize = FILE_PAGE_SIZE_DEFAULT;
+		defaultPageCacheSize = FILE_PAGE_CACHE_SIZE_DEFAULT;
+		readAheadPages = READ_AHEAD_DISABLED;
+		objectCacheSize = OBJECT_CACHE_SIZE_DISABLED;
+		groupCommitWindow = GROUP_COMMIT_DISABLED;
+		queryCacheSize = QUERY_CACHE_SIZE_DEFAULT;
+		fastFieldAccess = true;
+		indexBulkFill = INDEX_BULK_FILL_DEFAULT;
+		indexSortBufferSize = INDEX_SORT_BUFFER_SIZE_DEFAULT;
+		queryParallelism = QUERY_PARALLELISM_DISABLED;
 	}
 	
 	public static void setFileManager(String className) {
@@ -46,6 +73,16 @@ public class ZooConfig {
 		return fileDefault;
 	}
 
+	/**
+	 * Set the storage implementation that is used for opening database files, for example
+	 * {@link #FILE_PAF_BB} or {@link #FILE_PAF_MAPPED}. This is reset when 
+	 * {@link #setFileManager(String)} is called.
+	 * @param className The class name of the storage implementation
+	 */
+	public static void setFileProcessor(String className) {
+		fileDefault = className;
+	}
+
 	public static String getFileManager() {
 		return fileManagerDefault;
 	}
@@ -61,4 +98,170 @@ public class ZooConfig {
 	public static void setFilePageSize(int pageSize) {
 		defaultPageSize = pageSize;
 	}
+
+	public static int getFilePageCacheSize() {
+		return defaultPageCacheSize;
+	}
+
+	/**
+	 * Set the size of the page cache that is shared by all sessions on a database file.
+	 * This takes effect when a database file is opened. 
+	 * @param nPages Cache size in pages, {@code 0} disables the cache.
+	 */
+	public static void setFilePageCacheSize(int nPages) {
+		if (nPages < 0) {
+			throw new IllegalArgumentException("Page cache size: " + nPages);
+		}
+		defaultPageCacheSize = nPages;
+	}
+
+	public static int getReadAheadPages() {
+		return readAheadPages;
+	}
+
+	/**
+	 * Set the number of pages that are read ahead by scans over all objects of a class
+	 * or over an index. The pages are read in the background into the page cache, 
+	 * read-ahead is therefore only possible if the page cache is enabled.
+	 * This takes effect when a database file is opened. 
+	 * @param nPages Number of pages, {@code 0} disables read-ahead.
+	 */
+	public static void setReadAheadPages(int nPages) {
+		if (nPages < 0) {
+			throw new IllegalArgumentException("Read-ahead: " + nPages);
+		}
+		readAheadPages = nPages;
+	}
+
+	public static long getObjectCacheSize() {
+		return objectCacheSize;
+	}
+
+	/**
+	 * Set the size of the object cache that is shared by all sessions on a database file.
+	 * The cache keeps serialized objects, this avoids reading and decoding the same data
+	 * again when several sessions load the same objects. Updated and deleted objects are
+	 * removed from the cache when a transaction commits.
+	 * This takes effect when a database file is opened. 
+	 * @param nBytes Cache size in bytes, {@link #OBJECT_CACHE_SIZE_DISABLED} disables the cache.
+	 */
+	public static void setObjectCacheSize(long nBytes) {
+		if (nBytes < 0) {
+			throw new IllegalArgumentException("Object cache size: " + nBytes);
+		}
+		objectCacheSize = nBytes;
+	}
+
+	public static int getGroupCommitWindow() {
+		return groupCommitWindow;
+	}
+
+	/**
+	 * Enable group commit. With group commit, concurrent commits on the same database file
+	 * are made durable together, with a single write of the root page and two syncs of the file
+	 * for the whole group, instead of two syncs per commit. A commit still returns only after
+	 * it is durable. However, other sessions on the same database file can see the changes
+	 * of a commit before they are durable, as soon as the commit has joined a group.
+	 * If a group cannot be written, its commits fail with a fatal exception even though
+	 * their changes may already have been seen by other sessions. The database file is then
+	 * unusable until all sessions have closed it; when it is reopened, it reflects the last
+	 * durable commit.
+	 * This takes effect when a database file is opened.
+	 * @param micros Time in microseconds that the first commit of a group waits for other
+	 * commits to join the group, {@code 0} for no waiting. {@link #GROUP_COMMIT_DISABLED}
+	 * disables group commit.
+	 */
+	public static void setGroupCommitWindow(int micros) {
+		if (micros < GROUP_COMMIT_DISABLED) {
+			throw new IllegalArgumentException("Group commit window: " + micros);
+		}
+		groupCommitWindow = micros;
+	}
+
+	public static int getQueryCacheSize() {
+		return queryCacheSize;
+	}
+
+	/**
+	 * Set the size of the cache for parsed queries. The cache is shared by all 
+	 * PersistenceManagers of a PersistenceManagerFactory.
+	 * This takes effect when the first query of a PersistenceManagerFactory is compiled.
+	 * @param nQueries Cache size in queries, {@code 0} disables the cache.
+	 */
+	public static void setQueryCacheSize(int nQueries) {
+		if (nQueries < 0) {
+			throw new IllegalArgumentException("Query cache size: " + nQueries);
+		}
+		queryCacheSize = nQueries;
+	}
+
+	public static boolean isFastFieldAccess() {
+		return fastFieldAccess;
+	}
+
+	/**
+	 * Enable or disable fast field access for (de-)serialization. If enabled, fields of 
+	 * persistent objects are accessed via method handles, otherwise via 
+	 * reflection. Fast field access falls back to reflection if it is not supported by the JVM.
+	 * This takes effect when a schema is first used in a session.
+	 * @param enabled {@code true} to enable fast field access, {@code false} for reflection.
+	 */
+	public static void setFastFieldAccess(boolean enabled) {
+		fastFieldAccess = enabled;
+	}
+
+	public static int getIndexBulkFill() {
+		return indexBulkFill;
+	}
+
+	/**
+	 * Set the fill ratio of index pages when an index is built for existing objects.
+	 * Higher values result in smaller indices, lower values leave more space for
+	 * later insertions.
+	 * This takes effect when the next index is created.
+	 * @param percent Fill ratio in percent, between 50 and 100.
+	 */
+	public static void setIndexBulkFill(int percent) {
+		if (percent < 50 || percent > 100) {
+			throw new IllegalArgumentException("Index fill ratio: " + percent);
+		}
+		indexBulkFill = percent;
+	}
+
+	public static int getIndexSortBufferSize() {
+		return indexSortBufferSize;
+	}
+
+	/**
+	 * Set the number of index entries that are sorted in memory when an index is built for
+	 * existing objects. Every entry requires 16 bytes. If there are more entries, they are 
+	 * sorted via temporary files.
+	 * This takes effect when the next index is created.
+	 * @param nEntries The number of entries.
+	 */
+	public static void setIndexSortBufferSize(int nEntries) {
+		if (nEntries < 1) {
+			throw new IllegalArgumentException("Index sort buffer size: " + nEntries);
+		}
+		indexSortBufferSize = nEntries;
+	}
+
+	public static int getQueryParallelism() {
+		return queryParallelism;
+	}
+
+	/**
+	 * Set the maximum number of partitions that are evaluated in parallel when a query 
+	 * has to scan all objects of a class. Only the evaluation of the query on the 
+	 * serialized objects is parallel, the matching objects are loaded by the calling thread.
+	 * The partitions are evaluated in the common fork-join pool.
+	 * This takes effect when the next query is executed.
+	 * @param nPartitions The number of partitions, {@code 1} disables parallel evaluation.
+	 */
+	public static void setQueryParallelism(int nPartitions) {
+		if (nPartitions < 1) {
+			throw new IllegalArgumentException("Query parallelism: " + nPartitions);
+		}
+		queryParallelism = nPartitions;
+	}
 }
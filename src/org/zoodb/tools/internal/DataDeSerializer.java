@@ -38,7 +38,6 @@ import javax.jdo.ObjectState;
 
 import org.zoodb.api.DBArrayList;
 import org.zoodb.api.DBHashMap;
-import org.zoodb.api.DBLargeVector;
 import org.zoodb.api.impl.ZooPC;
 import org.zoodb.internal.BinaryDataCorruptedException;
 import org.zoodb.internal.GenericObject;
@@ -250,7 +249,8 @@ public class DataDeSerializer {
     }
 
     private final void deserializeSpecialGO(GenericObject obj) {
-    	String cName = obj.jdoZooGetClassDef().getClassName();
+    	ZooClassDef def = obj.jdoZooGetClassDef();
+    	String cName = def.getClassName();
     	if (cName.equals(DBHashMap.class.getName())) {
     		in.startReadingField(-1);
             //Special treatment for persistent containers.
@@ -259,13 +259,7 @@ public class DataDeSerializer {
     		obj.setDbCollection(m);
     		deserializeDBHashMap(m);
     		in.stopReadingField();
-    	} else if (cName.equals(DBLargeVector.class.getName())) {
-    		in.startReadingField(-1);
-    		ArrayList<Object> l = new ArrayList<Object>();
-    		obj.setDbCollection(l);
-    		deserializeDBList(l);
-    		in.stopReadingField();
-    	} else if (cName.equals(DBArrayList.class.getName())) {
+    	} else if (cName.equals(DBArrayList.class.getName()) || def.isLegacyLargeVector()) {
     		in.startReadingField(-1);
     		ArrayList<Object> l = new ArrayList<Object>();
     		obj.setDbCollection(l);
@@ -744,7 +738,6 @@ public class DataDeSerializer {
 
     private Object getGO(long oid, ZooClassDef cls) {
     	if (cls.getClassName().equals(DBHashMap.class.getName()) || 
-    			cls.getClassName().equals(DBLargeVector.class.getName()) ||
     			cls.getClassName().equals(DBArrayList.class.getName())) {
     		return getInstance(cls, oid, null);
     	}
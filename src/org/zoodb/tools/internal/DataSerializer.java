@@ -32,7 +32,6 @@ import java.util.Set;
 
 import org.zoodb.api.DBArrayList;
 import org.zoodb.api.DBHashMap;
-import org.zoodb.api.DBLargeVector;
 import org.zoodb.api.impl.ZooPC;
 import org.zoodb.internal.GenericObject;
 import org.zoodb.internal.ZooClassDef;
@@ -168,9 +167,8 @@ public final class DataSerializer {
     	// Perform additional serialization for Persistent Containers
     	if (def.getClassName().equals(DBHashMap.class.getName())) {
     		serializeDBHashMap((HashMap<?, ?>) o.getDbCollection());
-    	} else if (def.getClassName().equals(DBLargeVector.class.getName())) {
-    		serializeDBList((ArrayList<?>) o.getDbCollection());
-    	} else if (def.getClassName().equals(DBArrayList.class.getName())) {
+    	} else if (def.getClassName().equals(DBArrayList.class.getName()) || 
+    			def.isLegacyLargeVector()) {
     		serializeDBList((ArrayList<?>) o.getDbCollection());
     	}
     	out.finishField();
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.jdo.internal.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import javax.jdo.PersistenceManager;
+
+import org.junit.After;
+import org.junit.Test;
+import org.zoodb.internal.server.PageCache;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.test.jdo.TestClass;
+import org.zoodb.test.testutil.TestTools;
+import org.zoodb.tools.DBStatistics;
+import org.zoodb.tools.ZooConfig;
+
+public class TestPageCache {
+
+	private static final int PAGE_SIZE = 64;
+
+	private final ArrayList<Long> written = new ArrayList<>();
+
+	private final PageCache.PageWriter writer = new PageCache.PageWriter() {
+		@Override
+		public void writeBack(ByteBuffer buf, long pageId) {
+			assertEquals(pageId, buf.getLong(0));
+			written.add(pageId);
+		}
+	};
+
+	@After
+	public void after() {
+		TestTools.closePM();
+		DBStatistics.enable(false);
+		ZooConfig.setReadAheadPages(ZooConfig.READ_AHEAD_DISABLED);
+	}
+
+	private static ByteBuffer page(long pageId) {
+		ByteBuffer b = ByteBuffer.allocate(PAGE_SIZE);
+		b.putLong(pageId);
+		b.flip();
+		return b;
+	}
+
+	@Test
+	public void testReadHitMiss() {
+		PageCache c = new PageCache(4, PAGE_SIZE, writer);
+		ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
+		assertFalse(c.read(buf, 1));
+		c.putClean(page(1), 1);
+		assertTrue(c.read(buf, 1));
+		assertEquals(8, buf.position());
+		assertEquals(1, buf.getLong(0));
+		assertEquals(1, c.statsGetHitCount());
+		assertEquals(1, c.statsGetMissCount());
+		c.flush();
+		assertTrue(written.isEmpty());
+	}
+
+	@Test
+	public void testEvictionWritesDirtyPages() {
+		PageCache c = new PageCache(4, PAGE_SIZE, writer);
+		for (int i = 1; i <= 4; i++) {
+			c.write(page(i), i);
+		}
+		assertEquals(4, c.getMaxDirtyPageId());
+		assertTrue(written.isEmpty());
+		//evict one
+		c.putClean(page(5), 5);
+		assertEquals(1, written.size());
+		assertEquals(4, c.size());
+
+		c.flush();
+		assertEquals(4, written.size());
+		assertEquals(-1, c.getMaxDirtyPageId());
+		//flushing again should not write anything
+		c.flush();
+		assertEquals(4, written.size());
+	}
+
+	@Test
+	public void testDirtyPageNotOverwrittenByRead() {
+		PageCache c = new PageCache(4, PAGE_SIZE, writer);
+		c.write(page(3), 3);
+		//stale page from disk
+		ByteBuffer stale = ByteBuffer.allocate(PAGE_SIZE);
+		stale.putLong(-3);
+		stale.flip();
+		c.putClean(stale, 3);
+
+		ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
+		assertTrue(c.read(buf, 3));
+		assertEquals(3, buf.getLong(0));
+	}
+
+	@Test
+	public void testPrefetchedPageOutdated() {
+		PageCache c = new PageCache(4, PAGE_SIZE, writer);
+		long wc = c.getWriteCount();
+		assertTrue(c.putPrefetched(page(1), 1, wc));
+		assertTrue(c.contains(1));
+		//already cached
+		assertFalse(c.putPrefetched(page(1), 1, wc));
+
+		//page 2 is written while it is prefetched
+		wc = c.getWriteCount();
+		c.write(page(2), 2);
+		ByteBuffer stale = ByteBuffer.allocate(PAGE_SIZE);
+		stale.putLong(-2);
+		stale.flip();
+		assertFalse(c.putPrefetched(stale, 2, wc));
+		c.flush();
+		ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
+		assertTrue(c.read(buf, 2));
+		assertEquals(2, buf.getLong(0));
+
+		//another page is written while page 3 is prefetched
+		wc = c.getWriteCount();
+		c.write(page(4), 4);
+		assertFalse(c.putPrefetched(page(3), 3, wc));
+		assertFalse(c.contains(3));
+	}
+
+	@Test
+	public void testReadAhead() {
+		final int N = 5000;
+		ZooConfig.setReadAheadPages(8);
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		for (int i = 0; i < N; i++) {
+			TestClass tc = new TestClass();
+			tc.setInt(i);
+			pm.makePersistent(tc);
+		}
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		//cold cache
+		DBStatistics.enable(true);
+		pm = TestTools.openPM();
+		DBStatistics stats = ZooJdoHelper.getStatistics(pm);
+		pm.currentTransaction().begin();
+		long sum = 0;
+		int n = 0;
+		for (Object o: pm.getExtent(TestClass.class)) {
+			sum += ((TestClass) o).getInt();
+			n++;
+		}
+		assertEquals(N, n);
+		assertEquals((long) N * (N - 1) / 2, sum);
+		pm.currentTransaction().rollback();
+		assertTrue(stats.getStoragePageReadAheadCount() > 0);
+		TestTools.closePM();
+		TestTools.removeDb();
+	}
+
+	@Test
+	public void testClockSecondChance() {
+		PageCache c = new PageCache(2, PAGE_SIZE, writer);
+		c.write(page(1), 1);
+		c.write(page(2), 2);
+		//clears the reference bits, evicts 1
+		c.putClean(page(3), 3);
+		assertEquals(1, written.size());
+		assertEquals(1L, (long) written.get(0));
+
+		//3 has been referenced recently, so 2 should be evicted next
+		c.putClean(page(4), 4);
+		assertEquals(2, written.size());
+		assertEquals(2L, (long) written.get(1));
+		ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
+		assertTrue(c.read(buf, 3));
+		buf.clear();
+		assertFalse(c.read(buf, 2));
+	}
+
+	@Test
+	public void testStatistics() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+		DBStatistics.enable(true);
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		for (int i = 0; i < 100; i++) {
+			pm.makePersistent(new TestClass());
+		}
+		pm.currentTransaction().commit();
+
+		DBStatistics stats = ZooJdoHelper.getStatistics(pm);
+		long hit0 = stats.getStoragePageCacheHitCount();
+		pm.currentTransaction().begin();
+		pm.evictAll();
+		int n = 0;
+		for (Object o: pm.getExtent(TestClass.class)) {
+			assertTrue(o instanceof TestClass);
+			n++;
+		}
+		assertEquals(100, n);
+		pm.currentTransaction().rollback();
+		assertTrue(stats.getStoragePageCacheHitCount() > hit0);
+		TestTools.closePM();
+		TestTools.removeDb();
+	}
+}
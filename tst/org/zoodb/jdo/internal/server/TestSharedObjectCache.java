@@ -0,0 +1,163 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.jdo.internal.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.jdo.PersistenceManager;
+
+import org.junit.After;
+import org.junit.Test;
+import org.zoodb.internal.server.SharedObjectCache;
+import org.zoodb.internal.server.TxObjInfo;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.test.jdo.TestClass;
+import org.zoodb.test.jdo.TestClass.ENUM;
+import org.zoodb.test.testutil.TestTools;
+import org.zoodb.tools.DBStatistics;
+import org.zoodb.tools.ZooConfig;
+
+public class TestSharedObjectCache {
+
+	private static final int N = 100;
+
+	@After
+	public void after() {
+		TestTools.closePM();
+		TestTools.removeDb();
+		ZooConfig.setObjectCacheSize(ZooConfig.OBJECT_CACHE_SIZE_DISABLED);
+	}
+
+	@Test
+	public void testHitMiss() {
+		SharedObjectCache c = new SharedObjectCache(10000);
+		assertNull(c.get(1, 100));
+		c.put(1, 100, new byte[]{1, 2, 3});
+		assertArrayEquals(new byte[]{1, 2, 3}, c.get(1, 100));
+		//different position, e.g. older snapshot
+		assertNull(c.get(1, 200));
+		assertEquals(1, c.statsGetHitCount());
+		assertEquals(2, c.statsGetMissCount());
+	}
+
+	@Test
+	public void testEvictionLRU() {
+		//room for about three entries
+		SharedObjectCache c = new SharedObjectCache(3 * (100 + 64));
+		c.put(1, 1, new byte[100]);
+		c.put(2, 2, new byte[100]);
+		c.put(3, 3, new byte[100]);
+		//1 is now more recently used than 2
+		assertNotNull(c.get(1, 1));
+		c.put(4, 4, new byte[100]);
+		assertEquals(3, c.size());
+		assertNull(c.get(2, 2));
+		assertNotNull(c.get(1, 1));
+		assertNotNull(c.get(4, 4));
+		assertTrue(c.getSizeInBytes() <= c.getCapacity());
+
+		//too large
+		c.put(5, 5, new byte[1000]);
+		assertNull(c.get(5, 5));
+		assertEquals(3, c.size());
+	}
+
+	@Test
+	public void testInvalidate() {
+		SharedObjectCache c = new SharedObjectCache(10000);
+		c.put(1, 1, new byte[10]);
+		c.put(2, 2, new byte[10]);
+		c.invalidate(Arrays.asList(new TxObjInfo(1, 0, false), new TxObjInfo(3, 0, true)));
+		assertNull(c.get(1, 1));
+		assertNotNull(c.get(2, 2));
+		assertEquals(1, c.size());
+		c.clear();
+		assertEquals(0, c.size());
+		assertEquals(0, c.getSizeInBytes());
+	}
+
+	@Test
+	public void testSharedBetweenSessions() {
+		ZooConfig.setObjectCacheSize(1024 * 1024);
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+
+		PersistenceManager pm1 = TestTools.openPM();
+		pm1.currentTransaction().begin();
+		ArrayList<TestClass> objs = new ArrayList<>();
+		ArrayList<Object> oids = new ArrayList<>();
+		for (int i = 0; i < N; i++) {
+			TestClass tc = new TestClass();
+			tc.setData(i, true, 'c', (byte) 3, (short) 4, 5L, "str" + i, new byte[]{1, 2},
+					-1.1f, 35., ENUM.B);
+			pm1.makePersistent(tc);
+			objs.add(tc);
+			oids.add(pm1.getObjectId(tc));
+		}
+		pm1.currentTransaction().commit();
+
+		//load objects in a second session
+		PersistenceManager pm2 = pm1.getPersistenceManagerFactory().getPersistenceManager();
+		pm2.currentTransaction().begin();
+		for (Object oid: oids) {
+			assertNotNull(pm2.getObjectById(oid));
+		}
+		pm2.currentTransaction().commit();
+
+		//reload in the first session
+		DBStatistics stats = ZooJdoHelper.getStatistics(pm1);
+		long hit0 = stats.getObjectCacheHitCount();
+		pm1.currentTransaction().begin();
+		pm1.evictAll();
+		for (int i = 0; i < N; i++) {
+			TestClass tc = objs.get(i);
+			assertEquals(i, tc.getInt());
+			assertEquals("str" + i, tc.getString());
+			assertArrayEquals(new byte[]{1, 2}, tc.getBytaArray());
+			assertEquals(35., tc.getDouble(), 0.0);
+		}
+		pm1.currentTransaction().commit();
+		assertTrue(stats.getObjectCacheHitCount() >= hit0 + N);
+
+		//updates are visible in other sessions
+		pm2.currentTransaction().begin();
+		TestClass tc2 = (TestClass) pm2.getObjectById(oids.get(0));
+		tc2.setInt(-1);
+		pm2.deletePersistent(pm2.getObjectById(oids.get(1)));
+		pm2.currentTransaction().commit();
+		pm2.close();
+
+		pm1.currentTransaction().begin();
+		pm1.evictAll();
+		assertEquals(-1, objs.get(0).getInt());
+		assertEquals(2, objs.get(2).getInt());
+		pm1.currentTransaction().commit();
+		TestTools.closePM();
+	}
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.jdo.JDOHelper;
+import javax.jdo.JDOUserException;
+import javax.jdo.PersistenceManager;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.zoodb.api.DBLargeHashMap;
+import org.zoodb.api.impl.ZooPC;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Test harness for DBLargeHashMap.
+ *
+ * @author Tilmann Zaeschke
+ */
+public final class DBLargeHashMapTest {
+
+	/** Long.hashCode() is 0 for all multiples of this value. */
+	private static final long COLLISION = (1L << 32) | 1L;
+
+	@Before
+	public void before() {
+		TestTools.createDb();
+		TestTools.defineSchema(PersistentDummyImpl.class);
+	}
+
+	@After
+	public void after() {
+		TestTools.closePM();
+		TestTools.removeDb();
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		TestTools.removeDb();
+	}
+
+	private static void compare(Map<Long, String> expected, DBLargeHashMap<Long, String> map) {
+		assertEquals(expected.size(), map.size());
+		for (Map.Entry<Long, String> e: expected.entrySet()) {
+			assertEquals(e.getValue(), map.get(e.getKey()));
+		}
+		HashMap<Long, String> copy = new HashMap<>();
+		for (Map.Entry<Long, String> e: map.entrySet()) {
+			assertNull(copy.put(e.getKey(), e.getValue()));
+		}
+		assertEquals(expected, copy);
+	}
+
+	/**
+	 * Random operations with small nodes, including hash collisions.
+	 */
+	@Test
+	public void testTransient() {
+		DBLargeHashMap<Long, String> map = new DBLargeHashMap<>(4);
+		HashMap<Long, String> ref = new HashMap<>();
+		Random r = new Random(0);
+		for (int i = 0; i < 20000; i++) {
+			long key = r.nextInt(500);
+			if (r.nextInt(4) == 0) {
+				key *= COLLISION;
+			}
+			if (r.nextInt(3) == 0) {
+				assertEquals(ref.remove(key), map.remove(key));
+			} else {
+				assertEquals(ref.put(key, "v" + i), map.put(key, "v" + i));
+			}
+		}
+		compare(ref, map);
+
+		for (Long key: ref.keySet()) {
+			assertTrue(map.containsKey(key));
+			assertEquals(ref.get(key), map.remove(key));
+			assertFalse(map.containsKey(key));
+		}
+		assertTrue(map.isEmpty());
+		assertFalse(map.entrySet().iterator().hasNext());
+		map.put(null, "null");
+		assertEquals("null", map.get(null));
+		assertTrue(map.containsValue("null"));
+	}
+
+	@Test
+	public void testPersistent() {
+		final int N = 10000;
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		DBLargeHashMap<Long, String> map = new DBLargeHashMap<>(16);
+		HashMap<Long, String> ref = new HashMap<>();
+		for (long i = 0; i < N; i++) {
+			long key = i % 1000 == 0 ? i * COLLISION : i;
+			map.put(key, "v" + i);
+			ref.put(key, "v" + i);
+		}
+		pm.makePersistent(map);
+		Object oid = pm.getObjectId(map);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		//lookups load only the path to the entry
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		@SuppressWarnings("unchecked")
+		DBLargeHashMap<Long, String> map2 = (DBLargeHashMap<Long, String>) pm.getObjectById(oid);
+		assertEquals(N, map2.size());
+		assertEquals("v1234", map2.get(1234L));
+		assertEquals("v3000", map2.get(3000L * COLLISION));
+		assertNull(map2.get(-5L));
+		int nLoaded = 0;
+		for (Object o: pm.getManagedObjects()) {
+			if (!((ZooPC) o).jdoZooIsStateHollow()) {
+				nLoaded++;
+			}
+		}
+		assertTrue("" + nLoaded, nLoaded < 20);
+
+		//updates modify only the path to the entry
+		map2.put(1234L, "x");
+		map2.put(-1L, "y");
+		assertEquals("v4321", map2.remove(4321L));
+		ref.put(1234L, "x");
+		ref.put(-1L, "y");
+		ref.remove(4321L);
+		int nDirty = 0;
+		for (Object o: pm.getManagedObjects()) {
+			if (JDOHelper.isDirty(o)) {
+				nDirty++;
+			}
+		}
+		assertTrue("" + nDirty, nDirty < 10);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		@SuppressWarnings("unchecked")
+		DBLargeHashMap<Long, String> map3 = (DBLargeHashMap<Long, String>) pm.getObjectById(oid);
+		compare(ref, map3);
+
+		//remove everything
+		for (Long key: ref.keySet()) {
+			map3.remove(key);
+		}
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		assertTrue(map3.isEmpty());
+		assertFalse(map3.keySet().iterator().hasNext());
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testRemovedNodesAreDeleted() throws ClassNotFoundException {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		DBLargeHashMap<Integer, Integer> map = new DBLargeHashMap<>(4);
+		pm.makePersistent(map);
+		for (int i = 0; i < 1000; i++) {
+			map.put(i, i);
+		}
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i, (int) map.remove(i));
+		}
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		Class<?> nodeCls = Class.forName("org.zoodb.api.DBLargeHashMapNode");
+		int n = 0;
+		for (Object o: pm.getExtent(nodeCls)) {
+			assertTrue(o != null);
+			n++;
+		}
+		assertEquals(1, n);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testDeleteMap() throws ClassNotFoundException {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		DBLargeHashMap<Integer, Integer> map = new DBLargeHashMap<>(4);
+		pm.makePersistent(map);
+		for (int i = 0; i < 1000; i++) {
+			map.put(i, i);
+		}
+		Object oid = pm.getObjectId(map);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		//delete the map while it is hollow
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		pm.deletePersistent(pm.getObjectById(oid));
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		Class<?> nodeCls = Class.forName("org.zoodb.api.DBLargeHashMapNode");
+		assertFalse(pm.getExtent(nodeCls).iterator().hasNext());
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testUnstableKeyHash() {
+		DBLargeHashMap<Object, String> map = new DBLargeHashMap<>();
+		map.put("x", "x");
+		map.put(1L, "1");
+		map.put(Thread.State.NEW, "new");
+		try {
+			map.put(new Object(), "o");
+			fail();
+		} catch (JDOUserException e) {
+			//good, Object.hashCode() differs between JVMs
+		}
+		assertEquals(3, map.size());
+	}
+
+	@Test
+	public void testPersistentKeys() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		DBLargeHashMap<PersistentDummyImpl, String> map = new DBLargeHashMap<>(4);
+		pm.makePersistent(map);
+		PersistentDummyImpl[] keys = new PersistentDummyImpl[100];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = new PersistentDummyImpl();
+			//not yet persistent
+			map.put(keys[i], "v" + i);
+		}
+		Object oid = pm.getObjectId(map);
+		Object oidKey = pm.getObjectId(keys[42]);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		@SuppressWarnings("unchecked")
+		DBLargeHashMap<PersistentDummyImpl, String> map2 =
+				(DBLargeHashMap<PersistentDummyImpl, String>) pm.getObjectById(oid);
+		PersistentDummyImpl key = (PersistentDummyImpl) pm.getObjectById(oidKey);
+		assertEquals("v42", map2.get(key));
+		assertEquals(100, map2.size());
+		assertNull(map2.get(new PersistentDummyImpl()));
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import javax.jdo.JDOHelper;
+import javax.jdo.PersistenceManager;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.zoodb.api.DBArrayList;
+import org.zoodb.api.DBCollection;
+import org.zoodb.api.DBLargeVector;
+import org.zoodb.api.DBLargeVectorChunk;
+import org.zoodb.api.impl.ZooPC;
+import org.zoodb.internal.ZooHandleImpl;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.schema.ZooClass;
+import org.zoodb.schema.ZooHandle;
+import org.zoodb.schema.ZooSchema;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Test harness for DBLargeVector.
+ *
+ * @author Tilmann Zaeschke
+ */
+public final class DBLargeVectorTest {
+
+	@Before
+	public void before() {
+		TestTools.createDb();
+		TestTools.defineSchema(PersistentDummyImpl.class);
+	}
+
+	@After
+	public void after() {
+		TestTools.closePM();
+		TestTools.removeDb();
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		TestTools.removeDb();
+	}
+
+	private static int countLoadedChunks(PersistenceManager pm) {
+		int n = 0;
+		for (Object o: pm.getManagedObjects()) {
+			if (o instanceof DBLargeVectorChunk && !((ZooPC) o).jdoZooIsStateHollow()) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	private static int countDirty(PersistenceManager pm) {
+		int n = 0;
+		for (Object o: pm.getManagedObjects()) {
+			if (JDOHelper.isDirty(o)) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Random operations with small chunks.
+	 */
+	@Test
+	public void testTransient() {
+		DBLargeVector<Integer> v = new DBLargeVector<>(3);
+		assertTrue(v instanceof DBCollection);
+		ArrayList<Integer> ref = new ArrayList<>();
+		Random r = new Random(0);
+		for (int i = 0; i < 5000; i++) {
+			int op = r.nextInt(10);
+			if (op < 5 || ref.isEmpty()) {
+				v.add(i);
+				ref.add(i);
+			} else if (op < 7) {
+				int pos = r.nextInt(ref.size() + 1);
+				v.add(pos, i);
+				ref.add(pos, i);
+			} else if (op < 9) {
+				int pos = r.nextInt(ref.size());
+				assertEquals(ref.remove(pos), v.remove(pos));
+			} else {
+				int pos = r.nextInt(ref.size());
+				assertEquals(ref.set(pos, -i), v.set(pos, -i));
+			}
+		}
+		assertEquals(ref, new ArrayList<>(v));
+		assertEquals(ref.size(), v.size());
+		assertEquals(ref.indexOf(ref.get(100)), v.indexOf(ref.get(100)));
+
+		//iterator removal
+		Iterator<Integer> it = v.iterator();
+		while (it.hasNext()) {
+			if (it.next() % 2 == 0) {
+				it.remove();
+			}
+		}
+		for (Iterator<Integer> it2 = ref.iterator(); it2.hasNext(); ) {
+			if (it2.next() % 2 == 0) {
+				it2.remove();
+			}
+		}
+		assertEquals(ref, new ArrayList<>(v));
+
+		try {
+			for (Integer i: v) {
+				v.add(i);
+			}
+			fail();
+		} catch (ConcurrentModificationException e) {
+			//good
+		}
+
+		v.clear();
+		assertTrue(v.isEmpty());
+		assertFalse(v.iterator().hasNext());
+	}
+
+	@Test
+	public void testPersistent() {
+		final int N = 9950;
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		DBLargeVector<String> v = new DBLargeVector<>(100);
+		for (int i = 0; i < N; i++) {
+			v.add("v" + i);
+		}
+		pm.makePersistent(v);
+		Object oid = pm.getObjectId(v);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		//get() loads a single chunk
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		@SuppressWarnings("unchecked")
+		List<String> v2 = (List<String>) pm.getObjectById(oid);
+		assertEquals(N, v2.size());
+		assertEquals("v5555", v2.get(5555));
+		assertEquals("v5500", v2.get(5500));
+		assertEquals(1, countLoadedChunks(pm));
+
+		//add() modifies only the vector and the last chunk
+		v2.add("x1");
+		assertEquals(2, countDirty(pm));
+		//this fills the last chunk and requires a new chunk
+		for (int i = 0; i < 100; i++) {
+			v2.add("y" + i);
+		}
+		assertEquals(2, countDirty(pm));
+		v2.set(42, "z");
+		assertEquals(3, countDirty(pm));
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		@SuppressWarnings("unchecked")
+		List<String> v3 = (List<String>) pm.getObjectById(oid);
+		assertEquals(N + 101, v3.size());
+		int i = 0;
+		for (String s: v3) {
+			if (i == 42) {
+				assertEquals("z", s);
+			} else if (i < N) {
+				assertEquals("v" + i, s);
+			} else if (i == N) {
+				assertEquals("x1", s);
+			} else {
+				assertEquals("y" + (i - N - 1), s);
+			}
+			i++;
+		}
+		assertEquals(N + 101, i);
+
+		//removing from the end deletes chunks
+		while (v3.size() > 150) {
+			v3.remove(v3.size() - 1);
+		}
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		int n = 0;
+		for (Object o: pm.getExtent(DBLargeVectorChunk.class)) {
+			assertTrue(o != null);
+			n++;
+		}
+		assertEquals(2, n);
+		assertEquals("v149", v3.get(149));
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testPersistentElements() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		DBLargeVector<PersistentDummyImpl> v = new DBLargeVector<>(10);
+		pm.makePersistent(v);
+		for (int i = 0; i < 100; i++) {
+			PersistentDummyImpl p = new PersistentDummyImpl();
+			p.setData(new byte[] {(byte) i});
+			v.add(p);
+		}
+		Object oid = pm.getObjectId(v);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		@SuppressWarnings("unchecked")
+		DBLargeVector<PersistentDummyImpl> v2 =
+				(DBLargeVector<PersistentDummyImpl>) pm.getObjectById(oid);
+		assertEquals(100, v2.size());
+		assertEquals(77, v2.get(77).getData()[0]);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testDeleteVector() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		DBLargeVector<Integer> v = new DBLargeVector<>(10);
+		pm.makePersistent(v);
+		for (int i = 0; i < 100; i++) {
+			v.add(i);
+		}
+		Object oid = pm.getObjectId(v);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		//delete the vector while it is hollow
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		pm.deletePersistent(pm.getObjectById(oid));
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		assertFalse(pm.getExtent(DBLargeVectorChunk.class).iterator().hasNext());
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	/**
+	 * DBLargeVector used to be a sub-class of DBArrayList, its elements were stored in a
+	 * single blob.
+	 */
+	@Test
+	public void testLegacyFormat() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooSchema schema = ZooJdoHelper.schema(pm);
+		ZooClass cls = schema.defineEmptyClass(DBLargeVector.class.getName(), 
+				schema.getClass(DBArrayList.class));
+		ZooHandle h = cls.newInstance();
+		ArrayList<Object> list = new ArrayList<>();
+		for (int i = 0; i < 2500; i++) {
+			list.add("e" + i);
+		}
+		((ZooHandleImpl) h).getGenericObject().setDbCollection(list);
+		long oid = h.getOid();
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		//read only
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		@SuppressWarnings("unchecked")
+		DBLargeVector<String> v = (DBLargeVector<String>) pm.getObjectById(oid);
+		assertEquals(2500, v.size());
+		assertEquals("e2499", v.get(2499));
+		pm.currentTransaction().rollback();
+		TestTools.closePM();
+
+		//convert
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		@SuppressWarnings("unchecked")
+		DBLargeVector<String> v2 = (DBLargeVector<String>) pm.getObjectById(oid);
+		assertEquals(2500, v2.size());
+		v2.add("x");
+		DBLargeVector<String> v3 = new DBLargeVector<>();
+		v3.add("y");
+		pm.makePersistent(v3);
+		Object oid3 = pm.getObjectId(v3);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		@SuppressWarnings("unchecked")
+		DBLargeVector<String> v4 = (DBLargeVector<String>) pm.getObjectById(oid);
+		assertEquals(2501, v4.size());
+		assertEquals("e0", v4.get(0));
+		assertEquals("x", v4.get(2500));
+		assertEquals("y", ((DBLargeVector<?>) pm.getObjectById(oid3)).get(0));
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import javax.jdo.JDOUserException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zoodb.internal.server.DiskIO.PAGE_TYPE;
+import org.zoodb.internal.server.StorageChannel;
+import org.zoodb.internal.server.StorageRootInMemory;
+import org.zoodb.internal.server.index.IndexFactory;
+import org.zoodb.internal.server.index.LongLongIndex;
+import org.zoodb.internal.server.index.LongLongIndex.LLEntry;
+import org.zoodb.internal.server.index.LongLongSorter;
+import org.zoodb.tools.ZooConfig;
+
+/**
+ * Tests for building indices from sorted entries.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class TestLongLongBulkLoad {
+
+	private static final int PAGE_SIZE = 128;
+
+	@Before
+	public void setUp() {
+		ZooConfig.setFilePageSize(PAGE_SIZE);
+	}
+
+	@After
+	public void tearDown() {
+		ZooConfig.setFilePageSize(ZooConfig.FILE_PAGE_SIZE_DEFAULT);
+	}
+
+	private StorageChannel createPageAccessFile() {
+		return new StorageRootInMemory(ZooConfig.getFilePageSize()).createChannel();
+	}
+
+	private static void check(TreeMap<Long, Long> expected, LongLongIndex ind) {
+		Iterator<LLEntry> it = ind.iterator();
+		for (Map.Entry<Long, Long> e: expected.entrySet()) {
+			assertTrue(it.hasNext());
+			LLEntry e2 = it.next();
+			assertEquals((long) e.getKey(), e2.getKey());
+			assertEquals((long) e.getValue(), e2.getValue());
+		}
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void testSorter() {
+		Random r = new Random(0);
+		//small buffer for several runs
+		LongLongSorter sorter = new LongLongSorter(1000);
+		TreeMap<Long, Long> expected = new TreeMap<Long, Long>();
+		for (int i = 0; i < 10000; i++) {
+			long key = r.nextLong();
+			sorter.add(key, i);
+			expected.put(key, (long) i);
+		}
+		assertEquals(9, sorter.statsGetRunsN());
+		assertEquals(10000, sorter.size());
+		for (Map.Entry<Long, Long> e: expected.entrySet()) {
+			assertTrue(sorter.next());
+			assertEquals((long) e.getKey(), sorter.getKey());
+			assertEquals((long) e.getValue(), sorter.getValue());
+		}
+		assertFalse(sorter.next());
+		sorter.close();
+	}
+
+	@Test
+	public void testUnique() {
+		StorageChannel paf = createPageAccessFile();
+		LongLongIndex.LongLongUIndex ind = IndexFactory.createUniqueIndex(
+				PAGE_TYPE.GENERIC_INDEX, paf);
+		Random r = new Random(0);
+		LongLongSorter sorter = new LongLongSorter(777);
+		TreeMap<Long, Long> expected = new TreeMap<Long, Long>();
+		for (int i = 0; i < 20000; i++) {
+			long key = r.nextInt(1000000) - 500000;
+			if (!expected.containsKey(key)) {
+				sorter.add(key, i);
+				expected.put(key, (long) i);
+			}
+		}
+		ind.bulkLoad(sorter, 90, true);
+		sorter.close();
+		check(expected, ind);
+		assertEquals((long) expected.firstKey(), ind.getMinKey());
+		assertEquals((long) expected.lastKey(), ind.getMaxKey());
+
+		//the index is smaller than after random insertion
+		LongLongIndex.LongLongUIndex ind2 = IndexFactory.createUniqueIndex(
+				PAGE_TYPE.GENERIC_INDEX, createPageAccessFile());
+		ArrayList<Long> keys = new ArrayList<Long>(expected.keySet());
+		Collections.shuffle(keys, r);
+		for (long key: keys) {
+			ind2.insertLong(key, expected.get(key));
+		}
+		assertTrue(ind.statsGetLeavesN() < ind2.statsGetLeavesN());
+
+		//the index can be updated and written
+		for (int i = 0; i < 5000; i++) {
+			long key = r.nextInt(1000000) - 500000;
+			if (r.nextBoolean()) {
+				ind.insertLong(key, -i);
+				expected.put(key, (long) -i);
+			} else if (expected.remove(key) != null) {
+				ind.removeLong(key);
+			}
+		}
+		check(expected, ind);
+		int root = ind.write();
+		ind = IndexFactory.loadUniqueIndex(PAGE_TYPE.GENERIC_INDEX, paf, root);
+		check(expected, ind);
+		for (Map.Entry<Long, Long> e: expected.entrySet()) {
+			assertEquals((long) e.getValue(), ind.findValue(e.getKey()).getValue());
+		}
+	}
+
+	@Test
+	public void testNonUnique() {
+		StorageChannel paf = createPageAccessFile();
+		LongLongIndex ind = IndexFactory.createIndex(PAGE_TYPE.GENERIC_INDEX, paf);
+		LongLongSorter sorter = new LongLongSorter(100);
+		for (int i = 0; i < 3000; i++) {
+			sorter.add(i % 7, 3000 - i);
+		}
+		ind.bulkLoad(sorter, 100, true);
+		sorter.close();
+
+		for (int k = 0; k < 7; k++) {
+			Iterator<LLEntry> it = ind.iterator(k, k);
+			long prev = Long.MIN_VALUE;
+			int n = 0;
+			while (it.hasNext()) {
+				LLEntry e = it.next();
+				assertEquals(k, e.getKey());
+				assertTrue(e.getValue() > prev);
+				prev = e.getValue();
+				n++;
+			}
+			assertEquals(k < 4 ? 429 : 428, n);
+		}
+
+		ind.insertLong(3, 0);
+		ind.removeLong(5, 3000 - 5);
+		int root = ind.write();
+		ind = IndexFactory.loadIndex(PAGE_TYPE.GENERIC_INDEX, paf, root);
+		assertEquals(0, ind.iterator(3, 3).next().getValue());
+		Iterator<LLEntry> it = ind.iterator(5, 5);
+		int n = 0;
+		while (it.hasNext()) {
+			assertTrue(it.next().getValue() != 3000 - 5);
+			n++;
+		}
+		assertEquals(427, n);
+	}
+
+	@Test
+	public void testEmptyAndSmall() {
+		LongLongIndex ind = IndexFactory.createIndex(PAGE_TYPE.GENERIC_INDEX,
+				createPageAccessFile());
+		LongLongSorter sorter = new LongLongSorter(10);
+		ind.bulkLoad(sorter, 90, true);
+		assertFalse(ind.iterator().hasNext());
+
+		ind = IndexFactory.createIndex(PAGE_TYPE.GENERIC_INDEX, createPageAccessFile());
+		sorter = new LongLongSorter(10);
+		sorter.add(5, 5);
+		ind.bulkLoad(sorter, 90, true);
+		assertEquals(5, ind.iterator().next().getKey());
+		ind.insertLong(1, 1);
+		assertEquals(1, ind.iterator().next().getKey());
+	}
+
+	@Test
+	public void testDuplicateKeys() {
+		LongLongIndex ind = IndexFactory.createUniqueIndex(PAGE_TYPE.GENERIC_INDEX,
+				createPageAccessFile());
+		LongLongSorter sorter = new LongLongSorter(10);
+		for (int i = 0; i < 100; i++) {
+			sorter.add(i, i);
+		}
+		sorter.add(50, 1000);
+		try {
+			ind.bulkLoad(sorter, 90, true);
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		} finally {
+			sorter.close();
+		}
+
+		//without failing, the highest value is used
+		ind = IndexFactory.createUniqueIndex(PAGE_TYPE.GENERIC_INDEX, createPageAccessFile());
+		sorter = new LongLongSorter(10);
+		for (int i = 0; i < 100; i++) {
+			sorter.add(i, i);
+		}
+		sorter.add(50, 1000);
+		ind.bulkLoad(sorter, 90, false);
+		sorter.close();
+		TreeMap<Long, Long> expected = new TreeMap<Long, Long>();
+		for (long i = 0; i < 100; i++) {
+			expected.put(i, i);
+		}
+		expected.put(50L, 1000L);
+		check(expected, ind);
+	}
+}
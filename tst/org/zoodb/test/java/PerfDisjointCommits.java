@@ -0,0 +1,114 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.java;
+
+import java.util.ArrayList;
+
+import javax.jdo.PersistenceManager;
+
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.test.api.TestSuper;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Commit throughput of concurrent sessions that update disjoint sets of objects.
+ *
+ * Usage: PerfDisjointCommits [sessions] [commits per session] [objects per session]
+ *
+ * @author Tilmann Zaeschke
+ */
+public class PerfDisjointCommits {
+
+	private final int nSessions;
+	private final int nCommits;
+	private final int nObjects;
+
+	public PerfDisjointCommits(int nSessions, int nCommits, int nObjects) {
+		this.nSessions = nSessions;
+		this.nCommits = nCommits;
+		this.nObjects = nObjects;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int nSessions = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+		int nCommits = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int nObjects = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		new PerfDisjointCommits(nSessions, nCommits, nObjects).run();
+	}
+
+	public void run() throws InterruptedException {
+		System.out.println("Sessions: " + nSessions + "  commits/session: " + nCommits +
+				"  objects/session: " + nObjects);
+		System.out.println(String.format("%-10s %10s %12s %12s",
+				"run", "time[ms]", "commits", "commits/s"));
+		//warm-up
+		runOnce("warm-up");
+		runOnce("measure");
+	}
+
+	private void runOnce(String name) throws InterruptedException {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestSuper.class);
+
+		Thread[] threads = new Thread[nSessions];
+		for (int i = 0; i < nSessions; i++) {
+			final int id = i;
+			final PersistenceManager pm = ZooJdoHelper.openDB(TestTools.getDbName());
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						ArrayList<TestSuper> mine = new ArrayList<>();
+						pm.currentTransaction().begin();
+						for (int j = 0; j < nObjects; j++) {
+							TestSuper t = new TestSuper(0, id, new long[]{0});
+							pm.makePersistent(t);
+							mine.add(t);
+						}
+						pm.currentTransaction().commit();
+						for (int c = 1; c <= nCommits; c++) {
+							pm.currentTransaction().begin();
+							for (TestSuper t: mine) {
+								t.setData(new long[]{c});
+							}
+							pm.currentTransaction().commit();
+						}
+					} finally {
+						pm.close();
+					}
+				}
+			};
+		}
+
+		long t0 = System.currentTimeMillis();
+		for (Thread t: threads) {
+			t.start();
+		}
+		for (Thread t: threads) {
+			t.join();
+		}
+		long t = Math.max(1, System.currentTimeMillis() - t0);
+		TestTools.removeDb();
+		long n = nSessions * (nCommits + 1L);
+		System.out.println(String.format("%-10s %10d %12d %12d", name, t, n, n * 1000 / t));
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.java;
+
+import java.util.Arrays;
+
+import javax.jdo.PersistenceManager;
+
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.test.api.TestSuper;
+import org.zoodb.test.testutil.TestTools;
+import org.zoodb.tools.ZooConfig;
+
+/**
+ * Commit latency and throughput of small concurrent transactions, with and without 
+ * group commit.
+ * 
+ * Usage: PerfGroupCommit [sessions] [commits per session]
+ * 
+ * @author Tilmann Zaeschke
+ */
+public class PerfGroupCommit {
+
+	private static final int[] WINDOWS = {ZooConfig.GROUP_COMMIT_DISABLED, 0, 100, 500, 2000};
+	
+	private final int nSessions;
+	private final int nCommits;
+	
+	public PerfGroupCommit(int nSessions, int nCommits) {
+		this.nSessions = nSessions;
+		this.nCommits = nCommits;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int nSessions = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int nCommits = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		new PerfGroupCommit(nSessions, nCommits).run();
+	}
+
+	public void run() throws InterruptedException {
+		System.out.println("Sessions: " + nSessions + "  commits/session: " + nCommits);
+		System.out.println(String.format("%-10s %10s %10s %10s %10s %10s %12s", 
+				"window[us]", "p50[us]", "p90[us]", "p99[us]", "max[us]", "time[ms]", "commits/s"));
+		//warm-up
+		runOnce(ZooConfig.GROUP_COMMIT_DISABLED, false);
+		for (int w: WINDOWS) {
+			runOnce(w, true);
+		}
+		ZooConfig.setGroupCommitWindow(ZooConfig.GROUP_COMMIT_DISABLED);
+	}
+	
+	private void runOnce(int window, boolean print) throws InterruptedException {
+		ZooConfig.setGroupCommitWindow(window);
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestSuper.class);
+
+		final long[][] latencies = new long[nSessions][nCommits];
+		Thread[] threads = new Thread[nSessions];
+		for (int i = 0; i < nSessions; i++) {
+			final int id = i;
+			final PersistenceManager pm = ZooJdoHelper.openDB(TestTools.getDbName());
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int c = 0; c < nCommits; c++) {
+							pm.currentTransaction().begin();
+							pm.makePersistent(new TestSuper(c, id, null));
+							long t0 = System.nanoTime();
+							pm.currentTransaction().commit();
+							latencies[id][c] = System.nanoTime() - t0;
+						}
+					} finally {
+						pm.close();
+					}
+				}
+			};
+		}
+		
+		long t0 = System.currentTimeMillis();
+		for (Thread t: threads) {
+			t.start();
+		}
+		for (Thread t: threads) {
+			t.join();
+		}
+		long t = Math.max(1, System.currentTimeMillis() - t0);
+		TestTools.removeDb();
+		
+		if (!print) {
+			return;
+		}
+		long[] all = new long[nSessions * nCommits];
+		for (int i = 0; i < nSessions; i++) {
+			System.arraycopy(latencies[i], 0, all, i * nCommits, nCommits);
+		}
+		Arrays.sort(all);
+		System.out.println(String.format("%-10s %10d %10d %10d %10d %10d %12d", 
+				window < 0 ? "off" : Integer.toString(window), 
+				percentile(all, 50), percentile(all, 90), percentile(all, 99), 
+				all[all.length - 1] / 1000, t, all.length * 1000L / t));
+	}
+	
+	private static long percentile(long[] sorted, int p) {
+		int i = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, i)] / 1000;
+	}
+}
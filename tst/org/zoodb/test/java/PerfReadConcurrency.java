@@ -0,0 +1,123 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.java;
+
+import java.util.Collection;
+
+import javax.jdo.PersistenceManager;
+
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.test.api.TestSuper;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Read throughput of concurrent read-only transactions in different sessions.
+ *
+ * Usage: PerfReadConcurrency [sessions] [objects] [repeat]
+ *
+ * @author Tilmann Zaeschke
+ */
+public class PerfReadConcurrency {
+
+	private final int nSessions;
+	private final int nObjects;
+	private final int nRepeat;
+
+	public PerfReadConcurrency(int nSessions, int nObjects, int nRepeat) {
+		this.nSessions = nSessions;
+		this.nObjects = nObjects;
+		this.nRepeat = nRepeat;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int nSessions = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int nObjects = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+		int nRepeat = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		new PerfReadConcurrency(nSessions, nObjects, nRepeat).run();
+	}
+
+	public void run() throws InterruptedException {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestSuper.class);
+		TestTools.defineIndex(TestSuper.class, "_id", false);
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		for (int i = 0; i < nObjects; i++) {
+			pm.makePersistent(new TestSuper(i, i % nSessions, new long[]{i}));
+		}
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		System.out.println("Sessions: " + nSessions + "  objects: " + nObjects +
+				"  repeat: " + nRepeat);
+		System.out.println(String.format("%-10s %10s %12s %12s",
+				"run", "time[ms]", "objects", "obj/s"));
+		//warm-up
+		runOnce("warm-up");
+		runOnce("measure");
+		TestTools.removeDb();
+	}
+
+	private void runOnce(String name) throws InterruptedException {
+		final long[] nRead = new long[nSessions];
+		Thread[] threads = new Thread[nSessions];
+		for (int i = 0; i < nSessions; i++) {
+			final int id = i;
+			final PersistenceManager pm = ZooJdoHelper.openDB(TestTools.getDbName());
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int r = 0; r < nRepeat; r++) {
+							pm.currentTransaction().begin();
+							for (Object o: pm.getExtent(TestSuper.class)) {
+								((TestSuper) o).getData();
+								nRead[id]++;
+							}
+							Collection<?> c = (Collection<?>) pm.newQuery(
+									TestSuper.class, "_id == " + id).execute();
+							nRead[id] += c.size();
+							pm.evictAll();
+							pm.currentTransaction().rollback();
+						}
+					} finally {
+						pm.close();
+					}
+				}
+			};
+		}
+
+		long t0 = System.currentTimeMillis();
+		for (Thread t: threads) {
+			t.start();
+		}
+		for (Thread t: threads) {
+			t.join();
+		}
+		long t = Math.max(1, System.currentTimeMillis() - t0);
+		long n = 0;
+		for (long x: nRead) {
+			n += x;
+		}
+		System.out.println(String.format("%-10s %10d %12d %12d", name, t, n, n * 1000 / t));
+	}
+}
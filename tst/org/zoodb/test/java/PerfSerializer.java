@@ -34,13 +34,18 @@ public class PerfSerializer {
 		ZooConfig.setFileManager(ZooConfig.FILE_MGR_IN_MEMORY);
 		TestTools.createDb();
 		TestTools.defineSchema(TestClass.class);
+		//Alternate between reflection and fast field access to compare objects/second
 		for (int i = 0; i < 3; i++) {
-			new PerfSerializer().run();
+			new PerfSerializer().run(false);
+			new PerfSerializer().run(true);
 		}
+		ZooConfig.setFastFieldAccess(true);
 		TestTools.removeDb();
 	}
 
-	private void run() {
+	private void run(boolean fastFieldAccess) {
+		ZooConfig.setFastFieldAccess(fastFieldAccess);
+		System.out.println("Fast field access: " + fastFieldAccess);
 		
 		start("write");
 		PersistenceManager pm = TestTools.openPM();
@@ -51,7 +56,7 @@ public class PerfSerializer {
 		}
 		pm.currentTransaction().commit();
 		TestTools.closePM();
-		stop("write");
+		stop("write", MAX_OBJ);
 		
 		long sum = 0;
 		for (int j = 0; j < 2; j++) {
@@ -59,13 +64,14 @@ public class PerfSerializer {
 			pm = TestTools.openPM();
 			pm.currentTransaction().begin();
 			
-			
+			int n = 0;
 			for (TestClass tc: pm.getExtent(TestClass.class)) {
 				sum += tc.getLong();
+				n++;
 			}
 			pm.currentTransaction().rollback();
 			TestTools.closePM();
-			stop("read");
+			stop("read", n);
 		}
 		
 		System.out.println("sum=" + sum);
@@ -77,10 +83,11 @@ public class PerfSerializer {
 	private void start(String msg) {
 		_time = System.currentTimeMillis();
 	}
-	private void stop(String msg) {
+	private void stop(String msg, int nObj) {
 		long t = System.currentTimeMillis() - _time;
 		double td = t/1000.0;
 		_total += td;
-		System.out.println(msg + ": " + td + " / " + _total);
+		System.out.println(msg + ": " + td + " / " + _total + "   objects/s: " + 
+				(long)(nObj / Math.max(td, 0.001)));
 	}
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import javax.jdo.PersistenceManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.test.api.TestSuper;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Test that read-only transactions of different sessions run concurrently.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class Test_027_MultiSessionReadConcurrency {
+
+	private static final int N = 10000;
+	private static final int T = 4;
+	private static final int REPEAT = 5;
+	private static final int TIMEOUT_SEC = 30;
+
+	private final List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+
+	@Before
+	public void setUp() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestSuper.class);
+		TestTools.defineIndex(TestSuper.class, "_id", false);
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		for (int i = 0; i < N; i++) {
+			pm.makePersistent(new TestSuper(i, i % T, new long[]{i}));
+		}
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@After
+	public void tearDown() {
+		TestTools.removeDb();
+		checkErrors();
+	}
+
+	private void checkErrors() {
+		if (!errors.isEmpty()) {
+			RuntimeException e = new RuntimeException("errors: " + errors.size(), errors.get(0));
+			for (Throwable t: errors) {
+				e.addSuppressed(t);
+			}
+			//report only once
+			errors.clear();
+			throw e;
+		}
+	}
+
+	private class Reader extends Thread {
+
+		private final PersistenceManager pm;
+		private final int id;
+		private final CyclicBarrier barrier;
+		private int n = 0;
+
+		private Reader(int id, CyclicBarrier barrier) {
+			this.id = id;
+			this.barrier = barrier;
+			this.pm = ZooJdoHelper.openDB(TestTools.getDbName());
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public void run() {
+			try {
+				for (int r = 0; r < REPEAT; r++) {
+					pm.currentTransaction().begin();
+					//All readers have to be inside a transaction at the same time, this
+					//would time out if transactions used exclusive locks.
+					if (barrier != null) {
+						barrier.await(TIMEOUT_SEC, TimeUnit.SECONDS);
+					}
+					for (Object o: pm.getExtent(TestSuper.class)) {
+						assertTrue(((TestSuper) o).getData()[0] < N);
+						n++;
+					}
+					Collection<TestSuper> c = (Collection<TestSuper>) pm.newQuery(
+							TestSuper.class, "_id == " + id).execute();
+					for (TestSuper t: c) {
+						assertEquals(id, t.getId());
+						n++;
+					}
+					pm.evictAll();
+					pm.currentTransaction().rollback();
+				}
+			} catch (Throwable t) {
+				errors.add(t);
+			} finally {
+				if (pm.currentTransaction().isActive()) {
+					pm.currentTransaction().rollback();
+				}
+				pm.close();
+			}
+		}
+	}
+
+	private void runReaders(boolean useBarrier) throws InterruptedException {
+		CyclicBarrier barrier = useBarrier ? new CyclicBarrier(T) : null;
+		ArrayList<Reader> readers = new ArrayList<>();
+		for (int i = 0; i < T; i++) {
+			readers.add(new Reader(i, barrier));
+		}
+		for (Reader r: readers) {
+			r.start();
+		}
+		for (Reader r: readers) {
+			r.join();
+		}
+		checkErrors();
+		for (Reader r: readers) {
+			assertEquals(REPEAT * (N + N/T), r.n);
+		}
+	}
+
+	@Test
+	public void testConcurrentReadTransactions() throws InterruptedException {
+		runReaders(true);
+	}
+
+	/**
+	 * Concurrent readers together with a writer. The writer has to wait for the readers,
+	 * but the readers should never see inconsistent data.
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testConcurrentReadWithWriter() throws InterruptedException {
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				PersistenceManager pm = ZooJdoHelper.openDB(TestTools.getDbName());
+				try {
+					for (int r = 0; r < REPEAT; r++) {
+						pm.currentTransaction().begin();
+						for (Object o: pm.getExtent(TestSuper.class)) {
+							TestSuper t = (TestSuper) o;
+							//keep _id and the number of objects unchanged
+							t.setData(new long[]{t.getData()[0]});
+						}
+						pm.currentTransaction().commit();
+					}
+				} catch (Throwable t) {
+					errors.add(t);
+				} finally {
+					if (pm.currentTransaction().isActive()) {
+						pm.currentTransaction().rollback();
+					}
+					pm.close();
+				}
+			}
+		};
+		writer.start();
+		runReaders(false);
+		writer.join();
+	}
+}
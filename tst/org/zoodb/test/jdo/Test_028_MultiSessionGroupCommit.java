@@ -0,0 +1,191 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jdo.PersistenceManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.test.api.TestSuper;
+import org.zoodb.test.testutil.TestTools;
+import org.zoodb.tools.ZooConfig;
+
+/**
+ * Test concurrent commits of different sessions with group commit.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class Test_028_MultiSessionGroupCommit {
+
+	private static final int T = 4;
+	private static final int COMMITS = 50;
+	private static final int N = 10;
+
+	private final List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+
+	@Before
+	public void setUp() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestSuper.class);
+		TestTools.defineIndex(TestSuper.class, "_id", false);
+	}
+
+	@After
+	public void tearDown() {
+		TestTools.closePM();
+		TestTools.removeDb();
+		ZooConfig.setGroupCommitWindow(ZooConfig.GROUP_COMMIT_DISABLED);
+		checkErrors();
+	}
+
+	private void checkErrors() {
+		if (!errors.isEmpty()) {
+			RuntimeException e = new RuntimeException("errors: " + errors.size(), errors.get(0));
+			for (Throwable t: errors) {
+				e.addSuppressed(t);
+			}
+			//report only once
+			errors.clear();
+			throw e;
+		}
+	}
+
+	private class Writer extends Thread {
+
+		private final PersistenceManager pm;
+		private final int id;
+
+		private Writer(int id) {
+			this.id = id;
+			this.pm = ZooJdoHelper.openDB(TestTools.getDbName());
+		}
+
+		@Override
+		public void run() {
+			try {
+				ArrayList<TestSuper> mine = new ArrayList<>();
+				for (int c = 0; c < COMMITS; c++) {
+					pm.currentTransaction().begin();
+					for (int i = 0; i < N; i++) {
+						TestSuper t = new TestSuper(c, id, new long[]{c});
+						pm.makePersistent(t);
+						mine.add(t);
+					}
+					//modify some objects of previous transactions
+					for (int i = 0; i < mine.size(); i += 7) {
+						TestSuper t = mine.get(i);
+						t.setData(new long[]{t.getData()[0] + 1});
+					}
+					pm.currentTransaction().commit();
+				}
+			} catch (Throwable t) {
+				errors.add(t);
+			} finally {
+				if (pm.currentTransaction().isActive()) {
+					pm.currentTransaction().rollback();
+				}
+				pm.close();
+			}
+		}
+	}
+
+	private void runWriters() throws InterruptedException {
+		ArrayList<Writer> writers = new ArrayList<>();
+		for (int i = 0; i < T; i++) {
+			writers.add(new Writer(i));
+		}
+		for (Writer w: writers) {
+			w.start();
+		}
+		for (Writer w: writers) {
+			w.join();
+		}
+		checkErrors();
+		check();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void check() {
+		//reopen database
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		int n = 0;
+		for (Object o: pm.getExtent(TestSuper.class)) {
+			TestSuper t = (TestSuper) o;
+			assertTrue(t.getData()[0] >= t.getTime());
+			n++;
+		}
+		assertEquals(T * COMMITS * N, n);
+		for (int i = 0; i < T; i++) {
+			Collection<TestSuper> c = (Collection<TestSuper>) pm.newQuery(
+					TestSuper.class, "_id == " + i).execute();
+			assertEquals(COMMITS * N, c.size());
+		}
+		pm.currentTransaction().rollback();
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testGroupCommit() throws InterruptedException {
+		ZooConfig.setGroupCommitWindow(500);
+		runWriters();
+	}
+
+	@Test
+	public void testGroupCommitNoWindow() throws InterruptedException {
+		ZooConfig.setGroupCommitWindow(0);
+		runWriters();
+	}
+
+	@Test
+	public void testGroupCommitSingleSession() {
+		ZooConfig.setGroupCommitWindow(500);
+		PersistenceManager pm = TestTools.openPM();
+		for (int id = 0; id < T; id++) {
+			for (int c = 0; c < COMMITS; c++) {
+				pm.currentTransaction().begin();
+				for (int i = 0; i < N; i++) {
+					pm.makePersistent(new TestSuper(c, id, new long[]{c}));
+				}
+				pm.currentTransaction().commit();
+			}
+		}
+		TestTools.closePM();
+		check();
+	}
+
+	@Test
+	public void testDisabled() throws InterruptedException {
+		ZooConfig.setGroupCommitWindow(ZooConfig.GROUP_COMMIT_DISABLED);
+		runWriters();
+	}
+}
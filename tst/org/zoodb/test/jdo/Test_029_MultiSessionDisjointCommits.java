@@ -0,0 +1,143 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jdo.PersistenceManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.test.api.TestSuper;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Many sessions that commit concurrently, every session updates only its own objects.
+ * None of the commits should fail with a conflict.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class Test_029_MultiSessionDisjointCommits {
+
+	private static final int T = 32;
+	private static final int COMMITS = 20;
+	private static final int N = 10;
+
+	private final List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+
+	@Before
+	public void setUp() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestSuper.class);
+	}
+
+	@After
+	public void tearDown() {
+		TestTools.closePM();
+		TestTools.removeDb();
+		checkErrors();
+	}
+
+	private void checkErrors() {
+		if (!errors.isEmpty()) {
+			RuntimeException e = new RuntimeException("errors: " + errors.size(), errors.get(0));
+			for (Throwable t: errors) {
+				e.addSuppressed(t);
+			}
+			//report only once
+			errors.clear();
+			throw e;
+		}
+	}
+
+	private class Writer extends Thread {
+
+		private final PersistenceManager pm;
+		private final int id;
+
+		private Writer(int id) {
+			this.id = id;
+			this.pm = ZooJdoHelper.openDB(TestTools.getDbName());
+		}
+
+		@Override
+		public void run() {
+			try {
+				ArrayList<TestSuper> mine = new ArrayList<>();
+				pm.currentTransaction().begin();
+				for (int i = 0; i < N; i++) {
+					TestSuper t = new TestSuper(0, id, new long[]{0});
+					pm.makePersistent(t);
+					mine.add(t);
+				}
+				pm.currentTransaction().commit();
+				for (int c = 1; c <= COMMITS; c++) {
+					pm.currentTransaction().begin();
+					for (TestSuper t: mine) {
+						t.setData(new long[]{c});
+					}
+					pm.currentTransaction().commit();
+				}
+			} catch (Throwable t) {
+				errors.add(t);
+			} finally {
+				if (pm.currentTransaction().isActive()) {
+					pm.currentTransaction().rollback();
+				}
+				pm.close();
+			}
+		}
+	}
+
+	@Test
+	public void testDisjointCommits() throws InterruptedException {
+		ArrayList<Writer> writers = new ArrayList<>();
+		for (int i = 0; i < T; i++) {
+			writers.add(new Writer(i));
+		}
+		for (Writer w: writers) {
+			w.start();
+		}
+		for (Writer w: writers) {
+			w.join();
+		}
+		checkErrors();
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		int n = 0;
+		for (Object o: pm.getExtent(TestSuper.class)) {
+			TestSuper ts = (TestSuper) o;
+			assertEquals(COMMITS, ts.getData()[0]);
+			n++;
+		}
+		assertEquals(T * N, n);
+		pm.currentTransaction().rollback();
+		TestTools.closePM();
+	}
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.jdo.Constants;
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.JDOOptimisticVerificationException;
+import javax.jdo.JDOUnsupportedOptionException;
+import javax.jdo.JDOUserException;
+import javax.jdo.PersistenceManager;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Test snapshot isolation, i.e. read transactions that see the state of the database at the
+ * time they began and that do not block committing sessions.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class Test_049_TransactionsSnapshot {
+
+	private static final int N = 1000;
+
+	private PersistenceManager pm2;
+
+	@BeforeClass
+	public static void beforeClass() {
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+		TestTools.defineIndex(TestClass.class, "_int", false);
+	}
+
+	@Before
+	public void before() {
+		TestTools.dropInstances(TestClass.class);
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		for (int i = 0; i < N; i++) {
+			TestClass t = new TestClass();
+			t.setInt(i);
+			t.setLong(i);
+			pm.makePersistent(t);
+		}
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@After
+	public void after() {
+		if (pm2 != null) {
+			if (pm2.currentTransaction().isActive()) {
+				pm2.currentTransaction().rollback();
+			}
+			pm2.close();
+			pm2 = null;
+		}
+		TestTools.closePM();
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		TestTools.removeDb();
+	}
+
+	private static PersistenceManager openSnapshotPM() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().setIsolationLevel(Constants.TX_SNAPSHOT);
+		pm.currentTransaction().begin();
+		return pm;
+	}
+
+	private static int count(PersistenceManager pm) {
+		int n = 0;
+		for (Object o: pm.getExtent(TestClass.class)) {
+			assertTrue(o instanceof TestClass);
+			n++;
+		}
+		return n;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static TestClass find(PersistenceManager pm, int i) {
+		Collection<TestClass> c = (Collection<TestClass>) pm.newQuery(
+				TestClass.class, "_int == " + i).execute();
+		assertTrue(c.size() <= 1);
+		return c.isEmpty() ? null : c.iterator().next();
+	}
+
+	/**
+	 * Modify the database in a separate session:
+	 * - modify object 0 (_long = -1)
+	 * - delete object 1
+	 * - add object N
+	 * @return The OID of the deleted object
+	 */
+	private Object modify() {
+		if (pm2 == null) {
+			pm2 = ZooJdoHelper.openDB(TestTools.getDbName());
+		}
+		pm2.currentTransaction().begin();
+		find(pm2, 0).setLong(-1);
+		TestClass t1 = find(pm2, 1);
+		Object oid1 = pm2.getObjectId(t1);
+		pm2.deletePersistent(t1);
+		TestClass tN = new TestClass();
+		tN.setInt(N);
+		pm2.makePersistent(tN);
+		pm2.currentTransaction().commit();
+		return oid1;
+	}
+
+	@Test
+	public void testIsolationLevel() {
+		PersistenceManager pm = TestTools.openPM();
+		assertEquals(Constants.TX_READ_COMMITTED, pm.currentTransaction().getIsolationLevel());
+		pm.currentTransaction().setIsolationLevel(Constants.TX_SNAPSHOT);
+		assertEquals(Constants.TX_SNAPSHOT, pm.currentTransaction().getIsolationLevel());
+		try {
+			pm.currentTransaction().setIsolationLevel(Constants.TX_SERIALIZABLE);
+			fail();
+		} catch (JDOUnsupportedOptionException e) {
+			//good
+		}
+		assertEquals(Constants.TX_SNAPSHOT, pm.currentTransaction().getIsolationLevel());
+
+		pm.currentTransaction().begin();
+		try {
+			pm.currentTransaction().setIsolationLevel(Constants.TX_READ_COMMITTED);
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		pm.currentTransaction().rollback();
+		pm.currentTransaction().setIsolationLevel(Constants.TX_READ_COMMITTED);
+		assertEquals(Constants.TX_READ_COMMITTED, pm.currentTransaction().getIsolationLevel());
+	}
+
+	/**
+	 * The snapshot should not see changes that are committed after it began. Since the snapshot
+	 * holds no lock, the other session can commit in the same thread.
+	 */
+	@Test
+	public void testSnapshotIsStable() {
+		PersistenceManager pm = openSnapshotPM();
+		assertEquals(N, count(pm));
+
+		Object oid1 = modify();
+
+		pm.evictAll();
+		assertEquals(N, count(pm));
+		assertEquals(0, find(pm, 0).getLong());
+		assertEquals(1, find(pm, 1).getLong());
+		assertNull(find(pm, N));
+		assertEquals(1, ((TestClass) pm.getObjectById(oid1)).getInt());
+
+		//the next transaction should see the changes
+		pm.currentTransaction().rollback();
+		pm.currentTransaction().begin();
+		pm.evictAll();
+		assertEquals(N, count(pm));
+		assertEquals(-1, find(pm, 0).getLong());
+		assertNull(find(pm, 1));
+		assertEquals(N, find(pm, N).getInt());
+		try {
+			pm.getObjectById(oid1);
+			fail();
+		} catch (JDOObjectNotFoundException e) {
+			//good
+		}
+		pm.currentTransaction().rollback();
+	}
+
+	/**
+	 * Pages that are freed by other sessions must not be reused while the snapshot is open.
+	 */
+	@Test
+	public void testFreedPagesAreNotReused() {
+		PersistenceManager pm = openSnapshotPM();
+
+		pm2 = ZooJdoHelper.openDB(TestTools.getDbName());
+		for (int r = 0; r < 5; r++) {
+			pm2.currentTransaction().begin();
+			for (Object o: pm2.getExtent(TestClass.class)) {
+				TestClass t = (TestClass) o;
+				t.setLong(-t.getInt() - 1000);
+				t.setString("Some text to fill pages " + r);
+			}
+			pm2.currentTransaction().commit();
+		}
+
+		pm.evictAll();
+		int n = 0;
+		for (Object o: pm.getExtent(TestClass.class)) {
+			TestClass t = (TestClass) o;
+			assertEquals(t.getInt(), t.getLong());
+			assertNull(t.getString());
+			n++;
+		}
+		assertEquals(N, n);
+		pm.currentTransaction().rollback();
+	}
+
+	/**
+	 * A writer in another thread must be able to commit while the snapshot transaction is
+	 * active. With (shared) read locks, this would block until the reader finishes.
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testWriterIsNotBlocked() throws InterruptedException {
+		PersistenceManager pm = openSnapshotPM();
+		assertEquals(N, count(pm));
+
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					modify();
+				} catch (Throwable t) {
+					error.set(t);
+				}
+			}
+		};
+		writer.start();
+		writer.join(30000);
+		assertFalse("Writer is blocked by snapshot transaction", writer.isAlive());
+		assertNull(error.get());
+		assertTrue(pm.currentTransaction().isActive());
+
+		pm.evictAll();
+		assertEquals(0, find(pm, 0).getLong());
+		pm.currentTransaction().rollback();
+	}
+
+	@Test
+	public void testCommitFromSnapshot() {
+		PersistenceManager pm = openSnapshotPM();
+		TestClass t5 = find(pm, 5);
+		t5.setLong(55);
+		modify();
+		pm.currentTransaction().commit();
+
+		pm.currentTransaction().begin();
+		pm.evictAll();
+		assertEquals(55, find(pm, 5).getLong());
+		assertEquals(-1, find(pm, 0).getLong());
+		assertEquals(N, count(pm));
+		pm.currentTransaction().rollback();
+	}
+
+	@Test
+	public void testCommitConflict() {
+		PersistenceManager pm = openSnapshotPM();
+		TestClass t0 = find(pm, 0);
+		t0.setLong(42);
+		//modifies object 0 as well
+		modify();
+		try {
+			pm.currentTransaction().commit();
+			fail();
+		} catch (JDOOptimisticVerificationException e) {
+			//good, the transaction is rolled back
+		}
+		assertFalse(pm.currentTransaction().isActive());
+
+		pm.currentTransaction().begin();
+		pm.evictAll();
+		assertEquals(-1, find(pm, 0).getLong());
+		pm.currentTransaction().rollback();
+	}
+}
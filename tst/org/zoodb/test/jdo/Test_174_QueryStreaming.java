@@ -0,0 +1,214 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Tests for lazily evaluated query results, i.e. queries with a range that do not load
+ * all matching objects.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class Test_174_QueryStreaming {
+
+	private static final int N = 10000;
+
+	@BeforeClass
+	public static void setUp() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+		TestTools.defineIndex(TestClass.class, "_int", false);
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		for (int i = 0; i < N; i++) {
+			TestClass tc = new TestClass();
+			tc.setInt(i);
+			pm.makePersistent(tc);
+		}
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@After
+	public void afterTest() {
+		TestTools.closePM();
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		TestTools.removeDb();
+	}
+
+	private static int countManaged(PersistenceManager pm) {
+		return pm.getManagedObjects().size();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testRangeLoadsFewObjects() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		Query q = pm.newQuery(TestClass.class, "_int >= 100 range 5, 10");
+		Collection<TestClass> c = (Collection<TestClass>) q.execute();
+		int i = 105;
+		for (TestClass tc: c) {
+			assertEquals(i++, tc.getInt());
+		}
+		assertEquals(110, i);
+		assertTrue("" + countManaged(pm), countManaged(pm) < 100);
+
+		c = (Collection<TestClass>) q.execute();
+		assertFalse(c.isEmpty());
+		assertEquals(5, c.size());
+		assertTrue("" + countManaged(pm), countManaged(pm) < 100);
+
+		q.closeAll();
+		TestTools.closePM();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testIterateTwice() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		Query q = pm.newQuery(TestClass.class, "_int >= 100 range 0, 10");
+		Collection<TestClass> c = (Collection<TestClass>) q.execute();
+		assertFalse(c.isEmpty());
+		Iterator<TestClass> it1 = c.iterator();
+		assertEquals(100, it1.next().getInt());
+		assertEquals(101, it1.next().getInt());
+		//a second iterator returns the same objects without evaluating the query again
+		Iterator<TestClass> it2 = c.iterator();
+		TestClass first = it2.next();
+		assertEquals(100, first.getInt());
+		assertTrue(first == c.iterator().next());
+		for (int i = 101; i < 105; i++) {
+			assertEquals(i, it2.next().getInt());
+		}
+		for (int i = 102; i < 110; i++) {
+			assertEquals(i, it1.next().getInt());
+		}
+		assertFalse(it1.hasNext());
+		for (int i = 105; i < 110; i++) {
+			assertEquals(i, it2.next().getInt());
+		}
+		assertFalse(it2.hasNext());
+		assertTrue("" + countManaged(pm), countManaged(pm) < 100);
+
+		q.closeAll();
+		TestTools.closePM();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testReExecuteWithParameters() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		Query q = pm.newQuery(TestClass.class, "_int >= :min range :a, :b");
+		Collection<TestClass> c1 = (Collection<TestClass>) q.execute(200, 0, 3);
+		Collection<TestClass> c2 = (Collection<TestClass>) q.execute(500, 1, 3);
+
+		//c1 must not be affected by the new parameters
+		int i = 200;
+		for (TestClass tc: c1) {
+			assertEquals(i++, tc.getInt());
+		}
+		assertEquals(203, i);
+		i = 501;
+		for (TestClass tc: c2) {
+			assertEquals(i++, tc.getInt());
+		}
+		assertEquals(503, i);
+
+		//modifying the query must not affect c3
+		Collection<TestClass> c3 = (Collection<TestClass>) q.execute(700, 1, 3);
+		q.setFilter("_int >= 0");
+		assertEquals(2, c3.size());
+		assertEquals(701, c3.iterator().next().getInt());
+
+		TestTools.closePM();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testModificationsAreVisible() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		TestClass tc = new TestClass();
+		tc.setInt(-5);
+		pm.makePersistent(tc);
+
+		Query q = pm.newQuery(TestClass.class, "_int < 0 range 0, 10");
+		Collection<TestClass> c = (Collection<TestClass>) q.execute();
+		assertEquals(1, c.size());
+		assertTrue(c.iterator().next() == tc);
+
+		pm.currentTransaction().rollback();
+		TestTools.closePM();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testClose() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		Query q = pm.newQuery(TestClass.class, "_int >= 100 range 0, 1000");
+		Collection<TestClass> c = (Collection<TestClass>) q.execute();
+		Iterator<TestClass> it = c.iterator();
+		assertTrue(it.hasNext());
+		it.next();
+		q.close(c);
+		assertFalse(c.iterator().hasNext());
+
+		//iterators are also closed at the end of the transaction
+		c = (Collection<TestClass>) q.execute();
+		it = c.iterator();
+		assertTrue(it.hasNext());
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		assertFalse(it.hasNext());
+
+		pm.currentTransaction().rollback();
+		TestTools.closePM();
+	}
+}
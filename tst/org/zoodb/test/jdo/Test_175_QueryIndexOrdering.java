@@ -0,0 +1,199 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.tools.DBStatistics;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Tests for queries that use an index to return ordered results instead of sorting them.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class Test_175_QueryIndexOrdering {
+
+	private static final int N = 10000;
+
+	@BeforeClass
+	public static void setUp() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+		TestTools.defineIndex(TestClass.class, "_int", false);
+		TestTools.defineIndex(TestClass.class, "_double", false);
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		for (int i = 0; i < N; i++) {
+			TestClass tc = new TestClass();
+			//insert in 'random' order
+			int x = (i * 7919) % N;
+			tc.setInt(x);
+			tc.setLong(x % 10);
+			tc.setDouble(5000.5 - x);
+			pm.makePersistent(tc);
+		}
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@After
+	public void afterTest() {
+		TestTools.closePM();
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		TestTools.removeDb();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Collection<TestClass> run(PersistenceManager pm, String filter,
+			String ordering) {
+		Query q = pm.newQuery(TestClass.class, filter);
+		q.setOrdering(ordering);
+		return (Collection<TestClass>) q.execute();
+	}
+
+	@Test
+	public void testAscending() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		int i = 0;
+		for (TestClass tc: run(pm, "", "_int ascending")) {
+			assertEquals(i++, tc.getInt());
+		}
+		assertEquals(N, i);
+
+		i = 100;
+		for (TestClass tc: run(pm, "_int >= 100 && _int < 200", "_int ascending")) {
+			assertEquals(i++, tc.getInt());
+		}
+		assertEquals(200, i);
+
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testDescending() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		int i = N;
+		for (TestClass tc: run(pm, "", "_int descending")) {
+			assertEquals(--i, tc.getInt());
+		}
+		assertEquals(0, i);
+
+		i = 200;
+		for (TestClass tc: run(pm, "_int >= 100 && _int < 200", "_int descending")) {
+			assertEquals(--i, tc.getInt());
+		}
+		assertEquals(100, i);
+
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testDouble() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		double prev = Double.NEGATIVE_INFINITY;
+		int n = 0;
+		for (TestClass tc: run(pm, "_long == 3", "_double ascending")) {
+			assertTrue(prev < tc.getDouble());
+			assertEquals(3, tc.getLong());
+			prev = tc.getDouble();
+			n++;
+		}
+		assertEquals(N / 10, n);
+
+		TestTools.closePM();
+	}
+
+	/**
+	 * Top-N queries should only load the required objects.
+	 */
+	@Test
+	public void testTopN() {
+		DBStatistics.enable(true);
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		DBStatistics stats = ZooJdoHelper.getStatistics(pm);
+		long nQEWOWI = stats.getQueryExecutionWithOrderingWithoutIndexCount();
+
+		int i = N;
+		for (TestClass tc: run(pm, "_long == 5 range 0, 10", "_int descending")) {
+			i--;
+			while (i % 10 != 5) {
+				i--;
+			}
+			assertEquals(i, tc.getInt());
+		}
+		assertEquals(N - 95, i);
+		assertTrue("" + pm.getManagedObjects().size(), pm.getManagedObjects().size() < 1000);
+		assertEquals(nQEWOWI, stats.getQueryExecutionWithOrderingWithoutIndexCount());
+
+		TestTools.closePM();
+		DBStatistics.enable(false);
+	}
+
+	/**
+	 * Modified objects are not yet in the index, so the results have to be sorted.
+	 */
+	@Test
+	public void testDirtyObjects() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		TestClass tcNew = new TestClass();
+		tcNew.setInt(-5);
+		pm.makePersistent(tcNew);
+		TestClass tcMod = run(pm, "_int == 50", null).iterator().next();
+		tcMod.setInt(-3);
+
+		Collection<TestClass> c = run(pm, "_int < 100 range 0, 5", "_int ascending");
+		int[] expected = {-5, -3, 0, 1, 2};
+		int i = 0;
+		for (TestClass tc: c) {
+			assertEquals(expected[i++], tc.getInt());
+		}
+		assertEquals(5, i);
+
+		pm.currentTransaction().rollback();
+		TestTools.closePM();
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collection;
+
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Query;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.schema.ZooClass;
+import org.zoodb.tools.DBStatistics;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Tests for the cache of parsed queries.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class Test_176_QueryCache {
+
+	private static final int N = 100;
+
+	private PersistenceManager pm2;
+
+	@BeforeClass
+	public static void setUp() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+		TestTools.defineIndex(TestClass.class, "_int", false);
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		for (int i = 0; i < N; i++) {
+			TestClass tc = new TestClass();
+			tc.setInt(i);
+			tc.setLong(i % 10);
+			pm.makePersistent(tc);
+		}
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@Before
+	public void before() {
+		DBStatistics.enable(true);
+	}
+
+	@After
+	public void afterTest() {
+		if (pm2 != null) {
+			if (pm2.currentTransaction().isActive()) {
+				pm2.currentTransaction().rollback();
+			}
+			pm2.close();
+			pm2 = null;
+		}
+		TestTools.closePM();
+		DBStatistics.enable(false);
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		TestTools.removeDb();
+	}
+
+	private static long hits(PersistenceManager pm) {
+		return ZooJdoHelper.getStatistics(pm).getQueryCompileCacheHitCount();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static int count(PersistenceManager pm, int min, long l) {
+		Query q = pm.newQuery(TestClass.class, "_int >= :min && _long == :l");
+		Collection<TestClass> c = (Collection<TestClass>) q.execute(min, l);
+		int n = 0;
+		for (TestClass tc: c) {
+			assertEquals(l, tc.getLong());
+			n++;
+		}
+		return n;
+	}
+
+	@Test
+	public void testHitInSameSession() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		long h0 = hits(pm);
+
+		assertEquals(10, count(pm, 0, 3));
+		assertEquals(h0, hits(pm));
+		assertEquals(5, count(pm, 50, 3));
+		assertEquals(h0 + 1, hits(pm));
+		assertEquals(1, count(pm, 90, 7));
+		assertEquals(h0 + 2, hits(pm));
+
+		TestTools.closePM();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testParametersAreIndependent() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		Query q1 = pm.newQuery(TestClass.class, "_int < :max");
+		Query q2 = pm.newQuery(TestClass.class, "_int < :max");
+		q1.compile();
+		q2.compile();
+		Collection<TestClass> c1 = (Collection<TestClass>) q1.execute(10);
+		Collection<TestClass> c2 = (Collection<TestClass>) q2.execute(20);
+		assertEquals(10, c1.size());
+		assertEquals(20, c2.size());
+		c1 = (Collection<TestClass>) q1.execute(30);
+		assertEquals(30, c1.size());
+
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testHitInOtherSession() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		assertEquals(10, count(pm, 0, 3));
+
+		pm2 = pm.getPersistenceManagerFactory().getPersistenceManager();
+		pm2.currentTransaction().begin();
+		long h0 = hits(pm2);
+		assertEquals(9, count(pm2, 10, 4));
+		assertEquals(h0 + 1, hits(pm2));
+
+		//the cached query must not depend on the first session
+		pm.currentTransaction().rollback();
+		pm.close();
+		assertEquals(2, count(pm2, 80, 5));
+		assertEquals(h0 + 2, hits(pm2));
+	}
+
+	@Test
+	public void testSchemaChange() {
+		PersistenceManager pm = TestTools.openPM();
+		PersistenceManagerFactory pmf = pm.getPersistenceManagerFactory();
+		pm.currentTransaction().begin();
+		assertEquals(10, count(pm, 0, 3));
+		long h0 = hits(pm);
+		pm.currentTransaction().commit();
+
+		//uncommitted schema changes bypass the cache
+		pm.currentTransaction().begin();
+		ZooJdoHelper.schema(pm).defineEmptyClass("org.zoodb.test.Dummy176a");
+		assertEquals(10, count(pm, 0, 3));
+		assertEquals(h0, hits(pm));
+		pm.currentTransaction().rollback();
+		pm.close();
+
+		//queries on evolved classes are not reused
+		pm2 = pmf.getPersistenceManager();
+		pm2.currentTransaction().begin();
+		ZooClass cls = ZooJdoHelper.schema(pm2).getClass(TestClass.class);
+		cls.addField("_dummy", Integer.TYPE);
+		cls.getField("_dummy").remove();
+		pm2.currentTransaction().commit();
+		pm2.close();
+
+		pm2 = pmf.getPersistenceManager();
+		pm2.currentTransaction().begin();
+		h0 = hits(pm2);
+		assertEquals(10, count(pm2, 0, 3));
+		assertEquals(h0, hits(pm2));
+		assertEquals(10, count(pm2, 0, 3));
+		assertEquals(h0 + 1, hits(pm2));
+		pm2.currentTransaction().rollback();
+		pm2.close();
+		pm2 = null;
+		pmf.close();
+	}
+}
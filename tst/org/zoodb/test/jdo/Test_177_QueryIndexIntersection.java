@@ -0,0 +1,151 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.HashSet;
+
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Tests for queries that combine multiple indices on the level of OIDs, i.e. before 
+ * objects are loaded.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class Test_177_QueryIndexIntersection {
+
+	private static final int N = 10000;
+
+	@BeforeClass
+	public static void setUp() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+		TestTools.defineIndex(TestClass.class, "_int", false);
+		TestTools.defineIndex(TestClass.class, "_long", false);
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		for (int i = 0; i < N; i++) {
+			TestClass tc = new TestClass();
+			tc.setInt(i);
+			tc.setLong(i % 100);
+			pm.makePersistent(tc);
+		}
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@After
+	public void afterTest() {
+		TestTools.closePM();
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		TestTools.removeDb();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Collection<TestClass> run(PersistenceManager pm, String filter) {
+		Query q = pm.newQuery(TestClass.class, filter);
+		return (Collection<TestClass>) q.execute();
+	}
+
+	@Test
+	public void testIntersection() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		int nManaged = pm.getManagedObjects().size();
+		int n = 0;
+		for (TestClass tc: run(pm, "_int >= 1000 && _int < 6000 && _long == 7")) {
+			assertEquals(7, tc.getLong());
+			assertTrue(tc.getInt() >= 1000 && tc.getInt() < 6000);
+			n++;
+		}
+		assertEquals(50, n);
+		//only matching objects should have been loaded
+		assertEquals(nManaged + 50, pm.getManagedObjects().size());
+
+		assertEquals(0, run(pm, "_int >= 1000 && _int < 1005 && _long == 7").size());
+		assertEquals(1, run(pm, "_int > 1000 && _int <= 1007 && _long >= 7").size());
+
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testUnion() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		int nManaged = pm.getManagedObjects().size();
+		HashSet<Integer> ints = new HashSet<>();
+		for (TestClass tc: run(pm, "_int < 100 || _long == 7")) {
+			assertTrue(tc.getInt() < 100 || tc.getLong() == 7);
+			assertTrue(ints.add(tc.getInt()));
+		}
+		//_int == 7 matches both sub-queries
+		assertEquals(199, ints.size());
+		assertEquals(nManaged + 199, pm.getManagedObjects().size());
+
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testDirtyObjects() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		//now matching, but not in the _int index
+		run(pm, "_int == 907").iterator().next().setInt(1500);
+		//not matching anymore
+		run(pm, "_int == 1507").iterator().next().setLong(8);
+		//new object
+		TestClass tcNew = new TestClass();
+		tcNew.setInt(1001);
+		tcNew.setLong(7);
+		pm.makePersistent(tcNew);
+
+		HashSet<Integer> ints = new HashSet<>();
+		for (TestClass tc: run(pm, "_int >= 1000 && _int < 6000 && _long == 7")) {
+			assertEquals(7, tc.getLong());
+			assertTrue(ints.add(tc.getInt()));
+		}
+		assertTrue(ints.contains(1500));
+		assertTrue(ints.contains(1001));
+		assertEquals(51, ints.size());
+
+		pm.currentTransaction().rollback();
+		TestTools.closePM();
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Tests for aggregations that are evaluated on indices, without loading objects.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class Test_178_QueryAggregateIndex {
+
+	private static final int N = 1000;
+
+	@BeforeClass
+	public static void setUp() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class, TestClassTiny.class, TestClassTiny2.class);
+		TestTools.defineIndex(TestClass.class, "_int", false);
+		TestTools.defineIndex(TestClass.class, "_long", false);
+		TestTools.defineIndex(TestClass.class, "_double", false);
+		TestTools.defineIndex(TestClassTiny.class, "_int", false);
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		for (int i = 0; i < N; i++) {
+			TestClass tc = new TestClass();
+			tc.setInt(i - 500);
+			tc.setLong(i * 3);
+			tc.setDouble(i * 0.5 - 100);
+			pm.makePersistent(tc);
+		}
+		for (int i = 0; i < 10; i++) {
+			TestClassTiny t = new TestClassTiny();
+			t.setInt(i);
+			pm.makePersistent(t);
+		}
+		for (int i = 0; i < 5; i++) {
+			TestClassTiny2 t = new TestClassTiny2();
+			t.setInt(100 + i);
+			pm.makePersistent(t);
+		}
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@After
+	public void afterTest() {
+		TestTools.closePM();
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		TestTools.removeDb();
+	}
+
+	@Test
+	public void testAggregation() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		int nManaged = pm.getManagedObjects().size();
+
+		Query q = pm.newQuery(TestClass.class);
+		q.setResult("count(_int), min(_int), max(_int), sum(_long), avg(_double), max(_double)");
+		Object[] r = (Object[]) q.execute();
+		assertEquals(1000L, r[0]);
+		assertEquals(-500, r[1]);
+		assertEquals(499, r[2]);
+		assertEquals(3L * 499500, r[3]);
+		assertEquals(149.75, r[4]);
+		assertEquals(399.5, r[5]);
+		//no objects should have been loaded
+		assertEquals(nManaged, pm.getManagedObjects().size());
+
+		q = pm.newQuery(TestClass.class);
+		q.setResult("min(_double)");
+		assertEquals(-100.0, q.execute());
+		assertEquals(nManaged, pm.getManagedObjects().size());
+
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testDirtyObjects() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		TestClass tc = new TestClass();
+		tc.setInt(1000);
+		pm.makePersistent(tc);
+
+		Query q = pm.newQuery(TestClass.class);
+		q.setResult("count(_int), max(_int)");
+		Object[] r = (Object[]) q.execute();
+		assertEquals(1001L, r[0]);
+		assertEquals(1000, r[1]);
+
+		pm.currentTransaction().rollback();
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testSubClasses() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		Query q = pm.newQuery(TestClassTiny.class);
+		q.setResult("count(_int), max(_int)");
+		Object[] r = (Object[]) q.execute();
+		assertEquals(15L, r[0]);
+		assertEquals(104, r[1]);
+
+		q = pm.newQuery(pm.getExtent(TestClassTiny.class, false));
+		q.setResult("count(_int), max(_int)");
+		r = (Object[]) q.execute();
+		assertEquals(10L, r[0]);
+		assertEquals(9, r[1]);
+
+		q = pm.newQuery(TestClassTiny2.class);
+		q.setResult("count(_int), max(_int)");
+		r = (Object[]) q.execute();
+		assertEquals(5L, r[0]);
+		assertEquals(104, r[1]);
+
+		TestTools.closePM();
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.jdo.spi.PersistenceCapableImpl;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Tests for queries without index that are evaluated on the stored objects before the
+ * objects are loaded.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class Test_179_QueryFilterSerialized {
+
+	private static final int N = 10000;
+	private static final int N_SUB = 100;
+	private static final int N_DATE = 100;
+
+	@BeforeClass
+	public static void setUp() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class, TestQueryClass.class, TestDateClass.class);
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		TestClass root = new TestClass();
+		root.setInt(-1);
+		pm.makePersistent(root);
+		for (int i = 0; i < N; i++) {
+			TestClass tc = new TestClass();
+			tc.setInt(i);
+			tc.setLong(i % 100);
+			tc.setDouble(i * 0.5);
+			tc.setString(i % 10 == 0 ? null : "str" + i);
+			if (i < 10) {
+				tc.setRef2(root);
+			}
+			pm.makePersistent(tc);
+		}
+		for (int i = 0; i < N_SUB; i++) {
+			TestQueryClass tc = new TestQueryClass();
+			tc.setInt(N + i);
+			tc.setString("sub" + i);
+			pm.makePersistent(tc);
+		}
+		for (int i = 0; i < N_DATE; i++) {
+			pm.makePersistent(new TestDateClass(i % 10 == 0 ? null : new Date(i * 1000L)));
+		}
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@After
+	public void afterTest() {
+		TestTools.closePM();
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		TestTools.removeDb();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Collection<T> run(PersistenceManager pm, Class<T> cls, String filter,
+			Object ... params) {
+		Query q = pm.newQuery(cls, filter);
+		return (Collection<T>) q.executeWithArray(params);
+	}
+
+	/**
+	 * Check the result size and that only matching objects were loaded.
+	 * @param nExpected Expected number of results
+	 * @param nLoaded Expected number of newly managed objects, including referenced objects
+	 */
+	private static <T> Collection<T> check(PersistenceManager pm, int nExpected, int nLoaded, 
+			Class<T> cls, String filter, Object ... params) {
+		int nManaged = pm.getManagedObjects().size();
+		Collection<T> c = run(pm, cls, filter, params);
+		assertEquals(filter, nExpected, c.size());
+		assertEquals(filter, nManaged + nLoaded, pm.getManagedObjects().size());
+		return c;
+	}
+
+	@Test
+	public void testPrimitives() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		for (TestClass tc: check(pm, 1, 1, TestClass.class, "_int == 5000")) {
+			assertEquals(5000, tc.getInt());
+		}
+		check(pm, 19, 19, TestClass.class, "_double > 4990.0");
+		//_int == 7 references the root object
+		check(pm, 10, 11, TestClass.class, "_long == 7 && _int < 1000");
+		check(pm, 3, 3, TestClass.class, "_int == 3 || _int == 4 || _double == 2.5");
+		check(pm, 1, 1, TestClass.class, "_int == :i", 42);
+
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testStrings() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		for (TestClass tc: check(pm, 1, 1, TestClass.class, "_string == 'str777'")) {
+			assertEquals("str777", tc.getString());
+		}
+		check(pm, 1, 1, TestClass.class, "_string == :s", "str4242");
+		//includes the root object
+		check(pm, N/10 + 1, N/10 + 1, TestClass.class, "_string == null");
+		check(pm, 9, 9, TestClass.class, "_string != null && _int < 10");
+		check(pm, 1, 1, TestClass.class, "_string == 'sub5'");
+		//String ranges can not be evaluated on stored objects, but the result must be correct
+		assertEquals(100, run(pm, TestClass.class, "_string.startsWith('str99')").size());
+
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testReferences() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		TestClass root = run(pm, TestClass.class, "_int == -1").iterator().next();
+		for (TestClass tc: check(pm, 10, 10, TestClass.class, "_ref2 == :r", root)) {
+			assertTrue(tc.getInt() < 10);
+		}
+		assertEquals(10, run(pm, TestClass.class, "_ref2 != null").size());
+		assertEquals(N + N_SUB + 1 - 10, run(pm, TestClass.class, "_ref2 == null").size());
+
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testDates() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		check(pm, 10, 10, TestDateClass.class, "_date == null");
+		for (TestDateClass tc: check(pm, 1, 1, TestDateClass.class, "_date == :d",
+				new Date(55000L))) {
+			assertEquals(55000L, tc.getDate().getTime());
+		}
+		assertEquals(N_DATE - 10, run(pm, TestDateClass.class, "_date != null").size());
+
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testSubClasses() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		check(pm, 1, 1, TestQueryClass.class, "_int == :i", N + 5);
+		for (TestClass tc: check(pm, N_SUB, N_SUB - 1, TestClass.class, "_int >= :i", N)) {
+			assertTrue(tc instanceof TestQueryClass);
+		}
+
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testDirtyObjects() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		//now matching
+		run(pm, TestClass.class, "_int == 1234").iterator().next().setLong(555);
+		//not matching anymore
+		TestClass tc1 = run(pm, TestClass.class, "_int == 1235").iterator().next();
+		tc1.setLong(555);
+		tc1.setInt(-2);
+		//new object
+		TestClass tcNew = new TestClass();
+		tcNew.setInt(1236);
+		tcNew.setLong(555);
+		pm.makePersistent(tcNew);
+
+		HashSet<Integer> ints = new HashSet<>();
+		for (TestClass tc: run(pm, TestClass.class, "_long == 555 && _int > 0")) {
+			assertEquals(555, tc.getLong());
+			assertTrue(ints.add(tc.getInt()));
+		}
+		assertEquals(2, ints.size());
+		assertTrue(ints.contains(1234));
+		assertTrue(ints.contains(1236));
+
+		pm.currentTransaction().rollback();
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testIgnoreCache() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		Query q = pm.newQuery(TestClass.class, "_int == 4321");
+		q.setIgnoreCache(true);
+		Collection<?> c = (Collection<?>) q.execute();
+		assertEquals(1, c.size());
+		assertNull(((TestClass) c.iterator().next()).getRef2());
+
+		TestTools.closePM();
+	}
+}
+
+class TestDateClass extends PersistenceCapableImpl {
+
+	private Date _date;
+
+	@SuppressWarnings("unused")
+	private TestDateClass() {
+		//for ZooDB
+	}
+
+	TestDateClass(Date date) {
+		_date = date;
+	}
+
+	Date getDate() {
+		zooActivateRead();
+		return _date;
+	}
+}
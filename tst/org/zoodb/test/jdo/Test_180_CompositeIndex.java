@@ -0,0 +1,327 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Random;
+
+import javax.jdo.JDOUserException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zoodb.internal.server.index.BitTools;
+import org.zoodb.internal.server.index.CompositeKeyEncoder;
+import org.zoodb.internal.server.index.SchemaIndex.FTYPE;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.schema.ZooClass;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Tests for indices over multiple fields.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class Test_180_CompositeIndex {
+
+	private static final int N = 10000;
+
+	@Before
+	public void before() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		for (int i = 0; i < N; i++) {
+			TestClass tc = new TestClass();
+			tc.setInt(i);
+			tc.setLong(i % 100);
+			tc.setString("s" + (i % 10));
+			tc.setShort((short) (i % 7));
+			pm.makePersistent(tc);
+		}
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@After
+	public void after() {
+		TestTools.closePM();
+		TestTools.removeDb();
+	}
+
+	private static void createIndex(String ... fieldNames) {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooJdoHelper.schema(pm).getClass(TestClass.class).createCompositeIndex(fieldNames);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Collection<TestClass> run(PersistenceManager pm, String filter) {
+		Query q = pm.newQuery(TestClass.class, filter);
+		return (Collection<TestClass>) q.execute();
+	}
+
+	@Test
+	public void testSchemaApi() {
+		createIndex("_long", "_int");
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooClass c = ZooJdoHelper.schema(pm).getClass(TestClass.class);
+		assertTrue(c.hasCompositeIndex("_long", "_int"));
+		assertFalse(c.hasCompositeIndex("_int", "_long"));
+		assertFalse(c.hasIndex("_long"));
+
+		try {
+			c.createCompositeIndex("_long", "_int");
+			fail();
+		} catch (JDOUserException e) {
+			//good, already exists
+		}
+		try {
+			c.createCompositeIndex("_long");
+			fail();
+		} catch (JDOUserException e) {
+			//good, too few fields
+		}
+		try {
+			c.createCompositeIndex("_long", "_long");
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		try {
+			c.createCompositeIndex("_long", "_bool");
+			fail();
+		} catch (JDOUserException e) {
+			//good, boolean is not indexable
+			assertTrue(e.getMessage(), e.getMessage().contains("_bool"));
+		}
+
+		assertFalse(c.removeCompositeIndex("_int", "_long"));
+		assertTrue(c.removeCompositeIndex("_long", "_int"));
+		assertFalse(c.hasCompositeIndex("_long", "_int"));
+		pm.currentTransaction().rollback();
+
+		//rollback restores the index
+		pm.currentTransaction().begin();
+		assertTrue(c.hasCompositeIndex("_long", "_int"));
+		assertTrue(c.removeCompositeIndex("_long", "_int"));
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		c = ZooJdoHelper.schema(pm).getClass(TestClass.class);
+		assertFalse(c.hasCompositeIndex("_long", "_int"));
+		assertEquals(50, run(pm, "_long == 7 && _int >= 1000 && _int < 6000").size());
+		pm.currentTransaction().commit();
+	}
+
+	@Test
+	public void testEqualityAndRange() {
+		createIndex("_long", "_int");
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		assertTrue(ZooJdoHelper.schema(pm).getClass(TestClass.class).hasCompositeIndex(
+				"_long", "_int"));
+
+		int nManaged = pm.getManagedObjects().size();
+		int n = 0;
+		for (TestClass tc: run(pm, "_long == 7 && _int >= 1000 && _int < 6000")) {
+			assertEquals(7, tc.getLong());
+			assertTrue(tc.getInt() >= 1000 && tc.getInt() < 6000);
+			n++;
+		}
+		assertEquals(50, n);
+		//only matching objects should have been loaded
+		assertEquals(nManaged + 50, pm.getManagedObjects().size());
+
+		//equality on both fields
+		Collection<TestClass> c = run(pm, "_int == 1007 && _long == 7");
+		assertEquals(1, c.size());
+		assertEquals(1007, c.iterator().next().getInt());
+		assertEquals(0, run(pm, "_int == 1008 && _long == 7").size());
+
+		//prefix only
+		assertEquals(100, run(pm, "_long == 42").size());
+		assertEquals(300, run(pm, "_long >= 97").size());
+
+		//not usable, but still correct
+		assertEquals(1, run(pm, "_int == 5").size());
+
+		pm.currentTransaction().commit();
+	}
+
+	@Test
+	public void testStringField() {
+		createIndex("_string", "_short");
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		int n = 0;
+		for (TestClass tc: run(pm, "_string == 's3' && _short > 4")) {
+			assertEquals("s3", tc.getString());
+			assertTrue(tc.getShort() > 4);
+			n++;
+		}
+		int n2 = 0;
+		for (int i = 0; i < N; i++) {
+			if (i % 10 == 3 && i % 7 > 4) {
+				n2++;
+			}
+		}
+		assertEquals(n2, n);
+		assertEquals(N / 10, run(pm, "_string == 's3'").size());
+		assertEquals(0, run(pm, "_string == 's' && _short == 1").size());
+		pm.currentTransaction().commit();
+	}
+
+	@Test
+	public void testUpdateAndDelete() {
+		createIndex("_long", "_int");
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		//modify
+		run(pm, "_long == 7 && _int == 1007").iterator().next().setLong(8);
+		run(pm, "_long == 9 && _int == 1009").iterator().next().setLong(7);
+		//delete
+		pm.deletePersistent(run(pm, "_long == 7 && _int == 1107").iterator().next());
+		//new
+		TestClass tcNew = new TestClass();
+		tcNew.setInt(1001);
+		tcNew.setLong(7);
+		pm.makePersistent(tcNew);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		HashSet<Integer> ints = new HashSet<>();
+		for (TestClass tc: run(pm, "_long == 7 && _int >= 1000 && _int < 6000")) {
+			assertEquals(7, tc.getLong());
+			assertTrue(ints.add(tc.getInt()));
+		}
+		assertTrue(ints.contains(1009));
+		assertTrue(ints.contains(1001));
+		assertFalse(ints.contains(1007));
+		assertFalse(ints.contains(1107));
+		assertEquals(50, ints.size());
+		assertEquals(1, run(pm, "_long == 8 && _int == 1007").size());
+
+		//new objects are indexed as well
+		TestClass tcNew2 = new TestClass();
+		tcNew2.setInt(-5);
+		tcNew2.setLong(-3);
+		pm.makePersistent(tcNew2);
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		int nManaged = pm.getManagedObjects().size();
+		assertEquals(1, run(pm, "_long == -3 && _int < 0").size());
+		assertEquals(nManaged, pm.getManagedObjects().size());
+		pm.currentTransaction().commit();
+	}
+
+	@Test
+	public void testKeyOrder() {
+		FTYPE[][] types = {
+				{FTYPE.LONG, FTYPE.INT},
+				{FTYPE.INT, FTYPE.SHORT, FTYPE.CHAR},
+				{FTYPE.DOUBLE, FTYPE.STRING, FTYPE.LONG},
+				{FTYPE.LONG, FTYPE.LONG, FTYPE.LONG, FTYPE.LONG,
+					FTYPE.BYTE, FTYPE.LONG, FTYPE.LONG, FTYPE.LONG}};
+		Random r = new Random(0);
+		for (FTYPE[] t: types) {
+			CompositeKeyEncoder enc = new CompositeKeyEncoder(t);
+			for (int i = 0; i < 10000; i++) {
+				long[] k1 = randomKeys(t, r);
+				long[] k2 = randomKeys(t, r);
+				if (r.nextBoolean()) {
+					//same prefix
+					System.arraycopy(k1, 0, k2, 0, r.nextInt(t.length));
+				}
+				//each field preserves the order, but may map different keys to the same code
+				long[] f1 = new long[t.length];
+				long[] f2 = new long[t.length];
+				for (int j = 0; j < t.length; j++) {
+					f1[j] = enc.encodeField(j, k1[j]);
+					f2[j] = enc.encodeField(j, k2[j]);
+					int cmp = Long.compare(k1[j], k2[j]);
+					if (cmp < 0) {
+						assertTrue(Long.compareUnsigned(f1[j], f2[j]) <= 0);
+					} else if (cmp > 0) {
+						assertTrue(Long.compareUnsigned(f1[j], f2[j]) >= 0);
+					} else {
+						assertEquals(f1[j], f2[j]);
+					}
+				}
+				//the composite keys are ordered by the codes of the first field, then
+				//the second field, ...
+				int cmp = compareUnsigned(f1, f2);
+				long c1 = enc.encode(k1);
+				long c2 = enc.encode(k2);
+				assertEquals(cmp, Long.compare(c1, c2));
+			}
+		}
+	}
+
+	private static long[] randomKeys(FTYPE[] types, Random r) {
+		long[] ret = new long[types.length];
+		for (int i = 0; i < types.length; i++) {
+			switch (types[i]) {
+			case BYTE: ret[i] = (byte) r.nextInt(); break;
+			case CHAR: ret[i] = (char) r.nextInt(); break;
+			case SHORT: ret[i] = (short) r.nextInt(); break;
+			case INT: ret[i] = r.nextInt(); break;
+			case DOUBLE: ret[i] = BitTools.toSortableLong(r.nextGaussian() * 1000); break;
+			case STRING: ret[i] = BitTools.toSortableLong("x" + r.nextInt(1000)); break;
+			default:
+				//small and large values
+				ret[i] = r.nextBoolean() ? r.nextInt(200) - 100 : r.nextLong();
+			}
+		}
+		return ret;
+	}
+
+	private static int compareUnsigned(long[] k1, long[] k2) {
+		for (int i = 0; i < k1.length; i++) {
+			if (k1[i] != k2[i]) {
+				return Long.compareUnsigned(k1[i], k2[i]) < 0 ? -1 : 1;
+			}
+		}
+		return 0;
+	}
+}
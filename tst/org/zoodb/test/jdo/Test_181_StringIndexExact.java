@@ -0,0 +1,351 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jdo.JDOUserException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.schema.ZooHandle;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Tests for String indices that store the full keys. Unlike the hashed String indices,
+ * these indices return only matching objects, even if many Strings share a long prefix.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class Test_181_StringIndexExact {
+
+	private static final int N = 2000;
+	//Much longer than the 6 characters of the hashed keys
+	private static final String PREFIX = "http://www.zoodb.org/objects/";
+	//Longer than the maximum key length of the index
+	private static final String LONG;
+	static {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			sb.append((char)('a' + i % 26));
+		}
+		LONG = sb.toString();
+	}
+
+	@Before
+	public void before() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+	}
+
+	@After
+	public void after() {
+		TestTools.closePM();
+		TestTools.removeDb();
+	}
+
+	private static String key(int i) {
+		return PREFIX + String.format("%05d", i);
+	}
+
+	private static void populate(boolean createIndexFirst, boolean isUnique) {
+		if (createIndexFirst) {
+			createIndex(isUnique);
+		}
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		for (int i = 0; i < N; i++) {
+			TestClass tc = new TestClass();
+			tc.setInt(i);
+			tc.setString(key(i));
+			pm.makePersistent(tc);
+		}
+		for (int i = 0; i < 10; i++) {
+			TestClass tc = new TestClass();
+			tc.setInt(-i-1);
+			tc.setString(LONG + i);
+			pm.makePersistent(tc);
+		}
+		TestClass tcNull = new TestClass();
+		tcNull.setInt(-100);
+		pm.makePersistent(tcNull);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+		if (!createIndexFirst) {
+			createIndex(isUnique);
+		}
+	}
+
+	private static void createIndex(boolean isUnique) {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooJdoHelper.schema(pm).getClass(TestClass.class).createIndex("_string", isUnique);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Collection<TestClass> run(PersistenceManager pm, String filter) {
+		Query q = pm.newQuery(TestClass.class, filter);
+		return (Collection<TestClass>) q.execute();
+	}
+
+	/**
+	 * Run a query and check that no other objects were loaded than those returned.
+	 */
+	private static int runExact(PersistenceManager pm, String filter) {
+		Set<Object> managed = new HashSet<Object>(pm.getManagedObjects());
+		Collection<TestClass> c = run(pm, filter);
+		for (Object o: pm.getManagedObjects()) {
+			assertTrue(filter, managed.contains(o) || c.contains(o));
+		}
+		return c.size();
+	}
+
+	@Test
+	public void testQueriesIndexFirst() {
+		populate(true, false);
+		checkQueries();
+	}
+
+	@Test
+	public void testQueriesIndexLater() {
+		populate(false, false);
+		checkQueries();
+	}
+
+	@Test
+	public void testQueriesUnique() {
+		populate(true, true);
+		checkQueries();
+	}
+
+	private void checkQueries() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		assertEquals(1, runExact(pm, "_string == '" + key(1234) + "'"));
+		assertEquals(0, runExact(pm, "_string == '" + PREFIX + "'"));
+		assertEquals(100, runExact(pm,
+				"_string >= '" + key(100) + "' && _string < '" + key(200) + "'"));
+		assertEquals(99, runExact(pm,
+				"_string > '" + key(100) + "' && _string < '" + key(200) + "'"));
+		assertEquals(101, runExact(pm,
+				"_string >= '" + key(100) + "' && _string <= '" + key(200) + "'"));
+		assertEquals(10, runExact(pm, "_string.startsWith('" + PREFIX + "0001')"));
+		//'.' is a regex character, so only the leading part can be used with the index
+		assertEquals(1, run(pm, "_string.matches('" + key(17) + "')").size());
+		assertEquals(1, runExact(pm, "_string == null"));
+		assertEquals(2, runExact(pm,
+				"_string == '" + key(5) + "' || _string == '" + key(1999) + "'"));
+		//overlapping ranges
+		assertEquals(150, runExact(pm,
+				"(_string >= '" + key(100) + "' && _string < '" + key(200) + "') || " +
+				"(_string >= '" + key(150) + "' && _string < '" + key(250) + "')"));
+
+		//Strings that are too long for the index are checked when loading the objects
+		assertEquals(1, run(pm, "_string == '" + LONG + "3'").size());
+		assertEquals(0, run(pm, "_string == '" + LONG + "'").size());
+		assertEquals(10, run(pm, "_string.startsWith('" + LONG + "')").size());
+		assertEquals(N + 10, run(pm, "_string > '" + LONG + "'").size());
+		assertEquals(1, run(pm, "_string < '" + LONG + "'").size());
+		assertEquals(2, run(pm, "_string <= '" + LONG + "0'").size());
+		pm.currentTransaction().commit();
+	}
+
+	@Test
+	public void testUpdateAndDelete() {
+		populate(true, false);
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		run(pm, "_string == '" + key(10) + "'").iterator().next().setString(PREFIX + "x");
+		pm.deletePersistent(run(pm, "_string == '" + key(11) + "'").iterator().next());
+		run(pm, "_string == '" + LONG + "1'").iterator().next().setString(key(11));
+		pm.deletePersistent(run(pm, "_string == '" + LONG + "2'").iterator().next());
+		run(pm, "_string == null").iterator().next().setString(LONG + "2");
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		assertEquals(0, runExact(pm, "_string == '" + key(10) + "'"));
+		assertEquals(1, runExact(pm, "_string == '" + PREFIX + "x'"));
+		Collection<TestClass> c = run(pm, "_string == '" + key(11) + "'");
+		assertEquals(1, c.size());
+		assertEquals(-2, c.iterator().next().getInt());
+		assertEquals(0, runExact(pm, "_string == null"));
+		c = run(pm, "_string == '" + LONG + "2'");
+		assertEquals(1, c.size());
+		assertEquals(-100, c.iterator().next().getInt());
+		assertEquals(9, run(pm, "_string.startsWith('" + LONG + "')").size());
+		assertEquals(N, runExact(pm, "_string.startsWith('" + PREFIX + "')"));
+		pm.currentTransaction().commit();
+	}
+
+	@Test
+	public void testDeleteHollowGeneric() {
+		populate(true, false);
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		Object oid = pm.getObjectId(run(pm, "_string == '" + key(7) + "'").iterator().next());
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooHandle h = ZooJdoHelper.schema(pm).getHandle((Long) oid);
+		assertEquals(7, h.getAttrInt("_int"));
+		pm.currentTransaction().commit();
+		//the generic object is now hollow
+		pm.currentTransaction().begin();
+		h.remove();
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		assertEquals(0, runExact(pm, "_string == '" + key(7) + "'"));
+		assertEquals(N - 1, runExact(pm, "_string.startsWith('" + PREFIX + "')"));
+		pm.currentTransaction().commit();
+	}
+
+	/**
+	 * Create the index for many existing objects, the index is built bottom-up.
+	 */
+	@Test
+	public void testBulkLoad() {
+		final int n = 50000;
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		for (int i = 0; i < n; i++) {
+			TestClass tc = new TestClass();
+			tc.setInt(i);
+			//not in key order
+			tc.setString(key((i * 7919) % n));
+			pm.makePersistent(tc);
+		}
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+		createIndex(true);
+
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		for (int i = 0; i < n; i += 997) {
+			assertEquals(1, runExact(pm, "_string == '" + key(i) + "'"));
+		}
+		assertEquals(100, runExact(pm, 
+				"_string >= '" + key(20000) + "' && _string < '" + key(20100) + "'"));
+		assertEquals(n, run(pm, "_string.startsWith('" + PREFIX + "')").size());
+		//modify the index
+		for (TestClass tc: run(pm, "_string.startsWith('" + PREFIX + "0')")) {
+			pm.deletePersistent(tc);
+		}
+		TestClass tc = new TestClass();
+		tc.setString(PREFIX + "x");
+		pm.makePersistent(tc);
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		assertEquals(0, runExact(pm, "_string == '" + key(5) + "'"));
+		assertEquals(1, runExact(pm, "_string == '" + key(45000) + "'"));
+		assertEquals(1, runExact(pm, "_string == '" + PREFIX + "x'"));
+		assertEquals(n - 10000 + 1, run(pm, "_string.startsWith('" + PREFIX + "')").size());
+		pm.currentTransaction().commit();
+	}
+
+	@Test
+	public void testUniqueClash() {
+		populate(true, true);
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		//Same hashed key prefix, but different Strings
+		TestClass tc = new TestClass();
+		tc.setString(key(1234) + "x");
+		pm.makePersistent(tc);
+		pm.currentTransaction().commit();
+
+		pm.currentTransaction().begin();
+		tc = new TestClass();
+		tc.setString(key(1234));
+		pm.makePersistent(tc);
+		try {
+			pm.currentTransaction().commit();
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+
+		pm.currentTransaction().begin();
+		tc = new TestClass();
+		tc.setString(LONG + "5");
+		pm.makePersistent(tc);
+		try {
+			pm.currentTransaction().commit();
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+
+		//long Strings with the same indexed prefix are fine
+		pm.currentTransaction().begin();
+		tc = new TestClass();
+		tc.setString(LONG + "55");
+		pm.makePersistent(tc);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		assertEquals(1, runExact(pm, "_string == '" + key(1234) + "'"));
+		assertEquals(1, runExact(pm, "_string == '" + key(1234) + "x'"));
+		assertEquals(11, run(pm, "_string.startsWith('" + LONG + "')").size());
+		pm.currentTransaction().commit();
+	}
+
+	@Test
+	public void testRemoveIndex() {
+		populate(true, false);
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooJdoHelper.schema(pm).getClass(TestClass.class).removeIndex("_string");
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		assertTrue(!ZooJdoHelper.schema(pm).getClass(TestClass.class).hasIndex("_string"));
+		Collection<TestClass> c = run(pm, "_string == '" + key(7) + "'");
+		assertEquals(1, c.size());
+		assertNull(run(pm, "_string == null").iterator().next().getString());
+		pm.currentTransaction().commit();
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import javax.jdo.JDOHelper;
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.ObjectState;
+import javax.jdo.PersistenceManager;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.api.DBArrayList;
+import org.zoodb.internal.Session;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.jdo.impl.PersistenceManagerImpl;
+import org.zoodb.test.testutil.TestTools;
+import org.zoodb.tools.DBStatistics;
+import org.zoodb.tools.ZooConfig;
+
+/**
+ * Tests for loading multiple objects at once.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class Test_182_GetObjectsById {
+
+	private static final int N = 5000;
+	private final ArrayList<Object> oids = new ArrayList<Object>();
+
+	@BeforeClass
+	public static void beforeClass() {
+		DBStatistics.enable(true);
+		//count every page access, not only the misses of the page cache
+		ZooConfig.setFilePageCacheSize(0);
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		DBStatistics.enable(false);
+		ZooConfig.setFilePageCacheSize(ZooConfig.FILE_PAGE_CACHE_SIZE_DEFAULT);
+	}
+
+	@Before
+	public void before() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		DBArrayList<TestClass> list = new DBArrayList<TestClass>();
+		for (int i = 0; i < N; i++) {
+			TestClass tc = new TestClass();
+			tc.setInt(i);
+			pm.makePersistent(tc);
+			list.add(tc);
+			oids.add(pm.getObjectId(tc));
+		}
+		TestClass root = new TestClass();
+		root.setInt(-1);
+		root.setRef1(list);
+		pm.makePersistent(root);
+		oids.add(pm.getObjectId(root));
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@After
+	public void after() {
+		TestTools.closePM();
+		TestTools.removeDb();
+	}
+
+	private static long pageReads(PersistenceManager pm) {
+		return ZooJdoHelper.getStatistics(pm).getStoragePageReadCount();
+	}
+
+	@Test
+	public void testGetObjectsById() {
+		List<Object> shuffled = new ArrayList<Object>(oids.subList(0, N));
+		Collections.shuffle(shuffled, new Random(0));
+
+		//one by one
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		long r0 = pageReads(pm);
+		for (Object oid: shuffled) {
+			pm.getObjectById(oid);
+		}
+		long nSingle = pageReads(pm) - r0;
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		//batch
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		r0 = pageReads(pm);
+		Collection<?> c = pm.getObjectsById(shuffled);
+		long nBatch = pageReads(pm) - r0;
+		assertEquals(N, c.size());
+		Iterator<?> it = c.iterator();
+		for (Object oid: shuffled) {
+			Object o = it.next();
+			assertEquals(oid, pm.getObjectId(o));
+			assertEquals(ObjectState.PERSISTENT_CLEAN, JDOHelper.getObjectState(o));
+		}
+		assertTrue("batch=" + nBatch + " single=" + nSingle, nBatch * 2 < nSingle);
+
+		//cached and hollow objects
+		Object[] a = pm.getObjectsById(shuffled.get(0), shuffled.get(1));
+		assertSame(c.iterator().next(), a[0]);
+		pm.evictAll();
+		assertEquals(ObjectState.HOLLOW_PERSISTENT_NONTRANSACTIONAL,
+				JDOHelper.getObjectState(a[1]));
+		Object[] a2 = pm.getObjectsById(shuffled.get(1), shuffled.get(0));
+		assertSame(a[1], a2[0]);
+		assertSame(a[0], a2[1]);
+		assertEquals(ObjectState.PERSISTENT_CLEAN, JDOHelper.getObjectState(a2[0]));
+		assertEquals(((TestClass) a2[0]).getInt(), ((TestClass) a[1]).getInt());
+		pm.currentTransaction().commit();
+	}
+
+	@Test
+	public void testNotFound() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		try {
+			pm.getObjectsById(oids.get(0), Long.valueOf(123456789L), oids.get(1));
+			fail();
+		} catch (JDOObjectNotFoundException e) {
+			//good
+		}
+		assertEquals(0, pm.getObjectsById(Collections.emptyList()).size());
+
+		//the session returns null for unknown OIDs
+		Session s = ((PersistenceManagerImpl) pm).getSession();
+		Object[] a = s.getObjectsById(oids.subList(0, 2));
+		Object[] a2 = s.getObjectsById(Arrays.asList(oids.get(0), 123456789L, oids.get(1)));
+		assertSame(a[0], a2[0]);
+		assertNull(a2[1]);
+		assertSame(a[1], a2[2]);
+		pm.currentTransaction().commit();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testRetrieveAll() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		TestClass root = (TestClass) pm.getObjectById(oids.get(N));
+		DBArrayList<TestClass> list = (DBArrayList<TestClass>) root.getRef1();
+		assertEquals(N, list.size());
+		for (TestClass tc: list) {
+			assertEquals(ObjectState.HOLLOW_PERSISTENT_NONTRANSACTIONAL,
+					JDOHelper.getObjectState(tc));
+		}
+		pm.retrieveAll(list);
+		for (int i = 0; i < N; i++) {
+			TestClass tc = list.get(i);
+			assertEquals(ObjectState.PERSISTENT_CLEAN, JDOHelper.getObjectState(tc));
+			assertEquals(i, tc.getInt());
+		}
+		//non-hollow and transient objects are ignored
+		pm.retrieveAll(list.get(0), new TestClass());
+		pm.retrieve(root);
+		pm.currentTransaction().commit();
+	}
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collection;
+
+import javax.jdo.FetchGroup;
+import javax.jdo.FetchPlan;
+import javax.jdo.JDOHelper;
+import javax.jdo.JDOUserException;
+import javax.jdo.ObjectState;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Query;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zoodb.api.DBArrayList;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Tests for fetch plans and fetch groups.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class Test_183_FetchPlan {
+
+	private static final int N = 1000;
+	private Object oidRoot;
+
+	@Before
+	public void before() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+
+		//root -ref2-> c1 -ref2-> c2
+		//root -ref1-> list -> N elements
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		DBArrayList<TestClass> list = new DBArrayList<TestClass>();
+		for (int i = 0; i < N; i++) {
+			TestClass tc = new TestClass();
+			tc.setInt(i);
+			list.add(tc);
+		}
+		TestClass c2 = new TestClass();
+		TestClass c1 = new TestClass();
+		c1.setRef2(c2);
+		TestClass root = new TestClass();
+		root.setInt(-1);
+		root.setRef1(list);
+		root.setRef2(c1);
+		pm.makePersistent(root);
+		oidRoot = pm.getObjectId(root);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@After
+	public void after() {
+		TestTools.closePM();
+		TestTools.removeDb();
+	}
+
+	private static boolean isHollow(Object o) {
+		return JDOHelper.getObjectState(o) == ObjectState.HOLLOW_PERSISTENT_NONTRANSACTIONAL;
+	}
+
+	/**
+	 * Returns the references without activating the objects.
+	 */
+	private static TestClass[] getChain(TestClass root) {
+		//JDOHelper.getObjectState() does not activate objects
+		TestClass c1 = root.getRef2();
+		TestClass c2 = null;
+		if (!isHollow(c1)) {
+			c2 = c1.getRef2();
+		}
+		return new TestClass[]{c1, c2};
+	}
+
+	@Test
+	public void testDefaultPlan() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		FetchPlan fp = pm.getFetchPlan();
+		assertEquals(1, fp.getGroups().size());
+		assertTrue(fp.getGroups().contains(FetchPlan.DEFAULT));
+		assertEquals(1, fp.getMaxFetchDepth());
+
+		TestClass root = (TestClass) pm.getObjectById(oidRoot);
+		assertTrue(isHollow(getChain(root)[0]));
+		assertTrue(isHollow(root.getRef1()));
+		pm.currentTransaction().commit();
+	}
+
+	@Test
+	public void testFetchGroupAll() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.getFetchPlan().addGroup(FetchPlan.ALL);
+		pm.currentTransaction().begin();
+
+		TestClass root = (TestClass) pm.getObjectById(oidRoot);
+		TestClass[] chain = getChain(root);
+		assertFalse(isHollow(chain[0]));
+		assertTrue(isHollow(chain[1]));
+		DBArrayList<?> list = (DBArrayList<?>) root.getRef1();
+		assertFalse(isHollow(list));
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		pm = TestTools.openPM();
+		pm.getFetchPlan().setGroup(FetchPlan.ALL).setMaxFetchDepth(2);
+		pm.currentTransaction().begin();
+		root = (TestClass) pm.getObjectById(oidRoot);
+		chain = getChain(root);
+		assertFalse(isHollow(chain[0]));
+		assertFalse(isHollow(chain[1]));
+		list = (DBArrayList<?>) root.getRef1();
+		assertEquals(N, list.size());
+		for (Object o: list) {
+			assertFalse(isHollow(o));
+		}
+		pm.currentTransaction().commit();
+	}
+
+	@Test
+	public void testActivation() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.getFetchPlan().setGroup(FetchPlan.ALL).setMaxFetchDepth(1);
+		pm.currentTransaction().begin();
+		Query q = pm.newQuery(TestClass.class, "_int == -1");
+		q.getFetchPlan().setGroup(FetchPlan.DEFAULT);
+		Collection<?> c = (Collection<?>) q.execute();
+		TestClass root = (TestClass) c.iterator().next();
+		TestClass c1 = root.getRef2();
+		assertTrue(isHollow(c1));
+		pm.evict(root);
+		assertTrue(isHollow(root));
+
+		//activation loads references
+		root.getInt();
+		assertFalse(isHollow(c1));
+		DBArrayList<?> list = (DBArrayList<?>) root.getRef1();
+		assertFalse(isHollow(list));
+		assertTrue(isHollow(list.get(0)));
+		pm.currentTransaction().commit();
+	}
+
+	@Test
+	public void testPmFetchGroup() {
+		PersistenceManager pm = TestTools.openPM();
+		FetchGroup fg = pm.getFetchGroup(TestClass.class, "refs");
+		assertFalse(fg.isUnmodifiable());
+		fg.addMember("_ref2");
+		assertEquals(fg, pm.getFetchGroup(TestClass.class, "refs"));
+		try {
+			fg.addMember("_notAField");
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		//unlimited depth
+		pm.getFetchPlan().setGroup("refs").setMaxFetchDepth(-1);
+		pm.currentTransaction().begin();
+		TestClass root = (TestClass) pm.getObjectById(oidRoot);
+		TestClass[] chain = getChain(root);
+		assertFalse(isHollow(chain[0]));
+		assertFalse(isHollow(chain[1]));
+		assertTrue(isHollow(root.getRef1()));
+
+		//modifying the group affects the plan
+		pm.evictAll();
+		fg.removeMember("_ref2");
+		fg.addMember("_ref1");
+		root = (TestClass) pm.getObjectById(oidRoot);
+		assertTrue(isHollow(root.getRef2()));
+		DBArrayList<?> list = (DBArrayList<?>) root.getRef1();
+		assertFalse(isHollow(list));
+		assertFalse(isHollow(list.get(N - 1)));
+		pm.currentTransaction().commit();
+	}
+
+	@Test
+	public void testCategories() {
+		PersistenceManager pm = TestTools.openPM();
+		FetchGroup fg = pm.getFetchGroup(TestClass.class, "cat");
+		assertTrue(fg.getMembers().isEmpty());
+		fg.addCategory(FetchGroup.MULTIVALUED);
+		assertTrue(fg.getMembers().contains("_bArray"));
+		assertFalse(fg.getMembers().contains("_ref2"));
+		fg.addCategory(FetchGroup.RELATIONSHIP);
+		assertTrue(fg.getMembers().contains("_ref1"));
+		assertTrue(fg.getMembers().contains("_ref2"));
+		assertFalse(fg.getMembers().contains("_int"));
+		assertFalse(fg.getMembers().contains("_transInt"));
+		fg.removeCategory(FetchGroup.RELATIONSHIP);
+		assertTrue(fg.getMembers().isEmpty());
+
+		FetchGroup fgAll = pm.getFetchGroup(TestClass.class, FetchGroup.ALL);
+		assertTrue(fgAll.getMembers().contains("_int"));
+		assertTrue(fgAll.getMembers().contains("_ref2"));
+		FetchGroup fgDefault = pm.getFetchGroup(TestClass.class, FetchGroup.DEFAULT);
+		assertTrue(fgDefault.getMembers().contains("_int"));
+		assertFalse(fgDefault.getMembers().contains("_ref2"));
+	}
+
+	@Test
+	public void testPmfFetchGroup() {
+		PersistenceManager pm = TestTools.openPM();
+		PersistenceManagerFactory pmf = pm.getPersistenceManagerFactory();
+		FetchGroup fg = pmf.getFetchGroup(TestClass.class, "refs");
+		fg.addMember("_ref2");
+		pmf.addFetchGroups(fg);
+		assertTrue(fg.isUnmodifiable());
+		assertEquals(1, pmf.getFetchGroups().size());
+		try {
+			fg.addMember("_ref1");
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+
+		pm.getFetchPlan().addGroup("refs");
+		pm.currentTransaction().begin();
+		TestClass root = (TestClass) pm.getObjectById(oidRoot);
+		assertFalse(isHollow(root.getRef2()));
+		assertTrue(isHollow(root.getRef1()));
+
+		//PM fetch groups are initialized from the PMF
+		FetchGroup fgPm = pm.getFetchGroup(TestClass.class, "refs");
+		assertFalse(fgPm.isUnmodifiable());
+		assertEquals(fg.getMembers(), fgPm.getMembers());
+		pm.currentTransaction().commit();
+
+		pmf.removeAllFetchGroups();
+		assertEquals(0, pmf.getFetchGroups().size());
+	}
+
+	@Test
+	public void testQueryFetchPlan() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		Query q = pm.newQuery(TestClass.class, "_int == -1");
+		q.getFetchPlan().addGroup(FetchPlan.ALL);
+		assertFalse(pm.getFetchPlan().getGroups().contains(FetchPlan.ALL));
+		Collection<?> c = (Collection<?>) q.execute();
+		TestClass root = (TestClass) c.iterator().next();
+		assertFalse(isHollow(root.getRef2()));
+		pm.currentTransaction().commit();
+	}
+
+	@Test
+	public void testPlanSettings() {
+		PersistenceManager pm = TestTools.openPM();
+		FetchPlan fp = pm.getFetchPlan();
+		try {
+			fp.setMaxFetchDepth(0);
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		fp.setFetchSize(FetchPlan.FETCH_SIZE_GREEDY);
+		assertEquals(FetchPlan.FETCH_SIZE_GREEDY, fp.getFetchSize());
+		fp.setGroups("a", "b");
+		assertEquals(2, fp.getGroups().size());
+		fp.clearGroups();
+		assertEquals(0, fp.getGroups().size());
+		fp.setDetachmentOptions(FetchPlan.DETACH_UNLOAD_FIELDS);
+		assertEquals(FetchPlan.DETACH_UNLOAD_FIELDS, fp.getDetachmentOptions());
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Iterator;
+
+import javax.jdo.JDOHelper;
+import javax.jdo.JDOUserException;
+import javax.jdo.PersistenceManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.schema.ZooClass;
+import org.zoodb.schema.ZooHandle;
+import org.zoodb.schema.ZooSchema;
+import org.zoodb.test.testutil.TestTools;
+import org.zoodb.tools.DBStatistics;
+
+/**
+ * Tests for the background migration of objects with outdated schema versions.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class Test_184_SchemaMigration {
+
+	private static final int N = 1000;
+
+	@Before
+	public void before() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooJdoHelper.schema(pm).addClass(TestClassTiny.class);
+		for (int i = 0; i < N; i++) {
+			pm.makePersistent(new TestClassTiny(i, 2L * i));
+		}
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@After
+	public void after() {
+		TestTools.closePM();
+		TestTools.removeDb();
+	}
+
+	private static void addField() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooClass c = ZooJdoHelper.schema(pm).getClass(TestClassTiny.class.getName());
+		c.addField("_int2", Integer.TYPE);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	private static void waitForMigration(ZooSchema schema) throws InterruptedException {
+		long t0 = System.currentTimeMillis();
+		while (schema.isMigrationRunning()) {
+			assertTrue("timeout", System.currentTimeMillis() - t0 < 60000);
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void testMigration() throws InterruptedException {
+		addField();
+
+		PersistenceManager pm = TestTools.openPM();
+		ZooSchema schema = ZooJdoHelper.schema(pm);
+		DBStatistics stats = ZooJdoHelper.getStatistics(pm);
+		pm.currentTransaction().begin();
+		ZooClass c = schema.getClass(TestClassTiny.class.getName());
+		assertEquals(N, schema.getOutdatedInstanceCount(c));
+		assertEquals(N, stats.getOutdatedSchemaObjectCount());
+		pm.currentTransaction().commit();
+
+		schema.startMigration(100, 1);
+		waitForMigration(schema);
+		assertEquals(N, stats.getSchemaMigrationCount());
+
+		pm.currentTransaction().begin();
+		c = schema.getClass(TestClassTiny.class.getName());
+		assertEquals(0, schema.getOutdatedInstanceCount(c));
+		assertEquals(0, stats.getOutdatedSchemaObjectCount());
+		assertEquals(N, c.instanceCount(false));
+		int n = 0;
+		Iterator<ZooHandle> it = c.getHandleIterator(false);
+		while (it.hasNext()) {
+			ZooHandle h = it.next();
+			int i = h.getAttrInt("_int");
+			assertEquals(2L * i, h.getAttrLong("_long"));
+			assertEquals(0, h.getAttrInt("_int2"));
+			n++;
+		}
+		assertEquals(N, n);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		//nothing left to do
+		pm = TestTools.openPM();
+		schema = ZooJdoHelper.schema(pm);
+		schema.startMigration(100, 1);
+		waitForMigration(schema);
+		assertEquals(0, ZooJdoHelper.getStatistics(pm).getSchemaMigrationCount());
+	}
+
+	@Test
+	public void testMigrationAndLoad() throws InterruptedException {
+		addField();
+		//revert the schema to match the Java class, this results in a third version
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooClass c = ZooJdoHelper.schema(pm).getClass(TestClassTiny.class.getName());
+		c.removeField("_int2");
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		pm = TestTools.openPM();
+		ZooSchema schema = ZooJdoHelper.schema(pm);
+		schema.startMigration(10, 0);
+		waitForMigration(schema);
+
+		pm.currentTransaction().begin();
+		assertEquals(0, ZooJdoHelper.getStatistics(pm).getOutdatedSchemaObjectCount());
+		int n = 0;
+		for (Object o: pm.getExtent(TestClassTiny.class)) {
+			TestClassTiny t = (TestClassTiny) o;
+			assertEquals(2L * t.getInt(), t.getLong());
+			assertFalse(JDOHelper.isDirty(t));
+			n++;
+		}
+		assertEquals(N, n);
+		pm.currentTransaction().commit();
+	}
+
+	@Test
+	public void testStop() throws InterruptedException {
+		addField();
+
+		PersistenceManager pm = TestTools.openPM();
+		ZooSchema schema = ZooJdoHelper.schema(pm);
+		schema.startMigration(10, 60000);
+		try {
+			schema.startMigration(10, 0);
+			fail();
+		} catch (JDOUserException e) {
+			//good, already running
+		}
+		schema.stopMigration();
+		waitForMigration(schema);
+		long nMigrated = ZooJdoHelper.getStatistics(pm).getSchemaMigrationCount();
+		assertTrue(nMigrated <= 10);
+
+		pm.currentTransaction().begin();
+		ZooClass c = schema.getClass(TestClassTiny.class.getName());
+		assertEquals(N - nMigrated, schema.getOutdatedInstanceCount(c));
+		assertEquals(N, c.instanceCount(false));
+		pm.currentTransaction().commit();
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.test.testutil.TestTools;
+import org.zoodb.tools.ZooConfig;
+
+/**
+ * Runs the tests of {@link Test_179_QueryFilterSerialized} with parallel evaluation of
+ * queries on the stored objects.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class Test_185_QueryParallelScan extends Test_179_QueryFilterSerialized {
+
+	@BeforeClass
+	public static void setUpParallel() {
+		ZooConfig.setQueryParallelism(8);
+	}
+
+	@AfterClass
+	public static void tearDownParallel() {
+		ZooConfig.setQueryParallelism(ZooConfig.QUERY_PARALLELISM_DISABLED);
+	}
+
+	private static ArrayList<Integer> ints(PersistenceManager pm, String filter) {
+		Query q = pm.newQuery(TestClass.class, filter);
+		ArrayList<Integer> ret = new ArrayList<>();
+		for (Object o: (Collection<?>) q.execute()) {
+			ret.add(((TestClass) o).getInt());
+		}
+		q.closeAll();
+		return ret;
+	}
+
+	@Test
+	public void testSameResultAsSequential() {
+		String[] filters = {"_long == 7", "_int >= 100 && _int < 9000", "_double < 10.0",
+				"_long < 50 || _int == 9999"};
+		for (String filter: filters) {
+			ZooConfig.setQueryParallelism(ZooConfig.QUERY_PARALLELISM_DISABLED);
+			PersistenceManager pm = TestTools.openPM();
+			pm.currentTransaction().begin();
+			ArrayList<Integer> expected = ints(pm, filter);
+			pm.currentTransaction().rollback();
+			TestTools.closePM();
+
+			ZooConfig.setQueryParallelism(8);
+			pm = TestTools.openPM();
+			pm.currentTransaction().begin();
+			//same objects in the same order
+			assertEquals(filter, expected, ints(pm, filter));
+			pm.currentTransaction().rollback();
+			TestTools.closePM();
+		}
+	}
+}
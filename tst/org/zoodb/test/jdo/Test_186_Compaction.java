@@ -0,0 +1,212 @@
+/*
+ * Copyright 2009-2016 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Random;
+
+import javax.jdo.JDOHelper;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.test.testutil.TestTools;
+import org.zoodb.tools.DBStatistics;
+import org.zoodb.tools.ZooCompactDb;
+
+/**
+ * Tests for compaction and reclustering of databases.
+ *
+ * @author Tilmann Zaeschke
+ */
+public class Test_186_Compaction {
+
+	private static final int N = 10000;
+
+	@Before
+	public void before() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+		TestTools.defineIndex(TestClass.class, "_int", true);
+		TestTools.defineIndex(TestClass.class, "_string", false);
+		TestTools.defineIndex(TestClass.class, "_long", false);
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ArrayList<TestClass> list = new ArrayList<>();
+		for (int i = 0; i < N; i++) {
+			TestClass tc = new TestClass();
+			tc.setData(i, false, 'c', (byte)1, (short)2, N - i, "str" + i, new byte[]{1,2},
+					3f, 4.0);
+			pm.makePersistent(tc);
+			list.add(tc);
+		}
+		pm.currentTransaction().commit();
+
+		//delete most objects, this leaves only few objects on every page
+		pm.currentTransaction().begin();
+		for (int i = 0; i < N; i++) {
+			if (i % 10 != 0) {
+				pm.deletePersistent(list.get(i));
+			}
+		}
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@After
+	public void after() {
+		TestTools.closePM();
+		TestTools.removeDb();
+	}
+
+	private static void checkDb() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		int n = 0;
+		for (Object o: pm.getExtent(TestClass.class)) {
+			TestClass tc = (TestClass) o;
+			assertEquals(0, tc.getInt() % 10);
+			assertEquals(N - tc.getInt(), tc.getLong());
+			assertEquals("str" + tc.getInt(), tc.getString());
+			n++;
+		}
+		assertEquals(N / 10, n);
+
+		//indices
+		assertEquals(1, count(pm, "_int == 5000"));
+		assertEquals(0, count(pm, "_int == 5001"));
+		assertEquals(100, count(pm, "_int >= 1000 && _int < 2000"));
+		assertEquals(1, count(pm, "_string == 'str7770'"));
+		assertEquals(0, count(pm, "_string == 'str7771'"));
+		assertEquals(10, count(pm, "_long > 9900"));
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	private static int count(PersistenceManager pm, String filter) {
+		Query q = pm.newQuery(TestClass.class, filter);
+		int n = ((Collection<?>) q.execute()).size();
+		q.closeAll();
+		return n;
+	}
+
+	@Test
+	public void testCompaction() {
+		ZooCompactDb c = new ZooCompactDb(TestTools.getDbName());
+		c.run();
+		assertEquals(N / 10, c.getRewrittenObjectCount());
+		assertTrue(c.getPageCountBefore() + " -> " + c.getPageCountAfter(),
+				c.getPageCountAfter() < c.getPageCountBefore() / 2);
+		assertTrue(c.getFreePageCountAfter() < c.getFreePageCountBefore());
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		DBStatistics stats = ZooJdoHelper.getStatistics(pm);
+		assertEquals(c.getPageCountAfter(), stats.getStoragePageCount());
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		checkDb();
+
+		//the database is still usable
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		TestClass tc = new TestClass();
+		tc.setData(N + 1, false, 'c', (byte)1, (short)2, -1, "x", null, 3f, 4.0);
+		pm.makePersistent(tc);
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		assertEquals(1, count(pm, "_int == " + (N + 1)));
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testClustering() {
+		ArrayList<Long> oids = new ArrayList<>();
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		for (Object o: pm.getExtent(TestClass.class)) {
+			if (((TestClass) o).getInt() < 500) {
+				oids.add((Long) JDOHelper.getObjectId(o));
+			}
+		}
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+		Collections.shuffle(oids, new Random(0));
+		long[] order = new long[oids.size() + 1];
+		for (int i = 0; i < oids.size(); i++) {
+			order[i] = oids.get(i);
+		}
+		//does not exist
+		order[oids.size()] = Long.MAX_VALUE;
+
+		ZooCompactDb c = new ZooCompactDb(TestTools.getDbName());
+		c.clusterBy(TestClass.class.getName(), "_long");
+		c.setObjectOrder(order);
+		c.setBatchSize(100);
+		c.run();
+		assertEquals(N / 10, c.getRewrittenObjectCount());
+		assertTrue(c.getPageCountAfter() < c.getPageCountBefore());
+
+		//The extent returns objects in the order of their position in the database file:
+		//first the given objects in the given order, then all others by ascending '_long'
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		int n = 0;
+		long prevLong = Long.MIN_VALUE;
+		for (Object o: pm.getExtent(TestClass.class)) {
+			TestClass tc = (TestClass) o;
+			if (n < oids.size()) {
+				assertEquals(oids.get(n), JDOHelper.getObjectId(tc));
+			} else {
+				assertTrue(tc.getInt() >= 500);
+				assertTrue(prevLong + " < " + tc.getLong(), prevLong < tc.getLong());
+				prevLong = tc.getLong();
+			}
+			n++;
+		}
+		assertEquals(N / 10, n);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		checkDb();
+	}
+
+	@Test
+	public void testCompactTwice() {
+		new ZooCompactDb(TestTools.getDbName()).run();
+		ZooCompactDb c = new ZooCompactDb(TestTools.getDbName());
+		c.run();
+		assertTrue(c.getPageCountAfter() <= c.getPageCountBefore());
+		checkDb();
+	}
+}